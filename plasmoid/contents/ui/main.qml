@@ -30,6 +30,7 @@ Item {
             'IDLE': 'LightGreen',
             'FAILURE': 'Salmon',
             'BLOCKED_ON_WIFI': 'Grey',
+            'BLOCKED_ON_PRESSURE': 'Grey',
             'NOT_CONNECTED': 'DeepPink',
             'DISCONNECTED': 'DeepPink'
         }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.history.ExecutionHistory;
+
+/**
+ * Defines the dependencies between commands as a directed acyclic graph, in which each command
+ * may only start after each of its prerequisites has succeeded. This class is immutable.
+ *
+ * @author Jody
+ */
+public class CommandGraph {
+
+  private final ImmutableList<String> commands;
+  private final ImmutableSetMultimap<String, String> prerequisites;
+  private final ImmutableSetMultimap<String, String> dependents;
+  /** All commands ordered such that every command follows all of its prerequisites. */
+  private final ImmutableList<String> topologicalOrder;
+
+  /**
+   * Constructs a new instance, verifying the dependencies refer to known commands and are acyclic.
+   */
+  private CommandGraph(
+      ImmutableList<String> commands, SetMultimap<String, String> prerequisites) {
+    for (Map.Entry<String, String> edge : prerequisites.entries()) {
+      Preconditions.checkArgument(commands.contains(edge.getKey()),
+          "Dependency declared for unknown command %s", edge.getKey());
+      Preconditions.checkArgument(commands.contains(edge.getValue()),
+          "Dependency declared on unknown command %s", edge.getValue());
+    }
+    this.commands = commands;
+    this.prerequisites = ImmutableSetMultimap.copyOf(prerequisites);
+    this.dependents = this.prerequisites.inverse();
+    this.topologicalOrder = sortTopologically();
+  }
+
+  /**
+   * Constructs a new {@link CommandGraph}.
+   *
+   * @param commands all commands in the graph
+   * @param prerequisites a map from each command to the commands that must succeed before it
+   * @throws IllegalArgumentException if the dependencies contain a cycle or unknown command
+   */
+  public static CommandGraph of(
+      ImmutableList<String> commands, SetMultimap<String, String> prerequisites) {
+    return new CommandGraph(commands, prerequisites);
+  }
+
+  /**
+   * Returns all commands in the graph, in the order they were originally supplied.
+   */
+  public ImmutableList<String> getCommands() {
+    return commands;
+  }
+
+  /**
+   * Returns the commands that must succeed before the supplied command may start.
+   */
+  public ImmutableSet<String> getPrerequisites(String command) {
+    return prerequisites.get(command);
+  }
+
+  /**
+   * Returns the commands that may only start after the supplied command succeeds.
+   */
+  public ImmutableSet<String> getDependents(String command) {
+    return dependents.get(command);
+  }
+
+  /**
+   * Returns the expected time from starting each command to the completion of its longest chain
+   * of dependents, based on the mean durations recorded in the supplied {@link ExecutionHistory}.
+   * Commands on the longest chains should be started first to minimize overall execution time.
+   */
+  public ImmutableMap<String, Long> getCriticalPathMillis(ExecutionHistory history) {
+    Map<String, Long> pathMillis = new HashMap<>();
+    // Walk backwards so that every dependent is calculated before the command it depends on.
+    for (String command : topologicalOrder.reverse()) {
+      long longestDependent = 0;
+      for (String dependent : dependents.get(command)) {
+        longestDependent = Math.max(longestDependent, pathMillis.get(dependent));
+      }
+      pathMillis.put(command, meanDurationMillis(history, command) + longestDependent);
+    }
+    return ImmutableMap.copyOf(pathMillis);
+  }
+
+  /**
+   * Returns the mean duration of the executions recorded for a command, or zero if none exist.
+   */
+  private static long meanDurationMillis(ExecutionHistory history, String command) {
+    ImmutableList<CommandEvent> events = history.getCommandHistory(command);
+    long total = 0;
+    for (CommandEvent event : events) {
+      total += event.getDurationMillis();
+    }
+    return events.isEmpty() ? 0 : total / events.size();
+  }
+
+  /**
+   * Returns all commands in an order where each follows all of its prerequisites.
+   *
+   * @throws IllegalArgumentException if the dependencies contain a cycle
+   */
+  private ImmutableList<String> sortTopologically() {
+    Map<String, Integer> unsatisfied = new HashMap<>();
+    Deque<String> ready = new ArrayDeque<>();
+    for (String command : commands) {
+      unsatisfied.put(command, prerequisites.get(command).size());
+      if (prerequisites.get(command).isEmpty()) {
+        ready.add(command);
+      }
+    }
+    ImmutableList.Builder<String> order = ImmutableList.builder();
+    int sorted = 0;
+    while (!ready.isEmpty()) {
+      String command = ready.removeFirst();
+      order.add(command);
+      sorted++;
+      for (String dependent : dependents.get(command)) {
+        int remaining = unsatisfied.get(dependent) - 1;
+        unsatisfied.put(dependent, remaining);
+        if (remaining == 0) {
+          ready.add(dependent);
+        }
+      }
+    }
+    Preconditions.checkArgument(sorted == commands.size(), "Command dependencies contain a cycle");
+    return order.build();
+  }
+}
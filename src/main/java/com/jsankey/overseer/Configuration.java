@@ -9,9 +9,32 @@ package com.jsankey.overseer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
+import com.jsankey.overseer.checks.Condition;
+import com.jsankey.overseer.checks.Conditions;
+import com.jsankey.overseer.checks.HostPressureMonitor.Resource;
+import com.jsankey.overseer.history.ExecutionHistory.Durability;
+import com.jsankey.overseer.runner.ResourceClass;
+import com.jsankey.overseer.schedule.IntervalSchedule;
+import com.jsankey.overseer.schedule.Schedule;
+import com.jsankey.overseer.schedule.Schedules;
 
 import joptsimple.ArgumentAcceptingOptionSpec;
 import joptsimple.OptionException;
@@ -35,11 +58,35 @@ public class Configuration {
   private static final ArgumentAcceptingOptionSpec<String> SSID_SPEC;
   private static final ArgumentAcceptingOptionSpec<String> LOG_FILE_SPEC;
   private static final ArgumentAcceptingOptionSpec<String> STATUS_FILE_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> HISTORY_DURABILITY_SPEC;
   private static final ArgumentAcceptingOptionSpec<Integer> SOCKET_SPEC;
   private static final ArgumentAcceptingOptionSpec<Integer> RUN_INTERVAL_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> MAX_PARALLEL_SPEC;
   private static final OptionSpec<Void> HELP_SPEC;
   private static final OptionSpec<Void> VERSION_SPEC;
   private static final ArgumentAcceptingOptionSpec<String> COMMAND_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> DEPENDS_ON_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> SCHEDULE_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> UNCHANGED_EXIT_CODE_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> WATCH_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> WATCH_DEBOUNCE_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> WATCH_MAX_DELAY_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> CAPTURE_OUTPUT_SPEC;
+  private static final OptionSpec<Void> STREAM_OUTPUT_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> OUTPUT_LOG_DIR_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> OUTPUT_LOG_MAX_AGE_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> OUTPUT_LOG_BUDGET_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> WORKER_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> TERMINATION_GRACE_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> TIMEOUT_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> COMMAND_TIMEOUT_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> RESOURCE_CLASS_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> COMMAND_CLASS_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> CGROUP_ROOT_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> MAX_PRESSURE_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Double> MAX_LOAD_SPEC;
+  private static final ArgumentAcceptingOptionSpec<Integer> MAX_PRESSURE_DEFERRAL_SPEC;
+  private static final ArgumentAcceptingOptionSpec<String> CONDITION_SPEC;
 
   static {
     PARSER = new OptionParser();
@@ -53,11 +100,23 @@ public class Configuration {
         .accepts("status_file", "Optional file to cache and restore command execution status, "
             + "last run times and states to be maintained through power cycles.")
         .withRequiredArg();
+    HISTORY_DURABILITY_SPEC = PARSER
+        .accepts("history_durability", "When events written to the status file are forced to "
+            + "storage: none, batched (one sync for events recorded close together), or "
+            + "every_event.")
+        .withRequiredArg()
+        .defaultsTo("batched");
     RUN_INTERVAL_SPEC = PARSER
-        .accepts("run_interval", "Minimum time between attempted command executions, in seconds.")
+        .accepts("run_interval", "Minimum time between attempted executions of each command, "
+            + "in seconds. May be overridden for individual commands using schedule.")
         .withRequiredArg()
         .ofType(Integer.class)
         .defaultsTo(300);
+    MAX_PARALLEL_SPEC = PARSER
+        .accepts("max_parallel", "Maximum number of commands that may execute concurrently.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(1);
     HELP_SPEC = PARSER
         .accepts("help", "Prints this help string.")
         .forHelp();
@@ -68,6 +127,128 @@ public class Configuration {
         .accepts("command", "Command to be executed periodically. May be specified multiple times.")
         .requiredUnless(HELP_SPEC, VERSION_SPEC)
         .withRequiredArg();
+    DEPENDS_ON_SPEC = PARSER
+        .accepts("depends_on", "Declares that a command may only start after another command "
+            + "has succeeded, in the form <command>=<prerequisite command>, where commands are "
+            + "numbered from 1 in the order supplied. May be specified multiple times.")
+        .withRequiredArg();
+    SCHEDULE_SPEC = PARSER
+        .accepts("schedule", "Sets when a command should run, in the form <command>=<schedule>, "
+            + "where schedule is either an interval in seconds, a five field cron expression, or "
+            + "<min>..<max> for an interval in seconds that adapts to whether recent runs found "
+            + "work to do. May be specified once for each command.")
+        .withRequiredArg();
+    UNCHANGED_EXIT_CODE_SPEC = PARSER
+        .accepts("unchanged_exit_code", "Declares that a command reports succeeding without "
+            + "making changes through an exit code, in the form <command>=<exit code>. Such runs "
+            + "count as successful, and zero exit codes then count as making changes.")
+        .withRequiredArg();
+    WATCH_SPEC = PARSER
+        .accepts("watch", "Runs a command soon after a change to a file or directory tree, in the "
+            + "form <command>=<path>. The schedule of the command then only sets the maximum time "
+            + "between runs. May be specified multiple times.")
+        .withRequiredArg();
+    WATCH_DEBOUNCE_SPEC = PARSER
+        .accepts("watch_debounce", "Time that watched paths must remain unchanged before their "
+            + "command is run, in seconds.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(5);
+    WATCH_MAX_DELAY_SPEC = PARSER
+        .accepts("watch_max_delay", "Maximum time between a change to watched paths and their "
+            + "command being run even if changes continue, in seconds.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(60);
+    CAPTURE_OUTPUT_SPEC = PARSER
+        .accepts("capture_output_kb", "Amount of standard output and of standard error to "
+            + "retain from the end of each execution and record for failed executions, in "
+            + "kilobytes. Output is discarded if zero.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(0);
+    STREAM_OUTPUT_SPEC = PARSER
+        .accepts("stream_output", "Makes the output of running commands available to socket "
+            + "connections that send WATCH.");
+    OUTPUT_LOG_DIR_SPEC = PARSER
+        .accepts("output_log_dir", "Optional directory in which to store the complete output of "
+            + "every execution, in a separate directory for each execution.")
+        .withRequiredArg();
+    OUTPUT_LOG_MAX_AGE_SPEC = PARSER
+        .accepts("output_log_max_age_days", "Age beyond which stored output is deleted, in days.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(30);
+    OUTPUT_LOG_BUDGET_SPEC = PARSER
+        .accepts("output_log_budget_mb", "Total size of stored output beyond which the output "
+            + "of the oldest executions is deleted, in megabytes.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(1024);
+    WORKER_SPEC = PARSER
+        .accepts("worker", "Declares that a command starts a persistent worker process that "
+            + "performs each run on request over its standard input and output, identified by "
+            + "its number from 1 in the order supplied. Runs in a worker have no output of their "
+            + "own, so workers may not be combined with capture_output_kb or output_log_dir, but "
+            + "the standard error of workers is streamed. May be specified multiple times.")
+        .withRequiredArg();
+    TERMINATION_GRACE_SPEC = PARSER
+        .accepts("termination_grace", "Time that the processes of a terminated command may take "
+            + "to exit before they are killed, in seconds.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(10);
+    TIMEOUT_SPEC = PARSER
+        .accepts("timeout", "Time after which a running command is terminated and recorded as "
+            + "having timed out, in seconds. Commands may run indefinitely if zero. May be "
+            + "overridden for individual commands using command_timeout.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(0);
+    COMMAND_TIMEOUT_SPEC = PARSER
+        .accepts("command_timeout", "Sets the timeout for a command, in the form "
+            + "<command>=<seconds>, where zero lets the command run indefinitely. May be "
+            + "specified once for each command.")
+        .withRequiredArg();
+    RESOURCE_CLASS_SPEC = PARSER
+        .accepts("resource_class", "Defines a named class of resource limits, in the form "
+            + "<name>=<setting>=<value>,... where the settings are cpu_weight, memory_max_mb and "
+            + "io_weight, applied through cgroup_root, and nice, ionice_class (idle or "
+            + "best-effort) and ionice_level, applied when there is no cgroup_root. May be "
+            + "specified multiple times.")
+        .withRequiredArg();
+    COMMAND_CLASS_SPEC = PARSER
+        .accepts("command_class", "Runs a command in a resource class, in the form "
+            + "<command>=<class name>. May be specified once for each command.")
+        .withRequiredArg();
+    CGROUP_ROOT_SPEC = PARSER
+        .accepts("cgroup_root", "Optional writable cgroup v2 directory, delegated to this "
+            + "program and containing no processes, beneath which commands with a resource "
+            + "class are placed.")
+        .withRequiredArg();
+    MAX_PRESSURE_SPEC = PARSER
+        .accepts("max_pressure", "Defers starting commands while the pressure stall percentage "
+            + "of a resource over the last ten seconds exceeds a maximum, in the form "
+            + "<resource>=<percent> where the resource is cpu, io, or memory. May be specified "
+            + "once for each resource.")
+        .withRequiredArg();
+    MAX_LOAD_SPEC = PARSER
+        .accepts("max_load", "Defers starting commands while the one minute load average exceeds "
+            + "this value.")
+        .withRequiredArg()
+        .ofType(Double.class);
+    MAX_PRESSURE_DEFERRAL_SPEC = PARSER
+        .accepts("max_pressure_deferral", "Maximum time a ready command is deferred by "
+            + "max_pressure or max_load before it is started regardless, in seconds.")
+        .withRequiredArg()
+        .ofType(Integer.class)
+        .defaultsTo(1800);
+    CONDITION_SPEC = PARSER
+        .accepts("condition", "Defers a command until a condition holds, in the form "
+            + "<command>=<expression> where the expression combines ac_power, unmetered, "
+            + "wifi:<ssid>, disk_free:<path>:<megabytes>, and reachable:<host>:<port> using & "
+            + "(and), | (or), and parentheses. May be specified once for each command.")
+        .withRequiredArg();
     SOCKET_SPEC = PARSER
         .accepts("socket", "Socket to listen for interactive commands.")
         .withRequiredArg()
@@ -78,9 +259,31 @@ public class Configuration {
   private final Optional<String> ssid;
   private final Optional<String> logFile;
   private final Optional<String> statusFile;
+  private final Durability historyDurability;
   private final Optional<Integer> socket;
   private final int runIntervalSec;
+  private final int maxParallel;
+  private final int captureOutputKb;
+  private final boolean streamOutput;
+  private final Optional<Path> outputLogDir;
+  private final Duration outputLogMaxAge;
+  private final long outputLogBudgetBytes;
+  private final ImmutableSet<String> workerCommands;
+  private final Duration terminationGrace;
+  private final ImmutableMap<String, Duration> timeouts;
+  private final ImmutableMap<String, ResourceClass> resourceClasses;
+  private final Optional<Path> cgroupRoot;
+  private final ImmutableMap<Resource, Double> maxPressure;
+  private final Optional<Double> maxLoad;
+  private final Duration maxPressureDeferral;
+  private final ImmutableMap<String, Condition> conditions;
   private final ImmutableList<String> commands;
+  private final CommandGraph commandGraph;
+  private final ImmutableMap<String, Schedule> schedules;
+  private final ImmutableMap<String, Integer> unchangedExitCodes;
+  private final ImmutableSetMultimap<String, Path> watchedPaths;
+  private final Duration watchDebounce;
+  private final Duration watchMaxDelay;
   private final boolean helpRequested;
   private final boolean versionRequested;
 
@@ -89,11 +292,159 @@ public class Configuration {
     ssid = optionalFromOption(options, SSID_SPEC);
     logFile = optionalFromOption(options, LOG_FILE_SPEC);
     statusFile = optionalFromOption(options, STATUS_FILE_SPEC);
+    historyDurability = Durability.fromName(options.valueOf(HISTORY_DURABILITY_SPEC).trim());
     socket = optionalFromOption(options, SOCKET_SPEC);
     runIntervalSec = options.valueOf(RUN_INTERVAL_SPEC);
+    maxParallel = options.valueOf(MAX_PARALLEL_SPEC);
+    Preconditions.checkArgument(maxParallel > 0, "max_parallel must be positive");
+    captureOutputKb = options.valueOf(CAPTURE_OUTPUT_SPEC);
+    Preconditions.checkArgument(captureOutputKb >= 0, "capture_output_kb must not be negative");
+    streamOutput = options.has(STREAM_OUTPUT_SPEC);
+    Optional<String> outputLogDirName = optionalFromOption(options, OUTPUT_LOG_DIR_SPEC);
+    outputLogDir = outputLogDirName.isPresent()
+        ? Optional.of(Paths.get(outputLogDirName.get()).toAbsolutePath().normalize())
+        : Optional.<Path>absent();
+    int outputLogMaxAgeDays = options.valueOf(OUTPUT_LOG_MAX_AGE_SPEC);
+    int outputLogBudgetMb = options.valueOf(OUTPUT_LOG_BUDGET_SPEC);
+    Preconditions.checkArgument(
+        outputLogMaxAgeDays > 0, "output_log_max_age_days must be positive");
+    Preconditions.checkArgument(outputLogBudgetMb > 0, "output_log_budget_mb must be positive");
+    outputLogMaxAge = Duration.ofDays(outputLogMaxAgeDays);
+    outputLogBudgetBytes = outputLogBudgetMb * 1024L * 1024L;
+    terminationGrace = Duration.ofSeconds(options.valueOf(TERMINATION_GRACE_SPEC));
+    Preconditions.checkArgument(
+        !terminationGrace.isNegative(), "termination_grace must not be negative");
     helpRequested = options.has(HELP_SPEC);
     versionRequested = options.has(VERSION_SPEC);
     commands = ImmutableList.copyOf(options.valuesOf(COMMAND_SPEC));
+    Set<String> distinctCommands = new HashSet<>();
+    for (String command : commands) {
+      Preconditions.checkArgument(distinctCommands.add(command),
+          "Command may only be supplied once: %s", command);
+    }
+
+    ImmutableSetMultimap.Builder<String, String> prerequisites = ImmutableSetMultimap.builder();
+    for (Map.Entry<String, String> entry
+        : commandValuesFromOption(options, DEPENDS_ON_SPEC, commands).entries()) {
+      prerequisites.put(entry.getKey(), commandFromIndex(commands, entry.getValue()));
+    }
+    commandGraph = CommandGraph.of(commands, prerequisites.build());
+
+    ImmutableSet.Builder<String> workerBuilder = ImmutableSet.builder();
+    for (String index : options.valuesOf(WORKER_SPEC)) {
+      workerBuilder.add(commandFromIndex(commands, index));
+    }
+    workerCommands = workerBuilder.build();
+    Preconditions.checkArgument(workerCommands.isEmpty() || captureOutputKb == 0,
+        "Output cannot be captured for worker commands, remove capture_output_kb or worker: %s",
+        workerCommands);
+    Preconditions.checkArgument(workerCommands.isEmpty() || !outputLogDir.isPresent(),
+        "Output cannot be logged for worker commands, remove output_log_dir or worker: %s",
+        workerCommands);
+
+    ImmutableListMultimap<String, String> scheduleSpecs =
+        commandValuesFromOption(options, SCHEDULE_SPEC, commands);
+    ImmutableMap.Builder<String, Schedule> scheduleBuilder = ImmutableMap.builder();
+    for (String command : commands) {
+      ImmutableList<String> specs = scheduleSpecs.get(command);
+      Preconditions.checkArgument(specs.size() <= 1, "Multiple schedules for command %s", command);
+      scheduleBuilder.put(command, specs.isEmpty()
+          ? IntervalSchedule.of(Duration.ofSeconds(runIntervalSec))
+          : Schedules.parse(specs.get(0)));
+    }
+    schedules = scheduleBuilder.build();
+
+    ImmutableMap.Builder<String, Integer> exitCodeBuilder = ImmutableMap.builder();
+    for (Map.Entry<String, String> entry
+        : commandValuesFromOption(options, UNCHANGED_EXIT_CODE_SPEC, commands).entries()) {
+      Integer exitCode = Ints.tryParse(entry.getValue().trim());
+      Preconditions.checkArgument(exitCode != null && exitCode != 0,
+          "Unchanged exit code must be a non-zero number: %s", entry.getValue());
+      exitCodeBuilder.put(entry.getKey(), exitCode);
+    }
+    unchangedExitCodes = exitCodeBuilder.build();
+
+    int defaultTimeoutSec = options.valueOf(TIMEOUT_SPEC);
+    Preconditions.checkArgument(defaultTimeoutSec >= 0, "timeout must not be negative");
+    ImmutableListMultimap<String, String> timeoutSpecs =
+        commandValuesFromOption(options, COMMAND_TIMEOUT_SPEC, commands);
+    ImmutableMap.Builder<String, Duration> timeoutBuilder = ImmutableMap.builder();
+    for (String command : commands) {
+      ImmutableList<String> specs = timeoutSpecs.get(command);
+      Preconditions.checkArgument(specs.size() <= 1, "Multiple timeouts for command %s", command);
+      Integer timeoutSec =
+          specs.isEmpty() ? defaultTimeoutSec : Ints.tryParse(specs.get(0).trim());
+      Preconditions.checkArgument(timeoutSec != null && timeoutSec >= 0,
+          "Timeout must be a non-negative number of seconds: %s", specs);
+      if (timeoutSec > 0) {
+        timeoutBuilder.put(command, Duration.ofSeconds(timeoutSec));
+      }
+    }
+    timeouts = timeoutBuilder.build();
+
+    Map<String, ResourceClass> classesByName = new HashMap<>();
+    for (String spec : options.valuesOf(RESOURCE_CLASS_SPEC)) {
+      ResourceClass resourceClass = ResourceClass.parse(spec);
+      Preconditions.checkArgument(classesByName.put(resourceClass.getName(), resourceClass) == null,
+          "Multiple definitions of resource class %s", resourceClass.getName());
+    }
+    ImmutableMap.Builder<String, ResourceClass> classBuilder = ImmutableMap.builder();
+    for (Map.Entry<String, String> entry
+        : commandValuesFromOption(options, COMMAND_CLASS_SPEC, commands).entries()) {
+      ResourceClass resourceClass = classesByName.get(entry.getValue().trim());
+      Preconditions.checkArgument(
+          resourceClass != null, "Unknown resource class: %s", entry.getValue());
+      classBuilder.put(entry.getKey(), resourceClass);
+    }
+    resourceClasses = classBuilder.build();
+    Optional<String> cgroupRootName = optionalFromOption(options, CGROUP_ROOT_SPEC);
+    cgroupRoot = cgroupRootName.isPresent()
+        ? Optional.of(Paths.get(cgroupRootName.get()).toAbsolutePath().normalize())
+        : Optional.<Path>absent();
+
+    Map<Resource, Double> pressureBuilder = new HashMap<>();
+    for (String argument : options.valuesOf(MAX_PRESSURE_SPEC)) {
+      int separator = argument.indexOf('=');
+      Preconditions.checkArgument(separator > 0,
+          "Argument for max_pressure must take the form <resource>=<percent>: %s", argument);
+      Resource resource = Resource.fromName(argument.substring(0, separator).trim());
+      Double percent = Doubles.tryParse(argument.substring(separator + 1).trim());
+      Preconditions.checkArgument(percent != null && percent >= 0 && percent <= 100,
+          "Maximum pressure must be a percentage: %s", argument);
+      Preconditions.checkArgument(pressureBuilder.put(resource, percent) == null,
+          "Multiple maximum pressures for %s", argument.substring(0, separator));
+    }
+    maxPressure = ImmutableMap.copyOf(pressureBuilder);
+    maxLoad = optionalFromOption(options, MAX_LOAD_SPEC);
+    Preconditions.checkArgument(
+        !maxLoad.isPresent() || maxLoad.get() > 0, "max_load must be positive");
+    maxPressureDeferral = Duration.ofSeconds(options.valueOf(MAX_PRESSURE_DEFERRAL_SPEC));
+    Preconditions.checkArgument(
+        !maxPressureDeferral.isNegative(), "max_pressure_deferral must not be negative");
+
+    ImmutableListMultimap<String, String> conditionSpecs =
+        commandValuesFromOption(options, CONDITION_SPEC, commands);
+    ImmutableMap.Builder<String, Condition> conditionBuilder = ImmutableMap.builder();
+    for (String command : conditionSpecs.keySet()) {
+      ImmutableList<String> specs = conditionSpecs.get(command);
+      Preconditions.checkArgument(specs.size() == 1, "Multiple conditions for command %s", command);
+      conditionBuilder.put(command, Conditions.parse(specs.get(0)));
+    }
+    conditions = conditionBuilder.build();
+
+    ImmutableSetMultimap.Builder<String, Path> watchBuilder = ImmutableSetMultimap.builder();
+    for (Map.Entry<String, String> entry
+        : commandValuesFromOption(options, WATCH_SPEC, commands).entries()) {
+      Path path = Paths.get(entry.getValue()).toAbsolutePath().normalize();
+      Preconditions.checkArgument(Files.exists(path), "Watched path does not exist: %s", path);
+      watchBuilder.put(entry.getKey(), path);
+    }
+    watchedPaths = watchBuilder.build();
+    watchDebounce = Duration.ofSeconds(options.valueOf(WATCH_DEBOUNCE_SPEC));
+    watchMaxDelay = Duration.ofSeconds(options.valueOf(WATCH_MAX_DELAY_SPEC));
+    Preconditions.checkArgument(!watchDebounce.isNegative(), "watch_debounce must not be negative");
+    Preconditions.checkArgument(watchMaxDelay.compareTo(watchDebounce) >= 0,
+        "watch_max_delay must not be less than watch_debounce");
   }
 
   /**
@@ -142,6 +493,13 @@ public class Configuration {
     return statusFile;
   }
 
+  /**
+   * Returns when events written to the status file are forced to storage.
+   */
+  public Durability getHistoryDurability() {
+    return historyDurability;
+  }
+
   /**
    * Returns the socket on which to listen for interactive connections.
    */
@@ -150,12 +508,71 @@ public class Configuration {
   }
 
   /**
-   * Returns the minimum time between attempted command executions, in seconds.
+   * Returns the default minimum time between attempted executions of each command, in seconds.
    */
   public int getRunIntervalSec() {
     return runIntervalSec;
   }
 
+  /**
+   * Returns the maximum number of commands that may execute concurrently.
+   */
+  public int getMaxParallel() {
+    return maxParallel;
+  }
+
+  /**
+   * Returns the number of bytes to retain from the end of each output stream of an execution, or
+   * zero if output should be discarded.
+   */
+  public int getCaptureOutputBytes() {
+    return captureOutputKb * 1024;
+  }
+
+  /**
+   * Returns true iff the output of running commands should be streamed to subscribers.
+   */
+  public boolean isStreamingOutput() {
+    return streamOutput;
+  }
+
+  /**
+   * Returns the directory in which to store the complete output of every execution, if supplied.
+   */
+  public Optional<Path> getOutputLogDir() {
+    return outputLogDir;
+  }
+
+  /**
+   * Returns the age beyond which stored output is deleted.
+   */
+  public Duration getOutputLogMaxAge() {
+    return outputLogMaxAge;
+  }
+
+  /**
+   * Returns the total size of stored output beyond which the oldest is deleted, in bytes.
+   */
+  public long getOutputLogBudgetBytes() {
+    return outputLogBudgetBytes;
+  }
+
+  /**
+   * Returns the commands that start a persistent worker process rather than being run afresh for
+   * each execution.
+   */
+  public ImmutableSet<String> getWorkerCommands() {
+    return workerCommands;
+  }
+
+  /**
+   * Returns the time that the processes of a terminated command may take to exit before they are
+   * killed.
+   */
+  public Duration getTerminationGrace() {
+    return terminationGrace;
+  }
+
   /**
    * Returns the commands to be executed periodically.
    */
@@ -163,6 +580,100 @@ public class Configuration {
     return commands;
   }
 
+  /**
+   * Returns the {@link CommandGraph} defining the dependencies between commands.
+   */
+  public CommandGraph getCommandGraph() {
+    return commandGraph;
+  }
+
+  /**
+   * Returns the {@link Schedule} for each command, using the run interval for any command that
+   * did not have a schedule specified.
+   */
+  public ImmutableMap<String, Schedule> getSchedules() {
+    return schedules;
+  }
+
+  /**
+   * Returns the exit code by which each command that reports changes indicates that it succeeded
+   * without making changes.
+   */
+  public ImmutableMap<String, Integer> getUnchangedExitCodes() {
+    return unchangedExitCodes;
+  }
+
+  /**
+   * Returns the time after which each command that has a timeout is terminated.
+   */
+  public ImmutableMap<String, Duration> getTimeouts() {
+    return timeouts;
+  }
+
+  /**
+   * Returns the {@link ResourceClass} of each command that has one.
+   */
+  public ImmutableMap<String, ResourceClass> getResourceClasses() {
+    return resourceClasses;
+  }
+
+  /**
+   * Returns the cgroup beneath which commands with a resource class are placed, if supplied.
+   */
+  public Optional<Path> getCgroupRoot() {
+    return cgroupRoot;
+  }
+
+  /**
+   * Returns the pressure stall percentage of each limited resource above which commands are
+   * deferred.
+   */
+  public ImmutableMap<Resource, Double> getMaxPressure() {
+    return maxPressure;
+  }
+
+  /**
+   * Returns the one minute load average above which commands are deferred, if supplied.
+   */
+  public Optional<Double> getMaxLoad() {
+    return maxLoad;
+  }
+
+  /**
+   * Returns the maximum time a ready command is deferred by host pressure.
+   */
+  public Duration getMaxPressureDeferral() {
+    return maxPressureDeferral;
+  }
+
+  /**
+   * Returns the {@link Condition} that must hold before each command that has one is started.
+   */
+  public ImmutableMap<String, Condition> getConditions() {
+    return conditions;
+  }
+
+  /**
+   * Returns the files and directory trees watched for changes by each command.
+   */
+  public ImmutableSetMultimap<String, Path> getWatchedPaths() {
+    return watchedPaths;
+  }
+
+  /**
+   * Returns the time that watched paths must remain unchanged before their command is run.
+   */
+  public Duration getWatchDebounce() {
+    return watchDebounce;
+  }
+
+  /**
+   * Returns the maximum time between a change to watched paths and their command being run.
+   */
+  public Duration getWatchMaxDelay() {
+    return watchMaxDelay;
+  }
+
   /**
    * Returns true iff the help string has been requested.
    */
@@ -190,5 +701,37 @@ public class Configuration {
     }
   }
 
+  /**
+   * Returns a map from command to value for each argument of the supplied spec, where arguments
+   * take the form <command>=<value> and commands are identified by their 1-based index.
+   *
+   * @throws IllegalArgumentException if an argument is malformed or references an unknown command
+   */
+  private static ImmutableListMultimap<String, String> commandValuesFromOption(
+      OptionSet options, ArgumentAcceptingOptionSpec<String> spec, ImmutableList<String> commands) {
+    ImmutableListMultimap.Builder<String, String> values = ImmutableListMultimap.builder();
+    for (String argument : options.valuesOf(spec)) {
+      int separator = argument.indexOf('=');
+      Preconditions.checkArgument(separator > 0,
+          "Argument for %s must take the form <command>=<value>: %s", spec, argument);
+      values.put(
+          commandFromIndex(commands, argument.substring(0, separator)),
+          argument.substring(separator + 1));
+    }
+    return values.build();
+  }
+
+  /**
+   * Returns the command identified by the supplied 1-based index string.
+   *
+   * @throws IllegalArgumentException if the index is not a number or is out of range
+   */
+  private static String commandFromIndex(ImmutableList<String> commands, String index) {
+    Integer value = Ints.tryParse(index.trim());
+    Preconditions.checkArgument(value != null && value >= 1 && value <= commands.size(),
+        "Command number must be between 1 and %s: %s", commands.size(), index);
+    return commands.get(value - 1);
+  }
+
 }
 
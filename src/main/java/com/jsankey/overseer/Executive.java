@@ -6,25 +6,53 @@
  */
 package com.jsankey.overseer;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jsankey.overseer.checks.Condition;
+import com.jsankey.overseer.checks.ConditionCache;
+import com.jsankey.overseer.checks.HostPressureMonitor;
+import com.jsankey.overseer.checks.NetworkWatcher;
 import com.jsankey.overseer.checks.WifiStatusChecker;
+import com.jsankey.overseer.history.CommandEvent;
 import com.jsankey.overseer.history.ExecutionHistory;
 import com.jsankey.overseer.history.ExecutionHistory.HistoryStatus;
+import com.jsankey.overseer.runner.CgroupManager;
 import com.jsankey.overseer.runner.CommandRunner;
+import com.jsankey.overseer.runner.OutputLogStore;
+import com.jsankey.overseer.schedule.Schedule;
+import com.jsankey.overseer.schedule.TimerWheel;
+import com.jsankey.overseer.watch.PathWatcher;
 
 /**
  * Master class that handles running each command at an appropriate time and
@@ -32,8 +60,34 @@ import com.jsankey.overseer.runner.CommandRunner;
  * an overall state for the system.
  * 
  * <p>The class creates its own thread to do the work, and may safely be called
- * from other threads.
+ * from other threads. Each change in state is published as an immutable
+ * {@link ExecutiveSnapshot}, so readers of the state never block. The runner thread sleeps on
+ * the object monitor until either the next deadline is reached or another thread signals a
+ * change in schedule (for example a manual run request), so it performs no work between
+ * deadlines.
  * 
+ * <p>Each command follows its own {@link Schedule}. At any time each command is in exactly one
+ * of three states: idle and held in a {@link TimerWheel} until its next run time, pending because
+ * it is due but waiting on capacity or prerequisites, or active while it runs. The timer wheel
+ * keeps the cost of each scheduling decision independent of the number of idle commands.
+ * Active commands with a timeout are also held in a timer wheel until their deadline, at which
+ * point the runner terminates them.
+ *
+ * <p>Commands may have a {@link Condition}, evaluated on a separate thread once the command is
+ * otherwise ready to start. A command whose condition does not hold remains pending without
+ * blocking other commands, and its condition is evaluated again after a delay. Similarly no
+ * command starts while the host is not connected to the configured wifi, but the runner keeps
+ * scheduling in the meantime so that active commands are still terminated at their timeout.
+ * Changes in the network of the host are watched while any command depends on the network, so
+ * that waiting commands are reconsidered as soon as the network changes rather than on the next
+ * periodic check.
+ *
+ * <p>While the host is under more pressure than configured, ready commands are deferred rather
+ * than started, each for no longer than the maximum deferral so that results stay fresh.
+ *
+ * <p>Commands may also watch paths for changes, in which case an idle command is started soon
+ * after a change and its schedule only bounds the time between runs.
+ *
  * <p>TODO: Actually since we're not going to be able to run as a true daemon it would be more
  * efficient to use the main thread for this work rather than spawning a new one.
  *
@@ -41,9 +95,13 @@ import com.jsankey.overseer.runner.CommandRunner;
  */
 public class Executive {
 
-  private static final int COMMAND_COMPLETION_CHECK_MILLIS = 250;
-  private static final int MANUAL_REQUEST_CHECK_MILLIS = 2000;
-  private static final int WIFI_STATUS_CHECK_MILLIS = 60000;
+  private static final int WIFI_STATUS_CHECK_MILLIS = 2000;
+  /** Interval between wifi checks while network changes are being watched, as a backstop. */
+  private static final int WATCHED_WIFI_STATUS_CHECK_MILLIS = 60000;
+  private static final int SCHEDULE_TICK_MILLIS = 10;
+  private static final Duration CRITICAL_PATH_REFRESH = Duration.ofMinutes(1);
+  private static final Duration FINAL_STATUS_DELIVERY = Duration.ofSeconds(1);
+  private static final Duration MIN_CONDITION_RETRY = Duration.ofSeconds(5);
 
   private static final DateTimeFormatter TIME_FMT =
       DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
@@ -52,12 +110,14 @@ public class Executive {
   private static final Logger LOG = Logger.getLogger(Executive.class.getCanonicalName());
 
   public enum Status {
-    /** A command is currently being executed */
+    /** One or more commands are currently being executed */
     RUNNING,
     /** The most recent run was successful, and we're waiting until it's time to run again */
     IDLE,
     /** The most recent run was successful, but we're not on the required wifi SSID to run again */
     BLOCKED_ON_WIFI,
+    /** Commands are ready to run, but are deferred while the host is under too much pressure */
+    BLOCKED_ON_PRESSURE,
     /** The most recent run included one or more failures */
     FAILURE,
     /** The executive has been terminated, no more runs will be performed */
@@ -66,47 +126,164 @@ public class Executive {
 
   /**
    * Trivial interface for classes that are interested in receiving status change updates.
+   * Updates are delivered on a separate thread, and a listener that is slow to return may not
+   * receive statuses that were superseded while it was busy.
    */
   public interface StatusListener {
     /** Method called when there is a change in executive status. */
     public void receiveStatus(Status status);
   }
 
-  private final ImmutableList<CommandRunner> commands;
+  /**
+   * Trivial interface for classes that are interested in receiving the output of commands as
+   * they run. Output is delivered in batches on a separate thread, and a subscriber that is slow
+   * to return may not receive output that was written while it was busy.
+   */
+  public interface OutputSubscriber {
+    /** Method called with the output written since the previous call. */
+    public void receiveOutput(OutputFrame frame);
+  }
+
+  private final ImmutableMap<String, CommandRunner> commands;
+  private final ImmutableMap<String, Schedule> schedules;
+  private final ImmutableMap<String, Duration> timeouts;
+  private final ImmutableMap<String, Condition> conditions;
+  private final CommandGraph graph;
   private final ExecutionHistory history;
   private final Clock clock;
-  private final int runIntervalSec;
-  private final Set<StatusListener> listeners;
+  private final int maxParallel;
+  private final ImmutableSetMultimap<String, Path> watchedPaths;
+  private final Duration watchDebounce;
+  private final Duration watchMaxDelay;
+  private final StatusDispatcher dispatcher;
+  private final OutputBroadcaster broadcaster;
+  private final @Nullable HostPressureMonitor hostPressure;
+  private final Duration maxPressureDeferral;
+  private final ExecutorService conditionExecutor;
+
+  // Scheduling state, all guarded by the object monitor.
+  private final TimerWheel<String> idleCommands;
+  private final TimerWheel<String> timeoutDeadlines;
+  private final Set<String> pendingCommands;
+  private final Set<CommandRunner> activeCommands;
+  private final Set<String> changedWhileActive;
+  /** The time each ready command was first deferred by host pressure. */
+  private final Map<String, Instant> deferredSince;
+  /** The time after which each pending command whose condition did not hold may be retried. */
+  private final Map<String, Instant> conditionRetries;
+  /** The time until which each pending command whose condition held may start. */
+  private final Map<String, Instant> conditionPasses;
+  /** Pending commands whose condition is being evaluated. */
+  private final Set<String> evaluatingConditions;
+  /** The time before which the wifi is not checked again while commands wait for it. */
+  private Instant nextWifiCheck;
+  /** The time until which commands may start since the wifi was last found to be connected. */
+  private Instant wifiPassUntil;
+  /** Whether the wifi is being checked. */
+  private boolean checkingWifi;
+  private @Nullable String pressureReason;
+  private long manualRunRequests;
+  private long networkChanges;
+  private @Nullable ImmutableMap<String, Long> criticalPathMillis;
+  private Instant criticalPathTime;
+
+  private final AtomicReference<ExecutiveSnapshot> snapshot;
 
-  private @Nullable Thread runnerThread;
-  private @Nullable CommandRunner activeCommand;
+  private volatile @Nullable Thread runnerThread;
   private @Nullable WifiStatusChecker wifiStatus;
-  private Instant automaticRunTime;
-  private Instant manualRunTime;
+  private @Nullable PathWatcher pathWatcher;
+  private @Nullable NetworkWatcher networkWatcher;
   private boolean blockedOnWifi;
 
   /**
    * Constructs a new {@link Executive} from the supplied configuration.
    * 
    * @param config a {@link Configuration} used for initialization
+   * @param wifiStatus checks for the configured wifi SSID, or null if there is none
+   * @param hostPressure checks the configured pressure and load limits, or null if there are none
    */
-  private Executive(Configuration config) {
+  private Executive(Configuration config, @Nullable WifiStatusChecker wifiStatus,
+      @Nullable HostPressureMonitor hostPressure) {
     this.history = ExecutionHistory.from(config);
     this.clock = Clock.systemUTC();
-    this.runIntervalSec = config.getRunIntervalSec();
-    this.listeners = new HashSet<StatusListener>();
+    this.maxParallel = config.getMaxParallel();
+    this.watchedPaths = config.getWatchedPaths();
+    this.watchDebounce = config.getWatchDebounce();
+    this.watchMaxDelay = config.getWatchMaxDelay();
+    this.dispatcher = StatusDispatcher.create();
+    this.broadcaster = OutputBroadcaster.create();
+    this.schedules = config.getSchedules();
+    this.timeouts = config.getTimeouts();
+    this.conditions = config.getConditions();
+    this.graph = config.getCommandGraph();
 
-    this.wifiStatus =
-        config.getSsid().isPresent() ? WifiStatusChecker.of(config.getSsid().get()) : null;
+    this.wifiStatus = wifiStatus;
     this.blockedOnWifi = false;
+    this.nextWifiCheck = Instant.MIN;
+    this.wifiPassUntil = Instant.MIN;
+    this.checkingWifi = false;
+    this.hostPressure = hostPressure;
+    this.maxPressureDeferral = config.getMaxPressureDeferral();
+    this.conditionExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("condition-%d")
+        .build());
 
-    ImmutableList.Builder<CommandRunner> runnerBuilder = ImmutableList.builder();
+    OutputLogStore logs = null;
+    if (config.getOutputLogDir().isPresent()) {
+      logs = OutputLogStore.create(config.getOutputLogDir().get(),
+          config.getOutputLogMaxAge(), config.getOutputLogBudgetBytes());
+      logs.prune(clock.instant());
+    }
+    CgroupManager cgroups = config.getCgroupRoot().isPresent()
+        ? CgroupManager.create(config.getCgroupRoot().get()).orNull()
+        : null;
+    ImmutableMap.Builder<String, CommandRunner> runnerBuilder = ImmutableMap.builder();
     for (String command : config.getCommands()) {
-      runnerBuilder.add(CommandRunner.forCommand(command));
+      CommandRunner.Builder runner = CommandRunner.builder(command)
+          .listener(config.isStreamingOutput() ? broadcaster : null)
+          .terminationGrace(config.getTerminationGrace())
+          .resourceClass(config.getResourceClasses().get(command))
+          .cgroups(cgroups)
+          .unchangedExitCode(config.getUnchangedExitCodes().get(command));
+      if (config.getWorkerCommands().contains(command)) {
+        runner.persistentWorker();
+      } else {
+        runner.captureBytes(config.getCaptureOutputBytes()).logs(logs);
+      }
+      runnerBuilder.put(command, runner.build());
     }
     this.commands = runnerBuilder.build();
 
-    scheduleAutomaticRun();
+    this.idleCommands = new TimerWheel<>(SCHEDULE_TICK_MILLIS, clock.instant());
+    this.timeoutDeadlines = new TimerWheel<>(SCHEDULE_TICK_MILLIS, clock.instant());
+    this.pendingCommands = new LinkedHashSet<>();
+    this.activeCommands = new LinkedHashSet<CommandRunner>();
+    this.changedWhileActive = new HashSet<>();
+    this.deferredSince = new HashMap<>();
+    this.conditionRetries = new HashMap<>();
+    this.conditionPasses = new HashMap<>();
+    this.evaluatingConditions = new HashSet<>();
+    this.pressureReason = null;
+    this.manualRunRequests = 0;
+    this.networkChanges = 0;
+    this.criticalPathMillis = null;
+    this.criticalPathTime = Instant.MIN;
+    synchronized (this) {
+      for (String command : commands.keySet()) {
+        ImmutableList<CommandEvent> events = history.getCommandHistory(command);
+        if (events.isEmpty()) {
+          // The history will normally have a last execution, but in case it doesn't (e.g. first
+          // run) we fallback to current time.
+          LOG.warning("No previous execution found, scheduling immediate start of " + command);
+          scheduleCommand(command, clock.instant());
+        } else {
+          scheduleCommand(command, schedules.get(command).resumeRun(events));
+        }
+      }
+      this.snapshot = new AtomicReference<>(ExecutiveSnapshot.of(0, calculateStatus(),
+          ImmutableList.<String>of(), nextRun(), Optional.<String>absent()));
+    }
   }
 
   /**
@@ -115,7 +292,22 @@ public class Executive {
    * @param config a {@link Configuration} used for initialization
    */
   public static Executive from(Configuration config) {
-    return new Executive(config);
+    return new Executive(config,
+        config.getSsid().isPresent() ? WifiStatusChecker.of(config.getSsid().get()) : null,
+        config.getMaxPressure().isEmpty() && !config.getMaxLoad().isPresent()
+            ? null
+            : HostPressureMonitor.of(config.getMaxPressure(), config.getMaxLoad()));
+  }
+
+  @VisibleForTesting
+  static Executive from(Configuration config, @Nullable WifiStatusChecker wifiStatus) {
+    return from(config, wifiStatus, null);
+  }
+
+  @VisibleForTesting
+  static Executive from(Configuration config, @Nullable WifiStatusChecker wifiStatus,
+      @Nullable HostPressureMonitor hostPressure) {
+    return new Executive(config, wifiStatus, hostPressure);
   }
 
   /**
@@ -125,15 +317,48 @@ public class Executive {
     return history;
   }
 
+  /**
+   * Returns the most recently published snapshot of the executive state, without blocking.
+   */
+  public ExecutiveSnapshot getSnapshot() {
+    return snapshot.get();
+  }
+
   /**
    * Returns the overall status of execution.
    */
-  public synchronized Status getStatus() {
+  public Status getStatus() {
+    return snapshot.get().getStatus();
+  }
+
+  /**
+   * Returns the commands that are currently running, in the order they were started.
+   */
+  public ImmutableList<String> getActiveCommands() {
+    return snapshot.get().getActiveCommands();
+  }
+
+  /**
+   * Returns the counters of the cache shared by the conditions of all commands, keyed by the
+   * description of each condition.
+   */
+  public ImmutableSortedMap<String, ConditionCache.Stats> getConditionStats() {
+    return ConditionCache.shared().getStats();
+  }
+
+  /**
+   * Returns the overall status of execution calculated from the current state.
+   *
+   * <p>Preconditions: The caller holds the monitor for this object.
+   */
+  private Status calculateStatus() {
     if (runnerThread == null) {
       return Status.TERMINATED;
     } else if (blockedOnWifi) {
       return Status.BLOCKED_ON_WIFI;
-    } else if (activeCommand != null) {
+    } else if (pressureReason != null) {
+      return Status.BLOCKED_ON_PRESSURE;
+    } else if (!activeCommands.isEmpty()) {
       return Status.RUNNING;
     } else if (history.getStatus() == HistoryStatus.FAILED) {
       return Status.FAILURE;
@@ -143,14 +368,13 @@ public class Executive {
   }
 
   /**
-   * Returns the command that is currently running, if any.
+   * Returns the time at which the next idle command is due, if any.
+   *
+   * <p>Preconditions: The caller holds the monitor for this object.
    */
-  public synchronized Optional<String> getActiveCommand() {
-    if (activeCommand == null) {
-      return Optional.absent();
-    } else {
-      return Optional.of(activeCommand.toString());
-    }
+  private Optional<Instant> nextRun() {
+    Instant next = idleCommands.nextDeadline();
+    return next.equals(Instant.MAX) ? Optional.<Instant>absent() : Optional.of(next);
   }
 
   /**
@@ -160,6 +384,7 @@ public class Executive {
     Preconditions.checkState(runnerThread == null, "Cannot start running executive");
     runnerThread = new Thread(this.new ExecutiveRunner());
     runnerThread.start();
+    sendStatus();
   }
 
   /**
@@ -170,16 +395,18 @@ public class Executive {
       Preconditions.checkState(runnerThread == null, "Cannot start running executive");
       runnerThread = Thread.currentThread();
     }
+    sendStatus();
     this.new ExecutiveRunner().run();
   }
 
   /**
-   * Start a new execution of the commands immediately, unless one is already in progress or
-   * unless WiFi state currently prevents execution. 
+   * Start a new execution of all commands that are not already running immediately, unless
+   * WiFi state currently prevents execution.
    */
   public synchronized void runNow() {
     LOG.info("Scheduling manual start at current time");
-    manualRunTime = this.clock.instant();
+    manualRunRequests++;
+    notifyAll();
   }
 
   /**
@@ -187,20 +414,36 @@ public class Executive {
    *
    * @param listener a {@link StatusListener} that will receive callbacks
    */
-  public synchronized void registerListener(StatusListener listener) {
-    Preconditions.checkState(
-        !listeners.contains(listener), "Cannot register a listener more than once");
-    listeners.add(listener);
+  public void registerListener(StatusListener listener) {
+    dispatcher.register(listener);
   }
   /**
    * Removes a {@link StatusListener} from the set which receive state change notices.
    *
    * @param listener a {@link StatusListener} that will no longer receive callbacks
    */
-  public synchronized void unregisterListener(StatusListener listener) {
-    Preconditions.checkState(
-        listeners.contains(listener), "Cannot unregister a listener more than once");
-    listeners.remove(listener);
+  public void unregisterListener(StatusListener listener) {
+    dispatcher.unregister(listener);
+  }
+
+  /**
+   * Adds an {@link OutputSubscriber} to the set which receive command output, if output streaming
+   * is enabled. Subscribing an existing subscriber has no effect.
+   *
+   * @param subscriber an {@link OutputSubscriber} that will receive callbacks
+   */
+  public void subscribeOutput(OutputSubscriber subscriber) {
+    broadcaster.subscribe(subscriber);
+  }
+
+  /**
+   * Removes an {@link OutputSubscriber} from the set which receive command output. Unsubscribing
+   * a subscriber that is not subscribed has no effect.
+   *
+   * @param subscriber an {@link OutputSubscriber} that will no longer receive callbacks
+   */
+  public void unsubscribeOutput(OutputSubscriber subscriber) {
+    broadcaster.unsubscribe(subscriber);
   }
 
   /**
@@ -208,163 +451,628 @@ public class Executive {
    * resources, and preventing any further interaction with the object.
    */
   public void terminate() {
-    Preconditions.checkState(runnerThread != null, "Cannot terminate already terminated executive");
+    Thread runner = runnerThread;
+    Preconditions.checkState(runner != null, "Cannot terminate already terminated executive");
     // Note deliberately don't synchronize. We only communicate with the other
     // thread via an atomically set reference, and don't want to deadlock.
     LOG.info("Starting termination, waiting for runner to stop");
-    runnerThread.interrupt();
-    while (runnerThread != null) {
+    runner.interrupt();
+    boolean interrupted = false;
+    while (runner.isAlive()) {
       try {
-        Thread.sleep(COMMAND_COMPLETION_CHECK_MILLIS);
+        runner.join();
       } catch (InterruptedException e) {
-        // Nothing should interrupt the kill thread, 
+        // Nothing should interrupt the kill thread, keep waiting and restore the interrupt after.
         LOG.warning("Recieved interrupt on the termination thread, ignoring");
-        Thread.currentThread().interrupt();
+        interrupted = true;
       }
     }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
     LOG.info("Successfully finished termination");
   }
 
   /**
-   * Sets an appropriate next automatic run time given the current command history, clearing any
-   * previous manual run request.
+   * Queues an idle command to next run at the supplied time, and signals the change in schedule.
+   *
+   * <p>Preconditions: The caller holds the monitor for this object.
    */
-  private synchronized void scheduleAutomaticRun() {
-    Optional<Instant> oldestStart = history.getOldestStart();
-    if (oldestStart.isPresent()) {
-      automaticRunTime = oldestStart.get().plus(runIntervalSec, ChronoUnit.SECONDS);
-      LOG.info(String.format("Scheduling next start for %s", TIME_FMT.format(automaticRunTime)));
+  private void scheduleCommand(String command, Instant nextRun) {
+    idleCommands.schedule(command, nextRun);
+    LOG.info(String.format(
+        "Scheduling next start of %s for %s", command, TIME_FMT.format(nextRun)));
+    notifyAll();
+  }
+
+  /**
+   * Blocks the calling thread until the supplied deadline is reached or until another thread
+   * signals a change in schedule, whichever happens first. Spurious wakeups are possible so
+   * callers must recheck their condition in a loop.
+   *
+   * <p>Preconditions: The caller holds the monitor for this object.
+   */
+  private void awaitScheduleChange(Instant deadline) throws InterruptedException {
+    if (deadline.equals(Instant.MAX)) {
+      wait();
     } else {
-      // The history will normally have a last execution, but in case it doesn't (e.g. first run)
-      // we fallback to current time.
-      automaticRunTime = clock.instant();
-      LOG.warning("Scheduling next start as current time - no previous completion found");
+      long remainingMillis = Duration.between(clock.instant(), deadline).toMillis();
+      if (remainingMillis > 0) {
+        wait(remainingMillis);
+      }
     }
-    manualRunTime = Instant.MAX;
   }
 
   /**
-   * Sends the current status to all registered listeners.
+   * Publishes a new snapshot if the state has changed, and sends its status to all registered
+   * listeners. Delivery is asynchronous so this never blocks on a listener, but publishing under
+   * the monitor ensures snapshots and statuses are published in the order they were calculated.
    */
   private synchronized void sendStatus() {
-    Status status = getStatus();
-    for (StatusListener listener : listeners) {
-      listener.receiveStatus(status);
+    ImmutableList.Builder<String> active = ImmutableList.builder();
+    for (CommandRunner command : activeCommands) {
+      active.add(command.getCommand());
+    }
+    Optional<String> blockedReason = Optional.absent();
+    if (blockedOnWifi) {
+      blockedReason = Optional.of("Waiting for wifi SSID " + wifiStatus.getTargetSsid());
+    } else if (pressureReason != null) {
+      blockedReason = Optional.of("Deferring commands while " + pressureReason);
+    }
+    ExecutiveSnapshot previous = snapshot.get();
+    ExecutiveSnapshot current =
+        previous.update(calculateStatus(), active.build(), nextRun(), blockedReason);
+    if (current != previous) {
+      snapshot.set(current);
+      dispatcher.publish(current.getStatus());
     }
   }
 
+  /**
+   * Records the completion of a command that was started by the runner, schedules its next run,
+   * then wakes the runner so it can start any further commands. The interval chosen by the
+   * schedule is recorded with the event. This is called on whichever thread completes the
+   * command, so must not be called while holding the monitor of the {@link CommandRunner}.
+   */
+  private void handleCompletion(CommandRunner command, CommandEvent event) {
+    String name = command.getCommand();
+    List<CommandEvent> events = new ArrayList<>(history.getCommandHistory(name));
+    events.add(event);
+    Instant nextRun = schedules.get(name).nextRun(events);
+    history.recordEvent(
+        name, event.withScheduledInterval(Duration.between(event.getStart(), nextRun)));
+    synchronized (this) {
+      activeCommands.remove(command);
+      timeoutDeadlines.cancel(name);
+      if (changedWhileActive.remove(name)) {
+        LOG.info("Watched paths changed during execution, rerunning " + name);
+        scheduleCommand(name, clock.instant());
+      } else {
+        scheduleCommand(name, nextRun);
+      }
+    }
+    sendStatus();
+  }
+
+  /**
+   * Starts an idle command whose watched paths have changed without waiting for its schedule, or
+   * arranges for an active command to run again once it completes. Changes to pending commands
+   * need no action since they will start anyway.
+   */
+  private synchronized void handlePathChange(String command) {
+    if (idleCommands.contains(command)) {
+      LOG.info("Watched paths changed, scheduling immediate start of " + command);
+      scheduleCommand(command, clock.instant());
+    } else if (activeCommands.contains(commands.get(command))) {
+      changedWhileActive.add(command);
+    }
+  }
+
+  /**
+   * Discards the cached wifi and condition results after a change in the network, then wakes the
+   * runner so that any command waiting on them is reconsidered immediately.
+   */
+  private synchronized void handleNetworkChange() {
+    LOG.fine("Network changed, rechecking wifi and conditions");
+    networkChanges++;
+    if (wifiStatus != null) {
+      wifiStatus.invalidate();
+    }
+    nextWifiCheck = Instant.MIN;
+    wifiPassUntil = Instant.MIN;
+    ConditionCache.shared().invalidate();
+    conditionRetries.replaceAll((command, retry) -> Instant.MIN);
+    conditionPasses.clear();
+    notifyAll();
+  }
+
+  /**
+   * Records the result of evaluating the condition of a pending command, then wakes the runner so
+   * it can start the command or consider others. Results are discarded if the command is no
+   * longer pending or the network changed during the evaluation, since they may be stale.
+   *
+   * @param evaluationNetworkChanges the number of network changes when the evaluation started
+   */
+  private synchronized void handleConditionResult(String command, Condition condition,
+      long evaluationNetworkChanges, boolean satisfied) {
+    evaluatingConditions.remove(command);
+    if (pendingCommands.contains(command) && evaluationNetworkChanges == networkChanges) {
+      // A result is reused for no less than the minimum retry, so a condition with a short cache
+      // lifetime is not evaluated continuously.
+      Duration lifetime = condition.getCacheTtl().compareTo(MIN_CONDITION_RETRY) > 0
+          ? condition.getCacheTtl()
+          : MIN_CONDITION_RETRY;
+      if (satisfied) {
+        conditionPasses.put(command, clock.instant().plus(lifetime));
+      } else if (conditionRetries.put(command, clock.instant().plus(lifetime)) == null) {
+        LOG.info(String.format("Deferring %s until condition holds: %s", command, condition));
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Records the result of checking the wifi, then wakes the runner so it can start commands or
+   * wait for the wifi. While the wifi is not connected it is only checked again after a delay,
+   * which is short when network changes are not being watched. Results are discarded if the
+   * network changed during the check, since they may be stale.
+   *
+   * @param checkNetworkChanges the number of network changes when the check started
+   */
+  private synchronized void handleWifiResult(long checkNetworkChanges, boolean connected) {
+    checkingWifi = false;
+    if (checkNetworkChanges == networkChanges) {
+      Instant now = clock.instant();
+      if (connected) {
+        wifiPassUntil = now.plus(WifiStatusChecker.CACHE_TTL);
+        if (blockedOnWifi) {
+          LOG.info(String.format("Now connected to wifi SSID: %s", wifiStatus.getTargetSsid()));
+          blockedOnWifi = false;
+        }
+      } else {
+        if (!blockedOnWifi) {
+          LOG.info(String.format("Waiting for wifi SSID: %s", wifiStatus.getTargetSsid()));
+          blockedOnWifi = true;
+        }
+        nextWifiCheck = now.plusMillis(networkWatcher != null && networkWatcher.isWatching()
+            ? WATCHED_WIFI_STATUS_CHECK_MILLIS
+            : WIFI_STATUS_CHECK_MILLIS);
+      }
+    }
+    notifyAll();
+  }
+
   /**
    * Inner class to handle the actual execution on a dedicated thread.
    */
   private class ExecutiveRunner implements Runnable {
 
+    private long handledManualRunRequests = 0;
+
     @Override
     public void run() {
+      startWatchingPaths();
+      startWatchingNetwork();
       try {
         while (!Thread.currentThread().isInterrupted()) {
-          waitUntilNextRun();
-          runCommandSet();
-          scheduleAutomaticRun();
+          startCommand(commands.get(waitForReadyCommand()));
         }
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       } catch (Exception e) {
         LOG.log(Level.SEVERE, "Fatal exception", e);
       }
-      // Send our final status out to any remaining listeners
+      terminateActiveCommands();
+      conditionExecutor.shutdown();
+      for (CommandRunner command : commands.values()) {
+        command.close();
+      }
+      history.close();
+      if (pathWatcher != null) {
+        pathWatcher.close();
+      }
+      if (networkWatcher != null) {
+        networkWatcher.close();
+      }
+      synchronized (Executive.this) {
+        runnerThread = null;
+      }
+      // Send our final status out to any remaining listeners, giving them a short time to
+      // receive it before the application exits.
       sendStatus();
-      //Communicate back to the parent that we stopped by clearing its reference.
-      runnerThread = null;
+      // Clear any interrupt that triggered shutdown while we wait, then restore it.
+      boolean interrupted = Thread.interrupted();
+      try {
+        if (!dispatcher.awaitDelivery(FINAL_STATUS_DELIVERY)) {
+          LOG.warning("Timed out delivering final status to listeners");
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
 
     /**
-     * Runs all commands in order, waiting until execution is complete and gating
-     * on the availability of wifi before starting each.
+     * Begins watching for changes to the paths watched by each command, if any. Failing to watch
+     * is not fatal since commands still run on their schedules.
      */
-    private void runCommandSet() throws InterruptedException {
+    private void startWatchingPaths() {
+      if (watchedPaths.isEmpty()) {
+        return;
+      }
       try {
-        for (CommandRunner command : commands) {
-          waitUntilWifi();
-          runCommand(command);
-        }
-      } finally {
-        activeCommand = null;
-        sendStatus();
+        pathWatcher = PathWatcher.create(watchedPaths, watchDebounce, watchMaxDelay,
+            Executive.this::handlePathChange);
+        pathWatcher.start();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Could not watch paths, commands will only run on schedule", e);
       }
     }
 
     /**
-     * Runs a single command, waiting until execution is complete, and terminating the process
-     * upon interruption.
+     * Begins watching for network changes if wifi or any condition must be checked. Without a
+     * watcher these are only checked periodically.
      */
-    private void runCommand(CommandRunner command) throws InterruptedException {
-      if (!Thread.currentThread().isInterrupted()) {
-        try {
-          activeCommand = command;
-          sendStatus();
-          command.start();
-          while (command.isRunning() && !Thread.currentThread().isInterrupted()) {
-            Thread.sleep(COMMAND_COMPLETION_CHECK_MILLIS);
+    private void startWatchingNetwork() {
+      if (wifiStatus == null && conditions.isEmpty()) {
+        return;
+      }
+      networkWatcher = NetworkWatcher.create(Executive.this::handleNetworkChange);
+      try {
+        networkWatcher.start();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING,
+            "Could not watch network, wifi and conditions will only be checked periodically", e);
+        networkWatcher = null;
+      }
+    }
+
+    /**
+     * Waits until a pending command is ready to start, moving idle commands to pending as they
+     * become due and terminating active commands that exceed their timeout. A command is ready
+     * when its prerequisites have succeeded, its condition if any has held, fewer than the maximum
+     * number of parallel commands are running, and the host is connected to the configured wifi.
+     * When more than one command is ready the one with the longest critical path is returned,
+     * unless host pressure defers it. The returned command remains pending.
+     */
+    private String waitForReadyCommand() throws InterruptedException {
+      while (true) {
+        List<String> overdue;
+        synchronized (Executive.this) {
+          while (true) {
+            if (manualRunRequests > handledManualRunRequests) {
+              handledManualRunRequests = manualRunRequests;
+              LOG.info("Current time after manual start, marking all idle commands as due");
+              pendingCommands.addAll(idleCommands.drain());
+              conditionRetries.replaceAll((command, retry) -> Instant.MIN);
+              nextWifiCheck = Instant.MIN;
+            }
+            for (String due : idleCommands.expire(clock.instant())) {
+              LOG.info(String.format("Current time after scheduled start of %s", due));
+              pendingCommands.add(due);
+            }
+            overdue = timeoutDeadlines.expire(clock.instant());
+            if (!overdue.isEmpty()) {
+              break;
+            }
+            skipBlockedCommands();
+            pressureReason = null;
+            if (activeCommands.size() < maxParallel && hasEligibleCommand()) {
+              if (admitOnWifi()) {
+                evaluateConditions();
+                String ready = selectReadyCommand();
+                if (ready != null) {
+                  ready = admitUnderPressure(ready);
+                  if (ready != null) {
+                    return ready;
+                  }
+                }
+              }
+            }
+            // Publish any change in the next run time before sleeping until it.
+            sendStatus();
+            Instant nextDeadline = idleCommands.nextDeadline();
+            if (timeoutDeadlines.nextDeadline().isBefore(nextDeadline)) {
+              nextDeadline = timeoutDeadlines.nextDeadline();
+            }
+            for (Instant retry : conditionRetries.values()) {
+              if (retry.isAfter(clock.instant()) && retry.isBefore(nextDeadline)) {
+                nextDeadline = retry;
+              }
+            }
+            if (pressureReason != null) {
+              Instant nextCheck = clock.instant().plus(HostPressureMonitor.CHECK_INTERVAL);
+              if (nextCheck.isBefore(nextDeadline)) {
+                nextDeadline = nextCheck;
+              }
+            }
+            // A check that is running or overdue is only waited for through its result or a
+            // command becoming eligible.
+            if (blockedOnWifi && !checkingWifi && nextWifiCheck.isAfter(clock.instant())
+                && nextWifiCheck.isBefore(nextDeadline)) {
+              nextDeadline = nextWifiCheck;
+            }
+            awaitScheduleChange(nextDeadline);
           }
-        } finally {
-          command.terminate();
-          history.recordEvent(command.getCommand(), command.getLastExecution());
+        }
+        // Terminate outside the monitor since the completion callbacks require it. Each records
+        // its event once its processes have exited, freeing its slot and any dependents.
+        for (String command : overdue) {
+          LOG.warning(String.format("Command exceeded timeout of %d sec: %s",
+              timeouts.get(command).getSeconds(), command));
+          commands.get(command).timeOut();
         }
       }
     }
 
     /**
-     * Waits until the next scheduled or manually requested run time.
+     * Returns the pending command with the longest critical path whose prerequisites have
+     * succeeded, or null if no command is ready. Critical paths are based on the history so are
+     * only recalculated periodically, since doing so takes time proportional to all commands.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
      */
-    private void waitUntilNextRun() throws InterruptedException {
-      while (!Thread.currentThread().isInterrupted()) {
-        Instant now = clock.instant();
-        if (now.isAfter(manualRunTime)) {
-          LOG.info(String.format(
-              "Current time after manual start of %s", TIME_FMT.format(manualRunTime)));
-          break;
-        } else if (now.isAfter(automaticRunTime)) {
-          LOG.info(String.format(
-              "Current time after automatic start of %s", TIME_FMT.format(automaticRunTime)));
-          break;
+    private @Nullable String selectReadyCommand() {
+      Instant now = clock.instant();
+      if (criticalPathMillis == null
+          || now.isAfter(criticalPathTime.plus(CRITICAL_PATH_REFRESH))) {
+        criticalPathMillis = graph.getCriticalPathMillis(history);
+        criticalPathTime = now;
+      }
+      String selected = null;
+      for (String command : pendingCommands) {
+        if (isReady(command, now)
+            && (selected == null
+                || criticalPathMillis.get(command) > criticalPathMillis.get(selected))) {
+          selected = command;
         }
-        Thread.sleep(MANUAL_REQUEST_CHECK_MILLIS);
       }
+      return selected;
     }
 
     /**
-     * Waits until the specified wifi SSID is connected, or returns immediately if
-     * no wifi SSID was specified.
+     * Returns true iff the host was recently found to be connected to the configured wifi, or no
+     * wifi is configured. Otherwise begins checking the wifi unless it is already being checked or
+     * commands are waiting for it and the next check is not yet due. Checking may read the SSID
+     * through another process so is performed on a separate thread, and each result is recorded
+     * by {@link Executive#handleWifiResult}.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
      */
-    private void waitUntilWifi() throws InterruptedException {
-      // Try the initial run without any logging or fallback.
-      if (wifiStatus == null || wifiStatus.connected()) {
-        return;
+    private boolean admitOnWifi() {
+      if (wifiStatus == null) {
+        return true;
       }
-
-      // After the initial, only check after a time delay or a manual run request;
-      // the wifi checker is quite expensive.
-      try {
-        LOG.info(String.format("Waiting for wifi SSID: %s", wifiStatus.getTargetSsid()));
-        Instant nextCheckTime = clock.instant().plus(WIFI_STATUS_CHECK_MILLIS, ChronoUnit.MILLIS);
-        Instant cachedManualRunTime = manualRunTime;
-        blockedOnWifi = true;
-        sendStatus();
-        while (!Thread.currentThread().isInterrupted()) {
-          if (clock.instant().isAfter(nextCheckTime) || manualRunTime != cachedManualRunTime) {
-            if (wifiStatus.connected()) {
-              LOG.info(String.format("Now connected to wifi SSID: %s", wifiStatus.getTargetSsid()));
-              return;
-            } else {
-              nextCheckTime = clock.instant().plus(WIFI_STATUS_CHECK_MILLIS, ChronoUnit.MILLIS);
-              cachedManualRunTime = manualRunTime;
+      Instant now = clock.instant();
+      if (now.isBefore(wifiPassUntil)) {
+        return true;
+      }
+      if (checkingWifi || (blockedOnWifi && now.isBefore(nextWifiCheck))) {
+        return false;
+      }
+      checkingWifi = true;
+      long checkNetworkChanges = networkChanges;
+      WifiStatusChecker checker = wifiStatus;
+      CompletableFuture.supplyAsync(checker::connected, conditionExecutor)
+          .whenComplete((connected, e) -> {
+            if (e != null) {
+              LOG.log(Level.WARNING, "Exception checking wifi status", e);
             }
+            handleWifiResult(checkNetworkChanges, e == null && connected);
+          });
+      // The check may already have completed and been recorded on this thread.
+      return clock.instant().isBefore(wifiPassUntil);
+    }
+
+    /**
+     * Begins evaluating the condition of each pending command that is waiting only on its
+     * condition. Conditions may probe the network so are evaluated on separate threads, and each
+     * result is recorded by {@link Executive#handleConditionResult}.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
+     */
+    private void evaluateConditions() {
+      Instant now = clock.instant();
+      for (String command : pendingCommands) {
+        Condition condition = conditions.get(command);
+        if (condition == null || !isEligible(command, now)
+            || conditionPasses.getOrDefault(command, Instant.MIN).isAfter(now)) {
+          continue;
+        }
+        evaluatingConditions.add(command);
+        long evaluationNetworkChanges = networkChanges;
+        CompletableFuture.supplyAsync(condition::isSatisfied, conditionExecutor)
+            .whenComplete((satisfied, e) -> {
+              if (e != null) {
+                LOG.log(Level.WARNING, "Exception evaluating condition " + condition, e);
+              }
+              handleConditionResult(command, condition, evaluationNetworkChanges,
+                  e == null && satisfied);
+            });
+      }
+    }
+
+    /**
+     * Returns the command to start given the most urgent ready command, or null if host pressure
+     * defers every ready command, in which case the reason is recorded. A command that has been
+     * deferred for the maximum deferral is started regardless, ahead of more urgent commands that
+     * have been deferred for less time. Since readings are reused for a short interval this is
+     * cheap enough to call under the monitor.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
+     */
+    private @Nullable String admitUnderPressure(String ready) {
+      if (hostPressure == null) {
+        return ready;
+      }
+      Optional<String> excess = hostPressure.excessivePressure();
+      if (!excess.isPresent()) {
+        return ready;
+      }
+      Instant now = clock.instant();
+      String overdue = null;
+      for (String command : pendingCommands) {
+        if (!isReady(command, now)) {
+          continue;
+        }
+        Instant since = deferredSince.get(command);
+        if (since == null) {
+          LOG.info(String.format("Deferring start of %s while %s", command, excess.get()));
+          deferredSince.put(command, now);
+          since = now;
+        }
+        if (overdue == null && !now.isBefore(since.plus(maxPressureDeferral))) {
+          overdue = command;
+        }
+      }
+      if (overdue != null) {
+        LOG.warning(String.format("Starting %s despite %s after maximum deferral of %d sec",
+            overdue, excess.get(), maxPressureDeferral.getSeconds()));
+        return overdue;
+      }
+      pressureReason = excess.get();
+      return null;
+    }
+
+    /**
+     * Returns true iff the supplied pending command may start, since it is eligible and has no
+     * condition or its condition has recently held.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
+     */
+    private boolean isReady(String command, Instant now) {
+      return isEligible(command, now) && (!conditions.containsKey(command)
+          || conditionPasses.getOrDefault(command, Instant.MIN).isAfter(now));
+    }
+
+    /**
+     * Returns true iff the supplied pending command's prerequisites have succeeded, it is not
+     * waiting to retry its condition, and its condition is not being evaluated.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
+     */
+    private boolean isEligible(String command, Instant now) {
+      Instant retry = conditionRetries.get(command);
+      return (retry == null || !retry.isAfter(now))
+          && !evaluatingConditions.contains(command)
+          && prerequisitesSucceeded(command);
+    }
+
+    /**
+     * Returns true iff any pending command is eligible to start, so that wifi and conditions
+     * need to be checked.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
+     */
+    private boolean hasEligibleCommand() {
+      Instant now = clock.instant();
+      for (String command : pendingCommands) {
+        if (isEligible(command, now)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns true iff all prerequisites of the supplied command are idle and their most recent
+     * execution succeeded. Note a command remains active until its completion has been recorded
+     * in the history.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
+     */
+    private boolean prerequisitesSucceeded(String command) {
+      for (String prerequisite : graph.getPrerequisites(command)) {
+        if (pendingCommands.contains(prerequisite)
+            || activeCommands.contains(commands.get(prerequisite))
+            || !lastExecutionSucceeded(prerequisite)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns pending commands to the idle queue if any of their prerequisites are idle but did
+     * not succeed on their most recent execution, since these commands can not become ready until
+     * the prerequisite runs again.
+     *
+     * <p>Preconditions: The caller holds the monitor for the {@link Executive}.
+     */
+    private void skipBlockedCommands() {
+      Iterator<String> iterator = pendingCommands.iterator();
+      while (iterator.hasNext()) {
+        String command = iterator.next();
+        for (String prerequisite : graph.getPrerequisites(command)) {
+          if (idleCommands.contains(prerequisite) && !lastExecutionSucceeded(prerequisite)) {
+            LOG.warning(String.format(
+                "Skipping %s since prerequisite %s has not succeeded", command, prerequisite));
+            iterator.remove();
+            deferredSince.remove(command);
+            conditionRetries.remove(command);
+            conditionPasses.remove(command);
+            scheduleCommand(command, schedules.get(command).nextRun(clock.instant()));
+            break;
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns true iff the most recent execution of the supplied command succeeded.
+     */
+    private boolean lastExecutionSucceeded(String command) {
+      ImmutableList<CommandEvent> events = history.getCommandHistory(command);
+      return !events.isEmpty() && Iterables.getLast(events).isSuccessful();
+    }
+
+    /**
+     * Starts a single pending command, arranging for its completion to be recorded asynchronously.
+     */
+    private void startCommand(CommandRunner command) {
+      synchronized (Executive.this) {
+        pendingCommands.remove(command.getCommand());
+        deferredSince.remove(command.getCommand());
+        conditionRetries.remove(command.getCommand());
+        conditionPasses.remove(command.getCommand());
+        activeCommands.add(command);
+        Duration timeout = timeouts.get(command.getCommand());
+        if (timeout != null) {
+          timeoutDeadlines.schedule(command.getCommand(), clock.instant().plus(timeout));
+        }
+      }
+      sendStatus();
+      command.start().thenAccept(event -> handleCompletion(command, event));
+    }
+
+    /**
+     * Terminates all running commands and waits until their completion callbacks have recorded
+     * the events, which each runner bounds by its termination grace period.
+     */
+    private void terminateActiveCommands() {
+      ImmutableList<CommandRunner> remaining;
+      synchronized (Executive.this) {
+        remaining = ImmutableList.copyOf(activeCommands);
+      }
+      // Terminate outside the monitor since the completion callbacks require it.
+      for (CommandRunner command : remaining) {
+        command.terminate();
+      }
+      // Clear any interrupt that triggered shutdown while we wait, then restore it.
+      boolean interrupted = Thread.interrupted();
+      synchronized (Executive.this) {
+        while (!activeCommands.isEmpty()) {
+          try {
+            Executive.this.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
           }
-          Thread.sleep(MANUAL_REQUEST_CHECK_MILLIS);
         }
-      } finally {
-        blockedOnWifi = false;
-        sendStatus();
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
     }
   }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import java.time.Instant;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.jsankey.overseer.Executive.Status;
+
+/**
+ * An immutable view of the state of the {@link Executive} at a single point in time. A new
+ * snapshot with a higher version number is published each time the state changes, so readers
+ * may detect changes by comparing versions.
+ *
+ * @author Jody
+ */
+public class ExecutiveSnapshot {
+
+  private final long version;
+  private final Status status;
+  private final ImmutableList<String> activeCommands;
+  private final Optional<Instant> nextRun;
+  private final Optional<String> blockedReason;
+
+  private ExecutiveSnapshot(long version, Status status, ImmutableList<String> activeCommands,
+      Optional<Instant> nextRun, Optional<String> blockedReason) {
+    this.version = version;
+    this.status = status;
+    this.activeCommands = activeCommands;
+    this.nextRun = nextRun;
+    this.blockedReason = blockedReason;
+  }
+
+  /**
+   * Constructs a new {@link ExecutiveSnapshot}.
+   *
+   * @param version the version number, increasing with each change in state
+   * @param status the overall status of the executive
+   * @param activeCommands the commands currently running, in the order they were started
+   * @param nextRun the time at which the next idle command is scheduled to start, if any
+   * @param blockedReason a description of why commands are prevented from starting, if they are
+   */
+  public static ExecutiveSnapshot of(long version, Status status,
+      ImmutableList<String> activeCommands, Optional<Instant> nextRun,
+      Optional<String> blockedReason) {
+    return new ExecutiveSnapshot(version, status, activeCommands, nextRun, blockedReason);
+  }
+
+  /**
+   * Returns a snapshot with the supplied state, reusing this snapshot if the state is unchanged
+   * or otherwise using the next version number.
+   */
+  ExecutiveSnapshot update(Status status, ImmutableList<String> activeCommands,
+      Optional<Instant> nextRun, Optional<String> blockedReason) {
+    if (this.status == status
+        && this.activeCommands.equals(activeCommands)
+        && this.nextRun.equals(nextRun)
+        && this.blockedReason.equals(blockedReason)) {
+      return this;
+    }
+    return new ExecutiveSnapshot(version + 1, status, activeCommands, nextRun, blockedReason);
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public ImmutableList<String> getActiveCommands() {
+    return activeCommands;
+  }
+
+  public Optional<Instant> getNextRun() {
+    return nextRun;
+  }
+
+  public Optional<String> getBlockedReason() {
+    return blockedReason;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("version", version)
+        .add("status", status)
+        .add("activeCommands", activeCommands)
+        .add("nextRun", nextRun)
+        .add("blockedReason", blockedReason)
+        .toString();
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jsankey.overseer.Executive.OutputSubscriber;
+import com.jsankey.overseer.runner.OutputListener;
+
+/**
+ * Distributes command output to each registered {@link OutputSubscriber} in batched frames.
+ *
+ * <p>Output is queued without blocking the thread reading it from the child process. Each
+ * subscriber receives at most one frame per frame interval, containing all output queued since
+ * its previous frame. Each subscriber queues a bounded amount of output, so a subscriber that is
+ * slower than the commands it watches skips ahead, discarding the oldest queued output and being
+ * told how much was skipped.
+ *
+ * <p>Output is decoded as UTF-8 as it is received, separately for each stream of each command, so
+ * a character split between reads is delivered whole once the rest of it arrives. Chunks are only
+ * ever skipped whole, so skipping never splits a character either.
+ *
+ * @author Jody
+ */
+class OutputBroadcaster implements OutputListener {
+
+  private static final Logger LOG = Logger.getLogger(OutputBroadcaster.class.getCanonicalName());
+
+  /** Default minimum time between frames delivered to one subscriber. */
+  private static final Duration DEFAULT_FRAME_INTERVAL = Duration.ofMillis(100);
+  /** Default maximum bytes of output queued for one subscriber. */
+  private static final int DEFAULT_MAX_PENDING_BYTES = 64 * 1024;
+
+  /** Output received in a single read from one stream of one command. */
+  private static class PendingChunk {
+    final String command;
+    final Stream stream;
+    final String text;
+    /** The number of bytes received, including any carried over to complete a character. */
+    final int byteCount;
+
+    PendingChunk(String command, Stream stream, String text, int byteCount) {
+      this.command = command;
+      this.stream = stream;
+      this.text = text;
+      this.byteCount = byteCount;
+    }
+  }
+
+  /**
+   * Decodes the output of one stream of one command, retaining the bytes of an incomplete final
+   * character until the remainder is received. Malformed input is replaced.
+   */
+  private static class StreamDecoder {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private byte[] carried = new byte[0];
+    /** True until the first output is decoded. */
+    private boolean first = true;
+
+    synchronized String decode(byte[] bytes, int offset, int length) {
+      ByteBuffer in = ByteBuffer.allocate(carried.length + length);
+      in.put(carried).put(bytes, offset, length).flip();
+      if (first) {
+        // Output received before decoding began may have ended part way through a character.
+        while (in.hasRemaining() && (in.get(in.position()) & 0xc0) == 0x80) {
+          in.get();
+        }
+        first = false;
+      }
+      CharBuffer out = CharBuffer.allocate(in.remaining());
+      decoder.decode(in, out, false);
+      carried = new byte[in.remaining()];
+      in.get(carried);
+      return out.flip().toString();
+    }
+  }
+
+  /** Queued output and delivery state for a single subscriber, guarded by its own monitor. */
+  private class Subscription implements Runnable {
+    private final OutputSubscriber subscriber;
+    private final ArrayDeque<PendingChunk> pending = new ArrayDeque<>();
+    private int pendingBytes = 0;
+    private long skippedBytes = 0;
+    /** True while a frame has been scheduled and not yet delivered. */
+    private boolean scheduled = false;
+
+    Subscription(OutputSubscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    synchronized void offer(PendingChunk chunk) {
+      pending.addLast(chunk);
+      pendingBytes += chunk.byteCount;
+      while (pendingBytes > maxPendingBytes && pending.size() > 1) {
+        PendingChunk dropped = pending.removeFirst();
+        pendingBytes -= dropped.byteCount;
+        skippedBytes += dropped.byteCount;
+      }
+      if (!scheduled) {
+        scheduled = true;
+        scheduleFrame();
+      }
+    }
+
+    private void scheduleFrame() {
+      scheduler.schedule(
+          () -> executor.execute(this), frameInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+      OutputFrame frame;
+      synchronized (this) {
+        frame = buildFrame(pending, skippedBytes);
+        pending.clear();
+        pendingBytes = 0;
+        skippedBytes = 0;
+      }
+      if (subscriptions.get(subscriber) == this) {
+        try {
+          subscriber.receiveOutput(frame);
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Exception delivering output to subscriber", e);
+        }
+      }
+      // Output that arrived during a slow delivery waits for the next frame interval.
+      synchronized (this) {
+        if (pending.isEmpty()) {
+          scheduled = false;
+        } else {
+          scheduleFrame();
+        }
+      }
+    }
+  }
+
+  private final ScheduledExecutorService scheduler;
+  private final Executor executor;
+  private final Duration frameInterval;
+  private final int maxPendingBytes;
+  private final Map<OutputSubscriber, Subscription> subscriptions;
+  /** The decoder of each stream of each command, only retained while there are subscribers. */
+  private final Map<Map.Entry<String, Stream>, StreamDecoder> decoders;
+
+  @VisibleForTesting
+  OutputBroadcaster(ScheduledExecutorService scheduler, Executor executor,
+      Duration frameInterval, int maxPendingBytes) {
+    this.scheduler = scheduler;
+    this.executor = executor;
+    this.frameInterval = frameInterval;
+    this.maxPendingBytes = maxPendingBytes;
+    this.subscriptions = new ConcurrentHashMap<>();
+    this.decoders = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Constructs a new {@link OutputBroadcaster} that times frames on a single daemon thread and
+   * delivers them on a pool of daemon threads, growing as needed to give each slow subscriber its
+   * own thread.
+   */
+  static OutputBroadcaster create() {
+    return new OutputBroadcaster(
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("output-frame-%d")
+            .build()),
+        Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("output-dispatch-%d")
+            .build()),
+        DEFAULT_FRAME_INTERVAL,
+        DEFAULT_MAX_PENDING_BYTES);
+  }
+
+  /**
+   * Adds a subscriber that will receive all output written after this call. Subscribing an
+   * existing subscriber has no effect.
+   */
+  void subscribe(OutputSubscriber subscriber) {
+    subscriptions.putIfAbsent(subscriber, new Subscription(subscriber));
+  }
+
+  /**
+   * Removes a subscriber, which will receive no further output once any delivery already in
+   * progress has completed. Unsubscribing a subscriber that is not subscribed has no effect.
+   */
+  void unsubscribe(OutputSubscriber subscriber) {
+    subscriptions.remove(subscriber);
+  }
+
+  @Override
+  public void receiveOutput(String command, Stream stream, byte[] bytes, int offset, int length) {
+    if (subscriptions.isEmpty()) {
+      // Partial characters would be stale by the time anyone subscribes.
+      decoders.clear();
+      return;
+    }
+    String text = decoders
+        .computeIfAbsent(Maps.immutableEntry(command, stream), key -> new StreamDecoder())
+        .decode(bytes, offset, length);
+    // A single chunk is shared between all subscribers since it is never modified.
+    PendingChunk chunk = new PendingChunk(command, stream, text, length);
+    for (Subscription subscription : subscriptions.values()) {
+      subscription.offer(chunk);
+    }
+  }
+
+  /**
+   * Returns a frame containing the supplied output, with consecutive output from the same stream
+   * of the same command combined into a single chunk.
+   */
+  private static OutputFrame buildFrame(Iterable<PendingChunk> pending, long skippedBytes) {
+    ImmutableList.Builder<OutputFrame.Chunk> chunks = ImmutableList.builder();
+    PendingChunk first = null;
+    StringBuilder combined = new StringBuilder();
+    for (PendingChunk chunk : pending) {
+      if (first != null && (!first.command.equals(chunk.command) || first.stream != chunk.stream)) {
+        chunks.add(toChunk(first, combined));
+        combined.setLength(0);
+        first = null;
+      }
+      if (first == null) {
+        first = chunk;
+      }
+      combined.append(chunk.text);
+    }
+    if (first != null) {
+      chunks.add(toChunk(first, combined));
+    }
+    return OutputFrame.of(chunks.build(), skippedBytes);
+  }
+
+  private static OutputFrame.Chunk toChunk(PendingChunk first, StringBuilder combined) {
+    return OutputFrame.Chunk.of(first.command, first.stream, combined.toString());
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import com.google.common.collect.ImmutableList;
+import com.jsankey.overseer.runner.OutputListener.Stream;
+
+/**
+ * A batch of command output delivered to an output subscriber in a single update.
+ *
+ * @author Jody
+ */
+public class OutputFrame {
+
+  /**
+   * Contiguous output written to one stream of one command.
+   */
+  public static class Chunk {
+    private final String command;
+    private final Stream stream;
+    private final String text;
+
+    private Chunk(String command, Stream stream, String text) {
+      this.command = command;
+      this.stream = stream;
+      this.text = text;
+    }
+
+    public static Chunk of(String command, Stream stream, String text) {
+      return new Chunk(command, stream, text);
+    }
+
+    public String getCommand() {
+      return command;
+    }
+
+    public Stream getStream() {
+      return stream;
+    }
+
+    public String getText() {
+      return text;
+    }
+  }
+
+  private final ImmutableList<Chunk> chunks;
+  private final long skippedBytes;
+
+  private OutputFrame(ImmutableList<Chunk> chunks, long skippedBytes) {
+    this.chunks = chunks;
+    this.skippedBytes = skippedBytes;
+  }
+
+  /**
+   * Constructs a new {@link OutputFrame}.
+   *
+   * @param chunks the output in the order it was written
+   * @param skippedBytes the number of bytes discarded before the first chunk because the
+   *     subscriber was not keeping up
+   */
+  public static OutputFrame of(ImmutableList<Chunk> chunks, long skippedBytes) {
+    return new OutputFrame(chunks, skippedBytes);
+  }
+
+  public ImmutableList<Chunk> getChunks() {
+    return chunks;
+  }
+
+  public long getSkippedBytes() {
+    return skippedBytes;
+  }
+}
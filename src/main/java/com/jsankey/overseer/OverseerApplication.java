@@ -79,7 +79,7 @@ public class OverseerApplication {
         Configuration.printVersionOn(System.out);
         System.exit(SUCCESS_EXIT_CODE);
       }
-    } catch (OptionException e) {
+    } catch (OptionException | IllegalArgumentException e) {
       System.out.println(String.format("%nError reading command line options:"));
       System.out.println(String.format("  %s%n", e.toString()));
       Configuration.printHelpOn(System.out);
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jsankey.overseer.Executive.Status;
+import com.jsankey.overseer.Executive.StatusListener;
+
+/**
+ * Delivers status changes to each registered {@link StatusListener} asynchronously, so that a
+ * slow listener never delays the publisher or other listeners.
+ *
+ * <p>Each listener has at most one delivery in progress at a time, so it receives updates in the
+ * order they were published. If further updates are published while a delivery is in progress
+ * only the most recent is retained, so a slow listener skips superseded updates and always
+ * finishes on the latest status.
+ *
+ * @author Jody
+ */
+class StatusDispatcher {
+
+  private static final Logger LOG = Logger.getLogger(StatusDispatcher.class.getCanonicalName());
+
+  /** Delivery state for a single listener. */
+  private class Subscription implements Runnable {
+    private final StatusListener listener;
+    /** The latest status not yet delivered, or null if the listener is up to date. */
+    private final AtomicReference<Status> latest = new AtomicReference<>();
+    /** True while a delivery task has been submitted and not yet finished. */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    Subscription(StatusListener listener) {
+      this.listener = listener;
+    }
+
+    void offer(Status status) {
+      latest.set(status);
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Status status = latest.getAndSet(null);
+        if (status == null) {
+          scheduled.set(false);
+          signalIdle();
+          // Recheck in case an update was offered after we emptied but before we cleared the flag.
+          if (latest.get() == null || !scheduled.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+        if (subscriptions.get(listener) != this) {
+          return;
+        }
+        try {
+          listener.receiveStatus(status);
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Exception delivering status to listener", e);
+        }
+      }
+    }
+  }
+
+  private final Executor executor;
+  private final Map<StatusListener, Subscription> subscriptions;
+
+  @VisibleForTesting
+  StatusDispatcher(Executor executor) {
+    this.executor = executor;
+    this.subscriptions = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Constructs a new {@link StatusDispatcher} that delivers on a pool of daemon threads, growing
+   * as needed to give each slow listener its own thread.
+   */
+  static StatusDispatcher create() {
+    return new StatusDispatcher(Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("status-dispatch-%d")
+        .build()));
+  }
+
+  /**
+   * Adds a listener that will receive all statuses published after this call.
+   */
+  void register(StatusListener listener) {
+    Subscription previous = subscriptions.putIfAbsent(listener, new Subscription(listener));
+    Preconditions.checkState(previous == null, "Cannot register a listener more than once");
+  }
+
+  /**
+   * Removes a listener, which will receive no further statuses once any delivery already in
+   * progress has completed.
+   */
+  void unregister(StatusListener listener) {
+    Preconditions.checkState(subscriptions.remove(listener) != null,
+        "Cannot unregister a listener more than once");
+  }
+
+  /**
+   * Waits until every listener has received the most recently published status or until the
+   * timeout expires, returning true iff all deliveries completed.
+   */
+  synchronized boolean awaitDelivery(Duration timeout) throws InterruptedException {
+    Instant deadline = Clock.systemUTC().instant().plus(timeout);
+    while (isDelivering()) {
+      long remainingMillis = Duration.between(Clock.systemUTC().instant(), deadline).toMillis();
+      if (remainingMillis <= 0) {
+        return false;
+      }
+      wait(remainingMillis);
+    }
+    return true;
+  }
+
+  /**
+   * Queues a status for delivery to all registered listeners and returns without waiting.
+   */
+  void publish(Status status) {
+    for (Subscription subscription : subscriptions.values()) {
+      subscription.offer(status);
+    }
+  }
+
+  private boolean isDelivering() {
+    for (Subscription subscription : subscriptions.values()) {
+      if (subscription.scheduled.get()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private synchronized void signalIdle() {
+    notifyAll();
+  }
+}
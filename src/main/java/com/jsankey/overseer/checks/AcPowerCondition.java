@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A {@link Condition} that holds while the host is powered externally rather than by battery,
+ * based on the supplies listed in {@code /sys/class/power_supply}. Hosts that list no external
+ * supply, such as most desktops, are assumed to be powered externally.
+ */
+class AcPowerCondition implements Condition {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(AcPowerCondition.class.getCanonicalName());
+
+  /** The types of power supply that provide external power. */
+  private static final ImmutableSet<String> EXTERNAL_TYPES =
+      ImmutableSet.of("Mains", "USB", "Wireless");
+
+  private final Path powerSupplies;
+
+  private AcPowerCondition(Path powerSupplies) {
+    this.powerSupplies = powerSupplies;
+  }
+
+  /**
+   * Returns a new {@link AcPowerCondition} reading the power supplies of the host.
+   */
+  static AcPowerCondition create() {
+    return new AcPowerCondition(Paths.get("/sys/class/power_supply"));
+  }
+
+  @VisibleForTesting
+  static AcPowerCondition create(Path powerSupplies) {
+    return new AcPowerCondition(powerSupplies);
+  }
+
+  @Override
+  public boolean isSatisfied() {
+    if (!Files.isDirectory(powerSupplies)) {
+      return true;
+    }
+    boolean sawExternal = false;
+    try (DirectoryStream<Path> supplies = Files.newDirectoryStream(powerSupplies)) {
+      for (Path supply : supplies) {
+        if (EXTERNAL_TYPES.contains(readAttribute(supply, "type"))) {
+          sawExternal = true;
+          if (readAttribute(supply, "online").equals("1")) {
+            return true;
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception listing power supplies", e);
+    }
+    return !sawExternal;
+  }
+
+  private static String readAttribute(Path supply, String attribute) {
+    try {
+      return new String(Files.readAllBytes(supply.resolve(attribute)), StandardCharsets.UTF_8)
+          .trim();
+    } catch (IOException e) {
+      return "";
+    }
+  }
+
+  @Override
+  public Duration getCost() {
+    return Duration.ofMillis(1);
+  }
+
+  @Override
+  public Duration getCacheTtl() {
+    return Duration.ofSeconds(10);
+  }
+
+  @Override
+  public String toString() {
+    return "ac_power";
+  }
+}
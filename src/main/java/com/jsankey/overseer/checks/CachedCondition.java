@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.time.Duration;
+
+/**
+ * A {@link Condition} whose results are held in a {@link ConditionCache}. While the cache holds a
+ * fresh result its cost is zero, so composite conditions evaluate it before any others.
+ */
+class CachedCondition implements Condition {
+
+  private final Condition condition;
+  private final ConditionCache cache;
+
+  private CachedCondition(Condition condition, ConditionCache cache) {
+    this.condition = condition;
+    this.cache = cache;
+  }
+
+  /**
+   * Returns a new {@link CachedCondition} wrapping the supplied condition.
+   */
+  static CachedCondition of(Condition condition, ConditionCache cache) {
+    return new CachedCondition(condition, cache);
+  }
+
+  @Override
+  public boolean isSatisfied() {
+    return cache.get(condition);
+  }
+
+  @Override
+  public Duration getCost() {
+    return cache.isFresh(condition) ? Duration.ZERO : condition.getCost();
+  }
+
+  @Override
+  public Duration getCacheTtl() {
+    return condition.getCacheTtl();
+  }
+
+  @Override
+  public String toString() {
+    return condition.toString();
+  }
+}
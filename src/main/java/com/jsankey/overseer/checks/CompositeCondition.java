@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link Condition} that holds when all, or any, of its operands hold. Operands are evaluated
+ * in order of their current cost and evaluation stops as soon as the result is known, so an
+ * expensive operand is only evaluated when the cheaper ones do not decide the result.
+ */
+class CompositeCondition implements Condition {
+
+  private final boolean all;
+  private final ImmutableList<Condition> operands;
+
+  private CompositeCondition(boolean all, ImmutableList<Condition> operands) {
+    Preconditions.checkArgument(!operands.isEmpty(), "Composite condition must have operands");
+    this.all = all;
+    this.operands = operands;
+  }
+
+  /**
+   * Returns a {@link CompositeCondition} that holds when all the supplied conditions hold.
+   */
+  static CompositeCondition all(List<Condition> operands) {
+    return new CompositeCondition(true, ImmutableList.copyOf(operands));
+  }
+
+  /**
+   * Returns a {@link CompositeCondition} that holds when any of the supplied conditions hold.
+   */
+  static CompositeCondition any(List<Condition> operands) {
+    return new CompositeCondition(false, ImmutableList.copyOf(operands));
+  }
+
+  @Override
+  public boolean isSatisfied() {
+    List<Condition> ordered = new ArrayList<>(operands);
+    ordered.sort(Comparator.comparing(Condition::getCost));
+    for (Condition operand : ordered) {
+      if (operand.isSatisfied() != all) {
+        return !all;
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Returns the total cost of the operands, the cost when every operand must be evaluated.
+   */
+  @Override
+  public Duration getCost() {
+    Duration cost = Duration.ZERO;
+    for (Condition operand : operands) {
+      cost = cost.plus(operand.getCost());
+    }
+    return cost;
+  }
+
+  @Override
+  public Duration getCacheTtl() {
+    Duration ttl = operands.get(0).getCacheTtl();
+    for (Condition operand : operands) {
+      if (operand.getCacheTtl().compareTo(ttl) < 0) {
+        ttl = operand.getCacheTtl();
+      }
+    }
+    return ttl;
+  }
+
+  @Override
+  public String toString() {
+    return "(" + Joiner.on(all ? " & " : " | ").join(operands) + ")";
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.time.Duration;
+
+/**
+ * Interface for classes that determine whether some state of the host allows a command to run.
+ * Implementations describe themselves through {@link Object#toString()} for logging.
+ */
+public interface Condition {
+  /**
+   * Returns true iff the condition currently holds. This may block while the host is probed, but
+   * should be bounded by a timeout.
+   */
+  public boolean isSatisfied();
+
+  /**
+   * Returns the typical time taken by {@link #isSatisfied()}, used to evaluate cheaper conditions
+   * first.
+   */
+  public Duration getCost();
+
+  /**
+   * Returns the time for which a result of {@link #isSatisfied()} may be reused.
+   */
+  public Duration getCacheTtl();
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Cache of {@link Condition} results shared by every command, keyed by the description of each
+ * condition so that commands with the same condition share its result.
+ *
+ * <p>A result is fresh for the cache TTL of its condition, then stale for a further TTL. A stale
+ * result is returned immediately while the condition is evaluated again in the background, so a
+ * frequently used condition is rarely waited for. Without a usable result the caller waits for
+ * an evaluation, and only one evaluation of each condition runs at a time: callers that arrive
+ * while it runs share its result rather than starting their own.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author Jody
+ */
+public class ConditionCache {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(ConditionCache.class.getCanonicalName());
+
+  private static final ConditionCache SHARED = new ConditionCache(Clock.systemUTC(),
+      Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("condition-refresh-%d")
+          .build()));
+
+  /**
+   * Counters describing the use of a single cached condition.
+   */
+  public static class Stats {
+    private final Optional<Boolean> satisfied;
+    private final long hits;
+    private final long staleHits;
+    private final long misses;
+    private final long joins;
+    private final long probes;
+    private final Duration totalProbeTime;
+    private final Duration maxProbeTime;
+
+    private Stats(Entry entry) {
+      this.satisfied = Optional.fromNullable(entry.satisfied);
+      this.hits = entry.hits;
+      this.staleHits = entry.staleHits;
+      this.misses = entry.misses;
+      this.joins = entry.joins;
+      this.probes = entry.probes;
+      this.totalProbeTime = Duration.ofNanos(entry.totalProbeNanos);
+      this.maxProbeTime = Duration.ofNanos(entry.maxProbeNanos);
+    }
+
+    /** Returns the most recent result of the condition, if it has been evaluated. */
+    public Optional<Boolean> getSatisfied() {
+      return satisfied;
+    }
+
+    /** Returns the number of requests answered with a fresh result. */
+    public long getHits() {
+      return hits;
+    }
+
+    /** Returns the number of requests answered with a stale result while it was refreshed. */
+    public long getStaleHits() {
+      return staleHits;
+    }
+
+    /** Returns the number of requests that waited for an evaluation. */
+    public long getMisses() {
+      return misses;
+    }
+
+    /** Returns the number of misses that shared an evaluation started by another request. */
+    public long getJoins() {
+      return joins;
+    }
+
+    /** Returns the number of evaluations of the condition. */
+    public long getProbes() {
+      return probes;
+    }
+
+    /** Returns the mean time taken by an evaluation, or zero if there have been none. */
+    public Duration getMeanProbeTime() {
+      return probes == 0 ? Duration.ZERO : totalProbeTime.dividedBy(probes);
+    }
+
+    /** Returns the longest time taken by an evaluation. */
+    public Duration getMaxProbeTime() {
+      return maxProbeTime;
+    }
+  }
+
+  /** The cached state of a single condition, guarded by the monitor of the cache. */
+  private static class Entry {
+    @Nullable private Boolean satisfied;
+    private Instant freshUntil = Instant.MIN;
+    private Instant usableUntil = Instant.MIN;
+    @Nullable private CompletableFuture<Boolean> inFlight;
+    private long hits;
+    private long staleHits;
+    private long misses;
+    private long joins;
+    private long probes;
+    private long totalProbeNanos;
+    private long maxProbeNanos;
+  }
+
+  private final Clock clock;
+  private final Executor refreshExecutor;
+  private final Map<String, Entry> entries;
+  /** Incremented on each invalidation, so earlier evaluations do not store their results. */
+  private long generation;
+
+  @VisibleForTesting
+  ConditionCache(Clock clock, Executor refreshExecutor) {
+    this.clock = clock;
+    this.refreshExecutor = refreshExecutor;
+    this.entries = new HashMap<>();
+  }
+
+  /**
+   * Returns the instance shared by all commands.
+   */
+  public static ConditionCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Returns the result of the supplied condition, evaluating it on the calling thread or waiting
+   * for another evaluation if there is no usable result.
+   */
+  boolean get(Condition condition) {
+    Entry entry;
+    CompletableFuture<Boolean> probe;
+    boolean probeHere = false;
+    long probeGeneration;
+    synchronized (this) {
+      probeGeneration = generation;
+      entry = entries.computeIfAbsent(condition.toString(), key -> new Entry());
+      Instant now = clock.instant();
+      if (entry.satisfied != null && now.isBefore(entry.freshUntil)) {
+        entry.hits++;
+        return entry.satisfied;
+      }
+      if (entry.satisfied != null && now.isBefore(entry.usableUntil)) {
+        entry.staleHits++;
+        if (entry.inFlight == null) {
+          CompletableFuture<Boolean> refresh = new CompletableFuture<>();
+          entry.inFlight = refresh;
+          refreshExecutor.execute(() -> probe(entry, condition, refresh, probeGeneration));
+        }
+        return entry.satisfied;
+      }
+      entry.misses++;
+      if (entry.inFlight == null) {
+        entry.inFlight = new CompletableFuture<>();
+        probeHere = true;
+      } else {
+        entry.joins++;
+      }
+      probe = entry.inFlight;
+    }
+    if (probeHere) {
+      probe(entry, condition, probe, probeGeneration);
+    }
+    try {
+      return probe.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      // Never thrown since evaluations always complete normally.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns true iff the supplied condition has a fresh result.
+   */
+  synchronized boolean isFresh(Condition condition) {
+    Entry entry = entries.get(condition.toString());
+    return entry != null && entry.satisfied != null
+        && clock.instant().isBefore(entry.freshUntil);
+  }
+
+  /**
+   * Discards every cached result, so each condition is evaluated again when it is next requested.
+   * This is used when the state of the host is known to have changed. Evaluations already in
+   * progress may have observed the earlier state, so their results are not stored and later
+   * requests start a new evaluation rather than waiting for them.
+   */
+  public synchronized void invalidate() {
+    generation++;
+    for (Entry entry : entries.values()) {
+      entry.freshUntil = Instant.MIN;
+      entry.usableUntil = Instant.MIN;
+      entry.inFlight = null;
+    }
+  }
+
+  /**
+   * Returns the counters of every condition that has been requested, keyed by description.
+   */
+  public synchronized ImmutableSortedMap<String, Stats> getStats() {
+    ImmutableSortedMap.Builder<String, Stats> stats = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      stats.put(entry.getKey(), new Stats(entry.getValue()));
+    }
+    return stats.build();
+  }
+
+  /**
+   * Evaluates a condition, records the result in its entry unless the cache has been invalidated
+   * since the supplied generation, then completes the future of the evaluation. A condition that
+   * throws is recorded as not satisfied.
+   */
+  private void probe(Entry entry, Condition condition, CompletableFuture<Boolean> future,
+      long probeGeneration) {
+    long startNanos = System.nanoTime();
+    boolean satisfied;
+    try {
+      satisfied = condition.isSatisfied();
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Exception evaluating condition " + condition, e);
+      satisfied = false;
+    }
+    long probeNanos = System.nanoTime() - startNanos;
+    synchronized (this) {
+      if (probeGeneration == generation) {
+        entry.satisfied = satisfied;
+        entry.freshUntil = clock.instant().plus(condition.getCacheTtl());
+        entry.usableUntil = entry.freshUntil.plus(condition.getCacheTtl());
+        entry.inFlight = null;
+      }
+      entry.probes++;
+      entry.totalProbeNanos += probeNanos;
+      entry.maxProbeNanos = Math.max(entry.maxProbeNanos, probeNanos);
+    }
+    future.complete(satisfied);
+  }
+}
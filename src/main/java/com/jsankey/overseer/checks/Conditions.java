@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+/**
+ * Static utility methods for creating {@link Condition} instances.
+ */
+public class Conditions {
+
+  private static final String OPERATORS = "&|()";
+
+  private Conditions() {
+    // Not instantiable.
+  }
+
+  /**
+   * Returns a {@link Condition} from a text expression combining conditions with {@code &} (and)
+   * and {@code |} (or), where {@code &} binds more tightly and parentheses may group terms. Each
+   * term is one of:
+   * <ul>
+   * <li>{@code ac_power}, held while the host is powered externally
+   * <li>{@code unmetered}, held unless the default route uses mobile broadband or ppp
+   * <li>{@code wifi:<ssid>}, held while connected to the wifi network
+   * <li>{@code disk_free:<path>:<megabytes>}, held while the file system has the space free
+   * <li>{@code reachable:<host>:<port>}, held while a TCP connection to the port succeeds
+   * </ul>
+   * The results of each term are shared through the {@link ConditionCache}.
+   *
+   * @throws IllegalArgumentException if the expression is not valid
+   */
+  public static Condition parse(String expression) {
+    return parse(expression, ConditionCache.shared());
+  }
+
+  @VisibleForTesting
+  static Condition parse(String expression, ConditionCache cache) {
+    Parser parser = new Parser(expression, cache);
+    Condition condition = parser.parseAny();
+    Preconditions.checkArgument(parser.atEnd(), "Unexpected text in condition: %s", expression);
+    return condition;
+  }
+
+  /**
+   * Returns the condition described by a single term, without caching.
+   */
+  @VisibleForTesting
+  static Condition parseTerm(String term) {
+    int separator = term.indexOf(':');
+    String name = separator < 0 ? term : term.substring(0, separator);
+    String argument = separator < 0 ? "" : term.substring(separator + 1);
+    switch (name) {
+      case "ac_power":
+        checkNoArgument(term, separator);
+        return AcPowerCondition.create();
+      case "unmetered":
+        checkNoArgument(term, separator);
+        return UnmeteredCondition.create();
+      case "wifi":
+        Preconditions.checkArgument(!argument.isEmpty(), "Condition must be wifi:<ssid>: %s", term);
+        return WifiCondition.of(argument);
+      case "disk_free": {
+        // The path may itself contain colons, so the size follows the last one.
+        int last = argument.lastIndexOf(':');
+        Long megabytes = last < 0 ? null : Longs.tryParse(argument.substring(last + 1));
+        Preconditions.checkArgument(last > 0 && megabytes != null,
+            "Condition must be disk_free:<path>:<megabytes>: %s", term);
+        return DiskSpaceCondition.of(Paths.get(argument.substring(0, last)), megabytes);
+      }
+      case "reachable": {
+        int last = argument.lastIndexOf(':');
+        Integer port = last < 0 ? null : Ints.tryParse(argument.substring(last + 1));
+        Preconditions.checkArgument(last > 0 && port != null,
+            "Condition must be reachable:<host>:<port>: %s", term);
+        return HostReachableCondition.of(argument.substring(0, last), port);
+      }
+      default:
+        throw new IllegalArgumentException("Unknown condition: " + term);
+    }
+  }
+
+  private static void checkNoArgument(String term, int separator) {
+    Preconditions.checkArgument(separator < 0, "Condition takes no argument: %s", term);
+  }
+
+  /**
+   * Recursive descent parser for condition expressions.
+   */
+  private static class Parser {
+    private final String expression;
+    private final ConditionCache cache;
+    private int position;
+
+    private Parser(String expression, ConditionCache cache) {
+      this.expression = expression;
+      this.cache = cache;
+      this.position = 0;
+    }
+
+    private boolean atEnd() {
+      skipSpaces();
+      return position == expression.length();
+    }
+
+    /** Parses terms separated by {@code |}. */
+    private Condition parseAny() {
+      List<Condition> operands = new ArrayList<>();
+      operands.add(parseAll());
+      while (consume('|')) {
+        operands.add(parseAll());
+      }
+      return operands.size() == 1 ? operands.get(0) : CompositeCondition.any(operands);
+    }
+
+    /** Parses terms separated by {@code &}. */
+    private Condition parseAll() {
+      List<Condition> operands = new ArrayList<>();
+      operands.add(parsePrimary());
+      while (consume('&')) {
+        operands.add(parsePrimary());
+      }
+      return operands.size() == 1 ? operands.get(0) : CompositeCondition.all(operands);
+    }
+
+    /** Parses a parenthesized expression or a single term. */
+    private Condition parsePrimary() {
+      if (consume('(')) {
+        Condition condition = parseAny();
+        Preconditions.checkArgument(consume(')'), "Missing ')' in condition: %s", expression);
+        return condition;
+      }
+      skipSpaces();
+      int start = position;
+      while (position < expression.length()
+          && OPERATORS.indexOf(expression.charAt(position)) < 0) {
+        position++;
+      }
+      String term = expression.substring(start, position).trim();
+      Preconditions.checkArgument(!term.isEmpty(), "Missing term in condition: %s", expression);
+      return CachedCondition.of(parseTerm(term), cache);
+    }
+
+    private boolean consume(char operator) {
+      skipSpaces();
+      if (position < expression.length() && expression.charAt(position) == operator) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void skipSpaces() {
+      while (position < expression.length() && expression.charAt(position) == ' ') {
+        position++;
+      }
+    }
+  }
+}
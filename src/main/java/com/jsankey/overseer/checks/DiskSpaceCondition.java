@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Condition} that holds while the file system containing a path has at least a minimum
+ * amount of space available to this process.
+ */
+class DiskSpaceCondition implements Condition {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(DiskSpaceCondition.class.getCanonicalName());
+
+  private final Path path;
+  private final long minFreeMb;
+
+  private DiskSpaceCondition(Path path, long minFreeMb) {
+    Preconditions.checkArgument(minFreeMb >= 0, "Minimum free space must not be negative");
+    this.path = path;
+    this.minFreeMb = minFreeMb;
+  }
+
+  /**
+   * Returns a new {@link DiskSpaceCondition} requiring the supplied free space in megabytes.
+   */
+  static DiskSpaceCondition of(Path path, long minFreeMb) {
+    return new DiskSpaceCondition(path, minFreeMb);
+  }
+
+  @Override
+  public boolean isSatisfied() {
+    try {
+      return Files.getFileStore(path).getUsableSpace() >= minFreeMb * 1024L * 1024L;
+    } catch (IOException e) {
+      LOG.warning(String.format("Could not read free space of %s: %s", path, e));
+      return false;
+    }
+  }
+
+  @Override
+  public Duration getCost() {
+    return Duration.ofMillis(1);
+  }
+
+  @Override
+  public Duration getCacheTtl() {
+    return Duration.ofMinutes(1);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("disk_free:%s:%d", path, minFreeMb);
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Utility class to determine whether the host is under too much load to start more commands,
+ * based on the pressure stall information in {@code /proc/pressure} and the load average in
+ * {@code /proc/loadavg}.
+ *
+ * <p>Pressure is the "some avg10" value, the percentage of the last ten seconds in which at
+ * least one task was stalled waiting on the resource. Resources whose pressure the kernel does
+ * not report, for example before Linux 4.20, are not checked. Each reading is reused for
+ * {@link #CHECK_INTERVAL} so frequent checks are cheap.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author Jody
+ */
+public class HostPressureMonitor {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(HostPressureMonitor.class.getCanonicalName());
+
+  /** Time for which each reading is reused, and so the interval between useful checks. */
+  public static final Duration CHECK_INTERVAL = Duration.ofSeconds(5);
+
+  private static final Splitter WHITESPACE = Splitter.onPattern("\\s+").omitEmptyStrings();
+
+  /** The resources whose pressure may be limited. */
+  public enum Resource {
+    CPU("cpu"),
+    IO("io"),
+    MEMORY("memory");
+
+    private final String fileName;
+
+    private Resource(String fileName) {
+      this.fileName = fileName;
+    }
+
+    /**
+     * Returns the {@link Resource} with the supplied name as used in {@code /proc/pressure}.
+     *
+     * @throws IllegalArgumentException if there is no such resource
+     */
+    public static Resource fromName(String name) {
+      for (Resource resource : values()) {
+        if (resource.fileName.equals(name)) {
+          return resource;
+        }
+      }
+      throw new IllegalArgumentException("Unknown pressure resource: " + name);
+    }
+  }
+
+  private final Path procRoot;
+  private final Clock clock;
+  private final ImmutableMap<Resource, Double> maxPressure;
+  @Nullable private final Double maxLoad;
+  /** Resources that could not be read, which are not checked again. */
+  private final Set<Resource> unsupported;
+  private Instant readingTime;
+  private Optional<String> reading;
+
+  private HostPressureMonitor(Path procRoot, Clock clock,
+      ImmutableMap<Resource, Double> maxPressure, @Nullable Double maxLoad) {
+    for (Map.Entry<Resource, Double> entry : maxPressure.entrySet()) {
+      Preconditions.checkArgument(entry.getValue() >= 0 && entry.getValue() <= 100,
+          "Maximum %s pressure must be between 0 and 100", entry.getKey().fileName);
+    }
+    Preconditions.checkArgument(maxLoad == null || maxLoad > 0, "Maximum load must be positive");
+    this.procRoot = procRoot;
+    this.clock = clock;
+    this.maxPressure = maxPressure;
+    this.maxLoad = maxLoad;
+    this.unsupported = EnumSet.noneOf(Resource.class);
+    this.readingTime = Instant.MIN;
+    this.reading = Optional.absent();
+  }
+
+  /**
+   * Constructs a new instance that reports excessive pressure when any resource exceeds its
+   * maximum pressure percentage or the one minute load average exceeds the maximum load.
+   */
+  public static HostPressureMonitor of(
+      ImmutableMap<Resource, Double> maxPressure, Optional<Double> maxLoad) {
+    return new HostPressureMonitor(
+        Paths.get("/proc"), Clock.systemUTC(), maxPressure, maxLoad.orNull());
+  }
+
+  @VisibleForTesting
+  static HostPressureMonitor of(Path procRoot, Clock clock,
+      ImmutableMap<Resource, Double> maxPressure, Optional<Double> maxLoad) {
+    return new HostPressureMonitor(procRoot, clock, maxPressure, maxLoad.orNull());
+  }
+
+  /**
+   * Returns a description of the first limit the host currently exceeds, or absent if commands
+   * may start.
+   */
+  public synchronized Optional<String> excessivePressure() {
+    Instant now = clock.instant();
+    if (now.isBefore(readingTime.plus(CHECK_INTERVAL))) {
+      return reading;
+    }
+    readingTime = now;
+    reading = readPressure();
+    return reading;
+  }
+
+  private Optional<String> readPressure() {
+    for (Map.Entry<Resource, Double> entry : maxPressure.entrySet()) {
+      Resource resource = entry.getKey();
+      if (unsupported.contains(resource)) {
+        continue;
+      }
+      Path file = procRoot.resolve("pressure").resolve(resource.fileName);
+      Double pressure = null;
+      try {
+        pressure = readSomeAvg10(Files.readAllLines(file));
+      } catch (IOException | RuntimeException e) {
+        LOG.log(Level.FINE, "Exception reading " + file, e);
+      }
+      if (pressure == null) {
+        LOG.warning(
+            String.format("Could not read %s pressure, not checking it", resource.fileName));
+        unsupported.add(resource);
+      } else if (pressure > entry.getValue()) {
+        return Optional.of(String.format(
+            "%s pressure %.1f%% above %.1f%%", resource.fileName, pressure, entry.getValue()));
+      }
+    }
+    if (maxLoad != null) {
+      try {
+        String loadavg =
+            new String(Files.readAllBytes(procRoot.resolve("loadavg")), StandardCharsets.UTF_8);
+        double load = Double.parseDouble(WHITESPACE.split(loadavg).iterator().next());
+        if (load > maxLoad) {
+          return Optional.of(String.format("load average %.2f above %.2f", load, maxLoad));
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.log(Level.WARNING, "Exception reading load average", e);
+      }
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Returns the avg10 value from the line starting "some" in a pressure file, or null if absent.
+   */
+  @Nullable
+  private static Double readSomeAvg10(List<String> lines) {
+    for (String line : lines) {
+      List<String> fields = WHITESPACE.splitToList(line);
+      if (!fields.isEmpty() && fields.get(0).equals("some")) {
+        for (String field : fields) {
+          if (field.startsWith("avg10=")) {
+            return Double.parseDouble(field.substring("avg10=".length()));
+          }
+        }
+      }
+    }
+    return null;
+  }
+}
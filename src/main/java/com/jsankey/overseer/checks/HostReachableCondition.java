@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Condition} that holds while a TCP connection can be opened to a port on a host, which
+ * shows both that there is a route to the host and that the service is listening.
+ */
+class HostReachableCondition implements Condition {
+
+  /** Logger for the current class. */
+  private static final Logger LOG =
+      Logger.getLogger(HostReachableCondition.class.getCanonicalName());
+
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(3);
+
+  private final String host;
+  private final int port;
+
+  private HostReachableCondition(String host, int port) {
+    Preconditions.checkArgument(!host.isEmpty(), "Host must not be empty");
+    Preconditions.checkArgument(port > 0 && port < 65536, "Port must be between 1 and 65535");
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * Returns a new {@link HostReachableCondition} for the supplied host and TCP port.
+   */
+  static HostReachableCondition of(String host, int port) {
+    return new HostReachableCondition(host, port);
+  }
+
+  @Override
+  public boolean isSatisfied() {
+    try (Socket socket = new Socket()) {
+      socket.connect(new InetSocketAddress(host, port), (int) CONNECT_TIMEOUT.toMillis());
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.FINE, String.format("Could not connect to %s:%d", host, port), e);
+      return false;
+    }
+  }
+
+  @Override
+  public Duration getCost() {
+    return Duration.ofMillis(100);
+  }
+
+  @Override
+  public Duration getCacheTtl() {
+    return Duration.ofMinutes(1);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("reachable:%s:%d", host, port);
+  }
+}
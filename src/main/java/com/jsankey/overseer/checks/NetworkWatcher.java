@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Watches for changes in the network links, addresses, and routes of the host, notifying a
+ * listener as soon as each change is reported by the kernel.
+ *
+ * <p>Changes are read from a single long-lived {@code ip monitor} process, which relays the
+ * netlink notifications of the kernel, so nothing is polled while the network is unchanged. A
+ * burst of changes that are read together results in a single notification. If the monitor
+ * process exits it is restarted after a delay, and the listener is notified in case changes were
+ * missed. The watcher uses its own thread, and the listener is called on that thread. The
+ * implementation is not portable.
+ *
+ * @author Jody
+ */
+public class NetworkWatcher implements Closeable {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(NetworkWatcher.class.getCanonicalName());
+
+  private static final ImmutableList<String> MONITOR_COMMAND =
+      ImmutableList.of("ip", "-o", "monitor", "link", "address", "route");
+  private static final Duration RESTART_DELAY = Duration.ofSeconds(10);
+  private static final File DEVNULL = new File("/dev/null");
+
+  /**
+   * Interface for classes that are interested in changes to the network.
+   */
+  public interface ChangeListener {
+    /** Method called when the network state of the host may have changed. */
+    public void networkChanged();
+  }
+
+  private final ImmutableList<String> command;
+  private final Duration restartDelay;
+  private final ChangeListener listener;
+
+  // Watcher state, all guarded by the object monitor.
+  private @Nullable Thread watcherThread;
+  private @Nullable Process monitor;
+  private boolean closed;
+
+  private NetworkWatcher(
+      ImmutableList<String> command, Duration restartDelay, ChangeListener listener) {
+    this.command = command;
+    this.restartDelay = restartDelay;
+    this.listener = listener;
+    this.closed = false;
+  }
+
+  /**
+   * Constructs a new {@link NetworkWatcher} notifying the supplied listener. Watching does not
+   * begin until {@link #start} is called.
+   */
+  public static NetworkWatcher create(ChangeListener listener) {
+    return new NetworkWatcher(MONITOR_COMMAND, RESTART_DELAY, listener);
+  }
+
+  @VisibleForTesting
+  static NetworkWatcher create(
+      ImmutableList<String> command, Duration restartDelay, ChangeListener listener) {
+    return new NetworkWatcher(command, restartDelay, listener);
+  }
+
+  /**
+   * Starts the monitor process and begins watching on a new thread, returning immediately.
+   *
+   * @throws IOException if the monitor process could not be started
+   */
+  public synchronized void start() throws IOException {
+    Preconditions.checkState(watcherThread == null, "Cannot start watcher more than once");
+    Process first = startMonitor();
+    watcherThread = new Thread(() -> watch(first), "network-watcher");
+    watcherThread.setDaemon(true);
+    watcherThread.start();
+  }
+
+  /**
+   * Returns true iff the monitor process is currently running, so changes will be notified.
+   */
+  public synchronized boolean isWatching() {
+    return monitor != null && monitor.isAlive();
+  }
+
+  /**
+   * Stops watching and terminates the monitor process.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (monitor != null) {
+      monitor.destroy();
+    }
+    if (watcherThread != null) {
+      watcherThread.interrupt();
+    }
+  }
+
+  /**
+   * Starts a new monitor process and records it as current.
+   */
+  private synchronized Process startMonitor() throws IOException {
+    monitor = new ProcessBuilder(command).redirectError(DEVNULL).start();
+    return monitor;
+  }
+
+  /**
+   * Main loop of the watcher thread, reading changes from each monitor process in turn and
+   * restarting it after a delay whenever it exits.
+   */
+  private void watch(Process first) {
+    Process current = first;
+    try {
+      while (true) {
+        readChanges(current);
+        int exitCode = current.waitFor();
+        synchronized (this) {
+          if (closed) {
+            break;
+          }
+          LOG.warning(String.format("Network monitor exited with code %d, restarting in %d sec",
+              exitCode, restartDelay.getSeconds()));
+          wait(restartDelay.toMillis());
+          if (closed) {
+            break;
+          }
+          try {
+            current = startMonitor();
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Exception restarting network monitor", e);
+            continue;
+          }
+        }
+        // Changes may have been missed while the monitor was not running.
+        listener.networkChanged();
+      }
+    } catch (InterruptedException e) {
+      // Valid exception caused to initiate shutdown.
+    }
+    LOG.info("Finished watching network");
+  }
+
+  /**
+   * Notifies the listener of the changes reported by a monitor process until its output ends,
+   * coalescing all the lines that are available together into a single notification.
+   */
+  private void readChanges(Process process) {
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        LOG.fine("Network change: " + line);
+        while (reader.ready() && reader.readLine() != null) {
+          // Discard the rest of the burst.
+        }
+        listener.networkChanged();
+      }
+    } catch (IOException e) {
+      // The stream is closed when the process is destroyed, so this is normal during shutdown.
+      LOG.log(Level.FINE, "Exception reading network monitor", e);
+    }
+  }
+}
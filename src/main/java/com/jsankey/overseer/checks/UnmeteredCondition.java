@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+
+/**
+ * A {@link Condition} that holds unless the IPv4 default route uses a link that is likely to be
+ * metered, meaning a mobile broadband (wwan) or point-to-point (ppp) interface. Linux has no
+ * general notion of metered links, so these are identified by the device type and name of the
+ * interface. The condition holds when there is no default route, since no metered link is in use.
+ */
+class UnmeteredCondition implements Condition {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(UnmeteredCondition.class.getCanonicalName());
+
+  private static final Splitter WHITESPACE = Splitter.onPattern("\\s+").omitEmptyStrings();
+
+  private final Path procNetRoute;
+  private final Path sysClassNet;
+
+  private UnmeteredCondition(Path procNetRoute, Path sysClassNet) {
+    this.procNetRoute = procNetRoute;
+    this.sysClassNet = sysClassNet;
+  }
+
+  /**
+   * Returns a new {@link UnmeteredCondition} reading the routes and interfaces of the host.
+   */
+  static UnmeteredCondition create() {
+    return new UnmeteredCondition(Paths.get("/proc/net/route"), Paths.get("/sys/class/net"));
+  }
+
+  @VisibleForTesting
+  static UnmeteredCondition create(Path procNetRoute, Path sysClassNet) {
+    return new UnmeteredCondition(procNetRoute, sysClassNet);
+  }
+
+  @Override
+  public boolean isSatisfied() {
+    String iface = readDefaultInterface();
+    if (iface == null) {
+      return true;
+    }
+    if (iface.startsWith("ppp") || iface.startsWith("wwan")) {
+      return false;
+    }
+    try {
+      return !Files.readAllLines(sysClassNet.resolve(iface).resolve("uevent"))
+          .contains("DEVTYPE=wwan");
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Could not read device type of " + iface, e);
+      return true;
+    }
+  }
+
+  /**
+   * Returns the interface of the default route with the lowest metric, or null if there is none.
+   */
+  @Nullable
+  private String readDefaultInterface() {
+    List<String> routes;
+    try {
+      routes = Files.readAllLines(procNetRoute);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Could not read routing table", e);
+      return null;
+    }
+    String best = null;
+    long bestMetric = Long.MAX_VALUE;
+    // Fields are Iface, Destination, Gateway, Flags, RefCnt, Use, Metric, and Mask onwards, after
+    // a single header line.
+    for (String route : routes.subList(Math.min(1, routes.size()), routes.size())) {
+      List<String> fields = WHITESPACE.splitToList(route);
+      if (fields.size() >= 8 && fields.get(1).equals("00000000")
+          && fields.get(7).equals("00000000")) {
+        long metric = Long.parseLong(fields.get(6));
+        if (metric < bestMetric) {
+          best = fields.get(0);
+          bestMetric = metric;
+        }
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public Duration getCost() {
+    return Duration.ofMillis(1);
+  }
+
+  @Override
+  public Duration getCacheTtl() {
+    return Duration.ofSeconds(10);
+  }
+
+  @Override
+  public String toString() {
+    return "unmetered";
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import java.time.Duration;
+
+/**
+ * A {@link Condition} that holds while the host is connected to a particular wifi network, using
+ * a {@link WifiStatusChecker}.
+ */
+class WifiCondition implements Condition {
+
+  private final WifiStatusChecker checker;
+
+  private WifiCondition(WifiStatusChecker checker) {
+    this.checker = checker;
+  }
+
+  /**
+   * Returns a new {@link WifiCondition} for the supplied SSID.
+   */
+  static WifiCondition of(String ssid) {
+    return new WifiCondition(WifiStatusChecker.of(ssid));
+  }
+
+  @Override
+  public boolean isSatisfied() {
+    return checker.connected();
+  }
+
+  /**
+   * Returns the cost of reading the link state, since the SSID is only read after it changes.
+   */
+  @Override
+  public Duration getCost() {
+    return Duration.ofMillis(1);
+  }
+
+  @Override
+  public Duration getCacheTtl() {
+    return WifiStatusChecker.CACHE_TTL;
+  }
+
+  @Override
+  public String toString() {
+    return "wifi:" + checker.getTargetSsid();
+  }
+}
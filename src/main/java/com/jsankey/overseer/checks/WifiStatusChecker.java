@@ -9,47 +9,198 @@ package com.jsankey.overseer.checks;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 
 /**
  * Utility class to determine whether the host is currently connected to a particular wifi network.
  *
- * <p>The implementation depends on availability of the *nix iwconfig command so is not portable.
+ * <p>Whether any wireless interface is associated, and how often each has changed association, is
+ * read directly from {@code /sys/class/net}. The kernel does not publish the SSID there, so it is
+ * read using the *nix iwconfig command, but only when the association of some interface has changed
+ * since the SSID was last read. Each result is also reused for {@link #CACHE_TTL}, so checks are
+ * cheap enough to make before every command start. Reading the SSID is bounded by a timeout, and
+ * after it fails it is not attempted again until a delay that grows with each consecutive failure.
+ * Checks may still block while the SSID is read so should not be made while holding locks that
+ * other threads need promptly. The implementation is not portable.
  */
 public class WifiStatusChecker {
 
   /** Logger for the current class. */
   private static final Logger LOG = Logger.getLogger(WifiStatusChecker.class.getCanonicalName());
 
+  /** Time for which each result is reused without reading any state. */
+  public static final Duration CACHE_TTL = Duration.ofSeconds(1);
+  /** Time after which a process reading the SSID is abandoned. */
+  static final Duration SSID_READ_TIMEOUT = Duration.ofSeconds(5);
+  /** Delay before reading the SSID again after the first of consecutive failures. */
+  static final Duration MIN_SSID_RETRY = Duration.ofSeconds(10);
+  /** Maximum delay before reading the SSID again after consecutive failures. */
+  static final Duration MAX_SSID_RETRY = Duration.ofMinutes(5);
+
   private final String targetSsid;
   private final String searchString;
+  private final Path sysClassNet;
+  private final Clock clock;
+
+  // Cached state, all guarded by the object monitor.
+  private Instant checkTime;
+  private boolean connected;
+  /** The link state when the SSID was last read successfully, or null if it must be read. */
+  @Nullable private String ssidLinkState;
+  /** The time before which the SSID is not read again after a failure. */
+  private Instant ssidRetryTime;
+  /** The delay before reading the SSID again after the next failure. */
+  private Duration ssidRetryDelay;
 
   /**
    * Constructs a new instance to check for the specified SSID.
    */
-  private WifiStatusChecker(String targetSsid) {
+  private WifiStatusChecker(String targetSsid, Path sysClassNet, Clock clock) {
     this.targetSsid = targetSsid;
     this.searchString = String.format("SSID:\"%s\"", targetSsid);
+    this.sysClassNet = sysClassNet;
+    this.clock = clock;
+    this.checkTime = Instant.MIN;
+    this.connected = false;
+    this.ssidLinkState = null;
+    this.ssidRetryTime = Instant.MIN;
+    this.ssidRetryDelay = MIN_SSID_RETRY;
   }
 
   /**
    * Constructs a new instance to check for the specified SSID.
    */
   public static WifiStatusChecker of(String targetSsid) {
-    return new WifiStatusChecker(targetSsid);
+    return new WifiStatusChecker(targetSsid, Paths.get("/sys/class/net"), Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  static WifiStatusChecker of(String targetSsid, Path sysClassNet, Clock clock) {
+    return new WifiStatusChecker(targetSsid, sysClassNet, clock);
   }
 
   /**
-   * Returns true iff the host is currently connected to the target wifi.
+   * Returns true iff the host is currently connected to the target wifi. The host is considered
+   * not to be connected while the SSID cannot be read.
    */
-  public boolean connected() {
+  public synchronized boolean connected() {
+    Instant now = clock.instant();
+    if (now.isBefore(checkTime.plus(CACHE_TTL))) {
+      return connected;
+    }
+    checkTime = now;
+    String linkState = readLinkState();
+    if (linkState.isEmpty()) {
+      // No wireless interface is associated, so there is no need to read the SSID.
+      connected = false;
+      ssidLinkState = null;
+    } else if (!linkState.equals(ssidLinkState)) {
+      if (now.isBefore(ssidRetryTime)) {
+        connected = false;
+        return connected;
+      }
+      Boolean ssidConnected = readSsidConnected();
+      connected = ssidConnected != null && ssidConnected;
+      if (ssidConnected != null) {
+        ssidLinkState = linkState;
+        ssidRetryTime = Instant.MIN;
+        ssidRetryDelay = MIN_SSID_RETRY;
+      } else {
+        LOG.warning(String.format("Not reading wifi status again for %d sec",
+            ssidRetryDelay.getSeconds()));
+        ssidLinkState = null;
+        ssidRetryTime = now.plus(ssidRetryDelay);
+        ssidRetryDelay = ssidRetryDelay.multipliedBy(2).compareTo(MAX_SSID_RETRY) > 0
+            ? MAX_SSID_RETRY
+            : ssidRetryDelay.multipliedBy(2);
+      }
+    }
+    return connected;
+  }
+
+  /**
+   * Discards the cached result, so the next check reads the current state.
+   */
+  public synchronized void invalidate() {
+    checkTime = Instant.MIN;
+  }
+
+  /**
+   * Returns the SSID this {@link WifiStatusChecker} is searching for.
+   */
+  public String getTargetSsid() {
+    return targetSsid;
+  }
+
+  /**
+   * Returns a description of every associated wireless interface and the number of times its
+   * association has changed, which is empty iff no wireless interface is associated.
+   */
+  private String readLinkState() {
+    List<String> associated = new ArrayList<>();
+    try (DirectoryStream<Path> interfaces = Files.newDirectoryStream(sysClassNet)) {
+      for (Path iface : interfaces) {
+        if (Files.isDirectory(iface.resolve("wireless"))
+            && readAttribute(iface, "operstate").equals("up")) {
+          associated.add(iface.getFileName() + ":" + readAttribute(iface, "carrier_changes"));
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception listing network interfaces", e);
+    }
+    Collections.sort(associated);
+    return Joiner.on(',').join(associated);
+  }
+
+  /**
+   * Returns the trimmed contents of an attribute of a network interface, or an empty string if it
+   * cannot be read.
+   */
+  private static String readAttribute(Path iface, String attribute) {
+    try {
+      return new String(Files.readAllBytes(iface.resolve(attribute)), StandardCharsets.UTF_8)
+          .trim();
+    } catch (IOException e) {
+      return "";
+    }
+  }
+
+  /**
+   * Returns whether iwconfig reports a connection to the target SSID, or null if it failed or did
+   * not finish within the timeout. The output is small enough to be buffered by the pipe until
+   * the process has exited.
+   */
+  @Nullable
+  private Boolean readSsidConnected() {
     try {
       Process wifiStatus = createProcess();
       BufferedReader reader =
-          new BufferedReader(new InputStreamReader(wifiStatus.getInputStream())); 
-      int exitCode = wifiStatus.waitFor();
+          new BufferedReader(new InputStreamReader(wifiStatus.getInputStream()));
+      if (!wifiStatus.waitFor(SSID_READ_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+        LOG.warning(String.format("Get wifi status did not finish within %d sec",
+            SSID_READ_TIMEOUT.getSeconds()));
+        wifiStatus.destroyForcibly();
+        return null;
+      }
+      int exitCode = wifiStatus.exitValue();
       if (exitCode == 0) {
         String line;
         while ((line = reader.readLine()) != null) {
@@ -57,6 +208,7 @@ public class WifiStatusChecker {
             return true;
           }
         }
+        return false;
       } else {
         LOG.warning(String.format("Get wifi status failed with error code %d", exitCode));
       }
@@ -65,14 +217,7 @@ public class WifiStatusChecker {
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     }
-    return false;
-  }
-
-  /**
-   * Returns the SSID this {@link WifiStatusChecker} is searching for.
-   */
-  public String getTargetSsid() {
-    return targetSsid;
+    return null;
   }
 
   /**
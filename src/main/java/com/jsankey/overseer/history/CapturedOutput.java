@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.history;
+
+import java.io.Serializable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The final portion of the standard output and standard error written by a single execution of
+ * a command.
+ *
+ * @author Jody
+ */
+public class CapturedOutput implements Serializable {
+
+  private static final long serialVersionUID = 4127730917338601735L;
+  private final String stdoutTail;
+  private final boolean stdoutTruncated;
+  private final String stderrTail;
+  private final boolean stderrTruncated;
+
+  private CapturedOutput(
+      String stdoutTail, boolean stdoutTruncated, String stderrTail, boolean stderrTruncated) {
+    this.stdoutTail = Preconditions.checkNotNull(stdoutTail);
+    this.stdoutTruncated = stdoutTruncated;
+    this.stderrTail = Preconditions.checkNotNull(stderrTail);
+    this.stderrTruncated = stderrTruncated;
+  }
+
+  /**
+   * Constructs a new {@link CapturedOutput}, where each truncated flag indicates whether earlier
+   * output was discarded from the corresponding tail.
+   */
+  public static CapturedOutput of(
+      String stdoutTail, boolean stdoutTruncated, String stderrTail, boolean stderrTruncated) {
+    return new CapturedOutput(stdoutTail, stdoutTruncated, stderrTail, stderrTruncated);
+  }
+
+  /**
+   * Returns the final portion of standard output.
+   */
+  public String getStdoutTail() {
+    return stdoutTail;
+  }
+
+  /**
+   * Returns true iff earlier standard output was discarded.
+   */
+  public boolean isStdoutTruncated() {
+    return stdoutTruncated;
+  }
+
+  /**
+   * Returns the final portion of standard error.
+   */
+  public String getStderrTail() {
+    return stderrTail;
+  }
+
+  /**
+   * Returns true iff earlier standard error was discarded.
+   */
+  public boolean isStderrTruncated() {
+    return stderrTruncated;
+  }
+}
@@ -7,8 +7,14 @@
 package com.jsankey.overseer.history;
 
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 
+import javax.annotation.Nullable;
+
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
 /**
@@ -19,15 +25,41 @@ import com.google.common.base.Preconditions;
  */
 public class CommandEvent implements Serializable {
 
+  /** The exit code used when a command was terminated for exceeding its timeout. */
+  public static final int TIMED_OUT = 996;
+  /** The exit code used when a persistent worker exited or broke protocol during a request. */
+  public static final int WORKER_FAILED = 997;
   /** The exit code used when a command threw an exception during initialization. */
   public static final int COULD_NOT_START = 998;
   /** The exit code used when a command was forcible terminated instead of ending naturally. */
   public static final int ENFORCED_TERMINATION = 999;
 
+  /**
+   * Whether an execution reported that it changed anything, for commands that report this
+   * through their exit code.
+   */
+  public enum ChangeReport {
+    /** The command does not report whether it made changes. */
+    UNREPORTED,
+    /** The command succeeded and reported making changes. */
+    CHANGED,
+    /** The command succeeded and reported making no changes. */
+    UNCHANGED
+  }
+
   private static final long serialVersionUID = -643219034946287968L;
   private final Instant start;
   private final Instant end;
   private final int exitCode;
+  // Fields added after the original format are null when read from older status files.
+  private final @Nullable ChangeReport changeReport;
+  private final @Nullable Duration scheduledInterval;
+  private final @Nullable CapturedOutput output;
+  /** Stored as a string since {@link Path} is not serializable. */
+  private final @Nullable String logPath;
+  private final @Nullable Duration startupSaved;
+  private final @Nullable ResourceUsage resourceUsage;
+  private final @Nullable Duration teardown;
 
   /**
    * Constructs a new {@link CommandEvent}.
@@ -37,10 +69,83 @@ public class CommandEvent implements Serializable {
    * @param exitCode the exit code returned upon completion.
    */
   public CommandEvent(Instant start, Instant end, int exitCode) {
+    this(start, end, exitCode, ChangeReport.UNREPORTED, null, null, null, null, null, null);
+  }
+
+  private CommandEvent(Instant start, Instant end, int exitCode, ChangeReport changeReport,
+      @Nullable Duration scheduledInterval, @Nullable CapturedOutput output,
+      @Nullable String logPath, @Nullable Duration startupSaved,
+      @Nullable ResourceUsage resourceUsage, @Nullable Duration teardown) {
     Preconditions.checkArgument(end.isAfter(start));
     this.start = start;
     this.end = end;
     this.exitCode = exitCode;
+    this.changeReport = changeReport;
+    this.scheduledInterval = scheduledInterval;
+    this.output = output;
+    this.logPath = logPath;
+    this.startupSaved = startupSaved;
+    this.resourceUsage = resourceUsage;
+    this.teardown = teardown;
+  }
+
+  /**
+   * Returns a copy of this event with the supplied {@link ChangeReport}.
+   */
+  public CommandEvent withChangeReport(ChangeReport changeReport) {
+    return new CommandEvent(start, end, exitCode, changeReport, scheduledInterval, output,
+        logPath, startupSaved, resourceUsage, teardown);
+  }
+
+  /**
+   * Returns a copy of this event recording the interval its schedule chose between the start of
+   * this execution and the next.
+   */
+  public CommandEvent withScheduledInterval(Duration interval) {
+    return new CommandEvent(start, end, exitCode, getChangeReport(), interval, output,
+        logPath, startupSaved, resourceUsage, teardown);
+  }
+
+  /**
+   * Returns a copy of this event with the supplied {@link CapturedOutput}.
+   */
+  public CommandEvent withOutput(CapturedOutput output) {
+    return new CommandEvent(start, end, exitCode, getChangeReport(), scheduledInterval, output,
+        logPath, startupSaved, resourceUsage, teardown);
+  }
+
+  /**
+   * Returns a copy of this event referencing the supplied location of its complete output.
+   */
+  public CommandEvent withLogPath(Path logPath) {
+    return new CommandEvent(start, end, exitCode, getChangeReport(), scheduledInterval, output,
+        logPath.toString(), startupSaved, resourceUsage, teardown);
+  }
+
+  /**
+   * Returns a copy of this event recording the process startup time avoided by running it in an
+   * already running persistent worker.
+   */
+  public CommandEvent withStartupSaved(Duration startupSaved) {
+    return new CommandEvent(start, end, exitCode, getChangeReport(), scheduledInterval, output,
+        logPath, startupSaved, resourceUsage, teardown);
+  }
+
+  /**
+   * Returns a copy of this event with the supplied {@link ResourceUsage}.
+   */
+  public CommandEvent withResourceUsage(ResourceUsage resourceUsage) {
+    return new CommandEvent(start, end, exitCode, getChangeReport(), scheduledInterval, output,
+        logPath, startupSaved, resourceUsage, teardown);
+  }
+
+  /**
+   * Returns a copy of this event recording the time taken for the processes of a terminated
+   * execution to exit.
+   */
+  public CommandEvent withTeardown(Duration teardown) {
+    return new CommandEvent(start, end, exitCode, getChangeReport(), scheduledInterval, output,
+        logPath, startupSaved, resourceUsage, teardown);
   }
 
   /**
@@ -72,9 +177,63 @@ public class CommandEvent implements Serializable {
   }
 
   /**
-   * Returns true iff the command completed successfully based on its return code.
+   * Returns whether the execution reported making changes.
+   */
+  public ChangeReport getChangeReport() {
+    return changeReport == null ? ChangeReport.UNREPORTED : changeReport;
+  }
+
+  /**
+   * Returns the interval the schedule chose between the start of this execution and the next,
+   * if recorded.
+   */
+  public Optional<Duration> getScheduledInterval() {
+    return Optional.fromNullable(scheduledInterval);
+  }
+
+  /**
+   * Returns the final portion of output written by the execution, if captured.
+   */
+  public Optional<CapturedOutput> getOutput() {
+    return Optional.fromNullable(output);
+  }
+
+  /**
+   * Returns the location of the complete output written by the execution, if stored. The output
+   * may since have been deleted to stay within the storage limits.
+   */
+  public Optional<Path> getLogPath() {
+    return logPath == null ? Optional.<Path>absent() : Optional.of(Paths.get(logPath));
+  }
+
+  /**
+   * Returns the process startup time avoided by running in a persistent worker, if the command
+   * runs in a worker. This is zero for executions that had to start the worker.
+   */
+  public Optional<Duration> getStartupSaved() {
+    return Optional.fromNullable(startupSaved);
+  }
+
+  /**
+   * Returns the resources consumed by the execution's process tree, if measured.
+   */
+  public Optional<ResourceUsage> getResourceUsage() {
+    return Optional.fromNullable(resourceUsage);
+  }
+
+  /**
+   * Returns the time taken for the processes of the execution to exit after termination began,
+   * if the execution was terminated.
+   */
+  public Optional<Duration> getTeardown() {
+    return Optional.fromNullable(teardown);
+  }
+
+  /**
+   * Returns true iff the command completed successfully based on its return code, including
+   * commands that reported making no changes through a dedicated return code.
    */
   public boolean isSuccessful() {
-    return exitCode == 0;
+    return exitCode == 0 || changeReport == ChangeReport.UNCHANGED;
   }
 }
@@ -6,6 +6,7 @@
  */
 package com.jsankey.overseer.history;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -13,11 +14,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -29,6 +37,14 @@ import com.jsankey.overseer.Configuration;
  * Defines a history of the previous command executions in terms of the command, return code,
  * time of execution, and duration. This class is threadsafe.
  *
+ * <p>When a status file is specified the history is persisted as a snapshot in that file plus a
+ * {@link HistoryJournal} of the events recorded since the snapshot, so recording an event only
+ * appends a small record. The journal is compacted into a new snapshot after a number of events,
+ * and each snapshot replaces the previous one atomically. Recovery reads the snapshot then
+ * replays the journal. Events are persisted by a {@link HistoryWriter} on its own thread, so
+ * recording an event never waits for storage, and {@link #close} must be called to ensure every
+ * recorded event is persisted.
+ *
  * @author Jody
  */
 public class ExecutionHistory implements Serializable, Iterable<CommandHistory> {
@@ -38,6 +54,12 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
   /** Logger for the current class. */
   private static final Logger LOG = Logger.getLogger(ExecutionHistory.class.getCanonicalName());
 
+  /** The number of journal records after which the journal is compacted into a snapshot. */
+  @VisibleForTesting
+  static final int COMPACTION_RECORDS = 100;
+  /** The maximum time to wait for recorded events to be persisted on close. */
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
   public enum HistoryStatus {
     /** All commands have successfully completed on their last execution */
     ALL_PASSED,
@@ -47,6 +69,30 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
     FAILED
   }
 
+  /** When events recorded in the journal are forced to the storage device. */
+  public enum Durability {
+    /** Events are left for the operating system to write, and may be lost on power failure. */
+    NONE,
+    /** Events recorded close together are forced with a single sync. */
+    BATCHED,
+    /** Each event is forced individually before the next is written. */
+    EVERY_EVENT;
+
+    /**
+     * Returns the durability with the supplied lowercase name.
+     *
+     * @throws IllegalArgumentException if the name is not known
+     */
+    public static Durability fromName(String name) {
+      for (Durability durability : values()) {
+        if (durability.name().toLowerCase().equals(name)) {
+          return durability;
+        }
+      }
+      throw new IllegalArgumentException("Unknown history durability: " + name);
+    }
+  }
+
   /** Path in which we attempt to store and recover the execution history. */
   private Optional<String> filePath;
   /** Map of the {@link ExecutionEvent} lists for each command */
@@ -57,6 +103,8 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
   private Optional<Instant> oldestStart;
   /** Cached calculated time of most recent failure */
   private Optional<Instant> newestFailure;
+  /** Writer persisting each recorded event, or null if there is no status file */
+  private transient @Nullable HistoryWriter writer;
 
   /**
    * Constructs a new instance from the supplied status file and commands, attempting to initialize
@@ -67,6 +115,20 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
    */
   @VisibleForTesting
   public ExecutionHistory(Optional<String> filePath, ImmutableList<String> commands) {
+    this(filePath, commands, Durability.BATCHED);
+  }
+
+  /**
+   * Constructs a new instance from the supplied status file and commands, attempting to initialize
+   * from the status file references if possible.
+   *
+   * @param filePath the path in which a config file should be stored
+   * @param commands an {@link ImmutableList} of the commands whose history will be tracked
+   * @param durability when recorded events are forced to the storage device
+   */
+  @VisibleForTesting
+  ExecutionHistory(Optional<String> filePath, ImmutableList<String> commands,
+      Durability durability) {
     this.filePath = filePath;
 
     // Construct a valid clean history map.
@@ -94,6 +156,8 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
       } catch (ClassNotFoundException | IOException e) {
         LOG.log(Level.WARNING, "Error reading execution history", e);
       }
+      writer = HistoryWriter.start(
+          recoverJournal(), durability, this::writeToFile, COMPACTION_RECORDS);
     }
 
     recalculateSummaryState();
@@ -107,7 +171,8 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
    * @return a new {@link ExecutionHistory} instance
    */
   public static ExecutionHistory from(Configuration config) {
-    return new ExecutionHistory(config.getStatusFile(), config.getCommands());
+    return new ExecutionHistory(
+        config.getStatusFile(), config.getCommands(), config.getHistoryDurability());
   }
 
   /**
@@ -119,7 +184,7 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
    * @param end the [approximate] {@link Instant} at which execution ended.
    * @param exitCode the exit code returned upon completion.
    */
-  public synchronized void recordEvent(String command, Instant start, Instant end, int exitCode) {
+  public void recordEvent(String command, Instant start, Instant end, int exitCode) {
     recordEvent(command, new CommandEvent(start, end, exitCode));
   }
 
@@ -130,22 +195,46 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
    * @param command the command that was run
    * @param event a {@link CommandEvent} describing the execution times and result
    */
-  public synchronized void recordEvent(String command, CommandEvent event) {
-    CommandHistory history = historyMap.get(command);
-    Preconditions.checkNotNull(history, "Asked to record event for unknown command " + command);
-    history.add(event);
-    recalculateSummaryState();
+  public void recordEvent(String command, CommandEvent event) {
+    synchronized (this) {
+      CommandHistory history = historyMap.get(command);
+      Preconditions.checkNotNull(history, "Asked to record event for unknown command " + command);
+      history.add(event);
+      recalculateSummaryState();
+    }
 
-    // If possible, save our new state to disk.
-    if (filePath.isPresent()) {
-      try {
-        writeToFile();
-      } catch (IOException e) {
-        LOG.log(Level.WARNING, "Error writing execution history", e);
+    // If possible, save our new state to disk. This must be outside the monitor since submitting
+    // blocks while the queue is full, and the writer needs the monitor to write a snapshot. A
+    // snapshot taken in between already holds the event, which replay then ignores.
+    if (writer != null) {
+      writer.submit(command, event);
+    }
+  }
+
+  /**
+   * Waits for every recorded event to be persisted, then stops persisting further events.
+   */
+  public void close() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      if (!writer.close(CLOSE_TIMEOUT)) {
+        LOG.warning("Timed out persisting execution history");
       }
+    } catch (InterruptedException e) {
+      LOG.warning("Interrupted persisting execution history");
+      Thread.currentThread().interrupt();
     }
   }
 
+  /**
+   * Returns the counters of the writer persisting events, if there is a status file.
+   */
+  public Optional<HistoryWriter.Stats> getWriterStats() {
+    return writer == null ? Optional.<HistoryWriter.Stats>absent() : Optional.of(writer.getStats());
+  }
+
   /**
    * Returns an immutable copy of the execution history for the specified command.
    */
@@ -211,15 +300,78 @@ public class ExecutionHistory implements Serializable, Iterable<CommandHistory>
   }
 
   /**
-   * Write the current object out to the history filePath.
+   * Opens the journal accompanying the status file and replays the events it holds on top of the
+   * snapshot, then compacts them into a new snapshot.
+   *
+   * <p>Preconditions: {@code filePath} has been specified.
+   *
+   * @return the open journal, or null if it could not be opened so the snapshot must instead be
+   *     rewritten for every event
+   */
+  private synchronized @Nullable HistoryJournal recoverJournal() {
+    Path journalPath = HistoryJournal.pathFor(filePath.get());
+    HistoryJournal journal = null;
+    try {
+      journal = HistoryJournal.open(journalPath);
+      journal.replay(this::replayEvent);
+      if (journal.getRecordCount() > 0) {
+        LOG.info(String.format("Recovered %d events from history journal %s",
+            journal.getRecordCount(), journalPath));
+        writeToFile();
+        journal.reset();
+      }
+      return journal;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Error opening execution history journal, rewriting status file "
+          + "after every event", e);
+      if (journal != null) {
+        try {
+          journal.close();
+        } catch (IOException closeException) {
+          LOG.log(Level.WARNING, "Error closing execution history journal", closeException);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Adds an event read from the journal to the history. Events that are not newer than the
+   * history of their command were already held by the snapshot, which happens if compaction was
+   * interrupted after writing the snapshot but before resetting the journal.
+   */
+  private void replayEvent(String command, CommandEvent event) {
+    CommandHistory history = historyMap.get(command);
+    if (history != null
+        && (history.isEmpty() || event.getEnd().isAfter(history.getLast().getEnd()))) {
+      history.add(event);
+    }
+  }
+
+  /**
+   * Write the current object out to the history filePath, replacing any previous file atomically
+   * so that a crash cannot leave a partially written file. The object is only locked while it is
+   * serialized, not while the file is written.
    *
    * <p>Preconditions: {@code filePath} has been specified.
    */
-  private synchronized void writeToFile() throws IOException {
+  private void writeToFile() throws IOException {
     Preconditions.checkArgument(filePath.isPresent());
-    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath.get()))) {
-      oos.writeObject(this);
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    synchronized (this) {
+      try (ObjectOutputStream oos = new ObjectOutputStream(snapshot)) {
+        oos.writeObject(this);
+      }
+    }
+    Path target = Paths.get(filePath.get());
+    Path temporary = Paths.get(filePath.get() + ".tmp");
+    try (FileOutputStream fos = new FileOutputStream(temporary.toFile())) {
+      snapshot.writeTo(fos);
+      // The snapshot must be durable before the journal records it replaces are discarded.
+      fos.getFD().sync();
     }
+    Files.move(temporary, target,
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
   }
 
   /**
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.history;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.jsankey.overseer.history.CommandEvent.ChangeReport;
+
+/**
+ * An append-only file of {@link CommandEvent} records, used to persist each event as it is
+ * recorded without rewriting the complete history.
+ *
+ * <p>The file begins with a short header, followed by one record per event. Each record holds
+ * the length and CRC32 of its payload followed by a compact binary encoding of the command and
+ * event. A crash part way through an append leaves a torn record at the end of the file, which
+ * fails its length or CRC check during replay and is discarded along with anything after it.
+ *
+ * <p>This class is not thread safe, callers must synchronize access.
+ *
+ * @author Jody
+ */
+class HistoryJournal implements Closeable {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(HistoryJournal.class.getCanonicalName());
+
+  private static final int MAGIC = 0x4f564a31; // "OVJ1"
+  private static final int HEADER_BYTES = 4;
+  private static final int RECORD_HEADER_BYTES = 8;
+  /** Payloads longer than this are assumed to be corrupt. */
+  private static final int MAX_PAYLOAD_BYTES = 16 << 20;
+
+  // Bits in the flags byte of each record, set when the optional field is present.
+  private static final int HAS_SCHEDULED_INTERVAL = 1;
+  private static final int HAS_OUTPUT = 1 << 1;
+  private static final int HAS_LOG_PATH = 1 << 2;
+  private static final int HAS_STARTUP_SAVED = 1 << 3;
+  private static final int HAS_RESOURCE_USAGE = 1 << 4;
+  private static final int HAS_TEARDOWN = 1 << 5;
+
+  private final Path path;
+  private final FileChannel channel;
+  private int recordCount;
+
+  private HistoryJournal(Path path, FileChannel channel) {
+    this.path = path;
+    this.channel = channel;
+    this.recordCount = 0;
+  }
+
+  /**
+   * Opens the journal at the supplied path, creating it if it does not exist. No records may be
+   * appended until the existing records have been replayed.
+   */
+  static HistoryJournal open(Path path) throws IOException {
+    return new HistoryJournal(path, FileChannel.open(path, CREATE, READ, WRITE));
+  }
+
+  /**
+   * Passes every valid record in the journal to the supplied consumer in the order they were
+   * appended, then discards any torn or corrupt record at the end of the journal so that new
+   * records follow the last valid one.
+   */
+  void replay(BiConsumer<String, CommandEvent> consumer) throws IOException {
+    channel.position(0);
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    long validBytes = 0;
+    recordCount = 0;
+    try {
+      if (in.readInt() != MAGIC) {
+        LOG.warning("Ignoring history journal with unknown format: " + path);
+      } else {
+        validBytes = HEADER_BYTES;
+        while (true) {
+          int length = in.readInt();
+          int crc = in.readInt();
+          if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+            LOG.warning("Discarding history journal from invalid record length at " + validBytes);
+            break;
+          }
+          byte[] payload = new byte[length];
+          in.readFully(payload);
+          if (crc(payload) != crc) {
+            LOG.warning("Discarding history journal from corrupt record at " + validBytes);
+            break;
+          }
+          DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+          String command;
+          CommandEvent event;
+          try {
+            command = record.readUTF();
+            event = readEvent(record);
+          } catch (IOException | RuntimeException e) {
+            // The record was written intact but cannot be decoded, so treat it as corrupt.
+            LOG.log(Level.WARNING,
+                "Discarding history journal from undecodable record at " + validBytes, e);
+            break;
+          }
+          consumer.accept(command, event);
+          validBytes += RECORD_HEADER_BYTES + length;
+          recordCount++;
+        }
+      }
+    } catch (EOFException e) {
+      if (channel.size() > validBytes && validBytes > 0) {
+        LOG.warning("Discarding torn record at end of history journal at " + validBytes);
+      }
+    }
+    if (validBytes == 0) {
+      reset();
+    } else {
+      channel.truncate(validBytes);
+      channel.position(validBytes);
+    }
+  }
+
+  /**
+   * Appends a record of each supplied event to the journal in a single write. The records are
+   * written to the file before this returns, but are not forced to the storage device.
+   */
+  void append(List<Map.Entry<String, CommandEvent>> events) throws IOException {
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(records);
+    for (Map.Entry<String, CommandEvent> event : events) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream record = new DataOutputStream(bytes);
+      record.writeUTF(event.getKey());
+      writeEvent(record, event.getValue());
+      byte[] payload = bytes.toByteArray();
+      out.writeInt(payload.length);
+      out.writeInt(crc(payload));
+      out.write(payload);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    recordCount += events.size();
+  }
+
+  @VisibleForTesting
+  void append(String command, CommandEvent event) throws IOException {
+    append(ImmutableList.of(Maps.immutableEntry(command, event)));
+  }
+
+  /**
+   * Forces every appended record to the storage device.
+   */
+  void force() throws IOException {
+    channel.force(false);
+  }
+
+  /**
+   * Discards every record in the journal, once they are all held by a snapshot.
+   */
+  void reset() throws IOException {
+    channel.truncate(0);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC).flip();
+    channel.write(header, 0);
+    channel.position(HEADER_BYTES);
+    recordCount = 0;
+  }
+
+  /**
+   * Returns the number of records in the journal.
+   */
+  int getRecordCount() {
+    return recordCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Returns the path of the journal accompanying the supplied snapshot file.
+   */
+  static Path pathFor(String snapshotPath) {
+    return Paths.get(snapshotPath + ".journal");
+  }
+
+  private static int crc(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  private static void writeEvent(DataOutput out, CommandEvent event) throws IOException {
+    writeInstant(out, event.getStart());
+    writeInstant(out, event.getEnd());
+    out.writeInt(event.getExitCode());
+    out.writeByte(event.getChangeReport().ordinal());
+    int flags = 0;
+    flags |= event.getScheduledInterval().isPresent() ? HAS_SCHEDULED_INTERVAL : 0;
+    flags |= event.getOutput().isPresent() ? HAS_OUTPUT : 0;
+    flags |= event.getLogPath().isPresent() ? HAS_LOG_PATH : 0;
+    flags |= event.getStartupSaved().isPresent() ? HAS_STARTUP_SAVED : 0;
+    flags |= event.getResourceUsage().isPresent() ? HAS_RESOURCE_USAGE : 0;
+    flags |= event.getTeardown().isPresent() ? HAS_TEARDOWN : 0;
+    out.writeByte(flags);
+    if (event.getScheduledInterval().isPresent()) {
+      writeDuration(out, event.getScheduledInterval().get());
+    }
+    if (event.getOutput().isPresent()) {
+      CapturedOutput output = event.getOutput().get();
+      writeString(out, output.getStdoutTail());
+      out.writeBoolean(output.isStdoutTruncated());
+      writeString(out, output.getStderrTail());
+      out.writeBoolean(output.isStderrTruncated());
+    }
+    if (event.getLogPath().isPresent()) {
+      writeString(out, event.getLogPath().get().toString());
+    }
+    if (event.getStartupSaved().isPresent()) {
+      writeDuration(out, event.getStartupSaved().get());
+    }
+    if (event.getResourceUsage().isPresent()) {
+      ResourceUsage usage = event.getResourceUsage().get();
+      out.writeLong(usage.getUserCpuMillis());
+      out.writeLong(usage.getSystemCpuMillis());
+      out.writeLong(usage.getPeakRssBytes());
+      out.writeLong(usage.getReadBytes());
+      out.writeLong(usage.getWriteBytes());
+    }
+    if (event.getTeardown().isPresent()) {
+      writeDuration(out, event.getTeardown().get());
+    }
+  }
+
+  private static CommandEvent readEvent(DataInput in) throws IOException {
+    Instant start = readInstant(in);
+    Instant end = readInstant(in);
+    CommandEvent event = new CommandEvent(start, end, in.readInt());
+    int changeReport = in.readByte();
+    if (changeReport < 0 || changeReport >= ChangeReport.values().length) {
+      throw new IOException("Invalid change report in history journal: " + changeReport);
+    }
+    event = event.withChangeReport(ChangeReport.values()[changeReport]);
+    int flags = in.readByte();
+    if ((flags & HAS_SCHEDULED_INTERVAL) != 0) {
+      event = event.withScheduledInterval(readDuration(in));
+    }
+    if ((flags & HAS_OUTPUT) != 0) {
+      event = event.withOutput(CapturedOutput.of(
+          readString(in), in.readBoolean(), readString(in), in.readBoolean()));
+    }
+    if ((flags & HAS_LOG_PATH) != 0) {
+      event = event.withLogPath(Paths.get(readString(in)));
+    }
+    if ((flags & HAS_STARTUP_SAVED) != 0) {
+      event = event.withStartupSaved(readDuration(in));
+    }
+    if ((flags & HAS_RESOURCE_USAGE) != 0) {
+      event = event.withResourceUsage(ResourceUsage.of(
+          in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+    }
+    if ((flags & HAS_TEARDOWN) != 0) {
+      event = event.withTeardown(readDuration(in));
+    }
+    return event;
+  }
+
+  private static void writeInstant(DataOutput out, Instant instant) throws IOException {
+    out.writeLong(instant.getEpochSecond());
+    out.writeInt(instant.getNano());
+  }
+
+  private static Instant readInstant(DataInput in) throws IOException {
+    return Instant.ofEpochSecond(in.readLong(), in.readInt());
+  }
+
+  private static void writeDuration(DataOutput out, Duration duration) throws IOException {
+    out.writeLong(duration.getSeconds());
+    out.writeInt(duration.getNano());
+  }
+
+  private static Duration readDuration(DataInput in) throws IOException {
+    return Duration.ofSeconds(in.readLong(), in.readInt());
+  }
+
+  /** Writes a string of any length, unlike {@link DataOutput#writeUTF}. */
+  private static void writeString(DataOutput out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+      throw new IOException("Invalid string length in history journal: " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
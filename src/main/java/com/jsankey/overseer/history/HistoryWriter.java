@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.history;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.jsankey.overseer.history.ExecutionHistory.Durability;
+
+/**
+ * Persists recorded events on a dedicated thread, so that storage latency never delays the
+ * caller.
+ *
+ * <p>Events wait in a bounded queue. The writer takes the first waiting event, gathers any others
+ * that arrive within a short window, then commits the group to the {@link HistoryJournal} in one
+ * write, forcing it to the storage device as required by the {@link Durability}. Once the journal
+ * holds enough records a new snapshot is written and the journal is reset. Without a journal each
+ * group is committed by writing a snapshot.
+ *
+ * @author Jody
+ */
+public class HistoryWriter {
+
+  /** Logger for the current class. */
+  private static final Logger LOG = Logger.getLogger(HistoryWriter.class.getCanonicalName());
+
+  /** The time after the first event of a group during which further events join the group. */
+  @VisibleForTesting
+  static final Duration GROUP_WINDOW = Duration.ofMillis(20);
+  private static final int QUEUE_CAPACITY = 1024;
+  /** Marker placed on the queue to stop the writer once earlier events are committed. */
+  private static final Map.Entry<String, CommandEvent> END = Maps.immutableEntry(null, null);
+
+  /**
+   * Interface for the owner of the history, which writes snapshots of its complete state.
+   */
+  interface SnapshotWriter {
+    /** Writes and forces a snapshot holding every event recorded so far. */
+    void writeSnapshot() throws IOException;
+  }
+
+  /**
+   * Counters describing the commits made by the writer.
+   */
+  public static class Stats {
+    private final int queueDepth;
+    private final long commits;
+    private final long events;
+    private final Duration totalCommitTime;
+    private final Duration maxCommitTime;
+
+    private Stats(int queueDepth, long commits, long events, long totalCommitNanos,
+        long maxCommitNanos) {
+      this.queueDepth = queueDepth;
+      this.commits = commits;
+      this.events = events;
+      this.totalCommitTime = Duration.ofNanos(totalCommitNanos);
+      this.maxCommitTime = Duration.ofNanos(maxCommitNanos);
+    }
+
+    /** Returns the number of events waiting to be committed. */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    /** Returns the number of groups of events that have been committed. */
+    public long getCommits() {
+      return commits;
+    }
+
+    /** Returns the number of events that have been committed. */
+    public long getEvents() {
+      return events;
+    }
+
+    /** Returns the mean time taken by a commit, or zero if there have been none. */
+    public Duration getMeanCommitTime() {
+      return commits == 0 ? Duration.ZERO : totalCommitTime.dividedBy(commits);
+    }
+
+    /** Returns the longest time taken by a commit. */
+    public Duration getMaxCommitTime() {
+      return maxCommitTime;
+    }
+  }
+
+  private final @Nullable HistoryJournal journal;
+  private final Durability durability;
+  private final SnapshotWriter snapshotWriter;
+  private final int compactionRecords;
+  private final BlockingQueue<Map.Entry<String, CommandEvent>> queue;
+  private final Thread writerThread;
+
+  /**
+   * Guards the counters. The writer thread never takes the object monitor, so submitters may
+   * block on a full queue while holding it. Writing a snapshot takes the monitor of the history,
+   * so submitters must never hold that while they submit.
+   */
+  private final Object statsLock;
+
+  // Counters, all guarded by statsLock.
+  private long commits;
+  private long events;
+  private long totalCommitNanos;
+  private long maxCommitNanos;
+  /** Set once the end marker is queued, guarded by the object monitor. */
+  private boolean closed;
+
+  private HistoryWriter(@Nullable HistoryJournal journal, Durability durability,
+      SnapshotWriter snapshotWriter, int compactionRecords) {
+    this.journal = journal;
+    this.durability = durability;
+    this.snapshotWriter = snapshotWriter;
+    this.compactionRecords = compactionRecords;
+    this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    this.writerThread = new Thread(this::write, "history-writer");
+    this.writerThread.setDaemon(true);
+    this.statsLock = new Object();
+  }
+
+  /**
+   * Constructs a new {@link HistoryWriter} and starts its thread.
+   *
+   * @param journal the journal to append events to, or null to write a snapshot for each commit
+   * @param durability when the journal is forced to the storage device
+   * @param snapshotWriter writes snapshots of the complete history
+   * @param compactionRecords the number of journal records after which a snapshot is written
+   */
+  static HistoryWriter start(@Nullable HistoryJournal journal, Durability durability,
+      SnapshotWriter snapshotWriter, int compactionRecords) {
+    HistoryWriter writer =
+        new HistoryWriter(journal, durability, snapshotWriter, compactionRecords);
+    writer.writerThread.start();
+    return writer;
+  }
+
+  /**
+   * Queues an event to be committed, blocking only if the queue is full. Events submitted after
+   * the writer is closed are discarded.
+   *
+   * <p>Preconditions: The caller does not hold any lock needed by the {@link SnapshotWriter}.
+   */
+  void submit(String command, CommandEvent event) {
+    // The check and the enqueue share the monitor with close, so no event can follow the end
+    // marker. The writer keeps draining the queue without the monitor, so a full queue still
+    // makes progress while we wait here.
+    synchronized (this) {
+      if (closed) {
+        LOG.warning("Discarding event recorded after history was closed for " + command);
+        return;
+      }
+      try {
+        queue.put(Maps.immutableEntry(command, event));
+      } catch (InterruptedException e) {
+        LOG.warning("Interrupted before queueing event for " + command);
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Commits every queued event and forces the journal to the storage device whatever the
+   * durability, then stops the writer. Events submitted after this are discarded. Waits no
+   * longer than the supplied timeout.
+   *
+   * @return true iff every event was committed within the timeout
+   */
+  boolean close(Duration timeout) throws InterruptedException {
+    synchronized (this) {
+      if (closed) {
+        return !writerThread.isAlive();
+      }
+      closed = true;
+      queue.put(END);
+    }
+    writerThread.join(timeout.toMillis());
+    return !writerThread.isAlive();
+  }
+
+  /**
+   * Returns the current counters of the writer.
+   */
+  Stats getStats() {
+    synchronized (statsLock) {
+      return new Stats(queue.size(), commits, events, totalCommitNanos, maxCommitNanos);
+    }
+  }
+
+  /**
+   * Main loop of the writer thread, committing a group of events at a time until it reaches the
+   * end marker.
+   */
+  private void write() {
+    List<Map.Entry<String, CommandEvent>> group = new ArrayList<>();
+    boolean ended = false;
+    try {
+      while (!ended) {
+        group.clear();
+        group.add(queue.take());
+        if (durability != Durability.EVERY_EVENT) {
+          long deadline = System.nanoTime() + GROUP_WINDOW.toNanos();
+          long remaining;
+          while (group.get(group.size() - 1) != END
+              && (remaining = deadline - System.nanoTime()) > 0) {
+            Map.Entry<String, CommandEvent> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+              break;
+            }
+            group.add(next);
+            queue.drainTo(group);
+          }
+        }
+        int endIndex = group.indexOf(END);
+        if (endIndex >= 0) {
+          ended = true;
+          group.subList(endIndex, group.size()).clear();
+        }
+        commit(group);
+      }
+    } catch (InterruptedException e) {
+      LOG.warning(String.format("History writer interrupted with %d events uncommitted",
+          group.size() + queue.size()));
+    }
+    if (journal != null) {
+      try {
+        // Earlier commits may not have been forced, depending on the durability.
+        journal.force();
+        journal.close();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Error closing execution history journal", e);
+      }
+    }
+  }
+
+  /**
+   * Commits a group of events, forcing them to the storage device if the durability requires it.
+   */
+  private void commit(List<Map.Entry<String, CommandEvent>> group) {
+    if (group.isEmpty()) {
+      return;
+    }
+    long startNanos = System.nanoTime();
+    try {
+      if (journal == null) {
+        snapshotWriter.writeSnapshot();
+      } else {
+        journal.append(group);
+        if (journal.getRecordCount() >= compactionRecords) {
+          snapshotWriter.writeSnapshot();
+          journal.reset();
+        } else if (durability != Durability.NONE) {
+          journal.force();
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Error writing execution history", e);
+    }
+    long commitNanos = System.nanoTime() - startNanos;
+    synchronized (statsLock) {
+      commits++;
+      events += group.size();
+      totalCommitNanos += commitNanos;
+      maxCommitNanos = Math.max(maxCommitNanos, commitNanos);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.history;
+
+import java.io.Serializable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The operating system resources consumed by a single execution of a command, totalled across
+ * the whole process tree.
+ *
+ * @author Jody
+ */
+public class ResourceUsage implements Serializable {
+
+  private static final long serialVersionUID = -2816630472954126507L;
+
+  /** Usage of an execution that consumed nothing measurable. */
+  public static final ResourceUsage NONE = new ResourceUsage(0, 0, 0, 0, 0);
+
+  private final long userCpuMillis;
+  private final long systemCpuMillis;
+  private final long peakRssBytes;
+  private final long readBytes;
+  private final long writeBytes;
+
+  private ResourceUsage(long userCpuMillis, long systemCpuMillis, long peakRssBytes,
+      long readBytes, long writeBytes) {
+    Preconditions.checkArgument(userCpuMillis >= 0 && systemCpuMillis >= 0 && peakRssBytes >= 0
+        && readBytes >= 0 && writeBytes >= 0, "Resource usage must not be negative");
+    this.userCpuMillis = userCpuMillis;
+    this.systemCpuMillis = systemCpuMillis;
+    this.peakRssBytes = peakRssBytes;
+    this.readBytes = readBytes;
+    this.writeBytes = writeBytes;
+  }
+
+  /**
+   * Constructs a new {@link ResourceUsage}.
+   *
+   * @param userCpuMillis CPU time spent in user mode
+   * @param systemCpuMillis CPU time spent in the kernel
+   * @param peakRssBytes the largest resident set size observed
+   * @param readBytes bytes fetched from storage
+   * @param writeBytes bytes sent to storage
+   */
+  public static ResourceUsage of(long userCpuMillis, long systemCpuMillis, long peakRssBytes,
+      long readBytes, long writeBytes) {
+    return new ResourceUsage(userCpuMillis, systemCpuMillis, peakRssBytes, readBytes, writeBytes);
+  }
+
+  /**
+   * Returns the larger of this and the supplied usage in each measure. Since every measure only
+   * grows during an execution this combines successive samples of the same execution.
+   */
+  public ResourceUsage max(ResourceUsage other) {
+    return new ResourceUsage(
+        Math.max(userCpuMillis, other.userCpuMillis),
+        Math.max(systemCpuMillis, other.systemCpuMillis),
+        Math.max(peakRssBytes, other.peakRssBytes),
+        Math.max(readBytes, other.readBytes),
+        Math.max(writeBytes, other.writeBytes));
+  }
+
+  /**
+   * Returns the CPU time spent in user mode, in milliseconds.
+   */
+  public long getUserCpuMillis() {
+    return userCpuMillis;
+  }
+
+  /**
+   * Returns the CPU time spent in the kernel, in milliseconds.
+   */
+  public long getSystemCpuMillis() {
+    return systemCpuMillis;
+  }
+
+  /**
+   * Returns the largest resident set size observed, in bytes.
+   */
+  public long getPeakRssBytes() {
+    return peakRssBytes;
+  }
+
+  /**
+   * Returns the number of bytes fetched from storage.
+   */
+  public long getReadBytes() {
+    return readBytes;
+  }
+
+  /**
+   * Returns the number of bytes sent to storage.
+   */
+  public long getWriteBytes() {
+    return writeBytes;
+  }
+}
@@ -8,16 +8,25 @@ package com.jsankey.overseer.io;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Map;
 
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 
 import com.google.common.base.Optional;
 import com.jsankey.overseer.Configuration;
 import com.jsankey.overseer.Executive;
+import com.jsankey.overseer.Executive.OutputSubscriber;
+import com.jsankey.overseer.ExecutiveSnapshot;
+import com.jsankey.overseer.checks.ConditionCache;
+import com.jsankey.overseer.history.CapturedOutput;
 import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.history.CommandEvent.ChangeReport;
 import com.jsankey.overseer.history.CommandHistory;
+import com.jsankey.overseer.history.HistoryWriter;
+import com.jsankey.overseer.history.ResourceUsage;
 
 /**
  * Enumeration of all commands accepted on the interface, with a method to perform each.
@@ -25,7 +34,8 @@ import com.jsankey.overseer.history.CommandHistory;
 enum Command {
   HELP("Returns the list of commands") {
     @Override
-    public void execute(ConnectionParser parser, Executive executive) throws IOException {
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) throws IOException {
       JsonArrayBuilder commandBuilder = Json.createArrayBuilder();
       for (Command command : Command.values()) {
         commandBuilder.add(Json.createObjectBuilder().add(command.name(), command.help));
@@ -39,33 +49,78 @@ enum Command {
   },
   RUN("Begins a new execution of the commands immediately") {
     @Override
-    public void execute(ConnectionParser parser, Executive executive) {
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) {
       executive.runNow();
     }
   },
   STATUS("Returns a summary of the current status") {
     @Override
-    public void execute(ConnectionParser parser, Executive executive) throws IOException {
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) throws IOException {
+      ExecutiveSnapshot snapshot = executive.getSnapshot();
       Optional<Instant> lastStart = executive.getHistory().getOldestStart();
+      JsonArrayBuilder activeCommands = Json.createArrayBuilder();
+      for (String command : snapshot.getActiveCommands()) {
+        activeCommands.add(command);
+      }
       JsonObject json = Json.createObjectBuilder()
-          .add("status", executive.getStatus().toString())
+          .add("version", snapshot.getVersion())
+          .add("status", snapshot.getStatus().toString())
           .add("last_start_ms", lastStart.isPresent()
               ? String.valueOf(lastStart.get().toEpochMilli()) : "NONE")
+          .add("next_run_ms", snapshot.getNextRun().isPresent()
+              ? String.valueOf(snapshot.getNextRun().get().toEpochMilli()) : "NONE")
+          .add("blocked_reason", snapshot.getBlockedReason().or("NONE"))
+          .add("active_commands", activeCommands)
           .build();
       parser.sendJson(json);
     }
   },
   HISTORY("Returns full history for all commands") {
     @Override
-    public void execute(ConnectionParser parser, Executive executive) throws IOException {
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) throws IOException {
       JsonArrayBuilder jsonCommands = Json.createArrayBuilder();
       for (CommandHistory command : executive.getHistory()) {
         JsonArrayBuilder jsonExecutions = Json.createArrayBuilder();
         for (CommandEvent event : command) {
-          jsonExecutions.add(Json.createObjectBuilder()
+          JsonObjectBuilder jsonEvent = Json.createObjectBuilder()
               .add("start_ms", event.getStart().toEpochMilli())
               .add("end_ms", event.getEnd().toEpochMilli())
-              .add("exit_code", event.getExitCode()));
+              .add("exit_code", event.getExitCode());
+          // Optional details are only included when known to keep the output compact.
+          if (event.getChangeReport() != ChangeReport.UNREPORTED) {
+            jsonEvent.add("changes", event.getChangeReport().toString());
+          }
+          if (event.getScheduledInterval().isPresent()) {
+            jsonEvent.add("interval_ms", event.getScheduledInterval().get().toMillis());
+          }
+          if (event.getTeardown().isPresent()) {
+            jsonEvent.add("teardown_ms", event.getTeardown().get().toMillis());
+          }
+          if (event.getStartupSaved().isPresent()) {
+            jsonEvent.add("startup_saved_ms", event.getStartupSaved().get().toMillis());
+          }
+          if (event.getResourceUsage().isPresent()) {
+            ResourceUsage usage = event.getResourceUsage().get();
+            jsonEvent.add("user_cpu_ms", usage.getUserCpuMillis())
+                .add("system_cpu_ms", usage.getSystemCpuMillis())
+                .add("peak_rss_bytes", usage.getPeakRssBytes())
+                .add("read_bytes", usage.getReadBytes())
+                .add("write_bytes", usage.getWriteBytes());
+          }
+          if (event.getLogPath().isPresent()) {
+            jsonEvent.add("log_path", event.getLogPath().get().toString());
+          }
+          if (event.getOutput().isPresent()) {
+            CapturedOutput output = event.getOutput().get();
+            jsonEvent.add("stdout_tail", output.getStdoutTail())
+                .add("stdout_truncated", output.isStdoutTruncated())
+                .add("stderr_tail", output.getStderrTail())
+                .add("stderr_truncated", output.isStderrTruncated());
+          }
+          jsonExecutions.add(jsonEvent);
         }
         jsonCommands.add(Json.createObjectBuilder()
             .add("command", command.getCommand())
@@ -74,24 +129,80 @@ enum Command {
       parser.sendJson(jsonCommands.build());
     }
   },
+  CHECKS("Returns the cached result and counters of each command condition") {
+    @Override
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) throws IOException {
+      JsonArrayBuilder jsonConditions = Json.createArrayBuilder();
+      for (Map.Entry<String, ConditionCache.Stats> entry
+          : executive.getConditionStats().entrySet()) {
+        ConditionCache.Stats stats = entry.getValue();
+        jsonConditions.add(Json.createObjectBuilder()
+            .add("condition", entry.getKey())
+            .add("satisfied", stats.getSatisfied().isPresent()
+                ? stats.getSatisfied().get().toString() : "UNKNOWN")
+            .add("hits", stats.getHits())
+            .add("stale_hits", stats.getStaleHits())
+            .add("misses", stats.getMisses())
+            .add("joins", stats.getJoins())
+            .add("probes", stats.getProbes())
+            .add("mean_probe_ms", stats.getMeanProbeTime().toMillis())
+            .add("max_probe_ms", stats.getMaxProbeTime().toMillis()));
+      }
+      parser.sendJson(jsonConditions.build());
+    }
+  },
+  PERSISTENCE("Returns the queue depth and commit latency of the status file writer") {
+    @Override
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) throws IOException {
+      Optional<HistoryWriter.Stats> stats = executive.getHistory().getWriterStats();
+      JsonObjectBuilder json = Json.createObjectBuilder().add("enabled", stats.isPresent());
+      if (stats.isPresent()) {
+        json.add("queue_depth", stats.get().getQueueDepth())
+            .add("commits", stats.get().getCommits())
+            .add("events", stats.get().getEvents())
+            .add("mean_commit_us", stats.get().getMeanCommitTime().toNanos() / 1000)
+            .add("max_commit_us", stats.get().getMaxCommitTime().toNanos() / 1000);
+      }
+      parser.sendJson(json.build());
+    }
+  },
   VERSION("Returns software version") {
     @Override
-    public void execute(ConnectionParser parser, Executive executive) throws IOException {
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) throws IOException {
       JsonObject json = Json.createObjectBuilder()
           .add("version", Configuration.VERSION_STRING)
           .build();
       parser.sendJson(json);
     }
   },
+  WATCH("Streams the output of running commands, if enabled, until UNWATCH") {
+    @Override
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) {
+      executive.subscribeOutput(subscriber);
+    }
+  },
+  UNWATCH("Stops streaming the output of running commands") {
+    @Override
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) {
+      executive.unsubscribeOutput(subscriber);
+    }
+  },
   CLOSE("Closes the current connection") {
     @Override
-    public void execute(ConnectionParser parser, Executive executive) {
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) {
       parser.initiateClose();
     }
   },
   SHUTDOWN("Begins a graceful shutdown") {
     @Override
-    public void execute(ConnectionParser parser, Executive executive) {
+    public void execute(ConnectionParser parser, Executive executive,
+        OutputSubscriber subscriber) {
       executive.terminate();
     }
   };
@@ -104,7 +215,10 @@ enum Command {
 
   /**
    * Perform the command, mutating or reading from the supplied {@link Executive} as required.
+   *
+   * @param subscriber the connection, used by commands that subscribe to command output
    */
-  public abstract void execute(ConnectionParser parser, Executive executive) throws IOException;
+  public abstract void execute(ConnectionParser parser, Executive executive,
+      OutputSubscriber subscriber) throws IOException;
 }
 
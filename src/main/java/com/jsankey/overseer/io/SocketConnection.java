@@ -11,19 +11,23 @@ import java.net.Socket;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonException;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.jsankey.overseer.Executive;
+import com.jsankey.overseer.Executive.OutputSubscriber;
 import com.jsankey.overseer.Executive.Status;
 import com.jsankey.overseer.Executive.StatusListener;
+import com.jsankey.overseer.OutputFrame;
 import com.jsankey.overseer.io.ConnectionParser.UpgradeRequestedException;
 
 
 /**
  * Handles a single connection to the program from a network peer.
  */
-public class SocketConnection implements Runnable, StatusListener {
+public class SocketConnection implements Runnable, StatusListener, OutputSubscriber {
 
   private static final Logger LOG = Logger.getLogger(SocketConnection.class.getCanonicalName());
 
@@ -61,7 +65,7 @@ public class SocketConnection implements Runnable, StatusListener {
         try {
           Command command = parser.receiveInput();
           if (command != null) {
-            command.execute(parser, executive);
+            command.execute(parser, executive, this);
           }
         } catch (UpgradeRequestedException e) {
           attemptUpgrade();
@@ -74,6 +78,7 @@ public class SocketConnection implements Runnable, StatusListener {
     } finally {
       LOG.info(String.format("Finishing connection thread for %s", parser.getSocketName()));
       executive.unregisterListener(this);
+      executive.unsubscribeOutput(this);
       try {
         socket.shutdownInput();
         socket.shutdownOutput();
@@ -89,7 +94,7 @@ public class SocketConnection implements Runnable, StatusListener {
     // Occasionally we'll null out the parser during an upgrade, if so just discard the update
     if (parser != null) {
       try {
-        Command.STATUS.execute(parser, executive);
+        Command.STATUS.execute(parser, executive, this);
       } catch (IOException e) {
         // If we fail once, we'll probably fail again. Shut the socket down so the executive
         // thread doesn't  have to deal with this.
@@ -100,7 +105,7 @@ public class SocketConnection implements Runnable, StatusListener {
       if(status == Status.TERMINATED) {
         LOG.info(String.format("Sending close on termination for %s", parser.getSocketName()));
         try {
-          Command.CLOSE.execute(parser, executive);
+          Command.CLOSE.execute(parser, executive, this);
         } catch (IOException e) {
           // Close exceptions are common if client initiated shutdown - ignore
         }
@@ -108,6 +113,31 @@ public class SocketConnection implements Runnable, StatusListener {
     }
   }
 
+  @Override
+  public void receiveOutput(OutputFrame frame) {
+    // As for status, discard output while the parser is being upgraded.
+    ConnectionParser current = parser;
+    if (current != null) {
+      JsonArrayBuilder chunks = Json.createArrayBuilder();
+      for (OutputFrame.Chunk chunk : frame.getChunks()) {
+        chunks.add(Json.createObjectBuilder()
+            .add("command", chunk.getCommand())
+            .add("stream", chunk.getStream().toString())
+            .add("text", chunk.getText()));
+      }
+      try {
+        current.sendJson(Json.createObjectBuilder()
+            .add("output", chunks)
+            .add("skipped_bytes", frame.getSkippedBytes())
+            .build());
+      } catch (IOException e) {
+        LOG.warning(String.format("Exception sending output in connection %s, closing socket",
+            current.getSocketName()));
+        current.initiateClose();
+      }
+    }
+  }
+
   /**
    * Attempts to safely replace the current parser with a websocket upgraded one.
    */
@@ -38,7 +38,8 @@ public class WebConnectionParser extends ConnectionParser {
       + "Sec-WebSocket-Accept: %s\r\n\r\n";
   private static final String WEBSOCKET_UPGRADE_FAILURE = "400 Bad Request\r\n\r\n";
   private static final String WEBSOCKET_HASH_SUFFIX = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
-  private static final int MAX_SEND_LENGTH = (1 << 16);
+  /** Payloads shorter than this have their length sent in two bytes rather than eight. */
+  private static final int MAX_SHORT_LENGTH = (1 << 16);
 
   static final String WEBSOCKET_UPGRADE_START = "GET /overseer HTTP/1.1";
 
@@ -245,12 +246,17 @@ public class WebConnectionParser extends ConnectionParser {
     buffer.write(0x80 | packet.opCode.value);
     if (packet.data.length < 126) {
       buffer.write(packet.data.length);
-    } else if (packet.data.length < MAX_SEND_LENGTH) {
+    } else if (packet.data.length < MAX_SHORT_LENGTH) {
       buffer.write(126);
       buffer.write(packet.data.length / 256);
       buffer.write(packet.data.length % 256);
     } else {
-      throw new IOException("Sending packets longer than 64K is not supported.");
+      // Output frames and long histories may exceed 64K, these need the full 64 bit length.
+      buffer.write(127);
+      long length = packet.data.length;
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer.write((int) (length >>> shift) & 0xFF);
+      }
     }
     buffer.write(packet.data);
     writeWithFlush(buffer.toByteArray());
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.jsankey.overseer.history.ResourceUsage;
+
+/**
+ * Places executions in a cgroup v2 sub-tree so their resources can be limited by class and
+ * accounted precisely.
+ *
+ * <p>The root must be a cgroup delegated to this program that contains no processes, for example
+ * one created by systemd with {@code Delegate=yes}. Each {@link ResourceClass} has a child cgroup
+ * holding its limits, which are shared by all executions in the class, and each execution has
+ * its own leaf cgroup beneath that for accounting.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author Jody
+ */
+public class CgroupManager {
+
+  private static final Logger LOG = Logger.getLogger(CgroupManager.class.getCanonicalName());
+
+  /** The controllers enabled for children, where the parent makes them available. */
+  private static final ImmutableList<String> CONTROLLERS = ImmutableList.of("cpu", "io", "memory");
+  private static final String PROCS_FILE = "cgroup.procs";
+  private static final Splitter WHITESPACE = Splitter.onPattern("\\s+").omitEmptyStrings();
+
+  private final Path root;
+  /** Names of the classes whose cgroups have been configured. */
+  private final Set<String> configuredClasses;
+  private long nextRun;
+
+  private CgroupManager(Path root) {
+    this.root = root;
+    this.configuredClasses = new HashSet<>();
+    this.nextRun = 1;
+  }
+
+  /**
+   * Returns a new {@link CgroupManager} for the supplied cgroup, or absent if it is not a
+   * writable cgroup v2 directory, in which case commands fall back to process priorities.
+   */
+  public static Optional<CgroupManager> create(Path root) {
+    if (!Files.isRegularFile(root.resolve(PROCS_FILE)) || !Files.isWritable(root)) {
+      LOG.warning("Not a writable cgroup v2 directory, using process priorities: " + root);
+      return Optional.absent();
+    }
+    enableControllers(root);
+    return Optional.of(new CgroupManager(root));
+  }
+
+  /**
+   * Returns the path of the file to which a process writes its ID to join a cgroup.
+   */
+  static Path procsFile(Path cgroup) {
+    return cgroup.resolve(PROCS_FILE);
+  }
+
+  /**
+   * Creates and returns the leaf cgroup for a new execution in the supplied class, creating and
+   * configuring the cgroup of the class on first use.
+   */
+  synchronized Path startRun(ResourceClass resourceClass) throws IOException {
+    Path classGroup = root.resolve(resourceClass.getName());
+    if (!configuredClasses.contains(resourceClass.getName())) {
+      Files.createDirectories(classGroup);
+      if (resourceClass.getCpuWeight().isPresent()) {
+        applyLimit(classGroup, "cpu.weight", resourceClass.getCpuWeight().get().toString());
+      }
+      if (resourceClass.getMemoryMaxBytes().isPresent()) {
+        applyLimit(classGroup, "memory.max", resourceClass.getMemoryMaxBytes().get().toString());
+      }
+      if (resourceClass.getIoWeight().isPresent()) {
+        applyLimit(classGroup, "io.weight", "default " + resourceClass.getIoWeight().get());
+      }
+      enableControllers(classGroup);
+      configuredClasses.add(resourceClass.getName());
+    }
+    // Leaves left behind by an earlier instance are skipped rather than reused.
+    while (true) {
+      try {
+        return Files.createDirectory(classGroup.resolve("run-" + nextRun++));
+      } catch (FileAlreadyExistsException e) {
+        continue;
+      }
+    }
+  }
+
+  /**
+   * Returns the resources consumed by every process that joined the leaf cgroup of an execution.
+   * Values the kernel does not provide, such as the peak memory of kernels before 5.19, are zero.
+   */
+  ResourceUsage readUsage(Path run) {
+    List<String> cpu = readLines(run.resolve("cpu.stat"));
+    long readBytes = 0;
+    long writeBytes = 0;
+    for (String device : readLines(run.resolve("io.stat"))) {
+      // Each line is a device number followed by key=value pairs.
+      for (String field : WHITESPACE.split(device)) {
+        if (field.startsWith("rbytes=")) {
+          readBytes += Long.parseLong(field.substring("rbytes=".length()));
+        } else if (field.startsWith("wbytes=")) {
+          writeBytes += Long.parseLong(field.substring("wbytes=".length()));
+        }
+      }
+    }
+    List<String> peak = readLines(run.resolve("memory.peak"));
+    return ResourceUsage.of(
+        readValue(cpu, "user_usec") / 1000,
+        readValue(cpu, "system_usec") / 1000,
+        peak.isEmpty() ? 0 : Long.parseLong(peak.get(0).trim()),
+        readBytes,
+        writeBytes);
+  }
+
+  /**
+   * Removes the leaf cgroup of a finished execution. This fails while any process that joined it
+   * is still running, in which case the cgroup is left for inspection.
+   */
+  void finishRun(Path run) {
+    try {
+      Files.delete(run);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Could not remove cgroup, processes may remain: " + run, e);
+    }
+  }
+
+  @VisibleForTesting
+  Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Enables for the children of a cgroup those of the wanted controllers it makes available.
+   * Failure is logged rather than thrown since commands can still run without the controllers.
+   */
+  private static void enableControllers(Path cgroup) {
+    try {
+      List<String> available = WHITESPACE.splitToList(new String(
+          Files.readAllBytes(cgroup.resolve("cgroup.controllers")), StandardCharsets.UTF_8));
+      ImmutableList.Builder<String> enable = ImmutableList.builder();
+      for (String controller : CONTROLLERS) {
+        if (available.contains(controller)) {
+          enable.add("+" + controller);
+        }
+      }
+      writeSetting(cgroup, "cgroup.subtree_control", Joiner.on(' ').join(enable.build()));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Could not enable cgroup controllers in " + cgroup, e);
+    }
+  }
+
+  /**
+   * Sets a limit on a cgroup, logging rather than throwing on failure since the file only exists
+   * when the parent enables the controller.
+   */
+  private static void applyLimit(Path cgroup, String file, String value) {
+    try {
+      writeSetting(cgroup, file, value);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, String.format("Could not set %s in %s", file, cgroup), e);
+    }
+  }
+
+  private static void writeSetting(Path cgroup, String file, String value) throws IOException {
+    Files.write(cgroup.resolve(file), value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns the lines of a file, or none if it cannot be read.
+   */
+  private static List<String> readLines(Path file) {
+    try {
+      return Files.readAllLines(file);
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Could not read " + file, e);
+      return ImmutableList.of();
+    }
+  }
+
+  /**
+   * Returns the number following "key " in the supplied lines, or zero if absent.
+   */
+  private static long readValue(List<String> lines, String key) {
+    for (String line : lines) {
+      List<String> fields = WHITESPACE.splitToList(line);
+      if (fields.size() == 2 && fields.get(0).equals(key)) {
+        return Long.parseLong(fields.get(1));
+      }
+    }
+    return 0;
+  }
+}
@@ -7,16 +7,38 @@
 package com.jsankey.overseer.runner;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.jsankey.overseer.history.CapturedOutput;
 import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.history.CommandEvent.ChangeReport;
+import com.jsankey.overseer.history.ResourceUsage;
+import com.jsankey.overseer.runner.OutputListener.Stream;
 
 /**
  * Initiates, terminates, and monitors execution of a given command.
@@ -31,38 +53,207 @@ public class CommandRunner {
   private static final Logger LOG = Logger.getLogger(CommandRunner.class.getCanonicalName());
   /** The bit bucket as a {@link File} for convenience of redirects. */
   private static final File DEVNULL = new File("/dev/null");
+  /** Default time a terminated process tree may take to exit before it is killed. */
+  public static final Duration DEFAULT_TERMINATION_GRACE = Duration.ofSeconds(10);
+  /** Default time a persistent worker may take to report that it is ready. */
+  public static final Duration DEFAULT_WORKER_STARTUP_TIMEOUT = Duration.ofMinutes(5);
+  /** Interval between checks that the processes of a terminating execution have exited. */
+  private static final long TEARDOWN_POLL_MILLIS = 20;
+  /**
+   * Shell script that moves itself into the cgroup whose procs file is its first argument, then
+   * becomes the command, so that every process of the execution starts inside the cgroup.
+   */
+  private static final String CGROUP_JOIN_SCRIPT =
+      "echo $$ > \"$0\" || echo \"Could not join cgroup $0\" >&2; exec \"$@\"";
 
   // Immutable state
   private final Clock clock;
   private final String command;
   private final ProcessBuilder builder;
+  /** Bytes of each output stream to retain for failed executions, or zero to discard output. */
+  private final int captureBytes;
+  @Nullable private final OutputListener listener;
+  @Nullable private final OutputLogStore logs;
+  private final OutputPump pump;
+  private final ResourceSampler sampler;
+  /** The persistent worker that performs executions, or null to start a process for each. */
+  @Nullable private final Worker worker;
+  /** Time a terminated process tree may take to exit before it is killed. */
+  private final Duration terminationGrace;
+  @Nullable private final ResourceClass resourceClass;
+  @Nullable private final CgroupManager cgroups;
+  /** The command line, lowered in priority if a resource class requires it. */
+  private final ImmutableList<String> commandLine;
+  /** The exit code through which the command reports making no changes, if any. */
+  @Nullable private final Integer unchangedExitCode;
 
-  // Current execution
+  // Current execution, with either a process or a worker request while running
   @Nullable private Process process;
+  @Nullable private CompletableFuture<Worker.Result> request;
   @Nullable private Instant startTime;
+  @Nullable private CompletableFuture<CommandEvent> completion;
+  @Nullable private OutputRingBuffer stdout;
+  @Nullable private OutputRingBuffer stderr;
+  @Nullable private Path runDirectory;
+  @Nullable private ResourceSampler.Tracker resources;
+  @Nullable private Path cgroupRun;
+  /** The time termination of the current execution began, or null if not terminating. */
+  @Nullable private Instant terminationStart;
+  /** The exit code to record for the current execution once terminated. */
+  private int terminationExitCode;
 
   // Previous execution
   @Nullable private CommandEvent lastEvent; 
 
-  private CommandRunner(String command, Clock clock) {
-    this.command = command;
+  private CommandRunner(Builder settings) {
+    Preconditions.checkArgument(settings.captureBytes >= 0, "Capture size must not be negative");
+    Preconditions.checkArgument(
+        !settings.terminationGrace.isNegative(), "Termination grace must not be negative");
+    Preconditions.checkArgument(!settings.workerStartupTimeout.isNegative(),
+        "Worker startup timeout must not be negative");
+    Preconditions.checkArgument(!settings.persistentWorker
+        || (settings.captureBytes == 0 && settings.logs == null),
+        "Output of a persistent worker cannot be captured or logged");
+    this.command = settings.command;
     // TODO(jody): We accept a complete command string in the command line arguments but
     // need to tokenize for starting the process. For now very crudely split at every space,
     // could do something better than this when we need it.
     String[] commandArray = command.split("\\s");
-    this.clock = clock;
+    this.clock = settings.clock;
+    this.captureBytes = settings.captureBytes;
+    this.listener = settings.listener;
+    this.logs = settings.logs;
+    this.pump = OutputPump.shared();
+    this.sampler = ResourceSampler.shared();
 
-    ProcessBuilder builder = new ProcessBuilder(commandArray)
-        .redirectInput(DEVNULL)
-        .redirectOutput(DEVNULL)
-        .redirectError(DEVNULL);
-
-    this.builder = builder;
+    // Output redirects are set for each execution since they depend on the log directory.
+    this.builder = new ProcessBuilder(commandArray).redirectInput(DEVNULL);
+    this.terminationGrace = settings.terminationGrace;
+    this.resourceClass = settings.resourceClass;
+    this.cgroups = settings.cgroups;
+    this.commandLine = prioritizedCommand(ImmutableList.copyOf(commandArray), resourceClass);
+    this.worker = settings.persistentWorker
+        ? Worker.forCommand(command, commandLine, terminationGrace, settings.workerStartupTimeout,
+            resourceClass, cgroups, listener, pump)
+        : null;
+    this.unchangedExitCode = settings.unchangedExitCode;
     this.process = null;
+    this.request = null;
     this.startTime = null;
+    this.terminationStart = null;
+    this.completion = null;
     this.lastEvent = null;
   }
 
+  /**
+   * Builder for {@link CommandRunner} instances. By default output is discarded, a terminated
+   * process tree is given {@link #DEFAULT_TERMINATION_GRACE} to exit, a persistent worker is
+   * given {@link #DEFAULT_WORKER_STARTUP_TIMEOUT} to start, and no resource class or unchanged
+   * exit code is applied.
+   */
+  public static class Builder {
+    private final String command;
+    private final Clock clock;
+    private int captureBytes;
+    @Nullable private OutputListener listener;
+    @Nullable private OutputLogStore logs;
+    private Duration terminationGrace;
+    @Nullable private ResourceClass resourceClass;
+    @Nullable private CgroupManager cgroups;
+    @Nullable private Integer unchangedExitCode;
+    private boolean persistentWorker;
+    private Duration workerStartupTimeout;
+
+    private Builder(String command, Clock clock) {
+      this.command = command;
+      this.clock = clock;
+      this.captureBytes = 0;
+      this.terminationGrace = DEFAULT_TERMINATION_GRACE;
+      this.persistentWorker = false;
+      this.workerStartupTimeout = DEFAULT_WORKER_STARTUP_TIMEOUT;
+    }
+
+    /**
+     * Sets the number of bytes to retain from the end of standard output and of standard error
+     * to attach to failed executions, or zero to retain none.
+     */
+    public Builder captureBytes(int captureBytes) {
+      this.captureBytes = captureBytes;
+      return this;
+    }
+
+    /** Sets an {@link OutputListener} to receive all output as it is written, if any. */
+    public Builder listener(@Nullable OutputListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /** Sets an {@link OutputLogStore} to receive the complete output of each execution, if any. */
+    public Builder logs(@Nullable OutputLogStore logs) {
+      this.logs = logs;
+      return this;
+    }
+
+    /** Sets the time a terminated process tree may take to exit before it is killed. */
+    public Builder terminationGrace(Duration terminationGrace) {
+      this.terminationGrace = terminationGrace;
+      return this;
+    }
+
+    /** Sets the {@link ResourceClass} limiting the command, if any. */
+    public Builder resourceClass(@Nullable ResourceClass resourceClass) {
+      this.resourceClass = resourceClass;
+      return this;
+    }
+
+    /**
+     * Sets a {@link CgroupManager} through which to apply the resource class, or null to apply it
+     * through process priorities.
+     */
+    public Builder cgroups(@Nullable CgroupManager cgroups) {
+      this.cgroups = cgroups;
+      return this;
+    }
+
+    /**
+     * Sets the exit code through which the command reports succeeding without making changes, or
+     * null if it does not report this.
+     */
+    public Builder unchangedExitCode(@Nullable Integer unchangedExitCode) {
+      this.unchangedExitCode = unchangedExitCode;
+      return this;
+    }
+
+    /**
+     * Performs each execution by sending a request to a persistent worker process, started when
+     * first needed and restarted if it fails. See {@link Worker} for the protocol. Executions do
+     * not have output of their own so none may be captured or logged, but the standard error of
+     * the worker is sent to any listener.
+     */
+    public Builder persistentWorker() {
+      this.persistentWorker = true;
+      return this;
+    }
+
+    /**
+     * Sets the time a persistent worker may take to report that it is ready before it is killed
+     * and the execution fails.
+     */
+    public Builder workerStartupTimeout(Duration workerStartupTimeout) {
+      this.workerStartupTimeout = workerStartupTimeout;
+      return this;
+    }
+
+    /**
+     * Returns a new {@link CommandRunner} with the current settings.
+     *
+     * @throws IllegalArgumentException if the settings are not valid
+     */
+    public CommandRunner build() {
+      return new CommandRunner(this);
+    }
+  }
+
   /**
    * Constructs a new {@link CommandRunner} using the system clock.
    * 
@@ -70,7 +261,7 @@ public class CommandRunner {
    * @return a new {@link CommandRunner} instance
    */
   public static CommandRunner forCommand(String command) {
-    return new CommandRunner(command, Clock.systemUTC());
+    return builder(command).build();
   }
 
   /**
@@ -82,7 +273,27 @@ public class CommandRunner {
    */
   @VisibleForTesting
   static CommandRunner forCommand(String command, Clock clock) {
-    return new CommandRunner(command, clock);
+    return builder(command, clock).build();
+  }
+
+  /**
+   * Returns a new {@link Builder} for a {@link CommandRunner} using the system clock.
+   *
+   * @param command the command to be run
+   */
+  public static Builder builder(String command) {
+    return builder(command, Clock.systemUTC());
+  }
+
+  /**
+   * Returns a new {@link Builder} for a {@link CommandRunner} with the supplied clock.
+   *
+   * @param command the command to be run
+   * @param clock the clock to use for reading time
+   */
+  @VisibleForTesting
+  static Builder builder(String command, Clock clock) {
+    return new Builder(command, clock);
   }
 
   /**
@@ -101,65 +312,552 @@ public class CommandRunner {
 
   /**
    * Begins execution of the command then returns immediately.
-   * 
+   *
    * <p>Preconditions: The command is not already executing.
+   *
+   * @return a {@link CompletableFuture} that completes with a {@link CommandEvent} describing the
+   *     execution as soon as the process exits, is terminated, or fails to start
    */
-  public synchronized void start() {
-    Preconditions.checkState(process == null, "Command is already running");  
-    startTime = clock.instant();
-    try {
-      LOG.info("Starting command: " + command);
-      process = builder.start();
-    } catch (IOException e) {
-      LOG.warning("Command failed initialization: " + command);
-      lastEvent = new CommandEvent(startTime, clock.instant(), CommandEvent.COULD_NOT_START);
-      process = null;
+  public CompletableFuture<CommandEvent> start() {
+    CompletableFuture<CommandEvent> started = new CompletableFuture<>();
+    Process launched = null;
+    CompletableFuture<Void> drained = CompletableFuture.completedFuture(null);
+    CompletableFuture<Worker.Result> requested = null;
+    CommandEvent failure = null;
+    synchronized (this) {
+      Preconditions.checkState(!isRunning(), "Command is already running");
+      startTime = clock.instant();
+      completion = started;
+      if (worker != null) {
+        LOG.info("Requesting command from worker: " + command);
+        request = worker.request();
+        requested = request;
+      } else {
+        try {
+          LOG.info("Starting command: " + command);
+          runDirectory = startLog();
+          configureRedirects();
+          cgroupRun = startCgroup();
+          builder.command(
+              cgroupRun == null ? commandLine : joinCgroupCommand(cgroupRun, commandLine));
+          launched = builder.start();
+          process = launched;
+          resources = sampler.track(launched);
+          drained = pumpOutput(launched);
+        } catch (IOException e) {
+          LOG.warning("Command failed initialization: " + command);
+          lastEvent = finishExecution(
+              new CommandEvent(startTime, clock.instant(), CommandEvent.COULD_NOT_START), false);
+          process = null;
+          failure = lastEvent;
+        }
+      }
     }
+    // Complete and register callbacks outside the monitor since dependent actions may take other
+    // locks. Note the exit callback runs immediately if the process has already finished. The end
+    // time is read on exit but the event is only recorded once all captured output is available.
+    if (requested != null) {
+      CompletableFuture<Worker.Result> pending = requested;
+      pending.thenAccept(result -> handleWorkerResult(pending, result));
+    } else if (launched != null) {
+      CompletableFuture<Void> outputDrained = drained;
+      launched.onExit().thenAccept(exited -> {
+        Instant end = clock.instant();
+        outputDrained.thenRun(() -> handleExit(exited, end));
+      });
+    } else {
+      started.complete(failure);
+    }
+    return started;
   }
 
   /**
-   * Terminates execution of the command if it is still running.
+   * Begins terminating the command if it is still running. Every process in the tree of the
+   * execution is asked to exit, then any that remain after the grace period are killed.
+   *
+   * @return a {@link CompletableFuture} that completes with a {@link CommandEvent} describing the
+   *     execution once all its processes have exited, or immediately with the most recent
+   *     execution, if any, when the command is not running
    */
-  public synchronized void terminate() {
-    if (process !=null) {
-      process.destroy();
-      LOG.warning("Terminating command: " + command);
-      lastEvent = new CommandEvent(startTime, clock.instant(), CommandEvent.ENFORCED_TERMINATION);
-      process = null;
+  public CompletableFuture<CommandEvent> terminate() {
+    return terminate(CommandEvent.ENFORCED_TERMINATION);
+  }
+
+  /**
+   * Begins terminating the command if it is still running because it has exceeded its timeout,
+   * in the same way as {@link #terminate} but recording {@link CommandEvent#TIMED_OUT}.
+   */
+  public CompletableFuture<CommandEvent> timeOut() {
+    return terminate(CommandEvent.TIMED_OUT);
+  }
+
+  private CompletableFuture<CommandEvent> terminate(int exitCode) {
+    Process target;
+    CompletableFuture<CommandEvent> finished;
+    synchronized (this) {
+      if (!isRunning()) {
+        return CompletableFuture.completedFuture(lastEvent);
+      }
+      finished = completion;
+      if (terminationStart != null) {
+        return finished;
+      }
+      LOG.warning(exitCode == CommandEvent.TIMED_OUT
+          ? "Terminating command that exceeded its timeout: " + command
+          : "Terminating command: " + command);
+      terminationStart = clock.instant();
+      terminationExitCode = exitCode;
+      target = process;
     }
+    // Signal and wait outside the monitor since dependent actions may take other locks.
+    if (target != null) {
+      tearDown(target);
+    } else {
+      // The worker is restarted for the next request.
+      worker.kill().thenRun(() -> finishTermination(null));
+    }
+    return finished;
   }
 
   /**
    * Returns true iff the command is currently executing.
-   * 
-   * <p>Note that polling this method periodically is used to measure when execution of a command
-   * completes without using a dedicated checker thread. Calling with higher frequency increases the
-   * accuracy of completion times.
    */
   public synchronized boolean isRunning() {
-    if (process != null) {
-      try {
-        int exitCode = process.exitValue();
-        // If we didn't throw an exception the command must now be finished
-        lastEvent = new CommandEvent(startTime, clock.instant(), exitCode);
-        process = null;
-        if (lastEvent.isSuccessful()) {
-          LOG.info(String.format(
-              "Detected completion of command: %s (%.2f sec)",
-              command, lastEvent.getDurationMillis()/1000f));
-        } else {
-          LOG.warning(String.format(
-              "Detected failure of command with exit code %d: %s (%.2f sec)",
-              lastEvent.getExitCode(), command, lastEvent.getDurationMillis()/1000f));
+    return process != null || request != null;
+  }
+
+  /**
+   * Stops any persistent worker process. No further executions may be started.
+   */
+  public void close() {
+    if (worker != null) {
+      worker.close();
+    }
+  }
+
+  /**
+   * Returns the {@link CompletableFuture} for the current execution if the command is running, or
+   * for the most recent execution otherwise.
+   *
+   * <p>Preconditions: The command has been started at least once.
+   */
+  public synchronized CompletableFuture<CommandEvent> getCompletion() {
+    Preconditions.checkState(completion != null, "Cannot get completion before first start");
+    return completion;
+  }
+
+  /**
+   * Records the natural exit of a process, called asynchronously once the process ends. Exits of
+   * processes that have already been terminated are ignored.
+   */
+  private void handleExit(Process exited, Instant end) {
+    CommandEvent event;
+    CompletableFuture<CommandEvent> finished;
+    synchronized (this) {
+      if (process != exited || terminationStart != null) {
+        return;
+      }
+      CommandEvent exit = classify(new CommandEvent(startTime, end, exited.exitValue()));
+      lastEvent = finishExecution(exit, !exit.isSuccessful());
+      process = null;
+      event = lastEvent;
+      finished = completion;
+    }
+    reportCompletion(event, finished);
+  }
+
+  /**
+   * Records the result of a request to the persistent worker, called asynchronously once the
+   * request finishes. Results of requests that have already been terminated are ignored.
+   */
+  private void handleWorkerResult(CompletableFuture<Worker.Result> finishedRequest,
+      Worker.Result result) {
+    CommandEvent event;
+    CompletableFuture<CommandEvent> finished;
+    synchronized (this) {
+      if (request != finishedRequest || terminationStart != null) {
+        return;
+      }
+      lastEvent = classify(new CommandEvent(startTime, clock.instant(), result.getExitCode()));
+      if (result.getStartupSaved() != null) {
+        lastEvent = lastEvent.withStartupSaved(result.getStartupSaved());
+      }
+      request = null;
+      event = lastEvent;
+      finished = completion;
+    }
+    reportCompletion(event, finished);
+  }
+
+  /**
+   * Asks every process in the tree of a terminating execution to exit, kills any that remain
+   * after the grace period, then records the termination once all have exited or a further grace
+   * period has passed.
+   */
+  private void tearDown(Process target) {
+    tearDownTree(target, terminationGrace, command)
+        .thenRun(() -> finishTermination(target));
+  }
+
+  /**
+   * Asks the supplied process and all its descendants to exit, then kills any that remain after
+   * the grace period. Returns a future that completes once all have exited or a further grace
+   * period has passed.
+   *
+   * @param description a description of the processes for logging
+   */
+  static CompletableFuture<Void> tearDownTree(
+      Process target, Duration grace, String description) {
+    Set<ProcessHandle> tree = new LinkedHashSet<>();
+    // Find the descendants before signalling since they are orphaned once their parent exits.
+    tree.add(target.toHandle());
+    target.descendants().forEach(tree::add);
+    for (ProcessHandle handle : tree) {
+      handle.destroy();
+    }
+    return awaitExit(tree, grace).thenCompose(ignored -> {
+      Set<ProcessHandle> survivors = new LinkedHashSet<>();
+      for (ProcessHandle handle : tree) {
+        if (isExecuting(handle)) {
+          survivors.add(handle);
+          handle.descendants().forEach(survivors::add);
+        }
+      }
+      if (!survivors.isEmpty()) {
+        LOG.warning(String.format("Killing %d processes that outlived the grace period: %s",
+            survivors.size(), description));
+        for (ProcessHandle handle : survivors) {
+          handle.destroyForcibly();
+        }
+      }
+      return awaitExit(survivors, grace);
+    });
+  }
+
+  /**
+   * Returns a future that completes once none of the supplied processes are executing or the
+   * timeout has passed. Processes are polled since orphans are not our children to wait for.
+   */
+  private static CompletableFuture<Void> awaitExit(Set<ProcessHandle> handles, Duration timeout) {
+    CompletableFuture<Void> exited = new CompletableFuture<>();
+    pollExit(handles, System.nanoTime() + timeout.toNanos(), exited);
+    return exited;
+  }
+
+  private static void pollExit(
+      Set<ProcessHandle> handles, long deadlineNanos, CompletableFuture<Void> exited) {
+    if (handles.stream().noneMatch(CommandRunner::isExecuting)
+        || System.nanoTime() - deadlineNanos >= 0) {
+      exited.complete(null);
+    } else {
+      CompletableFuture.delayedExecutor(TEARDOWN_POLL_MILLIS, TimeUnit.MILLISECONDS)
+          .execute(() -> pollExit(handles, deadlineNanos, exited));
+    }
+  }
+
+  /**
+   * Returns true iff the supplied process has not exited. Unlike {@link ProcessHandle#isAlive}
+   * this excludes zombies, which linger where orphans are reparented to a process that does not
+   * reap them.
+   */
+  @VisibleForTesting
+  static boolean isExecuting(ProcessHandle handle) {
+    try {
+      String stat = new String(
+          Files.readAllBytes(Paths.get("/proc", Long.toString(handle.pid()), "stat")),
+          StandardCharsets.UTF_8);
+      // The state follows the command name, which may itself contain parentheses.
+      return stat.charAt(stat.lastIndexOf(')') + 2) != 'Z';
+    } catch (IOException | IndexOutOfBoundsException e) {
+      // Either the process has gone or there is no /proc to consult.
+      return handle.isAlive();
+    }
+  }
+
+  /**
+   * Records the end of a terminating execution, ignoring calls for processes that are no longer
+   * current. The target is null for executions in a persistent worker.
+   */
+  private void finishTermination(@Nullable Process target) {
+    CommandEvent event;
+    CompletableFuture<CommandEvent> finished;
+    synchronized (this) {
+      if (terminationStart == null || process != target) {
+        return;
+      }
+      Instant end = clock.instant();
+      // Output still in flight is lost, but whatever was copied before termination is attached.
+      CommandEvent termination =
+          new CommandEvent(startTime, end, terminationExitCode)
+              .withTeardown(Duration.between(terminationStart, end));
+      lastEvent = finishExecution(termination, true);
+      LOG.info(String.format("Terminated command in %d ms: %s",
+          termination.getTeardown().get().toMillis(), command));
+      process = null;
+      request = null;
+      terminationStart = null;
+      event = lastEvent;
+      finished = completion;
+    }
+    // Complete outside the monitor since dependent actions may take other locks.
+    finished.complete(event);
+    pruneLogs();
+  }
+
+  /**
+   * Returns the supplied event for a natural exit with the changes it reported through its exit
+   * code, if the command reports them, so that runs making no changes count as successful.
+   */
+  private CommandEvent classify(CommandEvent event) {
+    if (unchangedExitCode == null) {
+      return event;
+    } else if (event.getExitCode() == unchangedExitCode) {
+      return event.withChangeReport(ChangeReport.UNCHANGED);
+    } else if (event.getExitCode() == 0) {
+      return event.withChangeReport(ChangeReport.CHANGED);
+    }
+    return event;
+  }
+
+  /**
+   * Logs and completes a finished execution, outside the monitor since dependent actions may
+   * take other locks.
+   */
+  private void reportCompletion(CommandEvent event, CompletableFuture<CommandEvent> finished) {
+    if (event.isSuccessful()) {
+      LOG.info(String.format(
+          "Detected completion of command: %s (%.2f sec)",
+          command, event.getDurationMillis()/1000f));
+    } else {
+      LOG.warning(String.format(
+          "Detected failure of command with exit code %d: %s (%.2f sec)",
+          event.getExitCode(), command, event.getDurationMillis()/1000f));
+    }
+    finished.complete(event);
+    pruneLogs();
+  }
+
+  /**
+   * Returns the directory to receive the complete output of an execution starting now, or null
+   * if output is not being logged or the directory could not be created.
+   */
+  @Nullable
+  private Path startLog() {
+    if (logs == null) {
+      return null;
+    }
+    try {
+      return logs.startRun(command, startTime);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception creating output log for " + command, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the cgroup to hold an execution starting now, or null if the command has no resource
+   * class, there is no cgroup sub-tree, or the cgroup could not be created.
+   */
+  @Nullable
+  private Path startCgroup() {
+    if (resourceClass == null || cgroups == null) {
+      return null;
+    }
+    try {
+      return cgroups.startRun(resourceClass);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception creating cgroup for " + command, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the supplied command line wrapped so that it starts inside the supplied cgroup.
+   */
+  static ImmutableList<String> joinCgroupCommand(Path cgroup, List<String> commandLine) {
+    return ImmutableList.<String>builder()
+        .add("/bin/sh", "-c", CGROUP_JOIN_SCRIPT)
+        .add(CgroupManager.procsFile(cgroup).toString())
+        .addAll(commandLine)
+        .build();
+  }
+
+  /**
+   * Returns the supplied command line, prefixed to lower its CPU and I/O priorities if the
+   * resource class sets them and the tools are available.
+   */
+  private static ImmutableList<String> prioritizedCommand(
+      ImmutableList<String> commandLine, @Nullable ResourceClass resourceClass) {
+    ImmutableList.Builder<String> prioritized = ImmutableList.builder();
+    if (resourceClass != null && resourceClass.getNice().isPresent()) {
+      if (isOnPath("nice")) {
+        prioritized.add("nice", "-n", resourceClass.getNice().get().toString());
+      } else {
+        LOG.warning("Cannot apply nice without the nice tool: " + resourceClass.getName());
+      }
+    }
+    if (resourceClass != null && resourceClass.getIoniceClass().isPresent()) {
+      if (isOnPath("ionice")) {
+        prioritized.add(
+            "ionice", "-c", String.valueOf(resourceClass.getIoniceClass().get().getNumber()));
+        if (resourceClass.getIoniceLevel().isPresent()) {
+          prioritized.add("-n", resourceClass.getIoniceLevel().get().toString());
         }
-      } catch (IllegalThreadStateException e) {
-        // Normal that if the process is not done yet we receive this Exception.
+      } else {
+        LOG.warning("Cannot apply ionice without the ionice tool: " + resourceClass.getName());
+      }
+    }
+    return prioritized.addAll(commandLine).build();
+  }
+
+  private static boolean isOnPath(String tool) {
+    String path = System.getenv("PATH");
+    if (path == null) {
+      return false;
+    }
+    for (String directory : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().split(path)) {
+      if (Files.isExecutable(Paths.get(directory, tool))) {
         return true;
       }
     }
     return false;
   }
 
+  /**
+   * Sets where the output of the next execution will be written. Logged output is written
+   * directly to its files by the child, otherwise output is piped if anything consumes it.
+   */
+  private void configureRedirects() {
+    if (runDirectory != null) {
+      builder.redirectOutput(runDirectory.resolve(OutputLogStore.STDOUT_FILE).toFile())
+          .redirectError(runDirectory.resolve(OutputLogStore.STDERR_FILE).toFile());
+    } else if (captureBytes > 0 || listener != null) {
+      builder.redirectOutput(Redirect.PIPE).redirectError(Redirect.PIPE);
+    } else {
+      builder.redirectOutput(DEVNULL).redirectError(DEVNULL);
+    }
+  }
+
+  /**
+   * Begins copying the output of a newly launched process to wherever it is consumed, returning
+   * a future that completes once all output has been copied. When output is logged the listener
+   * follows the log files and any capture is read from the end of the files once complete.
+   */
+  private CompletableFuture<Void> pumpOutput(Process launched) {
+    if (runDirectory != null) {
+      if (listener == null) {
+        return CompletableFuture.completedFuture(null);
+      }
+      try {
+        return CompletableFuture.allOf(
+            pump.pump(launched,
+                new FileInputStream(runDirectory.resolve(OutputLogStore.STDOUT_FILE).toFile()),
+                sinkFor(Stream.STDOUT, null)),
+            pump.pump(launched,
+                new FileInputStream(runDirectory.resolve(OutputLogStore.STDERR_FILE).toFile()),
+                sinkFor(Stream.STDERR, null)));
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Exception following output log for " + command, e);
+        return CompletableFuture.completedFuture(null);
+      }
+    }
+    if (captureBytes > 0) {
+      stdout = new OutputRingBuffer(captureBytes);
+      stderr = new OutputRingBuffer(captureBytes);
+    }
+    if (captureBytes > 0 || listener != null) {
+      return CompletableFuture.allOf(
+          pump.pump(launched, launched.getInputStream(), sinkFor(Stream.STDOUT, stdout)),
+          pump.pump(launched, launched.getErrorStream(), sinkFor(Stream.STDERR, stderr)));
+    }
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Returns an {@link OutputPump.Sink} that copies one output stream of the command into a buffer
+   * and to the listener, each where present.
+   */
+  private OutputPump.Sink sinkFor(Stream stream, @Nullable OutputRingBuffer buffer) {
+    return (bytes, offset, length) -> {
+      if (buffer != null) {
+        buffer.write(bytes, offset, length);
+      }
+      if (listener != null) {
+        try {
+          listener.receiveOutput(command, stream, bytes, offset, length);
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Exception delivering output to listener", e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the supplied event for the current execution with its resource usage, the location
+   * of its log and, if requested and available, its captured output attached, then clears the
+   * per-execution output state.
+   */
+  private synchronized CommandEvent finishExecution(CommandEvent event, boolean attachOutput) {
+    ResourceUsage usage = resources == null ? null : resources.stop();
+    if (cgroupRun != null) {
+      // Cgroup accounting is exact but values the kernel lacks are zero, so keep the larger.
+      ResourceUsage accounted = cgroups.readUsage(cgroupRun);
+      usage = usage == null ? accounted : usage.max(accounted);
+      cgroups.finishRun(cgroupRun);
+    }
+    if (usage != null) {
+      event = event.withResourceUsage(usage);
+    }
+    if (runDirectory != null) {
+      if (attachOutput && captureBytes > 0) {
+        try {
+          event = event.withOutput(CapturedOutput.of(
+              readTail(runDirectory.resolve(OutputLogStore.STDOUT_FILE)),
+              Files.size(runDirectory.resolve(OutputLogStore.STDOUT_FILE)) > captureBytes,
+              readTail(runDirectory.resolve(OutputLogStore.STDERR_FILE)),
+              Files.size(runDirectory.resolve(OutputLogStore.STDERR_FILE)) > captureBytes));
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Exception reading output log for " + command, e);
+        }
+      }
+      logs.finishRun(runDirectory);
+      event = event.withLogPath(runDirectory);
+    } else if (attachOutput && stdout != null && stderr != null) {
+      event = event.withOutput(CapturedOutput.of(
+          stdout.toText(), stdout.isTruncated(), stderr.toText(), stderr.isTruncated()));
+    }
+    runDirectory = null;
+    resources = null;
+    cgroupRun = null;
+    stdout = null;
+    stderr = null;
+    return event;
+  }
+
+  /**
+   * Returns the final capture size bytes of a file decoded as UTF-8.
+   */
+  private String readTail(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long position = Math.max(0, channel.size() - captureBytes);
+      ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - position));
+      while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+        // Continue until the buffer is filled or the end of the file is reached.
+      }
+      return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Deletes old output logs if output is being logged and a prune is due, called once an
+   * execution has finished.
+   */
+  private void pruneLogs() {
+    if (logs != null) {
+      logs.pruneIfDue(clock.instant());
+    }
+  }
+
   /**
    * Returns a {@link CommandEvent} representing the most recent completed execution.
    * 
@@ -168,7 +866,7 @@ public class CommandRunner {
    * <ul>One or more executions have been performed</ul>
    */
   public synchronized CommandEvent getLastExecution() {
-    Preconditions.checkState(process == null, "Cannot get last execution while command is running");  
+    Preconditions.checkState(!isRunning(), "Cannot get last execution while command is running");
     Preconditions.checkState(lastEvent != null, "Cannot get last execution before completion");
     return lastEvent;
   }
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+/**
+ * Interface for classes that receive output from commands as it is written.
+ *
+ * <p>Output is delivered on the thread that reads it from the child processes, so
+ * implementations must return quickly and must not retain the supplied array.
+ */
+public interface OutputListener {
+
+  /** The output streams of a command. */
+  public enum Stream {
+    STDOUT,
+    STDERR
+  }
+
+  /** Method called each time a command has written output. */
+  public void receiveOutput(String command, Stream stream, byte[] bytes, int offset, int length);
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+/**
+ * Stores the complete output of each execution in files beneath a root directory, deleting the
+ * oldest executions once they exceed a maximum age or the total size exceeds a budget. Since
+ * finding the executions to delete means walking the whole tree, executions are only pruned as
+ * they finish at most once every {@link #PRUNE_INTERVAL}.
+ *
+ * <p>Each execution has its own directory, named by its start time within a directory for the
+ * command, containing a {@link #STDOUT_FILE} and a {@link #STDERR_FILE}. Processes write directly
+ * to these files so output never passes through this program.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author Jody
+ */
+public class OutputLogStore {
+
+  private static final Logger LOG = Logger.getLogger(OutputLogStore.class.getCanonicalName());
+
+  /** Name of the file receiving standard output within each execution directory. */
+  public static final String STDOUT_FILE = "stdout";
+  /** Name of the file receiving standard error within each execution directory. */
+  public static final String STDERR_FILE = "stderr";
+
+  private static final DateTimeFormatter RUN_NAME_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss.SSS'Z'").withZone(ZoneOffset.UTC);
+  /** Maximum length of the readable part of a command directory name. */
+  private static final int MAX_COMMAND_NAME_CHARS = 48;
+  /** Minimum time between the prunes made as executions finish. */
+  @VisibleForTesting
+  static final Duration PRUNE_INTERVAL = Duration.ofMinutes(1);
+
+  /** An execution directory found while pruning. */
+  private static class RunDirectory {
+    final Path path;
+    final Instant modified;
+    final long bytes;
+
+    RunDirectory(Path path, Instant modified, long bytes) {
+      this.path = path;
+      this.modified = modified;
+      this.bytes = bytes;
+    }
+  }
+
+  private final Path root;
+  private final Duration maxAge;
+  private final long budgetBytes;
+  /** Directories of executions still in progress, which are never deleted. */
+  private final Set<Path> activeRuns;
+  /**
+   * Serializes prunes, separately from the object monitor so that executions may start while a
+   * prune walks the tree.
+   */
+  private final Object pruneLock;
+  /** The time of the most recent prune, guarded by pruneLock. */
+  private Instant lastPrune;
+
+  private OutputLogStore(Path root, Duration maxAge, long budgetBytes) {
+    Preconditions.checkArgument(!maxAge.isNegative(), "Maximum age must not be negative");
+    Preconditions.checkArgument(budgetBytes >= 0, "Budget must not be negative");
+    this.root = root;
+    this.maxAge = maxAge;
+    this.budgetBytes = budgetBytes;
+    this.activeRuns = new HashSet<>();
+    this.pruneLock = new Object();
+    this.lastPrune = Instant.MIN;
+  }
+
+  /**
+   * Constructs a new {@link OutputLogStore}.
+   *
+   * @param root the directory beneath which output is stored, created if necessary
+   * @param maxAge the age beyond which executions are deleted
+   * @param budgetBytes the total size of all stored output beyond which the oldest executions
+   *     are deleted
+   */
+  public static OutputLogStore create(Path root, Duration maxAge, long budgetBytes) {
+    return new OutputLogStore(root, maxAge, budgetBytes);
+  }
+
+  /**
+   * Creates and returns the directory to receive the output of an execution starting now.
+   */
+  synchronized Path startRun(String command, Instant start) throws IOException {
+    Path run = root.resolve(commandDirectoryName(command)).resolve(RUN_NAME_FORMAT.format(start));
+    Files.createDirectories(run);
+    activeRuns.add(run);
+    return run;
+  }
+
+  /**
+   * Records that an execution has finished writing output to its directory.
+   */
+  synchronized void finishRun(Path run) {
+    activeRuns.remove(run);
+  }
+
+  /**
+   * Prunes executions as by {@link #prune} unless the previous prune was less than
+   * {@link #PRUNE_INTERVAL} ago, called as each execution finishes.
+   */
+  void pruneIfDue(Instant now) {
+    synchronized (pruneLock) {
+      if (now.isBefore(lastPrune.plus(PRUNE_INTERVAL))) {
+        return;
+      }
+      prune(now);
+    }
+  }
+
+  /**
+   * Deletes executions that are older than the maximum age, then the oldest remaining executions
+   * until the total size is within the budget, then any command directories left empty. Failures
+   * are logged rather than thrown since the next prune will retry.
+   */
+  public void prune(Instant now) {
+    synchronized (pruneLock) {
+      lastPrune = now;
+      if (Files.isDirectory(root)) {
+        pruneRuns(now);
+      }
+    }
+  }
+
+  private void pruneRuns(Instant now) {
+    List<Path> commandDirectories = new ArrayList<>();
+    List<RunDirectory> runs = new ArrayList<>();
+    try (DirectoryStream<Path> commands = Files.newDirectoryStream(root)) {
+      for (Path commandDirectory : commands) {
+        if (!Files.isDirectory(commandDirectory)) {
+          continue;
+        }
+        commandDirectories.add(commandDirectory);
+        try (DirectoryStream<Path> commandRuns = Files.newDirectoryStream(commandDirectory)) {
+          for (Path run : commandRuns) {
+            if (Files.isDirectory(run) && !isActive(run)) {
+              runs.add(inspect(run));
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception listing output logs in " + root, e);
+      return;
+    }
+
+    runs.sort(Comparator.comparing((RunDirectory run) -> run.modified));
+    long totalBytes = 0;
+    for (RunDirectory run : runs) {
+      totalBytes += run.bytes;
+    }
+    Instant oldestKept = now.minus(maxAge);
+    for (RunDirectory run : runs) {
+      if (!run.modified.isBefore(oldestKept) && totalBytes <= budgetBytes) {
+        break;
+      }
+      if (delete(run.path)) {
+        totalBytes -= run.bytes;
+      }
+    }
+    for (Path commandDirectory : commandDirectories) {
+      deleteIfEmpty(commandDirectory);
+    }
+  }
+
+  @VisibleForTesting
+  Path getRoot() {
+    return root;
+  }
+
+  private synchronized boolean isActive(Path run) {
+    return activeRuns.contains(run);
+  }
+
+  /**
+   * Returns a directory name that is safe for the file system and readable, but unique to the
+   * supplied command.
+   */
+  @VisibleForTesting
+  static String commandDirectoryName(String command) {
+    String readable = command.replaceAll("[^A-Za-z0-9._-]+", "_");
+    if (readable.length() > MAX_COMMAND_NAME_CHARS) {
+      readable = readable.substring(0, MAX_COMMAND_NAME_CHARS);
+    }
+    String hash = Hashing.sha256().hashUnencodedChars(command).toString().substring(0, 8);
+    return readable + "-" + hash;
+  }
+
+  private static RunDirectory inspect(Path run) throws IOException {
+    Instant modified = Files.getLastModifiedTime(run).toInstant();
+    long bytes = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(run)) {
+      for (Path file : files) {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        bytes += attributes.size();
+        if (attributes.lastModifiedTime().toInstant().isAfter(modified)) {
+          modified = attributes.lastModifiedTime().toInstant();
+        }
+      }
+    }
+    return new RunDirectory(run, modified, bytes);
+  }
+
+  /**
+   * Deletes a command directory if it holds no executions, under the monitor so that it cannot
+   * be deleted while an execution is being started within it.
+   */
+  private synchronized void deleteIfEmpty(Path commandDirectory) {
+    try {
+      Files.delete(commandDirectory);
+      LOG.fine("Deleted empty output log directory " + commandDirectory);
+    } catch (DirectoryNotEmptyException e) {
+      // Still holds executions, which is the common case.
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception deleting output log directory " + commandDirectory, e);
+    }
+  }
+
+  private static boolean delete(Path run) {
+    try {
+      Files.walkFileTree(run, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            throws IOException {
+          Files.delete(file);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+          if (e != null) {
+            throw e;
+          }
+          Files.delete(dir);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      LOG.fine("Deleted output log " + run);
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception deleting output log " + run, e);
+      return false;
+    }
+  }
+}
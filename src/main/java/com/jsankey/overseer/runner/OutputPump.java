@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Copies the output streams of child processes to {@link Sink}s using a single shared thread.
+ * Streams are only read as far as the bytes already available, so the thread never blocks on one
+ * stream while others have output waiting, and children are only blocked if they fill their pipe
+ * faster than the thread polls.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author Jody
+ */
+class OutputPump {
+
+  private static final Logger LOG = Logger.getLogger(OutputPump.class.getCanonicalName());
+
+  /** Time to sleep after a pass in which no stream had output available. */
+  @VisibleForTesting
+  static final long POLL_MILLIS = 20;
+  private static final int CHUNK_BYTES = 8192;
+
+  private static final OutputPump SHARED = new OutputPump();
+
+  /** Destination for the bytes read from a stream. */
+  interface Sink {
+    /** Called on the pump thread with bytes that must be consumed without blocking. */
+    void write(byte[] bytes, int offset, int length);
+  }
+
+  /** A single stream being copied to a sink. */
+  private static class Source {
+    final Process process;
+    final InputStream stream;
+    final Sink sink;
+    final CompletableFuture<Void> drained = new CompletableFuture<>();
+
+    Source(Process process, InputStream stream, Sink sink) {
+      this.process = process;
+      this.stream = stream;
+      this.sink = sink;
+    }
+  }
+
+  private final List<Source> sources;
+  private final byte[] chunk;
+  private boolean threadStarted;
+
+  @VisibleForTesting
+  OutputPump() {
+    this.sources = new ArrayList<>();
+    this.chunk = new byte[CHUNK_BYTES];
+    this.threadStarted = false;
+  }
+
+  /**
+   * Returns the instance shared by all commands.
+   */
+  static OutputPump shared() {
+    return SHARED;
+  }
+
+  /**
+   * Begins copying a stream of the supplied process to a sink, returning a future that
+   * completes once the process has exited and all output available at that time has been copied.
+   * Output written after the process exits, for example by a detached grandchild, is discarded.
+   */
+  synchronized CompletableFuture<Void> pump(Process process, InputStream stream, Sink sink) {
+    Source source = new Source(process, stream, sink);
+    sources.add(source);
+    if (!threadStarted) {
+      Thread thread = new Thread(this::run, "output-pump");
+      thread.setDaemon(true);
+      thread.start();
+      threadStarted = true;
+    }
+    notifyAll();
+    return source.drained;
+  }
+
+  /**
+   * Main loop of the pump thread, which runs for the life of the application.
+   */
+  private void run() {
+    while (true) {
+      List<Source> current;
+      synchronized (this) {
+        while (sources.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        current = new ArrayList<>(sources);
+      }
+      boolean copied = false;
+      List<Source> finished = new ArrayList<>();
+      for (Source source : current) {
+        try {
+          // Check liveness before reading so no output is missed between the two.
+          boolean alive = source.process.isAlive();
+          int available = source.stream.available();
+          if (available > 0) {
+            int read = source.stream.read(chunk, 0, Math.min(available, chunk.length));
+            if (read > 0) {
+              source.sink.write(chunk, 0, read);
+              copied = true;
+              continue;
+            }
+          }
+          if (!alive) {
+            finished.add(source);
+          }
+        } catch (IOException e) {
+          // Most likely the stream was closed because the process was destroyed.
+          LOG.log(Level.FINE, "Exception reading process output", e);
+          finished.add(source);
+        }
+      }
+      if (!finished.isEmpty()) {
+        synchronized (this) {
+          sources.removeAll(finished);
+        }
+        for (Source source : finished) {
+          close(source.stream);
+          source.drained.complete(null);
+        }
+      }
+      if (!copied) {
+        try {
+          Thread.sleep(POLL_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static void close(InputStream stream) {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Exception closing process output", e);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getSourceCount() {
+    return sources.size();
+  }
+}
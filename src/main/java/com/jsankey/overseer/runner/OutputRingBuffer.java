@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A fixed size buffer that retains the most recent bytes written to it, discarding the oldest
+ * bytes once full.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author Jody
+ */
+public class OutputRingBuffer {
+
+  private final byte[] buffer;
+  /** Position at which the next byte will be written. */
+  private int position;
+  /** Total number of bytes ever written. */
+  private long written;
+
+  /**
+   * Constructs a new empty buffer retaining up to the supplied number of bytes.
+   */
+  public OutputRingBuffer(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+    this.buffer = new byte[capacity];
+    this.position = 0;
+    this.written = 0;
+  }
+
+  /**
+   * Appends bytes to the buffer, overwriting the oldest bytes if necessary.
+   */
+  public synchronized void write(byte[] bytes, int offset, int length) {
+    written += length;
+    // Only the final capacity bytes of a long write can survive.
+    if (length > buffer.length) {
+      offset += length - buffer.length;
+      length = buffer.length;
+    }
+    int firstPart = Math.min(length, buffer.length - position);
+    System.arraycopy(bytes, offset, buffer, position, firstPart);
+    System.arraycopy(bytes, offset + firstPart, buffer, 0, length - firstPart);
+    position = (position + length) % buffer.length;
+  }
+
+  /**
+   * Returns the total number of bytes written, including any that have been discarded.
+   */
+  public synchronized long getBytesWritten() {
+    return written;
+  }
+
+  /**
+   * Returns true iff some bytes written to the buffer have been discarded.
+   */
+  public synchronized boolean isTruncated() {
+    return written > buffer.length;
+  }
+
+  /**
+   * Returns the bytes currently retained, oldest first.
+   */
+  public synchronized byte[] toByteArray() {
+    if (written <= buffer.length) {
+      byte[] result = new byte[(int) written];
+      System.arraycopy(buffer, 0, result, 0, result.length);
+      return result;
+    }
+    byte[] result = new byte[buffer.length];
+    System.arraycopy(buffer, position, result, 0, buffer.length - position);
+    System.arraycopy(buffer, 0, result, buffer.length - position, position);
+    return result;
+  }
+
+  /**
+   * Returns the bytes currently retained decoded as UTF-8, with any malformed characters at the
+   * start caused by truncation replaced.
+   */
+  public String toText() {
+    return new String(toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.primitives.Ints;
+
+/**
+ * A named set of limits on the resources commands may use, applied through a cgroup v2 sub-tree
+ * where one is available and otherwise through the scheduling priorities of the process.
+ *
+ * <p>The weights and memory limit can only be applied through a cgroup, while the CPU and I/O
+ * priorities are only applied when no cgroup is available.
+ *
+ * @author Jody
+ */
+public class ResourceClass {
+
+  /** The I/O scheduling classes that may be requested without privileges. */
+  public enum IoniceClass {
+    /** Served in priority order with other best effort processes. */
+    BEST_EFFORT(2),
+    /** Only served when no other process needs the disk. */
+    IDLE(3);
+
+    private final int number;
+
+    private IoniceClass(int number) {
+      this.number = number;
+    }
+
+    /** Returns the number identifying the class to the ionice tool. */
+    public int getNumber() {
+      return number;
+    }
+  }
+
+  private final String name;
+  @Nullable private final Integer cpuWeight;
+  @Nullable private final Long memoryMaxBytes;
+  @Nullable private final Integer ioWeight;
+  @Nullable private final Integer nice;
+  @Nullable private final IoniceClass ioniceClass;
+  @Nullable private final Integer ioniceLevel;
+
+  private ResourceClass(String name, @Nullable Integer cpuWeight, @Nullable Long memoryMaxBytes,
+      @Nullable Integer ioWeight, @Nullable Integer nice, @Nullable IoniceClass ioniceClass,
+      @Nullable Integer ioniceLevel) {
+    Preconditions.checkArgument(name.matches("[A-Za-z0-9_-]+"),
+        "Resource class name may only contain letters, digits, '_' and '-': %s", name);
+    Preconditions.checkArgument(cpuWeight == null || (cpuWeight >= 1 && cpuWeight <= 10000),
+        "cpu_weight must be between 1 and 10000");
+    Preconditions.checkArgument(memoryMaxBytes == null || memoryMaxBytes > 0,
+        "memory_max_mb must be positive");
+    Preconditions.checkArgument(ioWeight == null || (ioWeight >= 1 && ioWeight <= 10000),
+        "io_weight must be between 1 and 10000");
+    Preconditions.checkArgument(nice == null || (nice >= 0 && nice <= 19),
+        "nice must be between 0 and 19");
+    Preconditions.checkArgument(ioniceLevel == null || (ioniceLevel >= 0 && ioniceLevel <= 7),
+        "ionice_level must be between 0 and 7");
+    Preconditions.checkArgument(ioniceLevel == null || ioniceClass == IoniceClass.BEST_EFFORT,
+        "ionice_level requires ionice_class best-effort");
+    this.name = name;
+    this.cpuWeight = cpuWeight;
+    this.memoryMaxBytes = memoryMaxBytes;
+    this.ioWeight = ioWeight;
+    this.nice = nice;
+    this.ioniceClass = ioniceClass;
+    this.ioniceLevel = ioniceLevel;
+  }
+
+  /**
+   * Returns a {@link ResourceClass} from a text specification in the form
+   * {@code <name>=<setting>=<value>,...}, where the settings are cpu_weight, memory_max_mb,
+   * io_weight, nice, ionice_class (idle or best-effort), and ionice_level. All settings are
+   * optional.
+   *
+   * @throws IllegalArgumentException if the specification is not valid
+   */
+  public static ResourceClass parse(String spec) {
+    int separator = spec.indexOf('=');
+    String name = separator < 0 ? spec.trim() : spec.substring(0, separator).trim();
+    Integer cpuWeight = null;
+    Long memoryMaxBytes = null;
+    Integer ioWeight = null;
+    Integer nice = null;
+    IoniceClass ioniceClass = null;
+    Integer ioniceLevel = null;
+    if (separator >= 0) {
+      for (String setting : Splitter.on(',').trimResults().omitEmptyStrings()
+          .split(spec.substring(separator + 1))) {
+        int equals = setting.indexOf('=');
+        Preconditions.checkArgument(equals > 0,
+            "Resource class setting must take the form <setting>=<value>: %s", setting);
+        String key = setting.substring(0, equals).trim();
+        String value = setting.substring(equals + 1).trim();
+        switch (key) {
+          case "cpu_weight":
+            cpuWeight = parseNumber(key, value);
+            break;
+          case "memory_max_mb":
+            memoryMaxBytes = parseNumber(key, value) * 1024L * 1024L;
+            break;
+          case "io_weight":
+            ioWeight = parseNumber(key, value);
+            break;
+          case "nice":
+            nice = parseNumber(key, value);
+            break;
+          case "ionice_class":
+            Preconditions.checkArgument(value.equals("idle") || value.equals("best-effort"),
+                "ionice_class must be idle or best-effort: %s", value);
+            ioniceClass = value.equals("idle") ? IoniceClass.IDLE : IoniceClass.BEST_EFFORT;
+            break;
+          case "ionice_level":
+            ioniceLevel = parseNumber(key, value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown resource class setting: " + key);
+        }
+      }
+    }
+    return new ResourceClass(
+        name, cpuWeight, memoryMaxBytes, ioWeight, nice, ioniceClass, ioniceLevel);
+  }
+
+  private static int parseNumber(String key, String value) {
+    Integer number = Ints.tryParse(value);
+    Preconditions.checkArgument(number != null, "%s must be a number: %s", key, value);
+    return number;
+  }
+
+  /**
+   * Returns the name of the class.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the cgroup cpu.weight, if set.
+   */
+  public Optional<Integer> getCpuWeight() {
+    return Optional.fromNullable(cpuWeight);
+  }
+
+  /**
+   * Returns the cgroup memory.max in bytes, if set.
+   */
+  public Optional<Long> getMemoryMaxBytes() {
+    return Optional.fromNullable(memoryMaxBytes);
+  }
+
+  /**
+   * Returns the cgroup io.weight, if set.
+   */
+  public Optional<Integer> getIoWeight() {
+    return Optional.fromNullable(ioWeight);
+  }
+
+  /**
+   * Returns the niceness to run with when no cgroup is available, if set.
+   */
+  public Optional<Integer> getNice() {
+    return Optional.fromNullable(nice);
+  }
+
+  /**
+   * Returns the I/O scheduling class to run with when no cgroup is available, if set.
+   */
+  public Optional<IoniceClass> getIoniceClass() {
+    return Optional.fromNullable(ioniceClass);
+  }
+
+  /**
+   * Returns the priority within the best effort I/O scheduling class, if set.
+   */
+  public Optional<Integer> getIoniceLevel() {
+    return Optional.fromNullable(ioniceLevel);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jsankey.overseer.history.ResourceUsage;
+
+/**
+ * Measures the resources consumed by the process trees of running commands by periodically
+ * sampling {@code /proc} using a single shared thread.
+ *
+ * <p>Each sample sums the usage of every live process in a tree, including the children each
+ * has already reaped, so processes that exit between samples are still counted through their
+ * parent. Usage after the final sample of the root process is not seen, so executions shorter
+ * than the sampling interval may report little or nothing.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author Jody
+ */
+class ResourceSampler {
+
+  private static final Logger LOG = Logger.getLogger(ResourceSampler.class.getCanonicalName());
+
+  /** Time between samples of each running process tree. */
+  @VisibleForTesting
+  static final long SAMPLE_MILLIS = 200;
+  /** Units of CPU time in {@code /proc}, USER_HZ, which is fixed at 100 on mainstream Linux. */
+  private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+  private static final ResourceSampler SHARED = new ResourceSampler(Paths.get("/proc"));
+
+  /** Accumulates the usage of a single process tree while it runs. */
+  class Tracker {
+    private final ProcessHandle root;
+    private ResourceUsage usage;
+
+    private Tracker(ProcessHandle root) {
+      this.root = root;
+      this.usage = ResourceUsage.NONE;
+    }
+
+    /**
+     * Stops sampling the process tree and returns its usage as of the last sample.
+     */
+    ResourceUsage stop() {
+      untrack(this);
+      return getUsage();
+    }
+
+    private synchronized ResourceUsage getUsage() {
+      return usage;
+    }
+
+    private synchronized void record(ResourceUsage sample) {
+      usage = usage.max(sample);
+    }
+  }
+
+  private final Path procRoot;
+  private final ScheduledExecutorService executor;
+  private final List<Tracker> trackers;
+  /** The periodic sampling task, only scheduled while any tree is tracked. */
+  @Nullable private ScheduledFuture<?> task;
+
+  @VisibleForTesting
+  ResourceSampler(Path procRoot) {
+    this.procRoot = procRoot;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("resource-sampler-%d")
+        .build());
+    this.trackers = new ArrayList<>();
+    this.task = null;
+  }
+
+  /**
+   * Returns the instance shared by all commands.
+   */
+  static ResourceSampler shared() {
+    return SHARED;
+  }
+
+  /**
+   * Begins sampling the process tree rooted at the supplied process, returning a {@link Tracker}
+   * that must be stopped once the process ends, or null if {@code /proc} is not available.
+   */
+  @Nullable
+  synchronized Tracker track(Process process) {
+    if (!Files.isRegularFile(procRoot.resolve("self").resolve("stat"))) {
+      return null;
+    }
+    Tracker tracker = new Tracker(process.toHandle());
+    trackers.add(tracker);
+    if (task == null) {
+      task = executor.scheduleWithFixedDelay(
+          this::sampleAll, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    return tracker;
+  }
+
+  private synchronized void untrack(Tracker tracker) {
+    trackers.remove(tracker);
+    if (trackers.isEmpty() && task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  private void sampleAll() {
+    List<Tracker> current;
+    synchronized (this) {
+      current = new ArrayList<>(trackers);
+    }
+    for (Tracker tracker : current) {
+      try {
+        if (!tracker.root.isAlive()) {
+          continue;
+        }
+        List<Long> pids = new ArrayList<>();
+        pids.add(tracker.root.pid());
+        tracker.root.descendants().forEach(child -> pids.add(child.pid()));
+        tracker.record(sampleTree(pids));
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Exception sampling resource usage", e);
+      }
+    }
+  }
+
+  /**
+   * Returns the combined usage of the supplied processes, including children they have reaped,
+   * ignoring any that no longer exist. Peak resident set size is the larger of the combined
+   * current size and the peak of any single process.
+   */
+  @VisibleForTesting
+  ResourceUsage sampleTree(List<Long> pids) {
+    long userTicks = 0;
+    long systemTicks = 0;
+    long rssKb = 0;
+    long peakKb = 0;
+    long readBytes = 0;
+    long writeBytes = 0;
+    for (long pid : pids) {
+      Path directory = procRoot.resolve(Long.toString(pid));
+      try {
+        // The command name may contain spaces and parentheses so fields are counted from its
+        // closing parenthesis, after which the state is field 3 in the proc(5) numbering.
+        String stat = new String(
+            Files.readAllBytes(directory.resolve("stat")), StandardCharsets.UTF_8);
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+        // Fields 14 to 17 are utime, stime, cutime and cstime.
+        userTicks += Long.parseLong(fields[11]) + Long.parseLong(fields[13]);
+        systemTicks += Long.parseLong(fields[12]) + Long.parseLong(fields[14]);
+
+        List<String> status = Files.readAllLines(directory.resolve("status"));
+        rssKb += readField(status, "VmRSS");
+        peakKb = Math.max(peakKb, readField(status, "VmHWM"));
+
+        List<String> io = Files.readAllLines(directory.resolve("io"));
+        readBytes += readField(io, "read_bytes");
+        writeBytes += readField(io, "write_bytes");
+      } catch (IOException | RuntimeException e) {
+        // Most likely the process exited between listing and reading.
+        LOG.log(Level.FINE, "Exception reading resource usage of process " + pid, e);
+      }
+    }
+    return ResourceUsage.of(
+        userTicks * 1000 / CLOCK_TICKS_PER_SECOND,
+        systemTicks * 1000 / CLOCK_TICKS_PER_SECOND,
+        Math.max(rssKb, peakKb) * 1024,
+        readBytes,
+        writeBytes);
+  }
+
+  /**
+   * Returns the leading number following "key:" in the supplied lines, or zero if absent.
+   */
+  private static long readField(List<String> lines, String key) {
+    String prefix = key + ":";
+    for (String line : lines) {
+      if (line.startsWith(prefix)) {
+        return Long.parseLong(line.substring(prefix.length()).trim().split("\\s+")[0]);
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.runner.OutputListener.Stream;
+
+/**
+ * A long lived process that performs each execution of a command on request, avoiding the cost
+ * of starting a new process for every execution.
+ *
+ * <p>The protocol uses one JSON object per line. Once initialized the worker writes
+ * {@code {"ready":true}} to its standard output. For each execution it is sent
+ * {@code {"request_id":<n>}} on its standard input and responds with
+ * {@code {"request_id":<n>,"exit_code":<code>}}. Lines written before the worker is ready that
+ * are not JSON objects, such as a startup banner, are ignored. A worker that is not ready within
+ * the startup timeout is killed. Standard error is sent to the
+ * output listener if there is one and discarded otherwise. A worker that exits or breaks the
+ * protocol fails the current execution and is restarted for the next.
+ *
+ * <p>When there is a cgroup sub-tree a worker with a resource class runs in its own cgroup within
+ * the class, which is removed once the worker has been stopped.
+ *
+ * <p>This class is thread safe. Requests are handled one at a time on a dedicated thread.
+ *
+ * @author Jody
+ */
+class Worker {
+
+  private static final Logger LOG = Logger.getLogger(Worker.class.getCanonicalName());
+  private static final File DEVNULL = new File("/dev/null");
+
+  /** The outcome of a single request. */
+  static class Result {
+    private final int exitCode;
+    @Nullable private final Duration startupSaved;
+
+    Result(int exitCode, @Nullable Duration startupSaved) {
+      this.exitCode = exitCode;
+      this.startupSaved = startupSaved;
+    }
+
+    /** Returns the exit code reported by the worker, or {@link CommandEvent#WORKER_FAILED}. */
+    int getExitCode() {
+      return exitCode;
+    }
+
+    /**
+     * Returns the startup time avoided by reusing a running worker, zero if the worker was
+     * started for this request, or null if the request failed.
+     */
+    @Nullable
+    Duration getStartupSaved() {
+      return startupSaved;
+    }
+  }
+
+  private final String command;
+  private final ImmutableList<String> commandLine;
+  private final ProcessBuilder builder;
+  private final Duration terminationGrace;
+  private final Duration startupTimeout;
+  @Nullable private final ResourceClass resourceClass;
+  @Nullable private final CgroupManager cgroups;
+  @Nullable private final OutputListener listener;
+  private final OutputPump pump;
+  private final ExecutorService executor;
+
+  // Worker state, only replaced on the request thread but read by kill.
+  /** The current worker process, taken by whichever kill stops it. */
+  private final AtomicReference<Process> process;
+  /** The cgroup holding the current worker process, if any. */
+  @Nullable private volatile Path cgroupRun;
+  @Nullable private BufferedReader reader;
+  @Nullable private Writer writer;
+  private Duration startup;
+  private long nextRequestId;
+
+  private Worker(String command, List<String> commandLine, Duration terminationGrace,
+      Duration startupTimeout, @Nullable ResourceClass resourceClass,
+      @Nullable CgroupManager cgroups, @Nullable OutputListener listener, OutputPump pump) {
+    this.command = command;
+    this.commandLine = ImmutableList.copyOf(commandLine);
+    this.builder = new ProcessBuilder(commandLine)
+        .redirectError(listener == null ? Redirect.to(DEVNULL) : Redirect.PIPE);
+    this.terminationGrace = terminationGrace;
+    this.startupTimeout = startupTimeout;
+    this.resourceClass = resourceClass;
+    this.cgroups = cgroups;
+    this.listener = listener;
+    this.pump = pump;
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("worker-" + command.split("\\s")[0].replace("%", "%%") + "-%d")
+        .build());
+    this.process = new AtomicReference<>();
+    this.cgroupRun = null;
+    this.startup = Duration.ZERO;
+    this.nextRequestId = 1;
+  }
+
+  /**
+   * Constructs a new {@link Worker}, which is not started until the first request.
+   *
+   * @param command the command that starts the worker, for logging
+   * @param commandLine the tokenized command line that starts the worker
+   * @param terminationGrace the time the worker and its descendants are given to exit when it is
+   *     killed before they are killed forcibly
+   * @param startupTimeout the time the worker may take to report that it is ready before it is
+   *     killed and the request fails
+   * @param resourceClass the {@link ResourceClass} limiting the worker, if any
+   * @param cgroups a {@link CgroupManager} through which to apply the resource class, if any. The
+   *     command line is expected to apply any process priorities of the class
+   * @param listener an {@link OutputListener} to receive the standard error of the worker, if any
+   */
+  static Worker forCommand(String command, List<String> commandLine, Duration terminationGrace,
+      Duration startupTimeout, @Nullable ResourceClass resourceClass,
+      @Nullable CgroupManager cgroups, @Nullable OutputListener listener, OutputPump pump) {
+    return new Worker(command, commandLine, terminationGrace, startupTimeout, resourceClass,
+        cgroups, listener, pump);
+  }
+
+  /**
+   * Asks the worker to perform one execution, starting it first if necessary, and returns a
+   * future that completes with the result. A failed request completes with
+   * {@link CommandEvent#WORKER_FAILED} rather than exceptionally.
+   */
+  CompletableFuture<Result> request() {
+    return CompletableFuture.supplyAsync(this::handleRequest, executor);
+  }
+
+  /**
+   * Stops the worker process and all its descendants if running, in the same way as a terminated
+   * execution, failing any request in progress, then removes its cgroup once they have exited.
+   * The next request will start a new process.
+   *
+   * @return a future that completes once the processes have exited or been killed, immediately
+   *     if the worker is not running
+   */
+  CompletableFuture<Void> kill() {
+    // Only one caller may take the process, so a tree is never torn down twice.
+    Process running = process.getAndSet(null);
+    if (running == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    LOG.warning("Killing worker: " + command);
+    Path cgroup = cgroupRun;
+    cgroupRun = null;
+    return CommandRunner.tearDownTree(running, terminationGrace, command)
+        .thenRun(() -> finishCgroup(cgroup));
+  }
+
+  /**
+   * Stops the worker process if running and releases the request thread. No further requests
+   * may be made.
+   */
+  void close() {
+    kill();
+    executor.shutdown();
+  }
+
+  private Result handleRequest() {
+    try {
+      boolean started = false;
+      Process running = process.get();
+      if (running == null || !running.isAlive()) {
+        startProcess();
+        started = true;
+      }
+      long requestId = nextRequestId++;
+      writer.write(Json.createObjectBuilder().add("request_id", requestId).build().toString());
+      writer.write('\n');
+      writer.flush();
+      while (true) {
+        JsonObject response = readMessage();
+        JsonValue responseId = response.get("request_id");
+        if (responseId instanceof JsonNumber
+            && ((JsonNumber) responseId).longValue() == requestId) {
+          JsonValue exitCode = response.get("exit_code");
+          if (!(exitCode instanceof JsonNumber)) {
+            throw new JsonException("Response has no exit code: " + response);
+          }
+          return new Result(((JsonNumber) exitCode).intValue(), started ? Duration.ZERO : startup);
+        }
+        LOG.warning(String.format("Ignoring unexpected message from worker %s: %s",
+            command, response));
+      }
+    } catch (IOException|JsonException e) {
+      LOG.log(Level.WARNING, "Worker failed, will restart on next request: " + command, e);
+      kill();
+      return new Result(CommandEvent.WORKER_FAILED, null);
+    }
+  }
+
+  /**
+   * Starts a new worker process and waits until it reports that it is ready.
+   */
+  private void startProcess() throws IOException {
+    LOG.info("Starting worker: " + command);
+    // A worker that exited on its own has no descendants left to wait for.
+    finishCgroup(cgroupRun);
+    cgroupRun = null;
+    long beginNanos = System.nanoTime();
+    Path cgroup = startCgroup();
+    builder.command(
+        cgroup == null ? commandLine : CommandRunner.joinCgroupCommand(cgroup, commandLine));
+    Process started;
+    try {
+      started = builder.start();
+    } catch (IOException e) {
+      finishCgroup(cgroup);
+      throw e;
+    }
+    // The cgroup is set first so that a kill taking the process also finds its cgroup.
+    cgroupRun = cgroup;
+    process.set(started);
+    if (listener != null) {
+      pump.pump(started, started.getErrorStream(), (bytes, offset, length) -> {
+        try {
+          listener.receiveOutput(command, Stream.STDERR, bytes, offset, length);
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Exception delivering output to listener", e);
+        }
+      });
+    }
+    reader = new BufferedReader(
+        new InputStreamReader(started.getInputStream(), StandardCharsets.UTF_8));
+    writer = new OutputStreamWriter(started.getOutputStream(), StandardCharsets.UTF_8);
+    // Killing a worker that is not ready in time ends its output, releasing this thread.
+    CompletableFuture<Boolean> ready = new CompletableFuture<Boolean>()
+        .completeOnTimeout(false, startupTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    ready.thenAccept(inTime -> {
+      if (!inTime) {
+        LOG.warning(String.format("Worker not ready after %d ms: %s",
+            startupTimeout.toMillis(), command));
+        kill();
+      }
+    });
+    boolean readyInTime;
+    try {
+      while (!readStartupMessage().getBoolean("ready", false)) {
+        // Discard anything the worker writes before it is ready.
+      }
+    } finally {
+      readyInTime = ready.complete(true);
+    }
+    if (!readyInTime) {
+      throw new IOException("Worker was not ready within the startup timeout");
+    }
+    startup = Duration.ofNanos(System.nanoTime() - beginNanos);
+    LOG.info(String.format("Worker ready after %d ms: %s", startup.toMillis(), command));
+  }
+
+  /**
+   * Returns the cgroup to hold a worker starting now, or null if the worker has no resource
+   * class, there is no cgroup sub-tree, or the cgroup could not be created.
+   */
+  @Nullable
+  private Path startCgroup() {
+    if (resourceClass == null || cgroups == null) {
+      return null;
+    }
+    try {
+      return cgroups.startRun(resourceClass);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception creating cgroup for worker " + command, e);
+      return null;
+    }
+  }
+
+  private void finishCgroup(@Nullable Path cgroup) {
+    if (cgroup != null) {
+      cgroups.finishRun(cgroup);
+    }
+  }
+
+  /**
+   * Returns the next message from the worker.
+   *
+   * @throws IOException if the worker has exited
+   * @throws JsonException if the message is not a JSON object
+   */
+  private JsonObject readMessage() throws IOException {
+    return parseMessage(readLine());
+  }
+
+  /**
+   * Returns the next message from a worker that is not yet ready, skipping any lines that are not
+   * JSON objects.
+   *
+   * @throws IOException if the worker has exited
+   */
+  private JsonObject readStartupMessage() throws IOException {
+    while (true) {
+      String line = readLine();
+      try {
+        return parseMessage(line);
+      } catch (JsonException e) {
+        LOG.fine(String.format("Ignoring startup output from worker %s: %s", command, line));
+      }
+    }
+  }
+
+  private String readLine() throws IOException {
+    String line = reader.readLine();
+    if (line == null) {
+      throw new IOException("Worker exited");
+    }
+    return line;
+  }
+
+  private static JsonObject parseMessage(String line) {
+    return Json.createReader(new StringReader(line)).readObject();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.history.CommandEvent.ChangeReport;
+
+/**
+ * A {@link Schedule} whose interval between starts adapts to the outcome of recent executions,
+ * within fixed bounds. The interval is doubled after an execution that found nothing to do and
+ * halved after one that did.
+ *
+ * <p>Executions that report whether they made changes are judged on that report. Otherwise an
+ * execution is judged to have done work if it took substantially longer than the quickest
+ * recent execution, which approximates the cost of a run with nothing to do. Failed executions
+ * leave the interval unchanged.
+ */
+public class AdaptiveSchedule implements Schedule {
+
+  /** Factor by which the interval is lengthened or shortened after each execution. */
+  private static final int ADAPTATION_FACTOR = 2;
+  /** Multiple of the quickest recent duration above which an execution is considered long. */
+  private static final double LONG_RUN_FACTOR = 1.5;
+
+  private final Duration minInterval;
+  private final Duration maxInterval;
+
+  private AdaptiveSchedule(Duration minInterval, Duration maxInterval) {
+    Preconditions.checkArgument(
+        !minInterval.isNegative() && !minInterval.isZero(), "Minimum interval must be positive");
+    Preconditions.checkArgument(maxInterval.compareTo(minInterval) >= 0,
+        "Maximum interval must not be less than minimum interval");
+    this.minInterval = minInterval;
+    this.maxInterval = maxInterval;
+  }
+
+  /**
+   * Constructs a new instance whose interval between starts stays within the supplied bounds.
+   */
+  public static AdaptiveSchedule of(Duration minInterval, Duration maxInterval) {
+    return new AdaptiveSchedule(minInterval, maxInterval);
+  }
+
+  public Duration getMinInterval() {
+    return minInterval;
+  }
+
+  public Duration getMaxInterval() {
+    return maxInterval;
+  }
+
+  /**
+   * Returns the start plus the minimum interval, since no outcome is available to adapt to.
+   */
+  @Override
+  public Instant nextRun(Instant lastStart) {
+    return lastStart.plus(minInterval);
+  }
+
+  @Override
+  public Instant nextRun(List<CommandEvent> history) {
+    return history.get(history.size() - 1).getStart().plus(chooseInterval(history));
+  }
+
+  /**
+   * Returns the start of the most recent execution plus the interval chosen when it completed,
+   * within the current bounds, so that restarting does not adapt the interval again.
+   */
+  @Override
+  public Instant resumeRun(List<CommandEvent> history) {
+    CommandEvent last = history.get(history.size() - 1);
+    if (!last.getScheduledInterval().isPresent()) {
+      return nextRun(history);
+    }
+    Duration interval = last.getScheduledInterval().get();
+    if (interval.compareTo(minInterval) < 0) {
+      interval = minInterval;
+    } else if (interval.compareTo(maxInterval) > 0) {
+      interval = maxInterval;
+    }
+    return last.getStart().plus(interval);
+  }
+
+  /**
+   * Returns the interval to follow the most recent execution in the supplied history.
+   */
+  private Duration chooseInterval(List<CommandEvent> history) {
+    CommandEvent last = history.get(history.size() - 1);
+    Duration previous = previousInterval(history);
+    if (!last.isSuccessful()) {
+      return previous;
+    }
+    boolean didWork;
+    if (last.getChangeReport() != ChangeReport.UNREPORTED) {
+      didWork = last.getChangeReport() == ChangeReport.CHANGED;
+    } else {
+      long quickestMillis = Long.MAX_VALUE;
+      for (CommandEvent event : history) {
+        if (event.isSuccessful()) {
+          quickestMillis = Math.min(quickestMillis, event.getDurationMillis());
+        }
+      }
+      didWork = last.getDurationMillis() > quickestMillis * LONG_RUN_FACTOR;
+    }
+    Duration adapted = didWork
+        ? previous.dividedBy(ADAPTATION_FACTOR) : previous.multipliedBy(ADAPTATION_FACTOR);
+    if (adapted.compareTo(minInterval) < 0) {
+      return minInterval;
+    }
+    return adapted.compareTo(maxInterval) > 0 ? maxInterval : adapted;
+  }
+
+  /**
+   * Returns the most recent interval recorded in the history, or the minimum interval if none
+   * has been recorded.
+   */
+  private Duration previousInterval(List<CommandEvent> history) {
+    for (int i = history.size() - 1; i >= 0; i--) {
+      if (history.get(i).getScheduledInterval().isPresent()) {
+        return history.get(i).getScheduledInterval().get();
+      }
+    }
+    return minInterval;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("every %d-%d sec", minInterval.getSeconds(), maxInterval.getSeconds());
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+/**
+ * A {@link Schedule} defined by a standard five field cron expression of minute, hour, day of
+ * month, month, and day of week. Each field may be a {@code *}, a number, a range such as
+ * {@code 1-5}, or a comma separated list of these, each optionally followed by a step such as
+ * {@code /15}. Days of week are numbered 0-7 where both 0 and 7 are Sunday. As in traditional
+ * cron, when both day fields are restricted a day matching either field is accepted.
+ */
+public class CronSchedule implements Schedule {
+
+  /** Maximum time to search forwards for a match, long enough to include a leap day. */
+  private static final int MAX_SEARCH_YEARS = 5;
+
+  private final String expression;
+  private final ZoneId zone;
+  private final BitSet minutes;
+  private final BitSet hours;
+  private final BitSet daysOfMonth;
+  private final BitSet months;
+  private final BitSet daysOfWeek;
+  private final boolean daysOfMonthRestricted;
+  private final boolean daysOfWeekRestricted;
+
+  private CronSchedule(String expression, ZoneId zone) {
+    String[] fields = expression.trim().split("\\s+");
+    Preconditions.checkArgument(
+        fields.length == 5, "Cron expression must contain five fields: %s", expression);
+    this.expression = expression;
+    this.zone = zone;
+    this.minutes = parseField(fields[0], 0, 59);
+    this.hours = parseField(fields[1], 0, 23);
+    this.daysOfMonth = parseField(fields[2], 1, 31);
+    this.months = parseField(fields[3], 1, 12);
+    this.daysOfWeek = parseField(fields[4], 0, 7);
+    if (daysOfWeek.get(7)) {
+      daysOfWeek.set(0);
+    }
+    this.daysOfMonthRestricted = !fields[2].startsWith("*");
+    this.daysOfWeekRestricted = !fields[4].startsWith("*");
+  }
+
+  /**
+   * Constructs a new instance from a cron expression, interpreted in the supplied time zone.
+   *
+   * @throws IllegalArgumentException if the expression is malformed or can never match
+   */
+  public static CronSchedule parse(String expression, ZoneId zone) {
+    CronSchedule schedule = new CronSchedule(expression, zone);
+    try {
+      schedule.nextRun(Instant.now());
+    } catch (IllegalStateException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+    return schedule;
+  }
+
+  /**
+   * Returns the first minute strictly after the supplied start time that matches the expression.
+   *
+   * @throws IllegalStateException if the expression does not match within several years
+   */
+  @Override
+  public Instant nextRun(Instant lastStart) {
+    ZonedDateTime time = lastStart.atZone(zone).truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+    ZonedDateTime limit = time.plusYears(MAX_SEARCH_YEARS);
+    // Advance the largest mismatching unit each iteration, so this loop is short.
+    while (time.isBefore(limit)) {
+      if (!months.get(time.getMonthValue())) {
+        time = time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1);
+      } else if (!dayMatches(time)) {
+        time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+      } else if (!hours.get(time.getHour())) {
+        time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+      } else if (!minutes.get(time.getMinute())) {
+        time = time.plusMinutes(1);
+      } else {
+        return time.toInstant();
+      }
+    }
+    throw new IllegalStateException("Cron expression never matches: " + expression);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("cron '%s'", expression);
+  }
+
+  /**
+   * Returns true iff the day of the supplied time matches the day of month and day of week fields.
+   */
+  private boolean dayMatches(ZonedDateTime time) {
+    boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+    // Java numbers Monday to Sunday as 1 to 7, cron numbers Sunday as 0.
+    boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+    if (daysOfMonthRestricted && daysOfWeekRestricted) {
+      return dayOfMonth || dayOfWeek;
+    }
+    return dayOfMonth && dayOfWeek;
+  }
+
+  /**
+   * Returns the set of values matched by a single cron field.
+   *
+   * @throws IllegalArgumentException if the field is malformed or exceeds the supplied bounds
+   */
+  private static BitSet parseField(String field, int min, int max) {
+    BitSet values = new BitSet(max + 1);
+    for (String part : field.split(",")) {
+      String range = part;
+      int step = 1;
+      int slash = part.indexOf('/');
+      if (slash >= 0) {
+        range = part.substring(0, slash);
+        step = parseNumber(part.substring(slash + 1), field);
+        Preconditions.checkArgument(step > 0, "Cron step must be positive: %s", field);
+      }
+      int start;
+      int end;
+      int dash = range.indexOf('-');
+      if (range.equals("*")) {
+        start = min;
+        end = max;
+      } else if (dash >= 0) {
+        start = parseNumber(range.substring(0, dash), field);
+        end = parseNumber(range.substring(dash + 1), field);
+      } else {
+        start = parseNumber(range, field);
+        end = (slash >= 0) ? max : start;
+      }
+      Preconditions.checkArgument(min <= start && start <= end && end <= max,
+          "Cron field values must be between %s and %s: %s", min, max, field);
+      for (int value = start; value <= end; value += step) {
+        values.set(value);
+      }
+    }
+    return values;
+  }
+
+  private static int parseNumber(String number, String field) {
+    Integer value = Ints.tryParse(number);
+    Preconditions.checkArgument(value != null, "Invalid number in cron field: %s", field);
+    return value;
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Schedule} that runs a command a fixed interval after its previous start.
+ */
+public class IntervalSchedule implements Schedule {
+
+  private final Duration interval;
+
+  private IntervalSchedule(Duration interval) {
+    Preconditions.checkArgument(!interval.isNegative(), "Interval must not be negative");
+    this.interval = interval;
+  }
+
+  /**
+   * Constructs a new instance with the supplied interval between starts.
+   */
+  public static IntervalSchedule of(Duration interval) {
+    return new IntervalSchedule(interval);
+  }
+
+  /**
+   * Returns the interval between starts.
+   */
+  public Duration getInterval() {
+    return interval;
+  }
+
+  @Override
+  public Instant nextRun(Instant lastStart) {
+    return lastStart.plus(interval);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("every %d sec", interval.getSeconds());
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import java.time.Instant;
+import java.util.List;
+
+import com.google.common.collect.Iterables;
+import com.jsankey.overseer.history.CommandEvent;
+
+/**
+ * Interface for classes that define when a command should next be run.
+ */
+public interface Schedule {
+  /**
+   * Returns the {@link Instant} at which a command should next run, given the {@link Instant} at
+   * which its most recent execution started. The result may be in the past if the command is
+   * overdue.
+   */
+  public Instant nextRun(Instant lastStart);
+
+  /**
+   * Returns the {@link Instant} at which a command should next run, given its recorded executions
+   * in order of start time, the most recent of which has just completed. By default only the start
+   * of the most recent execution is used, but schedules may adapt to the outcome of executions.
+   */
+  public default Instant nextRun(List<CommandEvent> history) {
+    return nextRun(Iterables.getLast(history).getStart());
+  }
+
+  /**
+   * Returns the {@link Instant} at which a command should next run when scheduling resumes after a
+   * restart, given its recorded executions in order of start time. The next run after the most
+   * recent execution was already chosen when it completed, so schedules that adapt to the outcome
+   * of executions must not adapt to it again. By default the next run is recalculated.
+   */
+  public default Instant resumeRun(List<CommandEvent> history) {
+    return nextRun(history);
+  }
+}
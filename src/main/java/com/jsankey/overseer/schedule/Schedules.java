@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import java.time.Duration;
+import java.time.ZoneId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+/**
+ * Static utility methods for creating {@link Schedule} instances.
+ */
+public class Schedules {
+
+  private static final String RANGE_SEPARATOR = "..";
+
+  private Schedules() {
+    // Not instantiable.
+  }
+
+  /**
+   * Returns a {@link Schedule} from a text specification, which is either a whole number of
+   * seconds between starts, a range of seconds between starts in the form <min>..<max> for an
+   * adaptive interval, or a five field cron expression in the system time zone.
+   *
+   * @throws IllegalArgumentException if the specification is not valid
+   */
+  public static Schedule parse(String spec) {
+    Integer seconds = Ints.tryParse(spec.trim());
+    if (seconds != null) {
+      return IntervalSchedule.of(Duration.ofSeconds(seconds));
+    }
+    int separator = spec.indexOf(RANGE_SEPARATOR);
+    if (separator >= 0) {
+      Integer minSeconds = Ints.tryParse(spec.substring(0, separator).trim());
+      Integer maxSeconds =
+          Ints.tryParse(spec.substring(separator + RANGE_SEPARATOR.length()).trim());
+      Preconditions.checkArgument(minSeconds != null && maxSeconds != null,
+          "Adaptive schedule must take the form <min seconds>..<max seconds>: %s", spec);
+      return AdaptiveSchedule.of(Duration.ofSeconds(minSeconds), Duration.ofSeconds(maxSeconds));
+    }
+    return CronSchedule.parse(spec, ZoneId.systemDefault());
+  }
+}
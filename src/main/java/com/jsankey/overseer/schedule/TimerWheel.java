@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A hierarchical timer wheel holding items that each expire at a deadline. Scheduling and
+ * cancelling an item take constant time, and expiring items takes time proportional to the number
+ * of items expired plus the number of levels in the wheel, independent of the total number of
+ * items held.
+ *
+ * <p>Time is divided into ticks of a fixed length and deadlines are rounded up to the next tick,
+ * so items may expire up to one tick late but never early. Each level of the wheel holds 64
+ * slots, where a slot at level zero covers a single tick and a slot at each higher level covers
+ * all 64 slots of the level beneath it. Items are placed at the lowest level whose slot is unique
+ * to their deadline and are cascaded down as time advances into their slot.
+ *
+ * <p>The earliest deadline in each slot is cached so that finding the next deadline takes time
+ * proportional to the number of levels. Cancelling the earliest item of a slot means the slot is
+ * searched again the next time its earliest deadline is needed.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @param <T> the type of item held in the wheel
+ */
+public class TimerWheel<T> {
+
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS_PER_LEVEL = 1 << SLOT_BITS;
+  private static final int LEVELS = 6;
+  /** Cached earliest tick of a slot or the overflow list that must be found by searching. */
+  private static final long UNKNOWN_TICK = Long.MIN_VALUE;
+
+  /** A scheduled item, held in a doubly linked list of the other items in the same slot. */
+  private static class Entry<T> {
+    final T item;
+    final long tick;
+    @Nullable Entry<T> previous;
+    @Nullable Entry<T> next;
+    int level;
+    int slot;
+
+    Entry(T item, long tick) {
+      this.item = item;
+      this.tick = tick;
+    }
+  }
+
+  private final long tickMillis;
+  private final Map<T, Entry<T>> entries;
+  /** Head of the linked list of entries for each slot in each level, or null if empty. */
+  private final Entry<T>[][] slots;
+  /** Bitmask of the non-empty slots in each level. */
+  private final long[] occupied;
+  /** Earliest tick of the entries in each non-empty slot, or {@link #UNKNOWN_TICK}. */
+  private final long[][] earliestTicks;
+  /** Entries too far in the future to be held in the wheel. */
+  private final List<Entry<T>> overflow;
+  /** Earliest tick of the overflow entries, {@link Long#MAX_VALUE} if none, or unknown. */
+  private long earliestOverflowTick;
+  /** The most recent tick to which the wheel has been advanced. */
+  private long currentTick;
+
+  /**
+   * Constructs a new empty wheel.
+   *
+   * @param tickMillis the duration of each tick, in milliseconds
+   * @param start the {@link Instant} the wheel starts from, deadlines before this expire at once
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public TimerWheel(long tickMillis, Instant start) {
+    Preconditions.checkArgument(tickMillis > 0, "Tick length must be positive");
+    this.tickMillis = tickMillis;
+    this.entries = new HashMap<>();
+    this.slots = new Entry[LEVELS][SLOTS_PER_LEVEL];
+    this.occupied = new long[LEVELS];
+    this.earliestTicks = new long[LEVELS][SLOTS_PER_LEVEL];
+    this.overflow = new ArrayList<>();
+    this.earliestOverflowTick = Long.MAX_VALUE;
+    this.currentTick = start.toEpochMilli() / tickMillis;
+  }
+
+  /**
+   * Schedules an item to expire at the supplied deadline, replacing any existing deadline for the
+   * item. Deadlines at or before the current time expire on the next call to {@link #expire}.
+   */
+  public void schedule(T item, Instant deadline) {
+    cancel(item);
+    Entry<T> entry = new Entry<>(item, toTick(deadline));
+    entries.put(item, entry);
+    place(entry);
+  }
+
+  /**
+   * Removes an item from the wheel, returning true iff the item was present.
+   */
+  public boolean cancel(T item) {
+    Entry<T> entry = entries.remove(item);
+    if (entry == null) {
+      return false;
+    }
+    if (entry.level < 0) {
+      overflow.remove(entry);
+      if (overflow.isEmpty()) {
+        earliestOverflowTick = Long.MAX_VALUE;
+      } else if (entry.tick == earliestOverflowTick) {
+        earliestOverflowTick = UNKNOWN_TICK;
+      }
+    } else {
+      unlink(entry);
+    }
+    return true;
+  }
+
+  /**
+   * Returns true iff the supplied item is currently held in the wheel.
+   */
+  public boolean contains(T item) {
+    return entries.containsKey(item);
+  }
+
+  /**
+   * Returns the number of items currently held in the wheel.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns true iff the wheel holds no items.
+   */
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Returns the tick-rounded {@link Instant} at which the next item will expire, or
+   * {@link Instant#MAX} if the wheel is empty. Items that are already due return the current
+   * tick.
+   */
+  public Instant nextDeadline() {
+    long earliest = Long.MAX_VALUE;
+    for (int level = 0; level < LEVELS; level++) {
+      int slot = nextOccupiedSlot(level);
+      if (slot >= 0) {
+        // The first occupied slot at the lowest level contains the earliest entry, but slots
+        // above level zero span many ticks so their earliest tick is cached.
+        if (earliestTicks[level][slot] == UNKNOWN_TICK) {
+          long slotEarliest = Long.MAX_VALUE;
+          for (Entry<T> entry = slots[level][slot]; entry != null; entry = entry.next) {
+            slotEarliest = Math.min(slotEarliest, entry.tick);
+          }
+          earliestTicks[level][slot] = slotEarliest;
+        }
+        earliest = earliestTicks[level][slot];
+        break;
+      }
+    }
+    if (earliestOverflowTick == UNKNOWN_TICK) {
+      earliestOverflowTick = Long.MAX_VALUE;
+      for (Entry<T> entry : overflow) {
+        earliestOverflowTick = Math.min(earliestOverflowTick, entry.tick);
+      }
+    }
+    earliest = Math.min(earliest, earliestOverflowTick);
+    if (earliest > Long.MAX_VALUE / tickMillis) {
+      return Instant.MAX;
+    }
+    return Instant.ofEpochMilli(Math.max(earliest, currentTick) * tickMillis);
+  }
+
+  /**
+   * Advances the wheel to the supplied time, removing and returning all items whose deadline has
+   * been reached in order of their deadline tick.
+   */
+  public List<T> expire(Instant now) {
+    long targetTick = Math.max(currentTick, now.toEpochMilli() / tickMillis);
+    List<T> expired = new ArrayList<>();
+    // Entries placed at or before the current tick always live in its slot at level zero.
+    expireSlot(currentTick, expired);
+    while (true) {
+      long nextTick = Long.MAX_VALUE;
+      int nextLevel = -1;
+      for (int level = 0; level < LEVELS; level++) {
+        int slot = nextOccupiedSlot(level);
+        if (slot >= 0) {
+          long tick = levelBase(level) + ((long) slot << (SLOT_BITS * level));
+          if (tick < nextTick) {
+            nextTick = tick;
+            nextLevel = level;
+          }
+        }
+      }
+      if (nextTick > targetTick) {
+        break;
+      }
+      currentTick = nextTick;
+      if (nextLevel == 0) {
+        expireSlot(currentTick, expired);
+      } else {
+        cascade(nextLevel, slotIndex(currentTick, nextLevel));
+        expireSlot(currentTick, expired);
+      }
+    }
+    currentTick = targetTick;
+    if (!overflow.isEmpty()) {
+      List<Entry<T>> overflowed = new ArrayList<>(overflow);
+      overflow.clear();
+      earliestOverflowTick = Long.MAX_VALUE;
+      for (Entry<T> entry : overflowed) {
+        place(entry);
+      }
+      expireSlot(currentTick, expired);
+    }
+    return expired;
+  }
+
+  /**
+   * Removes and returns all items held in the wheel, regardless of deadline.
+   */
+  public List<T> drain() {
+    List<T> drained = new ArrayList<>(entries.keySet());
+    entries.clear();
+    for (int level = 0; level < LEVELS; level++) {
+      for (int slot = 0; slot < SLOTS_PER_LEVEL; slot++) {
+        slots[level][slot] = null;
+      }
+      occupied[level] = 0;
+    }
+    overflow.clear();
+    earliestOverflowTick = Long.MAX_VALUE;
+    return drained;
+  }
+
+  /**
+   * Returns the tick in which the supplied deadline falls, rounding up.
+   */
+  private long toTick(Instant deadline) {
+    if (deadline.equals(Instant.MAX)) {
+      return Long.MAX_VALUE / 2;
+    }
+    long millis = deadline.toEpochMilli();
+    return millis / tickMillis + (millis % tickMillis == 0 ? 0 : 1);
+  }
+
+  /**
+   * Links an entry into the slot at the lowest level that uniquely identifies its tick relative
+   * to the current tick, or into the overflow list if it is too far in the future.
+   */
+  private void place(Entry<T> entry) {
+    long tick = Math.max(entry.tick, currentTick);
+    // The level is set by the most significant group of bits that differs from the current tick.
+    long difference = tick ^ currentTick;
+    int level = (difference == 0) ? 0 : (63 - Long.numberOfLeadingZeros(difference)) / SLOT_BITS;
+    if (level >= LEVELS) {
+      entry.level = -1;
+      overflow.add(entry);
+      if (earliestOverflowTick != UNKNOWN_TICK) {
+        earliestOverflowTick = Math.min(earliestOverflowTick, entry.tick);
+      }
+      return;
+    }
+    int slot = slotIndex(tick, level);
+    if (slots[level][slot] == null) {
+      earliestTicks[level][slot] = entry.tick;
+    } else if (earliestTicks[level][slot] != UNKNOWN_TICK) {
+      earliestTicks[level][slot] = Math.min(earliestTicks[level][slot], entry.tick);
+    }
+    entry.level = level;
+    entry.slot = slot;
+    entry.previous = null;
+    entry.next = slots[level][slot];
+    if (entry.next != null) {
+      entry.next.previous = entry;
+    }
+    slots[level][slot] = entry;
+    occupied[level] |= (1L << slot);
+  }
+
+  /**
+   * Removes an entry from the linked list of its slot.
+   */
+  private void unlink(Entry<T> entry) {
+    if (entry.tick == earliestTicks[entry.level][entry.slot]) {
+      // Another entry may share the tick, but searching is deferred until it is needed.
+      earliestTicks[entry.level][entry.slot] = UNKNOWN_TICK;
+    }
+    if (entry.previous != null) {
+      entry.previous.next = entry.next;
+    } else {
+      slots[entry.level][entry.slot] = entry.next;
+      if (entry.next == null) {
+        occupied[entry.level] &= ~(1L << entry.slot);
+      }
+    }
+    if (entry.next != null) {
+      entry.next.previous = entry.previous;
+    }
+    entry.previous = null;
+    entry.next = null;
+  }
+
+  /**
+   * Removes every entry in the level zero slot for the supplied tick, adding their items to the
+   * expired list.
+   */
+  private void expireSlot(long tick, List<T> expired) {
+    int slot = slotIndex(tick, 0);
+    Entry<T> entry = slots[0][slot];
+    slots[0][slot] = null;
+    occupied[0] &= ~(1L << slot);
+    while (entry != null) {
+      Entry<T> next = entry.next;
+      entries.remove(entry.item);
+      expired.add(entry.item);
+      entry = next;
+    }
+  }
+
+  /**
+   * Moves every entry in the supplied slot to its position relative to the current tick, which
+   * will always be at a lower level.
+   */
+  private void cascade(int level, int slot) {
+    Entry<T> entry = slots[level][slot];
+    slots[level][slot] = null;
+    occupied[level] &= ~(1L << slot);
+    while (entry != null) {
+      Entry<T> next = entry.next;
+      place(entry);
+      entry = next;
+    }
+  }
+
+  /**
+   * Returns the first occupied slot at the supplied level that lies after the current tick, or
+   * -1 if no such slot exists. Slots at or before the current tick at levels above zero are
+   * always empty since their entries are cascaded on arrival.
+   */
+  private int nextOccupiedSlot(int level) {
+    int current = slotIndex(currentTick, level);
+    long mask = occupied[level] & (level == 0 ? (-1L << current) : (-2L << current));
+    return mask == 0 ? -1 : Long.numberOfTrailingZeros(mask);
+  }
+
+  /**
+   * Returns the first tick of the current rotation of the supplied level.
+   */
+  private long levelBase(int level) {
+    return currentTick & ~((1L << (SLOT_BITS * (level + 1))) - 1);
+  }
+
+  private static int slotIndex(long tick, int level) {
+    return (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS_PER_LEVEL - 1));
+  }
+}
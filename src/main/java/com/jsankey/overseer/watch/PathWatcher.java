@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.watch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Watches sets of files and directory trees on behalf of commands, notifying a listener when the
+ * paths watched for a command have changed.
+ *
+ * <p>Changes are debounced and coalesced: once a change is seen for a command the listener is
+ * only notified after no further changes have been seen for the debounce period, or after the
+ * maximum delay since the first change if changes continue. Each notification covers all the
+ * changes seen before it.
+ *
+ * <p>Directories are watched recursively, including any created after watching begins. The
+ * watcher uses its own thread, and the listener is called on that thread.
+ *
+ * @author Jody
+ */
+public class PathWatcher implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(PathWatcher.class.getCanonicalName());
+
+  /**
+   * Interface for classes that are interested in changes to watched paths.
+   */
+  public interface ChangeListener {
+    /** Method called when paths watched for a command have changed. */
+    public void pathsChanged(String command);
+  }
+
+  /** The commands interested in changes within a single watched directory. */
+  private static class WatchedDirectory {
+    final Path directory;
+    /** Commands watching the tree containing this directory, interested in every change. */
+    final Set<String> treeCommands = new HashSet<>();
+    /** Commands watching individual files in this directory, keyed by file name. */
+    final SetMultimap<Path, String> fileCommands = HashMultimap.create();
+
+    WatchedDirectory(Path directory) {
+      this.directory = directory;
+    }
+  }
+
+  private final WatchService watchService;
+  private final Duration debounce;
+  private final Duration maxDelay;
+  private final ChangeListener listener;
+  private final Clock clock;
+  private final Map<Path, WatchedDirectory> directories;
+  private final Map<WatchKey, WatchedDirectory> keys;
+  /** Time of the first and most recent unreported change for each command. */
+  private final Map<String, Instant> firstChanges;
+  private final Map<String, Instant> lastChanges;
+  private @Nullable Thread watcherThread;
+
+  private PathWatcher(Duration debounce, Duration maxDelay, ChangeListener listener)
+      throws IOException {
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.debounce = debounce;
+    this.maxDelay = maxDelay;
+    this.listener = listener;
+    this.clock = Clock.systemUTC();
+    this.directories = new HashMap<>();
+    this.keys = new HashMap<>();
+    this.firstChanges = new HashMap<>();
+    this.lastChanges = new HashMap<>();
+  }
+
+  /**
+   * Constructs a new {@link PathWatcher} and registers all the supplied paths. Watching does not
+   * begin until {@link #start} is called.
+   *
+   * @param watchedPaths a map from each command to the files and directories it watches
+   * @param debounce the time without further changes before the listener is notified
+   * @param maxDelay the maximum time between a change and the listener being notified
+   * @param listener a {@link ChangeListener} to receive notifications
+   * @throws IOException if the watch service could not be created or a path registered
+   */
+  public static PathWatcher create(SetMultimap<String, Path> watchedPaths, Duration debounce,
+      Duration maxDelay, ChangeListener listener) throws IOException {
+    Preconditions.checkArgument(!debounce.isNegative(), "Debounce must not be negative");
+    Preconditions.checkArgument(maxDelay.compareTo(debounce) >= 0,
+        "Maximum delay must not be less than debounce");
+    PathWatcher watcher = new PathWatcher(debounce, maxDelay, listener);
+    try {
+      for (Map.Entry<String, Path> entry : watchedPaths.entries()) {
+        watcher.registerPath(entry.getKey(), entry.getValue());
+      }
+    } catch (IOException e) {
+      watcher.close();
+      throw e;
+    }
+    return watcher;
+  }
+
+  /**
+   * Begins watching on a new thread, returning immediately.
+   */
+  public synchronized void start() {
+    Preconditions.checkState(watcherThread == null, "Cannot start watcher more than once");
+    watcherThread = new Thread(this::watch, "path-watcher");
+    watcherThread.setDaemon(true);
+    watcherThread.start();
+  }
+
+  /**
+   * Stops watching and releases all resources. Unreported changes are discarded.
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Exception closing watch service", e);
+    }
+    if (watcherThread != null) {
+      watcherThread.interrupt();
+    }
+  }
+
+  /**
+   * Registers a single file or directory tree watched by a command.
+   */
+  private void registerPath(String command, Path path) throws IOException {
+    Path absolute = path.toAbsolutePath().normalize();
+    if (Files.isDirectory(absolute)) {
+      registerTree(absolute, command);
+    } else {
+      WatchedDirectory parent = registerDirectory(absolute.getParent());
+      parent.fileCommands.put(absolute.getFileName(), command);
+    }
+    LOG.info(String.format("Watching %s for changes to run %s", absolute, command));
+  }
+
+  /**
+   * Registers a directory and all of its subdirectories as watched by a command.
+   */
+  private void registerTree(Path root, String command) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs)
+          throws IOException {
+        registerDirectory(directory).treeCommands.add(command);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Returns the {@link WatchedDirectory} for a directory, registering it with the watch service if
+   * this is the first time it has been seen.
+   */
+  private WatchedDirectory registerDirectory(Path directory) throws IOException {
+    WatchedDirectory watched = directories.get(directory);
+    if (watched == null) {
+      watched = new WatchedDirectory(directory);
+      WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+      directories.put(directory, watched);
+      keys.put(key, watched);
+    }
+    return watched;
+  }
+
+  /**
+   * Main loop of the watcher thread, waiting for changes or for the next notification to fall
+   * due, whichever is sooner.
+   */
+  private void watch() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Instant nextNotification = nextNotification();
+        WatchKey key;
+        if (nextNotification == null) {
+          key = watchService.take();
+        } else {
+          long waitMillis = Duration.between(clock.instant(), nextNotification).toMillis();
+          key = watchService.poll(Math.max(0, waitMillis), TimeUnit.MILLISECONDS);
+        }
+        // Process every key that is ready before considering notifications.
+        while (key != null) {
+          processKey(key);
+          key = watchService.poll();
+        }
+        notifyDueCommands();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Valid exceptions caused to initiate shutdown.
+    }
+    LOG.info("Finished watching paths");
+  }
+
+  /**
+   * Records changes for all the commands interested in the events on a key, then resets the key.
+   */
+  private void processKey(WatchKey key) {
+    WatchedDirectory watched = keys.get(key);
+    if (watched == null) {
+      key.cancel();
+      return;
+    }
+    Set<String> changed = new HashSet<>();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        // Some events were lost so assume every interested command is affected.
+        changed.addAll(watched.treeCommands);
+        changed.addAll(watched.fileCommands.values());
+        continue;
+      }
+      Path name = (Path) event.context();
+      changed.addAll(watched.treeCommands);
+      changed.addAll(watched.fileCommands.get(name));
+      Path child = watched.directory.resolve(name);
+      if (event.kind() == ENTRY_CREATE && !watched.treeCommands.isEmpty()
+          && Files.isDirectory(child)) {
+        for (String command : watched.treeCommands) {
+          try {
+            registerTree(child, command);
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Exception watching new directory " + child, e);
+          }
+        }
+      }
+    }
+    if (!key.reset()) {
+      // The directory is no longer accessible, most likely because it was deleted.
+      keys.remove(key);
+      directories.remove(watched.directory);
+    }
+    Instant now = clock.instant();
+    for (String command : changed) {
+      if (!firstChanges.containsKey(command)) {
+        firstChanges.put(command, now);
+      }
+      lastChanges.put(command, now);
+    }
+  }
+
+  /**
+   * Returns the time at which a command with unreported changes should next be notified, or null
+   * if there are no unreported changes.
+   */
+  private @Nullable Instant nextNotification() {
+    Instant earliest = null;
+    for (String command : firstChanges.keySet()) {
+      Instant due = notificationTime(command);
+      if (earliest == null || due.isBefore(earliest)) {
+        earliest = due;
+      }
+    }
+    return earliest;
+  }
+
+  /**
+   * Returns the time at which the listener should be notified of changes to a command.
+   */
+  private Instant notificationTime(String command) {
+    Instant afterQuiet = lastChanges.get(command).plus(debounce);
+    Instant afterMaxDelay = firstChanges.get(command).plus(maxDelay);
+    return afterQuiet.isBefore(afterMaxDelay) ? afterQuiet : afterMaxDelay;
+  }
+
+  /**
+   * Notifies the listener of every command whose notification time has been reached.
+   */
+  private void notifyDueCommands() {
+    Instant now = clock.instant();
+    Iterator<String> iterator = firstChanges.keySet().iterator();
+    while (iterator.hasNext()) {
+      String command = iterator.next();
+      if (!notificationTime(command).isAfter(now)) {
+        iterator.remove();
+        lastChanges.remove(command);
+        LOG.info("Watched paths have changed for " + command);
+        listener.pathsChanged(command);
+      }
+    }
+  }
+}
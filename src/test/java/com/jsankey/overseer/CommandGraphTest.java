@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.jsankey.overseer.history.ExecutionHistory;
+
+public class CommandGraphTest {
+
+  private static final String PREPARE = "prepare snapshot";
+  private static final String SYNC = "sync snapshot";
+  private static final String VERIFY = "verify sync";
+  private static final String OTHER = "unrelated command";
+  private static final ImmutableList<String> COMMANDS =
+      ImmutableList.of(PREPARE, SYNC, VERIFY, OTHER);
+  private static final ImmutableSetMultimap<String, String> CHAIN =
+      ImmutableSetMultimap.of(SYNC, PREPARE, VERIFY, SYNC);
+
+  private static final Instant T0 = Instant.ofEpochSecond(66660000);
+
+  @Test
+  public void testPrerequisitesAndDependents() {
+    CommandGraph graph = CommandGraph.of(COMMANDS, CHAIN);
+    assertThat(graph.getCommands()).isEqualTo(COMMANDS);
+    assertThat(graph.getPrerequisites(PREPARE)).isEmpty();
+    assertThat(graph.getPrerequisites(VERIFY)).isEqualTo(ImmutableSet.of(SYNC));
+    assertThat(graph.getDependents(PREPARE)).isEqualTo(ImmutableSet.of(SYNC));
+    assertThat(graph.getDependents(OTHER)).isEmpty();
+  }
+
+  @Test
+  public void testCycleRejected() {
+    try {
+      CommandGraph.of(
+          COMMANDS, ImmutableSetMultimap.of(SYNC, PREPARE, PREPARE, VERIFY, VERIFY, SYNC));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testUnknownCommandRejected() {
+    try {
+      CommandGraph.of(COMMANDS, ImmutableSetMultimap.of(SYNC, "fictional command"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testCriticalPath() {
+    ExecutionHistory history = new ExecutionHistory(Optional.<String>absent(), COMMANDS);
+    history.recordEvent(PREPARE, T0, T0.plusMillis(1000), 0);
+    history.recordEvent(SYNC, T0, T0.plusMillis(2000), 0);
+    history.recordEvent(SYNC, T0.plusMillis(2000), T0.plusMillis(6000), 0);
+    history.recordEvent(OTHER, T0, T0.plusMillis(5000), 0);
+
+    ImmutableMap<String, Long> criticalPath =
+        CommandGraph.of(COMMANDS, CHAIN).getCriticalPathMillis(history);
+    assertThat(criticalPath.get(VERIFY)).isEqualTo(0L);
+    assertThat(criticalPath.get(SYNC)).isEqualTo(3000L);
+    assertThat(criticalPath.get(PREPARE)).isEqualTo(4000L);
+    assertThat(criticalPath.get(OTHER)).isEqualTo(5000L);
+  }
+}
@@ -13,14 +13,23 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.jsankey.overseer.checks.HostPressureMonitor.Resource;
+import com.jsankey.overseer.history.ExecutionHistory.Durability;
+import com.jsankey.overseer.schedule.CronSchedule;
+import com.jsankey.overseer.schedule.IntervalSchedule;
 
 import joptsimple.OptionException;
 
@@ -31,6 +40,7 @@ public class ConfigurationTest {
   private static final String TEST_STATUS_FILE = "/home/user/.overseer";
   private static final int TEST_SOCKET = 4000;
   private static final int TEST_RUN_INTERVAL = 888;
+  private static final int TEST_MAX_PARALLEL = 3;
   private static final String COMMAND_1 = "run something --with flag";
   private static final String COMMAND_2 = "log anotherthing now";
 
@@ -42,6 +52,7 @@ public class ConfigurationTest {
         "--status_file", TEST_STATUS_FILE,
         "--run_interval", String.valueOf(TEST_RUN_INTERVAL),
         "--socket", String.valueOf(TEST_SOCKET),
+        "--max_parallel", String.valueOf(TEST_MAX_PARALLEL),
         "--command", COMMAND_1,
         "--command", COMMAND_2});
     assertThat(config.getSsid()).isEqualTo(Optional.of(TEST_SSID));
@@ -49,6 +60,7 @@ public class ConfigurationTest {
     assertThat(config.getStatusFile()).isEqualTo(Optional.of(TEST_STATUS_FILE));
     assertThat(config.getSocket()).isEqualTo(Optional.of(TEST_SOCKET));
     assertThat(config.getRunIntervalSec()).isEqualTo(TEST_RUN_INTERVAL);
+    assertThat(config.getMaxParallel()).isEqualTo(TEST_MAX_PARALLEL);
     assertThat(config.getCommands()).isEqualTo(ImmutableList.of(COMMAND_1, COMMAND_2));
     assertThat(config.isHelpRequested()).isFalse();
     assertThat(config.isVersionRequested()).isFalse();
@@ -62,6 +74,8 @@ public class ConfigurationTest {
     assertThat(config.getStatusFile()).isEqualTo(Optional.<String>absent());
     assertThat(config.getSocket()).isEqualTo(Optional.<Integer>absent());
     assertThat(config.getRunIntervalSec()).isEqualTo(300/* Default */);
+    assertThat(config.getMaxParallel()).isEqualTo(1/* Default */);
+    assertThat(config.getTerminationGrace()).isEqualTo(Duration.ofSeconds(10)/* Default */);
     assertThat(config.getCommands()).isEqualTo(ImmutableList.of(COMMAND_1));
     assertThat(config.isHelpRequested()).isFalse();
     assertThat(config.isVersionRequested()).isFalse();
@@ -87,6 +101,253 @@ public class ConfigurationTest {
     }
   }
 
+  @Test
+  public void testDuplicateCommand() {
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--command", COMMAND_2,
+          "--command", COMMAND_1});
+      fail();
+    } catch (IllegalArgumentException e){
+      assertThat(e).hasMessageThat().contains(COMMAND_1);
+    }
+  }
+
+  @Test
+  public void testNonPositiveMaxParallel() {
+    try {
+      Configuration.from(new String[]{"--max_parallel", "0", "--command", COMMAND_1});
+      fail();
+    } catch (IllegalArgumentException e){
+      // Expected
+    }
+  }
+
+  @Test
+  public void testSchedules() {
+    Configuration config = Configuration.from(new String[]{"--run_interval", "600",
+        "--command", COMMAND_1, "--command", COMMAND_2, "--schedule", "2=*/5 * * * *"});
+    assertThat(config.getSchedules().get(COMMAND_1)).isInstanceOf(IntervalSchedule.class);
+    assertThat(((IntervalSchedule) config.getSchedules().get(COMMAND_1)).getInterval())
+        .isEqualTo(Duration.ofSeconds(600));
+    assertThat(config.getSchedules().get(COMMAND_2)).isInstanceOf(CronSchedule.class);
+  }
+
+  @Test
+  public void testInvalidSchedule() {
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--schedule", "1=every tuesday"});
+      fail();
+    } catch (IllegalArgumentException e){
+      // Expected
+    }
+  }
+
+  @Test
+  public void testUnchangedExitCodes() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--command", COMMAND_2, "--unchanged_exit_code", "1=3"});
+    assertThat(config.getUnchangedExitCodes()).containsExactly(COMMAND_1, 3);
+  }
+
+  @Test
+  public void testZeroUnchangedExitCode() {
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--unchanged_exit_code", "1=0"});
+      fail();
+    } catch (IllegalArgumentException e){
+      // Expected
+    }
+  }
+
+  @Test
+  public void testWatchedPaths() throws IOException {
+    Path directory = Files.createTempDirectory("overseer-config");
+    try {
+      Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+          "--command", COMMAND_2, "--watch", "2=" + directory, "--watch_debounce", "3"});
+      assertThat(config.getWatchedPaths().get(COMMAND_2)).containsExactly(directory);
+      assertThat(config.getWatchedPaths().get(COMMAND_1)).isEmpty();
+      assertThat(config.getWatchDebounce()).isEqualTo(Duration.ofSeconds(3));
+      assertThat(config.getWatchMaxDelay()).isEqualTo(Duration.ofSeconds(60));
+    } finally {
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testMissingWatchedPath() {
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--watch", "1=/no/such/path"});
+      fail();
+    } catch (IllegalArgumentException e){
+      // Expected
+    }
+  }
+
+  @Test
+  public void testOutputOptions() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--capture_output_kb", "4", "--stream_output", "--output_log_dir", "/var/log/overseer",
+        "--output_log_budget_mb", "10"});
+    assertThat(config.getCaptureOutputBytes()).isEqualTo(4096);
+    assertThat(config.isStreamingOutput()).isTrue();
+    assertThat(config.getOutputLogDir().get().toString()).isEqualTo("/var/log/overseer");
+    assertThat(config.getOutputLogMaxAge()).isEqualTo(Duration.ofDays(30));
+    assertThat(config.getOutputLogBudgetBytes()).isEqualTo(10L * 1024 * 1024);
+  }
+
+  @Test
+  public void testWorkers() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--command", COMMAND_2, "--worker", "2"});
+    assertThat(config.getWorkerCommands()).containsExactly(COMMAND_2);
+  }
+
+  @Test
+  public void testWorkersWithStoredOutput() {
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--worker", "1",
+          "--output_log_dir", "/var/log/overseer"});
+      fail();
+    } catch (IllegalArgumentException e){
+      assertThat(e).hasMessageThat().contains(COMMAND_1);
+    }
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--worker", "1",
+          "--capture_output_kb", "4"});
+      fail();
+    } catch (IllegalArgumentException e){
+      assertThat(e).hasMessageThat().contains(COMMAND_1);
+    }
+  }
+
+  @Test
+  public void testTerminationGrace() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--termination_grace", "3"});
+    assertThat(config.getTerminationGrace()).isEqualTo(Duration.ofSeconds(3));
+  }
+
+  @Test
+  public void testTimeouts() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--command", COMMAND_2, "--command_timeout", "2=5"});
+    assertThat(config.getTimeouts()).containsExactly(COMMAND_2, Duration.ofSeconds(5));
+
+    config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--command", COMMAND_2, "--timeout", "60", "--command_timeout", "2=0"});
+    assertThat(config.getTimeouts()).containsExactly(COMMAND_1, Duration.ofSeconds(60));
+  }
+
+  @Test
+  public void testNoTimeoutsByDefault() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1});
+    assertThat(config.getTimeouts()).isEmpty();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeCommandTimeout() {
+    Configuration.from(new String[]{"--command", COMMAND_1, "--command_timeout", "1=-1"});
+  }
+
+  @Test
+  public void testResourceClasses() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--command", COMMAND_2, "--resource_class", "background=nice=10,cpu_weight=20",
+        "--command_class", "2=background", "--cgroup_root", "/sys/fs/cgroup/overseer"});
+    assertThat(config.getResourceClasses().keySet()).containsExactly(COMMAND_2);
+    assertThat(config.getResourceClasses().get(COMMAND_2).getNice().get()).isEqualTo(10);
+    assertThat(config.getCgroupRoot().get().toString()).isEqualTo("/sys/fs/cgroup/overseer");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownResourceClass() {
+    Configuration.from(new String[]{"--command", COMMAND_1, "--command_class", "1=missing"});
+  }
+
+  @Test
+  public void testHostPressure() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--max_pressure", "io=20", "--max_pressure", "cpu=12.5", "--max_load", "4",
+        "--max_pressure_deferral", "600"});
+    assertThat(config.getMaxPressure()).containsExactly(Resource.IO, 20.0, Resource.CPU, 12.5);
+    assertThat(config.getMaxLoad()).hasValue(4.0);
+    assertThat(config.getMaxPressureDeferral()).isEqualTo(Duration.ofSeconds(600));
+
+    config = Configuration.from(new String[]{"--command", COMMAND_1});
+    assertThat(config.getMaxPressure()).isEmpty();
+    assertThat(config.getMaxLoad()).isAbsent();
+    assertThat(config.getMaxPressureDeferral()).isEqualTo(Duration.ofMinutes(30)/* Default */);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownPressureResource() {
+    Configuration.from(new String[]{"--command", COMMAND_1, "--max_pressure", "network=10"});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPressureAboveHundredPercent() {
+    Configuration.from(new String[]{"--command", COMMAND_1, "--max_pressure", "cpu=150"});
+  }
+
+  @Test
+  public void testHistoryDurability() {
+    assertThat(Configuration.from(new String[]{"--command", COMMAND_1}).getHistoryDurability())
+        .isEqualTo(Durability.BATCHED/* Default */);
+    Configuration config = Configuration.from(
+        new String[]{"--command", COMMAND_1, "--history_durability", "every_event"});
+    assertThat(config.getHistoryDurability()).isEqualTo(Durability.EVERY_EVENT);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownHistoryDurability() {
+    Configuration.from(new String[]{"--command", COMMAND_1, "--history_durability", "always"});
+  }
+
+  @Test
+  public void testConditions() {
+    Configuration config = Configuration.from(new String[]{"--command", COMMAND_1,
+        "--command", COMMAND_2, "--condition", "2=ac_power & wifi:Home"});
+    assertThat(config.getConditions().keySet()).containsExactly(COMMAND_2);
+    assertThat(config.getConditions().get(COMMAND_2).toString())
+        .isEqualTo("(ac_power & wifi:Home)");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCondition() {
+    Configuration.from(new String[]{"--command", COMMAND_1, "--condition", "1=ac_power &"});
+  }
+
+  @Test
+  public void testDependencies() {
+    Configuration config = Configuration.from(new String[]{
+        "--command", COMMAND_1, "--command", COMMAND_2, "--depends_on", "2=1"});
+    assertThat(config.getCommandGraph().getPrerequisites(COMMAND_2))
+        .isEqualTo(ImmutableSet.of(COMMAND_1));
+    assertThat(config.getCommandGraph().getPrerequisites(COMMAND_1)).isEmpty();
+  }
+
+  @Test
+  public void testDependencyOnUnknownCommand() {
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--depends_on", "1=2"});
+      fail();
+    } catch (IllegalArgumentException e){
+      // Expected
+    }
+  }
+
+  @Test
+  public void testCyclicDependencies() {
+    try {
+      Configuration.from(new String[]{"--command", COMMAND_1, "--command", COMMAND_2,
+          "--depends_on", "1=2", "--depends_on", "2=1"});
+      fail();
+    } catch (IllegalArgumentException e){
+      // Expected
+    }
+  }
+
   @Test
   public void testNoCommands() {
     try {
@@ -113,13 +374,12 @@ public class ConfigurationTest {
 
   @Test
   public void testHelpOutput() throws IOException {
-    OutputStream mockStream = mock(OutputStream.class);
-    ArgumentCaptor<byte[]> writtenHelp = ArgumentCaptor.forClass(byte[].class);
+    // The help is long enough to be written in several chunks, so collect all of them.
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
 
-    Configuration.printHelpOn(mockStream);
+    Configuration.printHelpOn(stream);
 
-    verify(mockStream).write(writtenHelp.capture(), anyInt(), anyInt());
-    String actual = new String(writtenHelp.getValue());
+    String actual = new String(stream.toByteArray());
     assertThat(actual).contains("--run_interval <Integer>");
     assertThat(actual).contains("Optional file to cache and restore command");
   }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.jsankey.overseer.Executive.Status;
+
+public class ExecutiveSnapshotTest {
+
+  private static final ImmutableList<String> ACTIVE = ImmutableList.of("command one");
+  private static final Optional<Instant> NEXT_RUN = Optional.of(Instant.ofEpochMilli(12345678L));
+
+  private final ExecutiveSnapshot initial =
+      ExecutiveSnapshot.of(3, Status.RUNNING, ACTIVE, NEXT_RUN, Optional.<String>absent());
+
+  @Test
+  public void testUnchangedUpdateKeepsVersion() {
+    assertThat(initial.update(Status.RUNNING, ImmutableList.copyOf(ACTIVE), NEXT_RUN,
+        Optional.<String>absent())).isSameInstanceAs(initial);
+  }
+
+  @Test
+  public void testChangedUpdateIncrementsVersion() {
+    ExecutiveSnapshot updated = initial.update(Status.BLOCKED_ON_WIFI, ImmutableList.<String>of(),
+        NEXT_RUN, Optional.of("no wifi"));
+    assertThat(updated.getVersion()).isEqualTo(4);
+    assertThat(updated.getStatus()).isEqualTo(Status.BLOCKED_ON_WIFI);
+    assertThat(updated.getActiveCommands()).isEmpty();
+    assertThat(updated.getNextRun()).isEqualTo(NEXT_RUN);
+    assertThat(updated.getBlockedReason()).hasValue("no wifi");
+  }
+}
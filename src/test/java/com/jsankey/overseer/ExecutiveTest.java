@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+import com.jsankey.overseer.checks.HostPressureMonitor;
+import com.jsankey.overseer.checks.WifiStatusChecker;
+import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.history.ExecutionHistory;
+
+public class ExecutiveTest {
+
+  private static final String TIMED_COMMAND = "sleep 30";
+  private static final String GATED_COMMAND = "true";
+  private static final String SSID = "test-network";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private AtomicBoolean connected;
+  private WifiStatusChecker wifiStatus;
+  private Executive executive;
+
+  @Before
+  public void setUp() {
+    connected = new AtomicBoolean(true);
+    wifiStatus = mock(WifiStatusChecker.class);
+    when(wifiStatus.connected()).thenAnswer(invocation -> connected.get());
+    when(wifiStatus.getTargetSsid()).thenReturn(SSID);
+  }
+
+  @After
+  public void tearDown() {
+    if (executive != null && executive.getStatus() != Executive.Status.TERMINATED) {
+      executive.terminate();
+    }
+  }
+
+  private ImmutableList<CommandEvent> events(String command) {
+    return executive.getHistory().getCommandHistory(command);
+  }
+
+  /** Waits until every supplied command has completed at least once. */
+  private void awaitEvents(String... commands) throws InterruptedException {
+    for (String command : commands) {
+      while (events(command).isEmpty()) {
+        TimeUnit.MILLISECONDS.sleep(20);
+      }
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testRunsNoMoreThanMaxParallel() throws Exception {
+    ImmutableList<String> commands = ImmutableList.of("sleep 0.5", "sleep 0.6", "sleep 0.7");
+    Configuration config = Configuration.from(new String[]{
+        "--command", commands.get(0),
+        "--command", commands.get(1),
+        "--command", commands.get(2),
+        "--max_parallel", "2"});
+    executive = Executive.from(config, null);
+    executive.beginOnNewThread();
+
+    int mostActive = 0;
+    while (events(commands.get(0)).isEmpty() || events(commands.get(1)).isEmpty()
+        || events(commands.get(2)).isEmpty()) {
+      mostActive = Math.max(mostActive, executive.getActiveCommands().size());
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    assertThat(mostActive).isEqualTo(2);
+    // All were due together, so the last only started once one of the others had finished.
+    List<CommandEvent> runs = new ArrayList<>();
+    for (String command : commands) {
+      runs.add(events(command).get(0));
+    }
+    runs.sort((a, b) -> a.getStart().compareTo(b.getStart()));
+    assertThat(runs.get(1).getStart()).isLessThan(runs.get(0).getEnd());
+    assertThat(runs.get(2).getStart()).isAtLeast(
+        Ordering.natural().min(runs.get(0).getEnd(), runs.get(1).getEnd()));
+  }
+
+  @Test(timeout = 20000)
+  public void testStartsDependentAfterPrerequisiteSucceeds() throws Exception {
+    Configuration config = Configuration.from(new String[]{
+        "--command", "sleep 0.3",
+        "--command", GATED_COMMAND,
+        "--depends_on", "2=1",
+        "--max_parallel", "2"});
+    executive = Executive.from(config, null);
+    executive.beginOnNewThread();
+
+    awaitEvents("sleep 0.3", GATED_COMMAND);
+    assertThat(events(GATED_COMMAND).get(0).getStart())
+        .isAtLeast(events("sleep 0.3").get(0).getEnd());
+  }
+
+  @Test(timeout = 20000)
+  public void testSkipsDependentWhenPrerequisiteFails() throws Exception {
+    Configuration config = Configuration.from(new String[]{
+        "--command", "false",
+        "--command", GATED_COMMAND,
+        "--depends_on", "2=1",
+        "--max_parallel", "2"});
+    executive = Executive.from(config, null);
+    executive.beginOnNewThread();
+
+    awaitEvents("false");
+    TimeUnit.MILLISECONDS.sleep(500);
+    assertThat(events(GATED_COMMAND)).isEmpty();
+    assertThat(executive.getActiveCommands()).doesNotContain(GATED_COMMAND);
+  }
+
+  @Test(timeout = 20000)
+  public void testDefersStartUnderPressureUntilMaximumDeferral() throws Exception {
+    HostPressureMonitor pressure = mock(HostPressureMonitor.class);
+    when(pressure.excessivePressure()).thenReturn(Optional.of("cpu pressure above 10%"));
+    Configuration config = Configuration.from(new String[]{
+        "--command", GATED_COMMAND,
+        "--max_pressure", "cpu=10",
+        "--max_pressure_deferral", "1"});
+    executive = Executive.from(config, null, pressure);
+    Instant begin = Instant.now();
+    executive.beginOnNewThread();
+
+    while (executive.getStatus() != Executive.Status.BLOCKED_ON_PRESSURE) {
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+    assertThat(executive.getSnapshot().getBlockedReason())
+        .hasValue("Deferring commands while cpu pressure above 10%");
+    assertThat(events(GATED_COMMAND)).isEmpty();
+
+    // Once deferred for the maximum the command starts despite the pressure.
+    awaitEvents(GATED_COMMAND);
+    assertThat(events(GATED_COMMAND).get(0).getStart()).isAtLeast(begin.plusSeconds(1));
+  }
+
+  @Test(timeout = 20000)
+  public void testFailingConditionDoesNotBlockOtherCommands() throws Exception {
+    String conditional = "echo conditional";
+    Configuration config = Configuration.from(new String[]{
+        "--command", conditional,
+        "--command", GATED_COMMAND,
+        "--condition", "1=disk_free:/:1000000000000",
+        "--schedule", "2=1"});
+    executive = Executive.from(config, null);
+    executive.beginOnNewThread();
+
+    // The other command keeps running on its schedule while the condition fails.
+    while (events(GATED_COMMAND).size() < 2) {
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+    assertThat(events(conditional)).isEmpty();
+    assertThat(executive.getActiveCommands()).doesNotContain(conditional);
+  }
+
+  @Test(timeout = 20000)
+  public void testTimesOutCommandWhileWaitingForWifi() throws Exception {
+    Configuration config = Configuration.from(new String[]{
+        "--command", TIMED_COMMAND,
+        "--command", GATED_COMMAND,
+        "--command_timeout", "1=2",
+        "--schedule", "2=1",
+        "--max_parallel", "2",
+        "--ssid", SSID});
+    executive = Executive.from(config, wifiStatus);
+    executive.beginOnNewThread();
+
+    // Lose the wifi once both commands have started, before the gated command is due again.
+    while (!executive.getActiveCommands().contains(TIMED_COMMAND)
+        || events(GATED_COMMAND).isEmpty()) {
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+    connected.set(false);
+
+    // The timed command is still terminated while the gated command waits for the wifi.
+    while (events(TIMED_COMMAND).isEmpty()) {
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+    assertThat(Iterables.getLast(events(TIMED_COMMAND)).getExitCode())
+        .isEqualTo(CommandEvent.TIMED_OUT);
+    assertThat(events(GATED_COMMAND)).hasSize(1);
+    assertThat(executive.getStatus()).isEqualTo(Executive.Status.BLOCKED_ON_WIFI);
+    assertThat(executive.getSnapshot().getBlockedReason())
+        .hasValue("Waiting for wifi SSID " + SSID);
+  }
+
+  @Test
+  public void testResumesAdaptiveScheduleAtRecordedInterval() throws Exception {
+    String statusFile = tempFolder.getRoot().toPath().resolve("status").toString();
+    Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    Duration interval = Duration.ofSeconds(240);
+    ExecutionHistory history =
+        new ExecutionHistory(Optional.of(statusFile), ImmutableList.of(GATED_COMMAND));
+    history.recordEvent(GATED_COMMAND,
+        new CommandEvent(start, start.plusSeconds(1), 0).withScheduledInterval(interval));
+    history.close();
+
+    Configuration config = Configuration.from(new String[]{
+        "--command", GATED_COMMAND,
+        "--schedule", "1=60..600",
+        "--status_file", statusFile});
+    executive = Executive.from(config, null);
+
+    // The interval chosen when the command completed is not adapted again on restart.
+    assertThat(executive.getSnapshot().getNextRun()).hasValue(start.plus(interval));
+    executive.getHistory().close();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.jsankey.overseer.Executive.OutputSubscriber;
+import com.jsankey.overseer.runner.OutputListener.Stream;
+
+public class OutputBroadcasterTest {
+
+  private static final String COMMAND = "sync";
+  private static final Duration FRAME_INTERVAL = Duration.ofMillis(200);
+  private static final int MAX_PENDING_BYTES = 16;
+
+  private final OutputBroadcaster broadcaster = new OutputBroadcaster(
+      Executors.newSingleThreadScheduledExecutor(), Executors.newCachedThreadPool(),
+      FRAME_INTERVAL, MAX_PENDING_BYTES);
+
+  /** Subscriber that records received frames, optionally blocking on the first. */
+  private static class RecordingSubscriber implements OutputSubscriber {
+    final BlockingQueue<OutputFrame> received = new LinkedBlockingQueue<>();
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release;
+
+    RecordingSubscriber(boolean blocking) {
+      release = new CountDownLatch(blocking ? 1 : 0);
+    }
+
+    @Override
+    public void receiveOutput(OutputFrame frame) {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      received.add(frame);
+    }
+
+    OutputFrame next() throws InterruptedException {
+      return received.poll(5, TimeUnit.SECONDS);
+    }
+  }
+
+  private void write(Stream stream, String text) {
+    // Pad the array to check the offset and length are honored.
+    byte[] bytes = ("xx" + text + "xx").getBytes(StandardCharsets.UTF_8);
+    broadcaster.receiveOutput(COMMAND, stream, bytes, 2, bytes.length - 4);
+  }
+
+  @Test(timeout = 5000)
+  public void testBatchesOutputIntoFrames() throws Exception {
+    RecordingSubscriber subscriber = new RecordingSubscriber(false);
+    broadcaster.subscribe(subscriber);
+    write(Stream.STDOUT, "ab");
+    write(Stream.STDOUT, "cd");
+    write(Stream.STDERR, "ef");
+
+    OutputFrame frame = subscriber.next();
+    assertThat(frame.getChunks()).hasSize(2);
+    assertThat(frame.getChunks().get(0).getCommand()).isEqualTo(COMMAND);
+    assertThat(frame.getChunks().get(0).getStream()).isEqualTo(Stream.STDOUT);
+    assertThat(frame.getChunks().get(0).getText()).isEqualTo("abcd");
+    assertThat(frame.getChunks().get(1).getStream()).isEqualTo(Stream.STDERR);
+    assertThat(frame.getChunks().get(1).getText()).isEqualTo("ef");
+    assertThat(frame.getSkippedBytes()).isEqualTo(0);
+  }
+
+  @Test(timeout = 5000)
+  public void testJoinsCharacterSplitBetweenWrites() throws Exception {
+    RecordingSubscriber subscriber = new RecordingSubscriber(false);
+    broadcaster.subscribe(subscriber);
+    byte[] bytes = "a\u20acb".getBytes(StandardCharsets.UTF_8);
+    broadcaster.receiveOutput(COMMAND, Stream.STDOUT, bytes, 0, 2);
+    broadcaster.receiveOutput(COMMAND, Stream.STDOUT, bytes, 2, bytes.length - 2);
+
+    OutputFrame frame = subscriber.next();
+    assertThat(frame.getChunks()).hasSize(1);
+    assertThat(frame.getChunks().get(0).getText()).isEqualTo("a\u20acb");
+  }
+
+  @Test(timeout = 5000)
+  public void testSlowSubscriberSkipsAhead() throws Exception {
+    RecordingSubscriber slow = new RecordingSubscriber(true);
+    RecordingSubscriber fast = new RecordingSubscriber(false);
+    broadcaster.subscribe(slow);
+    broadcaster.subscribe(fast);
+    write(Stream.STDOUT, "first");
+    assertThat(slow.entered.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(fast.next().getChunks().get(0).getText()).isEqualTo("first");
+
+    // Output beyond the pending limit while the slow subscriber is busy discards the oldest.
+    for (int i = 1; i <= 5; i++) {
+      write(Stream.STDOUT, "chunk " + i + "\n");
+    }
+    assertThat(fast.next().getChunks().get(0).getText())
+        .isEqualTo("chunk 1\nchunk 2\nchunk 3\nchunk 4\nchunk 5\n".substring(24));
+    slow.release.countDown();
+    assertThat(slow.next().getChunks().get(0).getText()).isEqualTo("first");
+    OutputFrame skipped = slow.next();
+    assertThat(skipped.getChunks().get(0).getText()).isEqualTo("chunk 4\nchunk 5\n");
+    assertThat(skipped.getSkippedBytes()).isEqualTo(24);
+  }
+
+  @Test(timeout = 5000)
+  public void testUnsubscribe() throws Exception {
+    RecordingSubscriber removed = new RecordingSubscriber(false);
+    RecordingSubscriber remaining = new RecordingSubscriber(false);
+    broadcaster.subscribe(removed);
+    broadcaster.subscribe(remaining);
+    broadcaster.unsubscribe(removed);
+    write(Stream.STDOUT, "ab");
+
+    assertThat(remaining.next().getChunks()).hasSize(1);
+    assertThat(removed.received).isEmpty();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.jsankey.overseer.Executive.Status;
+import com.jsankey.overseer.Executive.StatusListener;
+
+public class StatusDispatcherTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  private final StatusDispatcher dispatcher = StatusDispatcher.create();
+
+  /** Listener that records received statuses, optionally blocking on the first. */
+  private static class RecordingListener implements StatusListener {
+    final List<Status> received = new CopyOnWriteArrayList<>();
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release;
+
+    RecordingListener(boolean blocking) {
+      release = new CountDownLatch(blocking ? 1 : 0);
+    }
+
+    @Override
+    public void receiveStatus(Status status) {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      received.add(status);
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testDeliversInOrder() throws Exception {
+    RecordingListener listener = new RecordingListener(false);
+    dispatcher.register(listener);
+    dispatcher.publish(Status.RUNNING);
+    assertThat(dispatcher.awaitDelivery(TIMEOUT)).isTrue();
+    dispatcher.publish(Status.IDLE);
+    assertThat(dispatcher.awaitDelivery(TIMEOUT)).isTrue();
+    assertThat(listener.received).containsExactly(Status.RUNNING, Status.IDLE).inOrder();
+  }
+
+  @Test(timeout = 5000)
+  public void testSlowListenerCoalescesAndDoesNotBlockOthers() throws Exception {
+    RecordingListener slow = new RecordingListener(true);
+    RecordingListener fast = new RecordingListener(false);
+    dispatcher.register(slow);
+    dispatcher.register(fast);
+
+    dispatcher.publish(Status.RUNNING);
+    assertThat(slow.entered.await(5, TimeUnit.SECONDS)).isTrue();
+    dispatcher.publish(Status.IDLE);
+    dispatcher.publish(Status.FAILURE);
+    dispatcher.publish(Status.TERMINATED);
+    // The fast listener receives the latest status while the slow listener is still blocked.
+    while (!fast.received.contains(Status.TERMINATED)) {
+      Thread.sleep(10);
+    }
+    assertThat(dispatcher.awaitDelivery(Duration.ofMillis(100))).isFalse();
+
+    slow.release.countDown();
+    assertThat(dispatcher.awaitDelivery(TIMEOUT)).isTrue();
+    assertThat(slow.received).containsExactly(Status.RUNNING, Status.TERMINATED).inOrder();
+    assertThat(Iterables.getLast(fast.received)).isEqualTo(Status.TERMINATED);
+  }
+
+  @Test(timeout = 5000)
+  public void testUnregister() throws Exception {
+    RecordingListener listener = new RecordingListener(false);
+    dispatcher.register(listener);
+    dispatcher.unregister(listener);
+    dispatcher.publish(Status.RUNNING);
+    assertThat(dispatcher.awaitDelivery(TIMEOUT)).isTrue();
+    assertThat(listener.received).isEmpty();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDoubleRegister() {
+    RecordingListener listener = new RecordingListener(false);
+    dispatcher.register(listener);
+    dispatcher.register(listener);
+  }
+}
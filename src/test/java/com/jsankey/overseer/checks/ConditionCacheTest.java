@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class ConditionCacheTest {
+
+  private static final Duration TTL = Duration.ofSeconds(10);
+  private static final Instant TIME_1 = Instant.ofEpochSecond(1000);
+  private static final Instant TIME_STALE = TIME_1.plus(TTL);
+  private static final Instant TIME_EXPIRED = TIME_1.plus(TTL).plus(TTL);
+
+  private Clock clock;
+
+  @Before
+  public void setUp() {
+    clock = mock(Clock.class);
+    when(clock.instant()).thenReturn(TIME_1);
+  }
+
+  /** Condition that counts its evaluations and may block until released. */
+  private static class CountingCondition implements Condition {
+    private final AtomicInteger evaluations = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release;
+    private volatile boolean satisfied = true;
+
+    private CountingCondition(boolean block) {
+      this.release = new CountDownLatch(block ? 1 : 0);
+    }
+
+    @Override
+    public boolean isSatisfied() {
+      evaluations.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return satisfied;
+    }
+
+    @Override
+    public Duration getCost() {
+      return Duration.ofMillis(5);
+    }
+
+    @Override
+    public Duration getCacheTtl() {
+      return TTL;
+    }
+
+    @Override
+    public String toString() {
+      return "counting";
+    }
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    ConditionCache cache = new ConditionCache(clock, MoreExecutors.directExecutor());
+    CountingCondition condition = new CountingCondition(false);
+    assertThat(cache.get(condition)).isTrue();
+    assertThat(cache.isFresh(condition)).isTrue();
+    assertThat(cache.get(condition)).isTrue();
+
+    ConditionCache.Stats stats = cache.getStats().get("counting");
+    assertThat(stats.getMisses()).isEqualTo(1);
+    assertThat(stats.getHits()).isEqualTo(1);
+    assertThat(stats.getProbes()).isEqualTo(1);
+    assertThat(stats.getSatisfied()).hasValue(true);
+    assertThat(condition.evaluations.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testConcurrentMissesShareProbe() throws Exception {
+    ConditionCache cache = new ConditionCache(clock, MoreExecutors.directExecutor());
+    CountingCondition condition = new CountingCondition(true);
+    List<Thread> threads = new ArrayList<>();
+    AtomicInteger satisfied = new AtomicInteger();
+    for (int i = 0; i < 5; i++) {
+      threads.add(new Thread(() -> {
+        if (cache.get(condition)) {
+          satisfied.incrementAndGet();
+        }
+      }));
+    }
+    threads.get(0).start();
+    assertThat(condition.started.await(5, TimeUnit.SECONDS)).isTrue();
+    for (Thread thread : threads.subList(1, threads.size())) {
+      thread.start();
+    }
+    // Wait until every other thread has joined the running probe.
+    while (cache.getStats().get("counting").getJoins() < threads.size() - 1) {
+      Thread.sleep(5);
+    }
+    condition.release.countDown();
+    for (Thread thread : threads) {
+      thread.join(5000);
+    }
+
+    assertThat(satisfied.get()).isEqualTo(threads.size());
+    assertThat(condition.evaluations.get()).isEqualTo(1);
+    ConditionCache.Stats stats = cache.getStats().get("counting");
+    assertThat(stats.getMisses()).isEqualTo(threads.size());
+    assertThat(stats.getJoins()).isEqualTo(threads.size() - 1);
+    assertThat(stats.getMaxProbeTime()).isGreaterThan(Duration.ZERO);
+  }
+
+  @Test
+  public void testStaleResultRefreshedInBackground() {
+    List<Runnable> refreshes = new ArrayList<>();
+    Executor executor = refreshes::add;
+    ConditionCache cache = new ConditionCache(clock, executor);
+    CountingCondition condition = new CountingCondition(false);
+    assertThat(cache.get(condition)).isTrue();
+
+    condition.satisfied = false;
+    when(clock.instant()).thenReturn(TIME_STALE);
+    assertThat(cache.get(condition)).isTrue();
+    assertThat(cache.get(condition)).isTrue();
+    // Only one refresh is started however often the stale result is used.
+    assertThat(refreshes).hasSize(1);
+    assertThat(condition.evaluations.get()).isEqualTo(1);
+
+    refreshes.get(0).run();
+    assertThat(cache.get(condition)).isFalse();
+    ConditionCache.Stats stats = cache.getStats().get("counting");
+    assertThat(stats.getStaleHits()).isEqualTo(2);
+    assertThat(stats.getHits()).isEqualTo(1);
+    assertThat(stats.getProbes()).isEqualTo(2);
+  }
+
+  @Test
+  public void testExpiredResultNotUsed() {
+    ConditionCache cache = new ConditionCache(clock, MoreExecutors.directExecutor());
+    CountingCondition condition = new CountingCondition(false);
+    assertThat(cache.get(condition)).isTrue();
+
+    condition.satisfied = false;
+    when(clock.instant()).thenReturn(TIME_EXPIRED);
+    assertThat(cache.isFresh(condition)).isFalse();
+    assertThat(cache.get(condition)).isFalse();
+    assertThat(cache.getStats().get("counting").getMisses()).isEqualTo(2);
+  }
+
+  @Test
+  public void testExceptionIsNotSatisfied() {
+    ConditionCache cache = new ConditionCache(clock, MoreExecutors.directExecutor());
+    Condition failing = new CountingCondition(false) {
+      @Override
+      public boolean isSatisfied() {
+        throw new IllegalStateException("probe failed");
+      }
+    };
+    assertThat(cache.get(failing)).isFalse();
+    assertThat(cache.getStats().get("counting").getSatisfied()).hasValue(false);
+  }
+
+  @Test
+  public void testInvalidateDiscardsProbeInProgress() throws Exception {
+    ConditionCache cache = new ConditionCache(clock, MoreExecutors.directExecutor());
+    // The first evaluation observes the state before the change and blocks until released.
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean first = new AtomicBoolean(true);
+    CountingCondition condition = new CountingCondition(false) {
+      @Override
+      public boolean isSatisfied() {
+        boolean isFirst = first.getAndSet(false);
+        super.isSatisfied();
+        if (isFirst) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return true;
+        }
+        return false;
+      }
+    };
+    Thread early = new Thread(() -> cache.get(condition));
+    early.start();
+    assertThat(condition.started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    cache.invalidate();
+    // Later requests evaluate again rather than waiting for the earlier evaluation.
+    assertThat(cache.get(condition)).isFalse();
+    release.countDown();
+    early.join(5000);
+
+    assertThat(cache.get(condition)).isFalse();
+    ConditionCache.Stats stats = cache.getStats().get("counting");
+    assertThat(stats.getJoins()).isEqualTo(0);
+    assertThat(stats.getProbes()).isEqualTo(2);
+    assertThat(stats.getHits()).isEqualTo(1);
+    assertThat(stats.getSatisfied()).hasValue(false);
+  }
+}
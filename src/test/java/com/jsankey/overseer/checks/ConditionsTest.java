@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class ConditionsTest {
+
+  private static final Instant TIME_1 = Instant.ofEpochSecond(1000);
+
+  private Clock clock;
+  private ConditionCache cache;
+  private List<String> evaluated;
+
+  @Before
+  public void setUp() {
+    clock = mock(Clock.class);
+    when(clock.instant()).thenReturn(TIME_1);
+    cache = new ConditionCache(clock, MoreExecutors.directExecutor());
+    evaluated = new ArrayList<>();
+  }
+
+  /** Condition with a fixed result that records each evaluation. */
+  private class FakeCondition implements Condition {
+    private final String name;
+    private final long costMillis;
+    private boolean satisfied;
+
+    private FakeCondition(String name, long costMillis, boolean satisfied) {
+      this.name = name;
+      this.costMillis = costMillis;
+      this.satisfied = satisfied;
+    }
+
+    @Override
+    public boolean isSatisfied() {
+      evaluated.add(name);
+      return satisfied;
+    }
+
+    @Override
+    public Duration getCost() {
+      return Duration.ofMillis(costMillis);
+    }
+
+    @Override
+    public Duration getCacheTtl() {
+      return Duration.ofSeconds(costMillis);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  @Test
+  public void testAllEvaluatesCheapestFirst() {
+    Condition condition = CompositeCondition.all(ImmutableList.<Condition>of(
+        new FakeCondition("expensive", 100, false), new FakeCondition("cheap", 1, false)));
+    assertThat(condition.isSatisfied()).isFalse();
+    assertThat(evaluated).containsExactly("cheap");
+  }
+
+  @Test
+  public void testAllEvaluatesEveryOperandWhenSatisfied() {
+    Condition condition = CompositeCondition.all(ImmutableList.<Condition>of(
+        new FakeCondition("expensive", 100, true), new FakeCondition("cheap", 1, true)));
+    assertThat(condition.isSatisfied()).isTrue();
+    assertThat(evaluated).containsExactly("cheap", "expensive").inOrder();
+    assertThat(condition.getCost()).isEqualTo(Duration.ofMillis(101));
+    assertThat(condition.getCacheTtl()).isEqualTo(Duration.ofSeconds(1));
+  }
+
+  @Test
+  public void testAnyStopsAtFirstSatisfied() {
+    Condition condition = CompositeCondition.any(ImmutableList.<Condition>of(
+        new FakeCondition("expensive", 100, true),
+        new FakeCondition("medium", 10, true),
+        new FakeCondition("cheap", 1, false)));
+    assertThat(condition.isSatisfied()).isTrue();
+    assertThat(evaluated).containsExactly("cheap", "medium").inOrder();
+  }
+
+  @Test
+  public void testCachedResultIsFree() {
+    FakeCondition expensive = new FakeCondition("expensive", 100, true);
+    CachedCondition cached = CachedCondition.of(expensive, cache);
+    assertThat(cached.getCost()).isEqualTo(Duration.ofMillis(100));
+    assertThat(cached.isSatisfied()).isTrue();
+    assertThat(cached.getCost()).isEqualTo(Duration.ZERO);
+
+    // A cached expensive result is used ahead of an uncached cheap condition.
+    evaluated.clear();
+    Condition condition = CompositeCondition.any(
+        ImmutableList.<Condition>of(new FakeCondition("cheap", 1, true), cached));
+    assertThat(condition.isSatisfied()).isTrue();
+    assertThat(evaluated).isEmpty();
+  }
+
+  @Test
+  public void testSharesResultsOfEqualConditions() {
+    Condition first = CachedCondition.of(new FakeCondition("same", 2, true), cache);
+    Condition second = CachedCondition.of(new FakeCondition("same", 2, true), cache);
+    assertThat(first.isSatisfied()).isTrue();
+    assertThat(second.isSatisfied()).isTrue();
+    assertThat(second.getCost()).isEqualTo(Duration.ZERO);
+    assertThat(evaluated).hasSize(1);
+  }
+
+  @Test
+  public void testParseTerms() {
+    assertThat(Conditions.parseTerm("ac_power")).isInstanceOf(AcPowerCondition.class);
+    assertThat(Conditions.parseTerm("unmetered")).isInstanceOf(UnmeteredCondition.class);
+    assertThat(Conditions.parseTerm("wifi:Home Network").toString())
+        .isEqualTo("wifi:Home Network");
+    assertThat(Conditions.parseTerm("disk_free:/mnt/a:b:500").toString())
+        .isEqualTo("disk_free:/mnt/a:b:500");
+    assertThat(Conditions.parseTerm("reachable:backup.example.com:22").toString())
+        .isEqualTo("reachable:backup.example.com:22");
+  }
+
+  @Test
+  public void testParseExpression() {
+    Condition condition =
+        Conditions.parse("ac_power & (wifi:Home | reachable:vpn:443) & disk_free:/:1", cache);
+    assertThat(condition.toString())
+        .isEqualTo("(ac_power & (wifi:Home | reachable:vpn:443) & disk_free:/:1)");
+    assertThat(Conditions.parse("ac_power | unmetered & disk_free:/:1", cache).toString())
+        .isEqualTo("(ac_power | (unmetered & disk_free:/:1))");
+    assertThat(Conditions.parse("ac_power", cache)).isInstanceOf(CachedCondition.class);
+  }
+
+  @Test
+  public void testDiskFree() {
+    assertThat(Conditions.parseTerm("disk_free:/:0").isSatisfied()).isTrue();
+    assertThat(Conditions.parseTerm("disk_free:/:" + Long.MAX_VALUE / (1 << 21)).isSatisfied())
+        .isFalse();
+    assertThat(Conditions.parseTerm("disk_free:/does/not/exist:0").isSatisfied()).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownTerm() {
+    Conditions.parse("on_fire", cache);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingParenthesis() {
+    Conditions.parse("(ac_power | unmetered", cache);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingTerm() {
+    Conditions.parse("ac_power &", cache);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingPort() {
+    Conditions.parse("reachable:example.com", cache);
+  }
+}
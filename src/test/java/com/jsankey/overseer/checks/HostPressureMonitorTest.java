@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.jsankey.overseer.checks.HostPressureMonitor.Resource;
+
+public class HostPressureMonitorTest {
+
+  private static final Instant TIME_1 = Instant.ofEpochSecond(1000);
+  private static final Instant TIME_2 = TIME_1.plus(HostPressureMonitor.CHECK_INTERVAL);
+
+  private Path procRoot;
+  private Clock clock;
+
+  @Before
+  public void setUp() throws IOException {
+    procRoot = Files.createTempDirectory("overseer-proc");
+    Files.createDirectory(procRoot.resolve("pressure"));
+    clock = mock(Clock.class);
+    when(clock.instant()).thenReturn(TIME_1);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(procRoot, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  private void writePressure(String resource, double someAvg10) throws IOException {
+    Files.write(procRoot.resolve("pressure").resolve(resource), ImmutableList.of(
+        String.format("some avg10=%.2f avg60=1.00 avg300=0.50 total=123456", someAvg10),
+        "full avg10=0.00 avg60=0.00 avg300=0.00 total=0"));
+  }
+
+  private void writeLoad(String load) throws IOException {
+    Files.write(procRoot.resolve("loadavg"), ImmutableList.of(load + " 1.50 1.00 2/345 6789"));
+  }
+
+  @Test
+  public void testPressureBelowLimits() throws IOException {
+    writePressure("cpu", 10.0);
+    writePressure("io", 80.0);
+    writeLoad("0.75");
+    HostPressureMonitor monitor = HostPressureMonitor.of(procRoot, clock,
+        ImmutableMap.of(Resource.CPU, 20.0), Optional.of(2.0));
+    assertThat(monitor.excessivePressure()).isAbsent();
+  }
+
+  @Test
+  public void testPressureAboveLimit() throws IOException {
+    writePressure("io", 35.5);
+    HostPressureMonitor monitor = HostPressureMonitor.of(procRoot, clock,
+        ImmutableMap.of(Resource.IO, 20.0), Optional.<Double>absent());
+    assertThat(monitor.excessivePressure()).hasValue("io pressure 35.5% above 20.0%");
+  }
+
+  @Test
+  public void testLoadAboveLimit() throws IOException {
+    writeLoad("6.25");
+    HostPressureMonitor monitor = HostPressureMonitor.of(procRoot, clock,
+        ImmutableMap.<Resource, Double>of(), Optional.of(4.0));
+    assertThat(monitor.excessivePressure()).hasValue("load average 6.25 above 4.00");
+  }
+
+  @Test
+  public void testReusesReadingWithinInterval() throws IOException {
+    writePressure("memory", 50.0);
+    HostPressureMonitor monitor = HostPressureMonitor.of(procRoot, clock,
+        ImmutableMap.of(Resource.MEMORY, 10.0), Optional.<Double>absent());
+    assertThat(monitor.excessivePressure()).isPresent();
+
+    writePressure("memory", 5.0);
+    assertThat(monitor.excessivePressure()).isPresent();
+    when(clock.instant()).thenReturn(TIME_2);
+    assertThat(monitor.excessivePressure()).isAbsent();
+  }
+
+  @Test
+  public void testIgnoresUnsupportedResource() {
+    HostPressureMonitor monitor = HostPressureMonitor.of(procRoot, clock,
+        ImmutableMap.of(Resource.CPU, 0.0), Optional.<Double>absent());
+    assertThat(monitor.excessivePressure()).isAbsent();
+  }
+
+  @Test
+  public void testResourceFromName() {
+    assertThat(Resource.fromName("memory")).isEqualTo(Resource.MEMORY);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownResourceName() {
+    Resource.fromName("network");
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class NetworkWatcherTest {
+
+  private Semaphore changes;
+  private NetworkWatcher watcher;
+
+  @Before
+  public void setUp() {
+    changes = new Semaphore(0);
+  }
+
+  @After
+  public void tearDown() {
+    if (watcher != null) {
+      watcher.close();
+    }
+  }
+
+  private NetworkWatcher createWatcher(String script) {
+    return NetworkWatcher.create(ImmutableList.of("sh", "-c", script), Duration.ofMillis(100),
+        changes::release);
+  }
+
+  @Test
+  public void testNotifiesEachChange() throws Exception {
+    watcher = createWatcher("echo link; sleep 0.3; echo address; sleep 30");
+    watcher.start();
+    assertThat(changes.tryAcquire(2, 5, TimeUnit.SECONDS)).isTrue();
+    assertThat(watcher.isWatching()).isTrue();
+    watcher.close();
+    Thread.sleep(200);
+    assertThat(watcher.isWatching()).isFalse();
+  }
+
+  @Test
+  public void testRestartsExitedMonitor() throws Exception {
+    watcher = createWatcher("exit 1");
+    watcher.start();
+    // Each restart is notified in case changes were missed.
+    assertThat(changes.tryAcquire(2, 5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingMonitor() throws Exception {
+    watcher = NetworkWatcher.create(ImmutableList.of("/does/not/exist"), Duration.ofMillis(100),
+        changes::release);
+    watcher.start();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.checks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+/**
+ * Tests for the conditions that read the state of the host.
+ */
+public class SystemConditionsTest {
+
+  private static final String ROUTE_HEADER = "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\t"
+      + "Metric\tMask\t\tMTU\tWindow\tIRTT";
+
+  private Path root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("overseer-sys");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  private void createSupply(String name, String type, String online) throws IOException {
+    Path supply = Files.createDirectories(root.resolve("power_supply").resolve(name));
+    Files.write(supply.resolve("type"), ImmutableList.of(type));
+    if (online != null) {
+      Files.write(supply.resolve("online"), ImmutableList.of(online));
+    }
+  }
+
+  private void writeRoutes(String... routes) throws IOException {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    lines.add(ROUTE_HEADER);
+    for (String route : routes) {
+      lines.add(route);
+    }
+    Files.write(root.resolve("route"), lines.build());
+  }
+
+  private static String defaultRoute(String iface, int metric) {
+    return String.format(
+        "%s\t00000000\t0101A8C0\t0003\t0\t0\t%d\t00000000\t0\t0\t0", iface, metric);
+  }
+
+  private void createInterface(String name, String uevent) throws IOException {
+    Path iface = Files.createDirectories(root.resolve("net").resolve(name));
+    Files.write(iface.resolve("uevent"), ImmutableList.of(uevent, "INTERFACE=" + name));
+  }
+
+  @Test
+  public void testOnMainsPower() throws IOException {
+    createSupply("BAT0", "Battery", null);
+    createSupply("AC", "Mains", "1");
+    assertThat(AcPowerCondition.create(root.resolve("power_supply")).isSatisfied()).isTrue();
+  }
+
+  @Test
+  public void testOnBattery() throws IOException {
+    createSupply("BAT0", "Battery", null);
+    createSupply("AC", "Mains", "0");
+    createSupply("ucsi-source-psy-USBC000:001", "USB", "0");
+    assertThat(AcPowerCondition.create(root.resolve("power_supply")).isSatisfied()).isFalse();
+  }
+
+  @Test
+  public void testOnUsbPower() throws IOException {
+    createSupply("AC", "Mains", "0");
+    createSupply("ucsi-source-psy-USBC000:001", "USB", "1");
+    assertThat(AcPowerCondition.create(root.resolve("power_supply")).isSatisfied()).isTrue();
+  }
+
+  @Test
+  public void testNoPowerSupplies() {
+    assertThat(AcPowerCondition.create(root.resolve("power_supply")).isSatisfied()).isTrue();
+  }
+
+  @Test
+  public void testUnmeteredDefaultRoute() throws IOException {
+    writeRoutes(defaultRoute("wwan0", 700), defaultRoute("wlp1s0", 600));
+    createInterface("wlp1s0", "DEVTYPE=wlan");
+    createInterface("wwan0", "DEVTYPE=wwan");
+    assertThat(UnmeteredCondition.create(root.resolve("route"), root.resolve("net"))
+        .isSatisfied()).isTrue();
+  }
+
+  @Test
+  public void testMeteredDefaultRoute() throws IOException {
+    writeRoutes(defaultRoute("wlp1s0", 600), defaultRoute("mbim0", 100));
+    createInterface("wlp1s0", "DEVTYPE=wlan");
+    createInterface("mbim0", "DEVTYPE=wwan");
+    assertThat(UnmeteredCondition.create(root.resolve("route"), root.resolve("net"))
+        .isSatisfied()).isFalse();
+
+    writeRoutes(defaultRoute("ppp0", 0));
+    assertThat(UnmeteredCondition.create(root.resolve("route"), root.resolve("net"))
+        .isSatisfied()).isFalse();
+  }
+
+  @Test
+  public void testNoDefaultRoute() throws IOException {
+    writeRoutes("wwan0\t0000A8C0\t00000000\t0001\t0\t0\t0\t00FFFFFF\t0\t0\t0");
+    assertThat(UnmeteredCondition.create(root.resolve("route"), root.resolve("net"))
+        .isSatisfied()).isTrue();
+  }
+
+  @Test
+  public void testHostReachable() throws IOException {
+    try (ServerSocket server = new ServerSocket(0)) {
+      assertThat(HostReachableCondition.of("localhost", server.getLocalPort()).isSatisfied())
+          .isTrue();
+    }
+  }
+
+  @Test
+  public void testHostNotReachable() throws IOException {
+    int port;
+    try (ServerSocket server = new ServerSocket(0)) {
+      port = server.getLocalPort();
+    }
+    assertThat(HostReachableCondition.of("localhost", port).isSatisfied()).isFalse();
+  }
+}
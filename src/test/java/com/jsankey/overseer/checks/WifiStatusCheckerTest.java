@@ -7,20 +7,41 @@
 package com.jsankey.overseer.checks;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
 public class WifiStatusCheckerTest {
 
   private static final String TEST_SSID = "ExampleNetwork";
   private static final String WRONG_SSID = "WrongNetwork";
+  private static final Instant TIME_1 = Instant.ofEpochSecond(1000);
+  private static final Instant TIME_2 = TIME_1.plus(WifiStatusChecker.CACHE_TTL);
+  private static final Instant TIME_3 = TIME_2.plus(WifiStatusChecker.CACHE_TTL);
 
   private static final String CONNECTED_OUTPUT =
     "enp2s0    no wireless extensions.\n"
@@ -46,11 +67,23 @@ public class WifiStatusCheckerTest {
     + "            \n"
     + "lo        no wireless extensions.\n";
 
+  private Path sysClassNet;
+  private Clock clock;
   private WifiStatusChecker checker;
 
   @Before
-  public void setUp() {
-    checker = spy(WifiStatusChecker.of(TEST_SSID));
+  public void setUp() throws IOException {
+    sysClassNet = Files.createTempDirectory("overseer-net");
+    clock = mock(Clock.class);
+    when(clock.instant()).thenReturn(TIME_1);
+    checker = spy(WifiStatusChecker.of(TEST_SSID, sysClassNet, clock));
+    createInterface("lo", false, "unknown", 0);
+    createInterface("enp2s0", false, "up", 1);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(sysClassNet, RecursiveDeleteOption.ALLOW_INSECURE);
   }
 
   @Test
@@ -60,34 +93,124 @@ public class WifiStatusCheckerTest {
 
   @Test
   public void testCorrectWifi() throws Exception {
+    createInterface("wlp1s0", true, "up", 3);
     configureChecker(CONNECTED_OUTPUT, 0);
     assertThat(checker.connected()).isTrue();
   }
 
   @Test
   public void testIncorrectWifi() throws Exception {
-    checker = spy(WifiStatusChecker.of(WRONG_SSID));
-    configureChecker(DISCONNECTED_OUTPUT, 0);
+    checker = spy(WifiStatusChecker.of(WRONG_SSID, sysClassNet, clock));
+    createInterface("wlp1s0", true, "up", 3);
+    configureChecker(CONNECTED_OUTPUT, 0);
     assertThat(checker.connected()).isFalse();
   }
 
   @Test
   public void testNoWifi() throws Exception {
+    createInterface("wlp1s0", true, "dormant", 2);
     configureChecker(DISCONNECTED_OUTPUT, 0);
     assertThat(checker.connected()).isFalse();
+    // The SSID is not needed when no wireless interface is associated.
+    verify(checker, never()).createProcess();
   }
 
   @Test
   public void testCommandFailure() throws Exception {
+    createInterface("wlp1s0", true, "up", 3);
     configureChecker(CONNECTED_OUTPUT, 1);
     assertThat(checker.connected()).isFalse();
+
+    // Failures are not retried until after a delay.
+    configureChecker(CONNECTED_OUTPUT, 0);
+    when(clock.instant()).thenReturn(TIME_2);
+    assertThat(checker.connected()).isFalse();
+    verify(checker, times(1)).createProcess();
+    when(clock.instant()).thenReturn(TIME_1.plus(WifiStatusChecker.MIN_SSID_RETRY));
+    assertThat(checker.connected()).isTrue();
+  }
+
+  @Test
+  public void testRetryDelayGrowsWithConsecutiveFailures() throws Exception {
+    createInterface("wlp1s0", true, "up", 3);
+    doThrow(new IOException("No iwconfig")).when(checker).createProcess();
+    assertThat(checker.connected()).isFalse();
+
+    Duration delay = WifiStatusChecker.MIN_SSID_RETRY;
+    Instant firstRetry = TIME_1.plus(delay);
+    when(clock.instant()).thenReturn(firstRetry);
+    assertThat(checker.connected()).isFalse();
+    verify(checker, times(2)).createProcess();
+
+    // The second failure doubles the delay.
+    when(clock.instant()).thenReturn(firstRetry.plus(delay));
+    assertThat(checker.connected()).isFalse();
+    verify(checker, times(2)).createProcess();
+    when(clock.instant()).thenReturn(firstRetry.plus(delay.multipliedBy(2)));
+    assertThat(checker.connected()).isFalse();
+    verify(checker, times(3)).createProcess();
+  }
+
+  @Test
+  public void testCommandTimeout() throws Exception {
+    createInterface("wlp1s0", true, "up", 3);
+    Process mockProcess = mock(Process.class);
+    when(mockProcess.getInputStream())
+        .thenReturn(new ByteArrayInputStream(CONNECTED_OUTPUT.getBytes()));
+    when(mockProcess.waitFor(anyLong(), any(TimeUnit.class))).thenReturn(false);
+    doReturn(mockProcess).when(checker).createProcess();
+    assertThat(checker.connected()).isFalse();
+    verify(mockProcess).destroyForcibly();
+  }
+
+  @Test
+  public void testReusesResultWithinTtl() throws Exception {
+    createInterface("wlp1s0", true, "up", 3);
+    configureChecker(CONNECTED_OUTPUT, 0);
+    assertThat(checker.connected()).isTrue();
+
+    createInterface("wlp1s0", true, "down", 4);
+    assertThat(checker.connected()).isTrue();
+    when(clock.instant()).thenReturn(TIME_2);
+    assertThat(checker.connected()).isFalse();
+  }
+
+  @Test
+  public void testOnlyReadsSsidWhenLinkChanges() throws Exception {
+    createInterface("wlp1s0", true, "up", 3);
+    configureChecker(CONNECTED_OUTPUT, 0);
+    assertThat(checker.connected()).isTrue();
+    when(clock.instant()).thenReturn(TIME_2);
+    assertThat(checker.connected()).isTrue();
+    verify(checker, times(1)).createProcess();
+
+    // Joining another network changes the association count.
+    createInterface("wlp1s0", true, "up", 5);
+    configureChecker(DISCONNECTED_OUTPUT, 0);
+    when(clock.instant()).thenReturn(TIME_3);
+    assertThat(checker.connected()).isFalse();
+    verify(checker, times(2)).createProcess();
+  }
+
+  /** Creates or updates a fake network interface with the supplied state. */
+  private void createInterface(String name, boolean wireless, String operstate,
+      int carrierChanges) throws IOException {
+    Path iface = sysClassNet.resolve(name);
+    Files.createDirectories(iface);
+    if (wireless) {
+      Files.createDirectories(iface.resolve("wireless"));
+    }
+    Files.write(iface.resolve("operstate"), (operstate + "\n").getBytes(StandardCharsets.UTF_8));
+    Files.write(iface.resolve("carrier_changes"),
+        (carrierChanges + "\n").getBytes(StandardCharsets.UTF_8));
   }
 
   private void configureChecker(String output, int returnCode)
       throws InterruptedException, IOException {
     Process mockProcess = mock(Process.class);
     when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream(output.getBytes()));
-    when(mockProcess.waitFor()).thenReturn(returnCode);
-    when(checker.createProcess()).thenReturn(mockProcess);
+    when(mockProcess.waitFor(anyLong(), any(TimeUnit.class))).thenReturn(true);
+    when(mockProcess.exitValue()).thenReturn(returnCode);
+    doReturn(mockProcess).when(checker).createProcess();
   }
 }
@@ -8,6 +8,7 @@ package com.jsankey.overseer.history;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
@@ -20,6 +21,7 @@ import org.junit.rules.TemporaryFolder;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.jsankey.overseer.Configuration;
+import com.jsankey.overseer.history.ExecutionHistory.Durability;
 import com.jsankey.overseer.history.ExecutionHistory.HistoryStatus;
 
 public class ExecutionHistoryTest {
@@ -102,6 +104,7 @@ public class ExecutionHistoryTest {
     initialHistory.recordEvent(COMMAND_1, T1, T2, FAILURE_CODE);
     initialHistory.recordEvent(COMMAND_2, T2, T4, SUCCESS_CODE);
     assertThat(initialHistory.getStatus()).isEqualTo(HistoryStatus.FAILED);
+    initialHistory.close();
 
     // Note this time we only have one of the commands, the passing one.
     Configuration restoredConfig = Configuration.from(new String[]{
@@ -112,6 +115,62 @@ public class ExecutionHistoryTest {
     assertThat(restoredHistory.getNewestFailure()).isEqualTo(Optional.absent());
   }
 
+  @Test
+  public void testRestorationFromJournal() throws Exception {
+    Path statusPath = Paths.get(tempFolder.getRoot().getAbsolutePath(), "test-history.cfg");
+    Path journalPath = Paths.get(statusPath + ".journal");
+    ImmutableList<String> commands = ImmutableList.of(COMMAND_1);
+    ExecutionHistory initialHistory = new ExecutionHistory(Optional.of(statusPath.toString()),
+        commands);
+    recordEvents(initialHistory, 0, 3);
+    initialHistory.close();
+    // Too few events have been recorded to compact the journal.
+    long journalBytes = Files.size(journalPath);
+
+    ExecutionHistory restoredHistory = new ExecutionHistory(Optional.of(statusPath.toString()),
+        commands);
+    assertThat(restoredHistory.getCommandHistory(COMMAND_1)).hasSize(3);
+    // Recovery compacts the replayed events into a new snapshot.
+    assertThat(Files.exists(statusPath)).isTrue();
+    assertThat(Files.size(journalPath)).isLessThan(journalBytes);
+
+    int events = ExecutionHistory.COMPACTION_RECORDS + 5;
+    recordEvents(restoredHistory, 3, events);
+    restoredHistory.close();
+    ImmutableList<CommandEvent> restored =
+        new ExecutionHistory(Optional.of(statusPath.toString()), commands)
+            .getCommandHistory(COMMAND_1);
+    assertThat(restored).hasSize(CommandHistory.MAX_HISTORY_SIZE);
+    assertThat(restored.get(restored.size() - 1).getStart())
+        .isEqualTo(T1.plus(events - 1, ChronoUnit.SECONDS));
+  }
+
+  @Test(timeout = 30000)
+  public void testRecordsWhileSnapshotWritten() throws Exception {
+    Path statusPath = Paths.get(tempFolder.getRoot().getAbsolutePath(), "test-history.cfg");
+    ImmutableList<String> commands = ImmutableList.of(COMMAND_1);
+    ExecutionHistory history =
+        new ExecutionHistory(Optional.of(statusPath.toString()), commands, Durability.NONE);
+    // Recording far faster than snapshots are written fills the writer's queue while it is
+    // compacting, so recording blocks while the snapshot needs the history.
+    int events = 20000;
+    recordEvents(history, 0, events);
+    history.close();
+
+    ImmutableList<CommandEvent> restored =
+        new ExecutionHistory(Optional.of(statusPath.toString()), commands)
+            .getCommandHistory(COMMAND_1);
+    assertThat(restored.get(restored.size() - 1).getStart())
+        .isEqualTo(T1.plus(events - 1, ChronoUnit.SECONDS));
+  }
+
+  private static void recordEvents(ExecutionHistory history, int first, int end) {
+    for (int i = first; i < end; i++) {
+      history.recordEvent(
+          COMMAND_1, T1.plus(i, ChronoUnit.SECONDS), T2.plus(i, ChronoUnit.SECONDS), SUCCESS_CODE);
+    }
+  }
+
   private static ExecutionHistory createOneCommandHistory() {
     return new ExecutionHistory(Optional.<String>absent(), ImmutableList.of(COMMAND_1));
   }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jsankey.overseer.history.CommandEvent.ChangeReport;
+
+public class HistoryJournalTest {
+
+  private static final Instant T1 = Instant.ofEpochSecond(44440001, 500);
+  private static final Instant T2 = Instant.ofEpochSecond(44440002);
+  private static final Instant T3 = Instant.ofEpochSecond(44440003);
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Path path;
+  private List<String> commands;
+  private List<CommandEvent> events;
+
+  @Before
+  public void setUp() {
+    path = Paths.get(tempFolder.getRoot().getAbsolutePath(), "history.journal");
+    commands = new ArrayList<>();
+    events = new ArrayList<>();
+  }
+
+  private void replay() throws Exception {
+    commands.clear();
+    events.clear();
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> {
+        commands.add(command);
+        events.add(event);
+      });
+    }
+  }
+
+  @Test
+  public void testRoundTripsEveryField() throws Exception {
+    CommandEvent full = new CommandEvent(T1, T2, 3)
+        .withChangeReport(ChangeReport.UNCHANGED)
+        .withScheduledInterval(Duration.ofMinutes(5))
+        .withOutput(CapturedOutput.of("out\u00e9", true, "err", false))
+        .withLogPath(Paths.get("/var/log/overseer/1.log"))
+        .withStartupSaved(Duration.ofMillis(250))
+        .withResourceUsage(ResourceUsage.of(1, 2, 3, 4, 5))
+        .withTeardown(Duration.ofSeconds(1, 7));
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> { });
+      journal.append("first", full);
+      journal.append("second", new CommandEvent(T2, T3, 0));
+      assertThat(journal.getRecordCount()).isEqualTo(2);
+    }
+
+    replay();
+    assertThat(commands).containsExactly("first", "second").inOrder();
+    CommandEvent read = events.get(0);
+    assertThat(read.getStart()).isEqualTo(T1);
+    assertThat(read.getEnd()).isEqualTo(T2);
+    assertThat(read.getExitCode()).isEqualTo(3);
+    assertThat(read.isSuccessful()).isTrue();
+    assertThat(read.getScheduledInterval()).hasValue(Duration.ofMinutes(5));
+    assertThat(read.getOutput().get().getStdoutTail()).isEqualTo("out\u00e9");
+    assertThat(read.getOutput().get().isStdoutTruncated()).isTrue();
+    assertThat(read.getOutput().get().getStderrTail()).isEqualTo("err");
+    assertThat(read.getLogPath()).hasValue(Paths.get("/var/log/overseer/1.log"));
+    assertThat(read.getStartupSaved()).hasValue(Duration.ofMillis(250));
+    assertThat(read.getResourceUsage().get().getWriteBytes()).isEqualTo(5);
+    assertThat(read.getTeardown()).hasValue(Duration.ofSeconds(1, 7));
+    assertThat(events.get(1).getOutput().isPresent()).isFalse();
+    assertThat(events.get(1).getChangeReport()).isEqualTo(ChangeReport.UNREPORTED);
+  }
+
+  @Test
+  public void testDiscardsTornRecord() throws Exception {
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> { });
+      journal.append("first", new CommandEvent(T1, T2, 0));
+      journal.append("second", new CommandEvent(T2, T3, 0));
+    }
+    // Simulate a crash part way through writing the final record.
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.setLength(file.length() - 3);
+    }
+
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> commands.add(command));
+      assertThat(commands).containsExactly("first");
+      journal.append("third", new CommandEvent(T2, T3, 0));
+    }
+    replay();
+    assertThat(commands).containsExactly("first", "third").inOrder();
+  }
+
+  @Test
+  public void testStopsAtCorruptRecord() throws Exception {
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> { });
+      journal.append("first", new CommandEvent(T1, T2, 0));
+      journal.append("second", new CommandEvent(T2, T3, 0));
+    }
+    byte[] contents = Files.readAllBytes(path);
+    contents[contents.length - 1] ^= 0x55;
+    Files.write(path, contents);
+
+    replay();
+    assertThat(commands).containsExactly("first");
+  }
+
+  /**
+   * Appends a record with a valid checksum whose payload encodes an event with the supplied
+   * times and change report, without the validation of {@link CommandEvent}.
+   */
+  private void appendRawRecord(String command, Instant start, Instant end, int changeReport)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream payload = new DataOutputStream(bytes);
+    payload.writeUTF(command);
+    payload.writeLong(start.getEpochSecond());
+    payload.writeInt(start.getNano());
+    payload.writeLong(end.getEpochSecond());
+    payload.writeInt(end.getNano());
+    payload.writeInt(0);
+    payload.writeByte(changeReport);
+    payload.writeByte(0);
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(record);
+    out.writeInt(bytes.size());
+    out.writeInt((int) crc.getValue());
+    out.write(bytes.toByteArray());
+    Files.write(path, record.toByteArray(), StandardOpenOption.APPEND);
+  }
+
+  @Test
+  public void testStopsAtUndecodableRecord() throws Exception {
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> { });
+      journal.append("first", new CommandEvent(T1, T2, 0));
+    }
+    appendRawRecord("reversed", T3, T2, ChangeReport.UNREPORTED.ordinal());
+    appendRawRecord("second", T2, T3, 0);
+
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> commands.add(command));
+      assertThat(commands).containsExactly("first");
+      journal.append("third", new CommandEvent(T2, T3, 0));
+    }
+    replay();
+    assertThat(commands).containsExactly("first", "third").inOrder();
+
+    appendRawRecord("unknown report", T2, T3, 42);
+    replay();
+    assertThat(commands).containsExactly("first", "third").inOrder();
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> { });
+      journal.append("first", new CommandEvent(T1, T2, 0));
+      journal.reset();
+      assertThat(journal.getRecordCount()).isEqualTo(0);
+      journal.append("second", new CommandEvent(T2, T3, 0));
+    }
+    replay();
+    assertThat(commands).containsExactly("second");
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jsankey.overseer.history.ExecutionHistory.Durability;
+
+public class HistoryWriterTest {
+
+  private static final Instant T1 = Instant.ofEpochSecond(44440001);
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Path path;
+  private AtomicInteger snapshots;
+
+  @Before
+  public void setUp() {
+    path = Paths.get(tempFolder.getRoot().getAbsolutePath(), "history.journal");
+    snapshots = new AtomicInteger();
+  }
+
+  private HistoryJournal openJournal() throws Exception {
+    HistoryJournal journal = HistoryJournal.open(path);
+    journal.replay((command, event) -> { });
+    return journal;
+  }
+
+  private static CommandEvent event(int index) {
+    return new CommandEvent(T1.plusSeconds(index), T1.plusSeconds(index + 1), 0);
+  }
+
+  private List<String> replayCommands() throws Exception {
+    List<String> commands = new ArrayList<>();
+    try (HistoryJournal journal = HistoryJournal.open(path)) {
+      journal.replay((command, event) -> commands.add(command));
+    }
+    return commands;
+  }
+
+  @Test
+  public void testGroupsEventsAndFlushesOnClose() throws Exception {
+    HistoryWriter writer = HistoryWriter.start(
+        openJournal(), Durability.BATCHED, snapshots::incrementAndGet, 1000);
+    for (int i = 0; i < 50; i++) {
+      writer.submit("command" + i, event(i));
+    }
+    assertThat(writer.close(CLOSE_TIMEOUT)).isTrue();
+
+    HistoryWriter.Stats stats = writer.getStats();
+    assertThat(stats.getEvents()).isEqualTo(50);
+    assertThat(stats.getCommits()).isLessThan(50L);
+    assertThat(stats.getQueueDepth()).isEqualTo(0);
+    assertThat(replayCommands()).hasSize(50);
+    assertThat(replayCommands().get(49)).isEqualTo("command49");
+    assertThat(snapshots.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEveryEventCommittedIndividually() throws Exception {
+    HistoryWriter writer = HistoryWriter.start(
+        openJournal(), Durability.EVERY_EVENT, snapshots::incrementAndGet, 1000);
+    for (int i = 0; i < 5; i++) {
+      writer.submit("command", event(i));
+    }
+    assertThat(writer.close(CLOSE_TIMEOUT)).isTrue();
+    assertThat(writer.getStats().getCommits()).isEqualTo(5);
+    assertThat(writer.getStats().getMaxCommitTime()).isGreaterThan(Duration.ZERO);
+    assertThat(replayCommands()).hasSize(5);
+  }
+
+  @Test
+  public void testCompactsFullJournal() throws Exception {
+    HistoryWriter writer = HistoryWriter.start(
+        openJournal(), Durability.NONE, snapshots::incrementAndGet, 3);
+    for (int i = 0; i < 3; i++) {
+      writer.submit("command", event(i));
+    }
+    assertThat(writer.close(CLOSE_TIMEOUT)).isTrue();
+    assertThat(snapshots.get()).isEqualTo(1);
+    assertThat(replayCommands()).isEmpty();
+  }
+
+  @Test
+  public void testWritesSnapshotsWithoutJournal() throws Exception {
+    HistoryWriter writer =
+        HistoryWriter.start(null, Durability.BATCHED, snapshots::incrementAndGet, 1000);
+    writer.submit("command", event(0));
+    assertThat(writer.close(CLOSE_TIMEOUT)).isTrue();
+    assertThat(snapshots.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDiscardsEventsAfterClose() throws Exception {
+    HistoryWriter writer = HistoryWriter.start(
+        openJournal(), Durability.BATCHED, snapshots::incrementAndGet, 1000);
+    assertThat(writer.close(CLOSE_TIMEOUT)).isTrue();
+    writer.submit("late", event(0));
+    assertThat(writer.getStats().getEvents()).isEqualTo(0);
+    assertThat(replayCommands()).isEmpty();
+  }
+
+  @Test
+  public void testNoEventQueuedAfterConcurrentClose() throws Exception {
+    HistoryWriter writer = HistoryWriter.start(
+        openJournal(), Durability.NONE, snapshots::incrementAndGet, 100000);
+    CountDownLatch started = new CountDownLatch(4);
+    List<Thread> submitters = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread submitter = new Thread(() -> {
+        started.countDown();
+        for (int i = 0; i < 2000; i++) {
+          writer.submit("command", event(i));
+        }
+      });
+      submitter.start();
+      submitters.add(submitter);
+    }
+    started.await();
+    assertThat(writer.close(CLOSE_TIMEOUT)).isTrue();
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+    // Every event was either committed before the writer stopped or discarded, none stranded.
+    HistoryWriter.Stats stats = writer.getStats();
+    assertThat(stats.getQueueDepth()).isEqualTo(0);
+    assertThat(replayCommands()).hasSize((int) stats.getEvents());
+  }
+}
@@ -18,6 +18,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 
 import org.junit.After;
@@ -26,9 +28,13 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.jsankey.overseer.Executive;
+import com.jsankey.overseer.ExecutiveSnapshot;
+import com.jsankey.overseer.OutputFrame;
 import com.jsankey.overseer.history.ExecutionHistory;
+import com.jsankey.overseer.runner.OutputListener.Stream;
 
 public class SocketConnectionTest {
 
@@ -40,6 +46,27 @@ public class SocketConnectionTest {
   private static final int TEST_EXIT_CODE = 0;
   private static final Executive.Status TEST_EXEC_STATUS = Executive.Status.BLOCKED_ON_WIFI;
   private static final Executive.Status TEST_EXEC_STATUS_2 = Executive.Status.IDLE;
+  private static final Instant TEST_NEXT_RUN = Instant.ofEpochMilli(34567890L);
+  private static final ExecutiveSnapshot TEST_SNAPSHOT = ExecutiveSnapshot.of(7, TEST_EXEC_STATUS,
+      ImmutableList.of(TEST_COMMAND), Optional.of(TEST_NEXT_RUN), Optional.of("no wifi"));
+  private static final ExecutiveSnapshot TEST_SNAPSHOT_2 = ExecutiveSnapshot.of(8,
+      TEST_EXEC_STATUS_2, ImmutableList.<String>of(), Optional.<Instant>absent(),
+      Optional.<String>absent());
+
+  private static final String WEBSOCKET_UPGRADE_REQUEST = "GET /overseer HTTP/1.1\r"
+      + "Host: localhost:4321\r\n"
+      + "Connection: Upgrade\r\n"
+      + "Pragma: no-cache\r\n"
+      + "Cache-Control: no-cache\r\n"
+      + "Upgrade: websocket\r\n"
+      + "Origin: file://\r\n"
+      + "Sec-WebSocket-Version: 13\r\n"
+      + "User-Agent: Dummy user agent\r\n"
+      + "Accept-Encoding: gzip, deflate, sdch\r\n"
+      + "Accept-Language: en-US,en;q=0.8\r\n"
+      + "Sec-WebSocket-Key: r7oPJjbmnmKEZdkzqALUrQ==\r\n"
+      + "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n"
+      + "\r\n";
 
   private static final int EXECUTION_TIME_MILLIS = 1000;
 
@@ -69,13 +96,14 @@ public class SocketConnectionTest {
 
     mockExecutive = mock(Executive.class);
     when(mockExecutive.getHistory()).thenReturn(testHistory);
-    when(mockExecutive.getStatus()).thenReturn(TEST_EXEC_STATUS);
+    when(mockExecutive.getSnapshot()).thenReturn(TEST_SNAPSHOT);
   }
 
   @After
   public void verifyNoFurtherInteractions() {
     verify(mockExecutive).registerListener(testObject);
     verify(mockExecutive).unregisterListener(testObject);
+    verify(mockExecutive).unsubscribeOutput(testObject);
     Mockito.verifyNoMoreInteractions(mockExecutive);
   }
 
@@ -98,10 +126,12 @@ public class SocketConnectionTest {
   public void testStatus() throws Exception {
     setTestInput("status\n");
     startTestObject(RunMode.REQUEST_CLOSE);
-    verify(mockExecutive).getStatus();
+    verify(mockExecutive).getSnapshot();
     verify(mockExecutive).getHistory();
     assertThat(outputStream.toString()).isEqualTo(
-        "{\"status\":\"BLOCKED_ON_WIFI\",\"last_start_ms\":\"12345678\"}\n");
+        "{\"version\":7,\"status\":\"BLOCKED_ON_WIFI\",\"last_start_ms\":\"12345678\","
+        + "\"next_run_ms\":\"34567890\",\"blocked_reason\":\"no wifi\","
+        + "\"active_commands\":[\"test command one\"]}\n");
   }
 
   @Test
@@ -128,6 +158,30 @@ public class SocketConnectionTest {
     verify(mockExecutive).runNow();
   }
 
+  @Test
+  public void testWatch() throws Exception {
+    setTestInput("watch\n");
+    startTestObject(RunMode.REQUEST_CLOSE);
+    verify(mockExecutive).subscribeOutput(testObject);
+  }
+
+  @Test(timeout=1000)
+  public void testOutput() throws Exception {
+    setTestInput("");
+    startTestObject(RunMode.LEAVE_RUNNING);
+
+    testObject.receiveOutput(OutputFrame.of(ImmutableList.of(
+        OutputFrame.Chunk.of(TEST_COMMAND, Stream.STDOUT, "line one\n"),
+        OutputFrame.Chunk.of(TEST_COMMAND, Stream.STDERR, "oops")), 42));
+    testObject.parser.initiateClose();
+    runnerThread.join();
+
+    assertThat(outputStream.toString()).isEqualTo(
+        "{\"output\":[{\"command\":\"test command one\",\"stream\":\"STDOUT\","
+        + "\"text\":\"line one\\n\"},{\"command\":\"test command one\",\"stream\":\"STDERR\","
+        + "\"text\":\"oops\"}],\"skipped_bytes\":42}\n");
+  }
+
   @Test(timeout=1000)
   public void testUnknownCommandIgnored() throws Exception {
     setTestInput("iamgarbage\nhelp\nclose\n");
@@ -163,34 +217,25 @@ public class SocketConnectionTest {
 
     // Send two statuses, changing the state in between, then stop the object
     testObject.receiveStatus(TEST_EXEC_STATUS);
-    when(mockExecutive.getStatus()).thenReturn(TEST_EXEC_STATUS_2);
+    when(mockExecutive.getSnapshot()).thenReturn(TEST_SNAPSHOT_2);
     testObject.receiveStatus(TEST_EXEC_STATUS_2);
     testObject.parser.initiateClose();
     runnerThread.join();
 
-    verify(mockExecutive, atLeastOnce()).getStatus();
+    verify(mockExecutive, atLeastOnce()).getSnapshot();
     verify(mockExecutive, atLeastOnce()).getHistory();
     assertThat(outputStream.toString()).isEqualTo(
-        "{\"status\":\"BLOCKED_ON_WIFI\",\"last_start_ms\":\"12345678\"}\n"
-        + "{\"status\":\"IDLE\",\"last_start_ms\":\"12345678\"}\n");
+        "{\"version\":7,\"status\":\"BLOCKED_ON_WIFI\",\"last_start_ms\":\"12345678\","
+        + "\"next_run_ms\":\"34567890\",\"blocked_reason\":\"no wifi\","
+        + "\"active_commands\":[\"test command one\"]}\n"
+        + "{\"version\":8,\"status\":\"IDLE\",\"last_start_ms\":\"12345678\","
+        + "\"next_run_ms\":\"NONE\",\"blocked_reason\":\"NONE\","
+        + "\"active_commands\":[]}\n");
   }
 
   @Test
   public void testWebSocketUpgrade() throws Exception {
-    setTestInput("GET /overseer HTTP/1.1\r"
-        + "Host: localhost:4321\r\n"
-        + "Connection: Upgrade\r\n"
-        + "Pragma: no-cache\r\n"
-        + "Cache-Control: no-cache\r\n"
-        + "Upgrade: websocket\r\n"
-        + "Origin: file://\r\n"
-        + "Sec-WebSocket-Version: 13\r\n"
-        + "User-Agent: Dummy user agent\r\n"
-        + "Accept-Encoding: gzip, deflate, sdch\r\n"
-        + "Accept-Language: en-US,en;q=0.8\r\n"
-        + "Sec-WebSocket-Key: r7oPJjbmnmKEZdkzqALUrQ==\r\n"
-        + "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n"
-        + "\r\n");
+    setTestInput(WEBSOCKET_UPGRADE_REQUEST);
     startTestObject(RunMode.LEAVE_RUNNING);
     Thread.sleep(EXECUTION_TIME_MILLIS);
     assertThat(testObject.parser).isInstanceOf(WebConnectionParser.class);
@@ -204,6 +249,31 @@ public class SocketConnectionTest {
 
   }
 
+  @Test
+  public void testWebSocketOutputLongerThan64K() throws Exception {
+    setTestInput(WEBSOCKET_UPGRADE_REQUEST);
+    startTestObject(RunMode.LEAVE_RUNNING);
+    Thread.sleep(EXECUTION_TIME_MILLIS);
+    assertThat(testObject.parser).isInstanceOf(WebConnectionParser.class);
+    outputStream.reset();
+
+    String text = Strings.repeat("output\n", 20000);
+    testObject.receiveOutput(OutputFrame.of(ImmutableList.of(
+        OutputFrame.Chunk.of(TEST_COMMAND, Stream.STDOUT, text)), 0));
+    testObject.parser.initiateClose();
+    runnerThread.join();
+
+    // A single text packet using the eight byte extended length, followed by the close packet.
+    byte[] sent = outputStream.toByteArray();
+    assertThat(sent[0] & 0xFF).isEqualTo(0x81);
+    assertThat(sent[1] & 0xFF).isEqualTo(127);
+    long length = ByteBuffer.wrap(sent, 2, 8).getLong();
+    assertThat(length).isGreaterThan((long) text.length());
+    assertThat(sent.length).isAtLeast(10 + (int) length);
+    assertThat(new String(sent, 10, (int) length, StandardCharsets.UTF_8))
+        .contains(text.replace("\n", "\\n"));
+  }
+
   private void setTestInput(String input) throws IOException {
     InputStream inputStream = new ByteArrayInputStream(input.getBytes());
     when(mockSocket.getInputStream()).thenReturn(inputStream);
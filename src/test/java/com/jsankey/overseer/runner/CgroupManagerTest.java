@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.jsankey.overseer.history.ResourceUsage;
+
+/**
+ * Tests {@link CgroupManager} against an ordinary directory laid out like a cgroup.
+ */
+public class CgroupManagerTest {
+
+  private static final ResourceClass BACKGROUND =
+      ResourceClass.parse("background=cpu_weight=20,memory_max_mb=1,io_weight=10");
+
+  private Path root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("overseer-cgroup");
+    Files.createFile(root.resolve("cgroup.procs"));
+    write(root.resolve("cgroup.controllers"), "cpuset cpu io memory pids\n");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testNotCgroup() throws IOException {
+    Files.delete(root.resolve("cgroup.procs"));
+    assertThat(CgroupManager.create(root).isPresent()).isFalse();
+  }
+
+  @Test
+  public void testEnablesControllers() {
+    assertThat(CgroupManager.create(root).isPresent()).isTrue();
+    assertThat(Files.exists(root.resolve("cgroup.subtree_control"))).isTrue();
+  }
+
+  @Test
+  public void testStartRunConfiguresClass() throws IOException {
+    write(root.resolve("cgroup.subtree_control"), "");
+    CgroupManager manager = CgroupManager.create(root).get();
+    assertThat(read(root.resolve("cgroup.subtree_control"))).isEqualTo("+cpu +io +memory");
+
+    Path first = manager.startRun(BACKGROUND);
+    Path second = manager.startRun(BACKGROUND);
+    Path classGroup = root.resolve("background");
+    assertThat(first.getParent().equals(classGroup)).isTrue();
+    assertThat(second.getParent().equals(classGroup)).isTrue();
+    assertThat(first.equals(second)).isFalse();
+    assertThat(read(classGroup.resolve("cpu.weight"))).isEqualTo("20");
+    assertThat(read(classGroup.resolve("memory.max"))).isEqualTo("1048576");
+    assertThat(read(classGroup.resolve("io.weight"))).isEqualTo("default 10");
+    assertThat(CgroupManager.procsFile(first).equals(first.resolve("cgroup.procs"))).isTrue();
+  }
+
+  @Test
+  public void testSkipsExistingRuns() throws IOException {
+    Files.createDirectories(root.resolve("background").resolve("run-1"));
+    CgroupManager manager = CgroupManager.create(root).get();
+    assertThat(manager.startRun(BACKGROUND).getFileName().toString()).isEqualTo("run-2");
+  }
+
+  @Test
+  public void testReadUsage() throws IOException {
+    CgroupManager manager = CgroupManager.create(root).get();
+    Path run = manager.startRun(BACKGROUND);
+    Files.write(run.resolve("cpu.stat"), ImmutableList.of(
+        "usage_usec 5500000", "user_usec 4000000", "system_usec 1500000"));
+    Files.write(run.resolve("io.stat"), ImmutableList.of(
+        "8:0 rbytes=4096 wbytes=8192 rios=1 wios=2 dbytes=0 dios=0",
+        "8:16 rbytes=1024 wbytes=0 rios=1 wios=0 dbytes=0 dios=0"));
+    write(run.resolve("memory.peak"), "7340032\n");
+
+    ResourceUsage usage = manager.readUsage(run);
+    assertThat(usage.getUserCpuMillis()).isEqualTo(4000);
+    assertThat(usage.getSystemCpuMillis()).isEqualTo(1500);
+    assertThat(usage.getPeakRssBytes()).isEqualTo(7340032);
+    assertThat(usage.getReadBytes()).isEqualTo(5120);
+    assertThat(usage.getWriteBytes()).isEqualTo(8192);
+  }
+
+  @Test
+  public void testReadUsageWithoutControllers() throws IOException {
+    CgroupManager manager = CgroupManager.create(root).get();
+    Path run = manager.startRun(BACKGROUND);
+
+    ResourceUsage usage = manager.readUsage(run);
+    assertThat(usage.getUserCpuMillis()).isEqualTo(0);
+    assertThat(usage.getPeakRssBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFinishRunRemovesCgroup() throws IOException {
+    CgroupManager manager = CgroupManager.create(root).get();
+    Path run = manager.startRun(BACKGROUND);
+    manager.finishRun(run);
+    assertThat(Files.exists(run)).isFalse();
+  }
+}
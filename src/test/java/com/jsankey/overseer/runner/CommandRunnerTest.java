@@ -12,14 +12,26 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.jsankey.overseer.history.CapturedOutput;
 import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.history.CommandEvent.ChangeReport;
+import com.jsankey.overseer.runner.OutputListener.Stream;
 
 public class CommandRunnerTest {
 
@@ -70,6 +82,28 @@ public class CommandRunnerTest {
     assertThat(lastExecution.getEnd()).isEqualTo(T2);
   }
 
+  @Test
+  public void testCompletionFuture() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    CompletableFuture<CommandEvent> completion = testObject.start();
+
+    CommandEvent event = completion.get(5, TimeUnit.SECONDS);
+    assertThat(testObject.isRunning()).isFalse();
+    assertThat(testObject.getCompletion()).isSameInstanceAs(completion);
+    assertThat(event).isSameInstanceAs(testObject.getLastExecution());
+    assertThat(event.getExitCode()).isEqualTo(1);
+    assertThat(event.getEnd()).isEqualTo(T2);
+  }
+
+  @Test
+  public void testCompletionFutureOnStartFailure() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    testObject = CommandRunner.forCommand("/nonexistent/command", mockClock);
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(event.getExitCode()).isEqualTo(CommandEvent.COULD_NOT_START);
+  }
+
   @Test
   public void testTermination() throws Exception {
     when(mockClock.instant()).thenReturn(T1, T2);
@@ -78,12 +112,401 @@ public class CommandRunnerTest {
 
     TimeUnit.MILLISECONDS.sleep(250);
     assertThat(testObject.isRunning()).isTrue();
-    testObject.terminate();
-    TimeUnit.MILLISECONDS.sleep(250);
+    CommandEvent event = testObject.terminate().get(5, TimeUnit.SECONDS);
+    assertThat(testObject.getCompletion().isDone()).isTrue();
     assertThat(testObject.isRunning()).isFalse();
 
     CommandEvent lastExecution = testObject.getLastExecution();
+    assertThat(lastExecution).isSameInstanceAs(event);
     assertThat(lastExecution.getExitCode()).isEqualTo(CommandEvent.ENFORCED_TERMINATION);
     assertThat(lastExecution.getStart()).isEqualTo(T1);
+    assertThat(lastExecution.getTeardown().isPresent()).isTrue();
+  }
+
+  @Test
+  public void testTimeOut() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    testObject = CommandRunner.forCommand(INFINITE_COMMAND, mockClock);
+    testObject.start();
+
+    CommandEvent event = testObject.timeOut().get(5, TimeUnit.SECONDS);
+    assertThat(testObject.isRunning()).isFalse();
+    assertThat(event.getExitCode()).isEqualTo(CommandEvent.TIMED_OUT);
+    assertThat(event.isSuccessful()).isFalse();
+  }
+
+  /**
+   * Starts a script that runs a grandchild and records its process ID, optionally ignoring
+   * SIGTERM in both, and returns the ID once written.
+   */
+  private long startProcessTree(Path script, Path pidFile, boolean ignoreTerm) throws Exception {
+    Files.write(script, ("#!/bin/sh\n"
+        + (ignoreTerm ? "trap '' TERM\n" : "")
+        + "sleep 60 &\n"
+        + "echo $! > $1\n"
+        + "wait\n").getBytes(StandardCharsets.UTF_8));
+    script.toFile().setExecutable(true);
+    testObject = CommandRunner.builder(script + " " + pidFile, Clock.systemUTC())
+        .terminationGrace(Duration.ofMillis(300))
+        .build();
+    testObject.start();
+    for (int i = 0; i < 50 && Files.size(pidFile) == 0; i++) {
+      TimeUnit.MILLISECONDS.sleep(50);
+    }
+    return Long.parseLong(new String(Files.readAllBytes(pidFile), StandardCharsets.UTF_8).trim());
+  }
+
+  @Test
+  public void testTerminatesProcessTree() throws Exception {
+    Path script = Files.createTempFile("overseer-tree", ".sh");
+    Path pidFile = Files.createTempFile("overseer-tree", ".pid");
+    try {
+      long grandchild = startProcessTree(script, pidFile, false);
+
+      CommandEvent event = testObject.terminate().get(5, TimeUnit.SECONDS);
+      assertThat(event.getExitCode()).isEqualTo(CommandEvent.ENFORCED_TERMINATION);
+      assertThat(event.getTeardown().get()).isLessThan(Duration.ofMillis(300));
+      assertThat(ProcessHandle.of(grandchild).map(CommandRunner::isExecuting).orElse(false))
+          .isFalse();
+    } finally {
+      Files.delete(script);
+      Files.delete(pidFile);
+    }
+  }
+
+  @Test
+  public void testKillsProcessTreeAfterGrace() throws Exception {
+    Path script = Files.createTempFile("overseer-tree", ".sh");
+    Path pidFile = Files.createTempFile("overseer-tree", ".pid");
+    try {
+      long grandchild = startProcessTree(script, pidFile, true);
+
+      CommandEvent event = testObject.terminate().get(5, TimeUnit.SECONDS);
+      assertThat(event.getExitCode()).isEqualTo(CommandEvent.ENFORCED_TERMINATION);
+      assertThat(event.getTeardown().get()).isAtLeast(Duration.ofMillis(300));
+      assertThat(ProcessHandle.of(grandchild).map(CommandRunner::isExecuting).orElse(false))
+          .isFalse();
+    } finally {
+      Files.delete(script);
+      Files.delete(pidFile);
+    }
+  }
+
+  @Test
+  public void testCapturesOutputOfFailure() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    testObject =
+        CommandRunner.builder("ls -d /nonexistent /tmp", mockClock).captureBytes(1024).build();
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(event.getExitCode()).isNotEqualTo(0);
+    assertThat(event.getEnd()).isEqualTo(T2);
+    CapturedOutput output = event.getOutput().get();
+    assertThat(output.getStdoutTail()).isEqualTo("/tmp\n");
+    assertThat(output.isStdoutTruncated()).isFalse();
+    assertThat(output.getStderrTail()).contains("/nonexistent");
+    assertThat(output.isStderrTruncated()).isFalse();
+  }
+
+  @Test
+  public void testCapturedOutputIsTruncated() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    testObject =
+        CommandRunner.builder("ls -d /nonexistent /tmp", mockClock).captureBytes(3).build();
+
+    CapturedOutput output = testObject.start().get(5, TimeUnit.SECONDS).getOutput().get();
+    assertThat(output.getStdoutTail()).isEqualTo("mp\n");
+    assertThat(output.isStdoutTruncated()).isTrue();
+  }
+
+  @Test
+  public void testDoesNotAttachOutputOfSuccess() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    testObject = CommandRunner.builder("ls -d /tmp", mockClock).captureBytes(1024).build();
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(event.getExitCode()).isEqualTo(0);
+    assertThat(event.getOutput().isPresent()).isFalse();
+  }
+
+  @Test
+  public void testUnchangedExitCodeIsSuccessWithoutOutput() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    // ls exits with 2 when an argument does not exist, standing in for a report of no changes.
+    testObject = CommandRunner.builder("ls -d /nonexistent /tmp", mockClock)
+        .captureBytes(1024)
+        .unchangedExitCode(2)
+        .build();
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(event.getExitCode()).isEqualTo(2);
+    assertThat(event.getChangeReport()).isEqualTo(ChangeReport.UNCHANGED);
+    assertThat(event.isSuccessful()).isTrue();
+    assertThat(event.getOutput().isPresent()).isFalse();
+  }
+
+  @Test
+  public void testStreamsOutputToListener() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    StringBuffer stdout = new StringBuffer();
+    StringBuffer stderr = new StringBuffer();
+    OutputListener listener = (command, stream, bytes, offset, length) -> {
+      assertThat(command).isEqualTo("ls -d /nonexistent /tmp");
+      (stream == Stream.STDOUT ? stdout : stderr)
+          .append(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    };
+    testObject =
+        CommandRunner.builder("ls -d /nonexistent /tmp", mockClock).listener(listener).build();
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(stdout.toString()).isEqualTo("/tmp\n");
+    assertThat(stderr.toString()).contains("/nonexistent");
+    assertThat(event.getOutput().isPresent()).isFalse();
+  }
+
+  @Test
+  public void testLowersPriorityWithoutCgroup() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    StringBuffer stdout = new StringBuffer();
+    OutputListener listener = (command, stream, bytes, offset, length) ->
+        stdout.append(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    // With no arguments nice prints the niceness it runs with.
+    testObject = CommandRunner.builder("nice", mockClock)
+        .listener(listener)
+        .resourceClass(ResourceClass.parse("background=nice=7"))
+        .build();
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(event.getExitCode()).isEqualTo(0);
+    assertThat(stdout.toString().trim()).isEqualTo(
+        String.valueOf(Math.min(19, 7 + currentNiceness())));
+  }
+
+  /** Returns the niceness of this process, which children inherit. */
+  private static int currentNiceness() throws IOException {
+    String stat = new String(Files.readAllBytes(Paths.get("/proc/self/stat")),
+        StandardCharsets.UTF_8);
+    // Niceness is field 19, the 17th after the command name.
+    return Integer.parseInt(stat.substring(stat.lastIndexOf(')') + 2).split(" ")[16]);
+  }
+
+  @Test
+  public void testJoinsCgroup() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    Path root = Files.createTempDirectory("overseer-cgroup");
+    try {
+      Files.createFile(root.resolve("cgroup.procs"));
+      CgroupManager cgroups = CgroupManager.create(root).get();
+      StringBuffer stdout = new StringBuffer();
+      OutputListener listener = (command, stream, bytes, offset, length) ->
+          stdout.append(new String(bytes, offset, length, StandardCharsets.UTF_8));
+      testObject = CommandRunner.builder("echo hello", mockClock)
+          .listener(listener)
+          .resourceClass(ResourceClass.parse("background"))
+          .cgroups(cgroups)
+          .build();
+
+      CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+      assertThat(event.getExitCode()).isEqualTo(0);
+      assertThat(stdout.toString()).isEqualTo("hello\n");
+      // The ordinary directory cannot be removed since the joined process ID was written to it.
+      Path procs = root.resolve("background").resolve("run-1").resolve("cgroup.procs");
+      assertThat(new String(Files.readAllBytes(procs), StandardCharsets.UTF_8).trim())
+          .matches("[0-9]+");
+    } finally {
+      MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+  }
+
+  @Test
+  public void testLogsOutputToFiles() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    Path root = Files.createTempDirectory("overseer-logs");
+    try {
+      StringBuffer streamed = new StringBuffer();
+      OutputListener listener = (command, stream, bytes, offset, length) ->
+          streamed.append(new String(bytes, offset, length, StandardCharsets.UTF_8));
+      OutputLogStore logs = OutputLogStore.create(root, Duration.ofDays(1), 1024 * 1024);
+      testObject =
+          CommandRunner.builder("ls -d /nonexistent /tmp", mockClock)
+          .captureBytes(3)
+          .listener(listener)
+          .logs(logs)
+          .build();
+
+      CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+      Path run = event.getLogPath().get();
+      assertThat(run.startsWith(root)).isTrue();
+      assertThat(new String(Files.readAllBytes(run.resolve(OutputLogStore.STDOUT_FILE)),
+          StandardCharsets.UTF_8)).isEqualTo("/tmp\n");
+      assertThat(new String(Files.readAllBytes(run.resolve(OutputLogStore.STDERR_FILE)),
+          StandardCharsets.UTF_8)).contains("/nonexistent");
+      // Capture and streaming follow the log files.
+      assertThat(event.getOutput().get().getStdoutTail()).isEqualTo("mp\n");
+      assertThat(event.getOutput().get().isStdoutTruncated()).isTrue();
+      assertThat(streamed.toString()).contains("/tmp\n");
+    } finally {
+      MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+  }
+
+  @Test
+  public void testRecordsResourceUsage() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    testObject = CommandRunner.forCommand("sleep 0.5", mockClock);
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(event.getResourceUsage().get().getPeakRssBytes()).isGreaterThan(0L);
+  }
+
+  /**
+   * Creates a worker script that prints a banner and sleeps before becoming ready then answers
+   * every request with exit code 3, except that it exits without answering request 2.
+   */
+  private static Path createWorkerScript() throws IOException {
+    Path script = Files.createTempFile("overseer-worker", ".sh");
+    Files.write(script, ("#!/bin/sh\n"
+        + "echo 'Example worker starting'\n"
+        + "sleep 0.3\n"
+        + "echo '{\"ready\":true}'\n"
+        + "while read line; do\n"
+        + "  id=$(echo \"$line\" | sed 's/[^0-9]//g')\n"
+        + "  [ \"$id\" = 2 ] && exit 1\n"
+        + "  echo \"{\\\"request_id\\\":$id,\\\"exit_code\\\":3}\"\n"
+        + "done\n").getBytes(StandardCharsets.UTF_8));
+    script.toFile().setExecutable(true);
+    return script;
+  }
+
+  @Test
+  public void testPersistentWorker() throws Exception {
+    Path script = createWorkerScript();
+    testObject =
+        CommandRunner.builder(script.toString(), Clock.systemUTC()).persistentWorker().build();
+    try {
+      // The first request starts the worker so saves nothing.
+      CommandEvent first = testObject.start().get(5, TimeUnit.SECONDS);
+      assertThat(first.getExitCode()).isEqualTo(3);
+      assertThat(first.getStartupSaved().get()).isEqualTo(Duration.ZERO);
+      assertThat(testObject.isRunning()).isFalse();
+
+      // The worker crashes during the second request.
+      CommandEvent second = testObject.start().get(5, TimeUnit.SECONDS);
+      assertThat(second.getExitCode()).isEqualTo(CommandEvent.WORKER_FAILED);
+      assertThat(second.getStartupSaved().isPresent()).isFalse();
+
+      // The third request restarts the worker, and the fourth reuses it.
+      assertThat(testObject.start().get(5, TimeUnit.SECONDS).getExitCode()).isEqualTo(3);
+      CommandEvent fourth = testObject.start().get(5, TimeUnit.SECONDS);
+      assertThat(fourth.getExitCode()).isEqualTo(3);
+      assertThat(fourth.getStartupSaved().get().toMillis()).isAtLeast(300L);
+    } finally {
+      testObject.close();
+      Files.delete(script);
+    }
+  }
+
+  @Test
+  public void testStreamsWorkerErrorsToListener() throws Exception {
+    Path script = Files.createTempFile("overseer-worker", ".sh");
+    Files.write(script, ("#!/bin/sh\n"
+        + "echo '{\"ready\":true}'\n"
+        + "read line\n"
+        + "echo 'worker warning' >&2\n"
+        + "echo '{\"request_id\":1,\"exit_code\":0}'\n"
+        + "sleep 60\n").getBytes(StandardCharsets.UTF_8));
+    script.toFile().setExecutable(true);
+    StringBuffer stderr = new StringBuffer();
+    OutputListener listener = (command, stream, bytes, offset, length) -> {
+      assertThat(stream).isEqualTo(Stream.STDERR);
+      stderr.append(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    };
+    testObject = CommandRunner.builder(script.toString(), Clock.systemUTC())
+        .persistentWorker()
+        .listener(listener)
+        .build();
+    try {
+      assertThat(testObject.start().get(5, TimeUnit.SECONDS).getExitCode()).isEqualTo(0);
+      for (int i = 0; i < 50 && stderr.length() == 0; i++) {
+        TimeUnit.MILLISECONDS.sleep(50);
+      }
+      assertThat(stderr.toString()).isEqualTo("worker warning\n");
+    } finally {
+      testObject.close();
+      Files.delete(script);
+    }
+  }
+
+  @Test
+  public void testTerminatesWorkerProcessTree() throws Exception {
+    Path script = Files.createTempFile("overseer-worker", ".sh");
+    Path pidFile = Files.createTempFile("overseer-worker", ".pid");
+    Files.write(script, ("#!/bin/sh\n"
+        + "trap '' TERM\n"
+        + "echo '{\"ready\":true}'\n"
+        + "read line\n"
+        + "sleep 60 &\n"
+        + "echo $! > $1\n"
+        + "wait\n").getBytes(StandardCharsets.UTF_8));
+    script.toFile().setExecutable(true);
+    testObject = CommandRunner.builder(script + " " + pidFile, Clock.systemUTC())
+        .persistentWorker()
+        .terminationGrace(Duration.ofMillis(300))
+        .build();
+    try {
+      testObject.start();
+      for (int i = 0; i < 50 && Files.size(pidFile) == 0; i++) {
+        TimeUnit.MILLISECONDS.sleep(50);
+      }
+      long grandchild =
+          Long.parseLong(new String(Files.readAllBytes(pidFile), StandardCharsets.UTF_8).trim());
+
+      // The worker ignores the request to exit, so termination only completes once it is killed.
+      CommandEvent event = testObject.terminate().get(5, TimeUnit.SECONDS);
+      assertThat(event.getExitCode()).isEqualTo(CommandEvent.ENFORCED_TERMINATION);
+      assertThat(event.getTeardown().get()).isAtLeast(Duration.ofMillis(300));
+      assertThat(ProcessHandle.of(grandchild).map(CommandRunner::isExecuting).orElse(false))
+          .isFalse();
+    } finally {
+      testObject.close();
+      Files.delete(script);
+      Files.delete(pidFile);
+    }
+  }
+
+  @Test
+  public void testFailsWorkerThatIsNeverReady() throws Exception {
+    Path script = Files.createTempFile("overseer-worker", ".sh");
+    Files.write(script, ("#!/bin/sh\n"
+        + "echo starting\n"
+        + "sleep 60\n").getBytes(StandardCharsets.UTF_8));
+    script.toFile().setExecutable(true);
+    testObject = CommandRunner.builder(script.toString(), Clock.systemUTC())
+        .persistentWorker()
+        .workerStartupTimeout(Duration.ofMillis(300))
+        .build();
+    try {
+      CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+      assertThat(event.getExitCode()).isEqualTo(CommandEvent.WORKER_FAILED);
+      assertThat(event.getDurationMillis()).isAtLeast(300L);
+      assertThat(testObject.isRunning()).isFalse();
+    } finally {
+      testObject.close();
+      Files.delete(script);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWorkerOutputCannotBeCaptured() {
+    CommandRunner.builder("worker", mockClock).persistentWorker().captureBytes(1024).build();
+  }
+
+  @Test
+  public void testDoesNotCaptureByDefault() throws Exception {
+    when(mockClock.instant()).thenReturn(T1, T2);
+    testObject = CommandRunner.forCommand("ls -d /nonexistent", mockClock);
+
+    CommandEvent event = testObject.start().get(5, TimeUnit.SECONDS);
+    assertThat(event.getOutput().isPresent()).isFalse();
   }
 }
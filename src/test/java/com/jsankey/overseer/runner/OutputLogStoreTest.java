@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+public class OutputLogStoreTest {
+
+  private static final String COMMAND = "rsync -a /home/ backup:/home/";
+  private static final Instant NOW = Instant.parse("2016-03-01T12:00:00Z");
+  private static final Duration MAX_AGE = Duration.ofDays(7);
+  private static final long BUDGET_BYTES = 100;
+
+  private Path root;
+  private OutputLogStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("overseer-logs");
+    store = OutputLogStore.create(root, MAX_AGE, BUDGET_BYTES);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  /** Creates a finished execution whose output is the supplied size and age. */
+  private Path createRun(Instant start, int bytes) throws IOException {
+    Path run = store.startRun(COMMAND, start);
+    Path stdout = Files.write(run.resolve(OutputLogStore.STDOUT_FILE), new byte[bytes]);
+    Files.createFile(run.resolve(OutputLogStore.STDERR_FILE));
+    for (Path path : new Path[] {stdout, run.resolve(OutputLogStore.STDERR_FILE), run}) {
+      Files.setLastModifiedTime(path, FileTime.from(start));
+    }
+    store.finishRun(run);
+    return run;
+  }
+
+  @Test
+  public void testRunDirectoryLayout() throws IOException {
+    Path run = store.startRun(COMMAND, NOW);
+    assertThat(run.getParent().getParent().equals(root)).isTrue();
+    assertThat(run.getFileName().toString()).isEqualTo("20160301T120000.000Z");
+    assertThat(Files.isDirectory(run)).isTrue();
+  }
+
+  @Test
+  public void testCommandDirectoryName() {
+    String name = OutputLogStore.commandDirectoryName(COMMAND);
+    assertThat(name).startsWith("rsync_-a_home_backup_home_-");
+    assertThat(name).doesNotContain("/");
+    assertThat(OutputLogStore.commandDirectoryName("rsync -a /home/ backup:/home"))
+        .isNotEqualTo(name);
+  }
+
+  @Test
+  public void testPrunesByAge() throws IOException {
+    Path old = createRun(NOW.minus(Duration.ofDays(8)), 1);
+    Path recent = createRun(NOW.minus(Duration.ofDays(6)), 1);
+    store.prune(NOW);
+    assertThat(Files.exists(old)).isFalse();
+    assertThat(Files.exists(recent)).isTrue();
+  }
+
+  @Test
+  public void testPrunesOldestToMeetBudget() throws IOException {
+    Path first = createRun(NOW.minusSeconds(30), 40);
+    Path second = createRun(NOW.minusSeconds(20), 40);
+    Path third = createRun(NOW.minusSeconds(10), 40);
+    store.prune(NOW);
+    assertThat(Files.exists(first)).isFalse();
+    assertThat(Files.exists(second)).isTrue();
+    assertThat(Files.exists(third)).isTrue();
+  }
+
+  @Test
+  public void testNeverPrunesActiveRun() throws IOException {
+    Path active = store.startRun(COMMAND, NOW.minus(Duration.ofDays(30)));
+    Files.write(active.resolve(OutputLogStore.STDOUT_FILE), new byte[200]);
+    store.prune(NOW);
+    assertThat(Files.exists(active)).isTrue();
+  }
+
+  @Test
+  public void testRemovesEmptyCommandDirectory() throws IOException {
+    Path old = createRun(NOW.minus(Duration.ofDays(8)), 1);
+    store.prune(NOW);
+    assertThat(Files.exists(old.getParent())).isFalse();
+    assertThat(Files.exists(root)).isTrue();
+  }
+
+  @Test
+  public void testPruneIfDueIsRateLimited() throws IOException {
+    store.pruneIfDue(NOW);
+    Path old = createRun(NOW.minus(Duration.ofDays(8)), 1);
+    store.pruneIfDue(NOW.plusSeconds(1));
+    assertThat(Files.exists(old)).isTrue();
+    store.pruneIfDue(NOW.plus(OutputLogStore.PRUNE_INTERVAL));
+    assertThat(Files.exists(old)).isFalse();
+  }
+}
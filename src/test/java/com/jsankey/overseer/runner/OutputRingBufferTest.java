@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class OutputRingBufferTest {
+
+  private final OutputRingBuffer buffer = new OutputRingBuffer(8);
+
+  private void write(String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    buffer.write(bytes, 0, bytes.length);
+  }
+
+  @Test
+  public void testEmpty() {
+    assertThat(buffer.toText()).isEmpty();
+    assertThat(buffer.isTruncated()).isFalse();
+  }
+
+  @Test
+  public void testRetainsEverythingUntilFull() {
+    write("abc");
+    write("defgh");
+    assertThat(buffer.toText()).isEqualTo("abcdefgh");
+    assertThat(buffer.isTruncated()).isFalse();
+    assertThat(buffer.getBytesWritten()).isEqualTo(8);
+  }
+
+  @Test
+  public void testWrapsAround() {
+    write("abcdef");
+    write("ghijk");
+    assertThat(buffer.toText()).isEqualTo("defghijk");
+    assertThat(buffer.isTruncated()).isTrue();
+    assertThat(buffer.getBytesWritten()).isEqualTo(11);
+  }
+
+  @Test
+  public void testWriteLongerThanCapacity() {
+    write("ab");
+    write("0123456789");
+    assertThat(buffer.toText()).isEqualTo("23456789");
+  }
+
+  @Test
+  public void testWriteWithOffset() {
+    buffer.write("xxabcxx".getBytes(StandardCharsets.UTF_8), 2, 3);
+    assertThat(buffer.toText()).isEqualTo("abc");
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import com.jsankey.overseer.runner.ResourceClass.IoniceClass;
+
+public class ResourceClassTest {
+
+  @Test
+  public void testParseAllSettings() {
+    ResourceClass resourceClass = ResourceClass.parse("background=cpu_weight=20, "
+        + "memory_max_mb=512,io_weight=10,nice=10,ionice_class=best-effort,ionice_level=7");
+    assertThat(resourceClass.getName()).isEqualTo("background");
+    assertThat(resourceClass.getCpuWeight().get()).isEqualTo(20);
+    assertThat(resourceClass.getMemoryMaxBytes().get()).isEqualTo(512L * 1024 * 1024);
+    assertThat(resourceClass.getIoWeight().get()).isEqualTo(10);
+    assertThat(resourceClass.getNice().get()).isEqualTo(10);
+    assertThat(resourceClass.getIoniceClass().get()).isEqualTo(IoniceClass.BEST_EFFORT);
+    assertThat(resourceClass.getIoniceLevel().get()).isEqualTo(7);
+  }
+
+  @Test
+  public void testParseNoSettings() {
+    ResourceClass resourceClass = ResourceClass.parse("plain");
+    assertThat(resourceClass.getName()).isEqualTo("plain");
+    assertThat(resourceClass.getCpuWeight().isPresent()).isFalse();
+    assertThat(resourceClass.getIoniceClass().isPresent()).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownSetting() {
+    ResourceClass.parse("background=cpu_shares=20");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOutOfRangeWeight() {
+    ResourceClass.parse("background=io_weight=0");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLevelWithoutBestEffort() {
+    ResourceClass.parse("background=ionice_class=idle,ionice_level=3");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidName() {
+    ResourceClass.parse("../escape=nice=5");
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.runner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.jsankey.overseer.history.ResourceUsage;
+
+public class ResourceSamplerTest {
+
+  private Path procRoot;
+
+  @Before
+  public void setUp() throws IOException {
+    procRoot = Files.createTempDirectory("overseer-proc");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(procRoot, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  /** Creates fake proc files for a process with the supplied CPU ticks and sizes. */
+  private void createProcess(long pid, String name, long utime, long stime, long cutime,
+      long cstime, long rssKb, long hwmKb, long readBytes, long writeBytes) throws IOException {
+    Path directory = Files.createDirectory(procRoot.resolve(Long.toString(pid)));
+    String stat = String.format("%d (%s) S 1 %d %d 0 -1 4194560 100 0 0 0 %d %d %d %d 20 0 1 0 "
+        + "1000 1000000 200\n", pid, name, pid, pid, utime, stime, cutime, cstime);
+    Files.write(directory.resolve("stat"), stat.getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("status"), ImmutableList.of(
+        "Name:\t" + name,
+        "VmHWM:\t" + String.format("%8d kB", hwmKb),
+        "VmRSS:\t" + String.format("%8d kB", rssKb)));
+    Files.write(directory.resolve("io"), ImmutableList.of(
+        "rchar: 999999",
+        "read_bytes: " + readBytes,
+        "write_bytes: " + writeBytes,
+        "cancelled_write_bytes: 0"));
+  }
+
+  @Test
+  public void testSampleTree() throws IOException {
+    createProcess(100, "sh", 10, 5, 20, 2, 1000, 1500, 4096, 8192);
+    // Command names may contain spaces and parentheses.
+    createProcess(101, "odd (name) x", 30, 1, 0, 0, 2000, 2000, 0, 4096);
+    ResourceSampler sampler = new ResourceSampler(procRoot);
+
+    ResourceUsage usage = sampler.sampleTree(ImmutableList.of(100L, 101L, 102L));
+    assertThat(usage.getUserCpuMillis()).isEqualTo(600);
+    assertThat(usage.getSystemCpuMillis()).isEqualTo(80);
+    assertThat(usage.getPeakRssBytes()).isEqualTo(3000 * 1024);
+    assertThat(usage.getReadBytes()).isEqualTo(4096);
+    assertThat(usage.getWriteBytes()).isEqualTo(12288);
+  }
+
+  @Test
+  public void testPeakRssOfSingleProcess() throws IOException {
+    createProcess(100, "sh", 0, 0, 0, 0, 1000, 5000, 0, 0);
+    ResourceSampler sampler = new ResourceSampler(procRoot);
+
+    assertThat(sampler.sampleTree(ImmutableList.of(100L)).getPeakRssBytes())
+        .isEqualTo(5000 * 1024);
+  }
+
+  @Test
+  public void testUnsupportedWithoutProc() throws Exception {
+    ResourceSampler sampler = new ResourceSampler(procRoot);
+    Process process = new ProcessBuilder("true").start();
+    assertThat(sampler.track(process)).isNull();
+    process.waitFor();
+  }
+
+  @Test
+  public void testTracksRealProcess() throws Exception {
+    ResourceSampler sampler = new ResourceSampler(Paths.get("/proc"));
+    // Spin in a child shell so that its CPU time is only visible through the tree.
+    Process process = new ProcessBuilder("sh", "-c",
+        "sh -c 'i=0; while [ $i -lt 200000 ]; do i=$((i+1)); done'; sleep 0.5").start();
+    ResourceSampler.Tracker tracker = sampler.track(process);
+    assertThat(tracker).isNotNull();
+    process.waitFor(30, TimeUnit.SECONDS);
+
+    ResourceUsage usage = tracker.stop();
+    assertThat(usage.getUserCpuMillis() + usage.getSystemCpuMillis()).isGreaterThan(0L);
+    assertThat(usage.getPeakRssBytes()).isGreaterThan(0L);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.jsankey.overseer.history.CommandEvent;
+import com.jsankey.overseer.history.CommandEvent.ChangeReport;
+
+public class AdaptiveScheduleTest {
+
+  private static final Instant START = Instant.parse("2016-01-07T10:15:30Z");
+  private static final Duration MIN = Duration.ofSeconds(60);
+  private static final Duration MAX = Duration.ofSeconds(600);
+
+  private final AdaptiveSchedule schedule = AdaptiveSchedule.of(MIN, MAX);
+
+  private static CommandEvent event(long startSec, long durationSec, int exitCode) {
+    Instant start = START.plusSeconds(startSec);
+    return new CommandEvent(start, start.plusSeconds(durationSec), exitCode);
+  }
+
+  @Test
+  public void testFirstRunAdaptsFromMinimum() {
+    assertThat(schedule.nextRun(ImmutableList.of(event(0, 1, 0))))
+        .isEqualTo(START.plus(MIN.multipliedBy(2)));
+    assertThat(schedule.nextRun(START)).isEqualTo(START.plus(MIN));
+  }
+
+  @Test
+  public void testQuickRunsLengthenUpToMaximum() {
+    CommandEvent previous = event(0, 2, 0).withScheduledInterval(Duration.ofSeconds(400));
+    assertThat(schedule.nextRun(ImmutableList.of(previous, event(400, 2, 0))))
+        .isEqualTo(START.plusSeconds(400).plus(MAX));
+  }
+
+  @Test
+  public void testLongRunShortens() {
+    CommandEvent previous = event(0, 2, 0).withScheduledInterval(Duration.ofSeconds(240));
+    assertThat(schedule.nextRun(ImmutableList.of(previous, event(240, 10, 0))))
+        .isEqualTo(START.plusSeconds(240 + 120));
+  }
+
+  @Test
+  public void testChangeReportOverridesDuration() {
+    CommandEvent previous = event(0, 2, 0).withScheduledInterval(Duration.ofSeconds(240));
+    CommandEvent longUnchanged = event(240, 10, 3).withChangeReport(ChangeReport.UNCHANGED);
+    assertThat(schedule.nextRun(ImmutableList.of(previous, longUnchanged)))
+        .isEqualTo(START.plusSeconds(240 + 480));
+    CommandEvent quickChanged = event(240, 2, 0).withChangeReport(ChangeReport.CHANGED);
+    assertThat(schedule.nextRun(ImmutableList.of(previous, quickChanged)))
+        .isEqualTo(START.plusSeconds(240 + 120));
+  }
+
+  @Test
+  public void testFailureKeepsInterval() {
+    CommandEvent previous = event(0, 2, 0).withScheduledInterval(Duration.ofSeconds(240));
+    assertThat(schedule.nextRun(ImmutableList.of(previous, event(240, 2, 1))))
+        .isEqualTo(START.plusSeconds(240 + 240));
+  }
+
+  @Test
+  public void testResumeKeepsRecordedInterval() {
+    CommandEvent last = event(0, 2, 0).withScheduledInterval(Duration.ofSeconds(240));
+    assertThat(schedule.resumeRun(ImmutableList.of(last))).isEqualTo(START.plusSeconds(240));
+    CommandEvent beyondMax = event(0, 2, 0).withScheduledInterval(Duration.ofSeconds(6000));
+    assertThat(schedule.resumeRun(ImmutableList.of(beyondMax))).isEqualTo(START.plus(MAX));
+    assertThat(schedule.resumeRun(ImmutableList.of(event(0, 1, 0))))
+        .isEqualTo(START.plus(MIN.multipliedBy(2)));
+  }
+
+  @Test
+  public void testParse() {
+    Schedule parsed = Schedules.parse("60..600");
+    assertThat(parsed).isInstanceOf(AdaptiveSchedule.class);
+    assertThat(((AdaptiveSchedule) parsed).getMinInterval()).isEqualTo(MIN);
+    assertThat(((AdaptiveSchedule) parsed).getMaxInterval()).isEqualTo(MAX);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseInvertedRange() {
+    Schedules.parse("600..60");
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+public class CronScheduleTest {
+
+  /** Thursday 2016-01-07 10:15:30 UTC. */
+  private static final Instant THURSDAY = Instant.parse("2016-01-07T10:15:30Z");
+
+  @Test
+  public void testEveryMinute() {
+    assertThat(parse("* * * * *").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-01-07T10:16:00Z"));
+  }
+
+  @Test
+  public void testStep() {
+    assertThat(parse("*/20 * * * *").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-01-07T10:20:00Z"));
+    assertThat(parse("5/20 * * * *").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-01-07T10:25:00Z"));
+  }
+
+  @Test
+  public void testRangeAndListRollsToNextDay() {
+    assertThat(parse("0 2-4,6 * * *").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-01-08T02:00:00Z"));
+  }
+
+  @Test
+  public void testDayOfWeek() {
+    // Sunday may be given as either 0 or 7.
+    assertThat(parse("30 9 * * 0").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-01-10T09:30:00Z"));
+    assertThat(parse("30 9 * * 7").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-01-10T09:30:00Z"));
+  }
+
+  @Test
+  public void testBothDayFieldsMatchEither() {
+    // Either the 20th or any Saturday.
+    assertThat(parse("0 0 20 * 6").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-01-09T00:00:00Z"));
+  }
+
+  @Test
+  public void testLeapDay() {
+    assertThat(parse("0 12 29 2 *").nextRun(THURSDAY))
+        .isEqualTo(Instant.parse("2016-02-29T12:00:00Z"));
+  }
+
+  @Test
+  public void testInvalidExpressions() {
+    for (String expression : new String[] {
+        "* * * *", "60 * * * *", "* * 0 * *", "*/0 * * * *", "a * * * *", "0 0 31 2 *"}) {
+      try {
+        parse(expression);
+        fail("Expected failure parsing " + expression);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testIntervalSpecification() {
+    Schedule schedule = Schedules.parse("90");
+    assertThat(schedule).isInstanceOf(IntervalSchedule.class);
+    assertThat(schedule.nextRun(THURSDAY)).isEqualTo(THURSDAY.plus(Duration.ofSeconds(90)));
+    assertThat(Schedules.parse("15 * * * *")).isInstanceOf(CronSchedule.class);
+  }
+
+  private static CronSchedule parse(String expression) {
+    return CronSchedule.parse(expression, ZoneOffset.UTC);
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Manual benchmark of the scheduling overhead and lateness of a {@link TimerWheel} holding many
+ * recurring timers, compared against a {@link PriorityQueue}, followed by the cost of finding the
+ * next deadline among timers an hour or more away. This is not run as part of the unit tests; run
+ * its main method directly, optionally passing the number of timers and the number of seconds to
+ * run for.
+ */
+public class TimerWheelBenchmark {
+
+  private static final long TICK_MILLIS = 10;
+  private static final long MIN_INTERVAL_MILLIS = 100;
+  private static final long MAX_INTERVAL_MILLIS = 5000;
+  private static final long MIN_DISTANT_MILLIS = 3_600_000;
+  private static final long MAX_DISTANT_MILLIS = 7_200_000;
+  private static final int NEXT_DEADLINE_CALLS = 100_000;
+
+  /** A minimal scheduler interface over the two implementations being compared. */
+  private interface Scheduler {
+    void schedule(int item, long deadlineMillis);
+
+    long nextDeadlineMillis();
+
+    List<Integer> expire(long nowMillis);
+  }
+
+  private static class WheelScheduler implements Scheduler {
+    private final TimerWheel<Integer> wheel;
+
+    WheelScheduler(long startMillis) {
+      wheel = new TimerWheel<>(TICK_MILLIS, Instant.ofEpochMilli(startMillis));
+    }
+
+    @Override
+    public void schedule(int item, long deadlineMillis) {
+      wheel.schedule(item, Instant.ofEpochMilli(deadlineMillis));
+    }
+
+    @Override
+    public long nextDeadlineMillis() {
+      return wheel.nextDeadline().toEpochMilli();
+    }
+
+    @Override
+    public List<Integer> expire(long nowMillis) {
+      return wheel.expire(Instant.ofEpochMilli(nowMillis));
+    }
+  }
+
+  private static class QueueScheduler implements Scheduler {
+    private final long[] deadlines;
+    private final PriorityQueue<Integer> queue;
+
+    QueueScheduler(int size) {
+      deadlines = new long[size];
+      queue = new PriorityQueue<>(size, (a, b) -> Long.compare(deadlines[a], deadlines[b]));
+    }
+
+    @Override
+    public void schedule(int item, long deadlineMillis) {
+      deadlines[item] = deadlineMillis;
+      queue.add(item);
+    }
+
+    @Override
+    public long nextDeadlineMillis() {
+      return deadlines[queue.peek()];
+    }
+
+    @Override
+    public List<Integer> expire(long nowMillis) {
+      List<Integer> expired = new ArrayList<>();
+      while (!queue.isEmpty() && deadlines[queue.peek()] <= nowMillis) {
+        expired.add(queue.poll());
+      }
+      return expired;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int timers = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    // Run each once briefly to warm up the JIT before measuring.
+    run("warmup", new WheelScheduler(System.currentTimeMillis()), timers, 2, false);
+    run("warmup", new QueueScheduler(timers), timers, 2, false);
+    run("TimerWheel", new WheelScheduler(System.currentTimeMillis()), timers, seconds, true);
+    run("PriorityQueue", new QueueScheduler(timers), timers, seconds, true);
+    measureNextDeadline("warmup", new WheelScheduler(System.currentTimeMillis()), timers, false);
+    measureNextDeadline("warmup", new QueueScheduler(timers), timers, false);
+    measureNextDeadline("TimerWheel", new WheelScheduler(System.currentTimeMillis()), timers, true);
+    measureNextDeadline("PriorityQueue", new QueueScheduler(timers), timers, true);
+  }
+
+  /**
+   * Schedules each timer at a random deadline one to two hours away, where most share a slot
+   * above level zero of the wheel, then measures the time taken to find the next deadline as the
+   * scheduler does on every wakeup.
+   */
+  private static void measureNextDeadline(String name, Scheduler scheduler, int timers,
+      boolean report) {
+    Random random = new Random(42);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < timers; i++) {
+      scheduler.schedule(i, start + MIN_DISTANT_MILLIS
+          + (long) (random.nextDouble() * (MAX_DISTANT_MILLIS - MIN_DISTANT_MILLIS)));
+    }
+    long checksum = 0;
+    long before = System.nanoTime();
+    for (int i = 0; i < NEXT_DEADLINE_CALLS; i++) {
+      checksum += scheduler.nextDeadlineMillis();
+    }
+    long nanos = System.nanoTime() - before;
+    if (report) {
+      System.out.println(String.format("%-14s timers=%d ns/nextDeadline=%d (checksum %d)",
+          name, timers, nanos / NEXT_DEADLINE_CALLS, checksum % 1000));
+    }
+  }
+
+  /**
+   * Schedules each timer at a random fixed interval, then repeatedly sleeps until the next
+   * deadline, expires all due timers and reschedules them, recording how late each fired and how
+   * much CPU time was spent in the scheduler.
+   */
+  private static void run(String name, Scheduler scheduler, int timers, int seconds,
+      boolean report) throws InterruptedException {
+    Random random = new Random(42);
+    long[] intervals = new long[timers];
+    long[] deadlines = new long[timers];
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < timers; i++) {
+      intervals[i] = MIN_INTERVAL_MILLIS
+          + (long) (random.nextDouble() * (MAX_INTERVAL_MILLIS - MIN_INTERVAL_MILLIS));
+      deadlines[i] = start + intervals[i];
+      scheduler.schedule(i, deadlines[i]);
+    }
+
+    List<Long> lateness = new ArrayList<>();
+    long schedulerNanos = 0;
+    long nextDeadlineNanos = 0;
+    long wakeups = 0;
+    long operations = 0;
+    long end = start + seconds * 1000L;
+    while (System.currentTimeMillis() < end) {
+      long beforeNext = System.nanoTime();
+      long next = scheduler.nextDeadlineMillis();
+      nextDeadlineNanos += System.nanoTime() - beforeNext;
+      wakeups++;
+      long wait = next - System.currentTimeMillis();
+      if (wait > 0) {
+        Thread.sleep(wait);
+      }
+      long now = System.currentTimeMillis();
+      long before = System.nanoTime();
+      List<Integer> expired = scheduler.expire(now);
+      for (int item : expired) {
+        deadlines[item] += intervals[item];
+        scheduler.schedule(item, deadlines[item]);
+      }
+      schedulerNanos += System.nanoTime() - before;
+      operations += expired.size();
+      for (int item : expired) {
+        lateness.add(now - (deadlines[item] - intervals[item]));
+      }
+    }
+    if (report) {
+      Collections.sort(lateness);
+      System.out.println(String.format(
+          "%-14s timers=%d fired=%d ns/fire=%d ns/nextDeadline=%d lateness ms p50=%d p99=%d "
+              + "max=%d",
+          name, timers, operations, schedulerNanos / Math.max(1, operations),
+          nextDeadlineNanos / Math.max(1, wakeups),
+          percentile(lateness, 0.50), percentile(lateness, 0.99), percentile(lateness, 1.0)));
+    }
+  }
+
+  private static long percentile(List<Long> sorted, double fraction) {
+    if (sorted.isEmpty()) {
+      return 0;
+    }
+    return sorted.get((int) Math.min(sorted.size() - 1, Math.floor(fraction * sorted.size())));
+  }
+}
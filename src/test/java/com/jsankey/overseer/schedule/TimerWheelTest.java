@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.schedule;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+  private static final Instant START = Instant.parse("2016-01-07T10:15:30Z");
+  private static final long TICK_MILLIS = 10;
+
+  private final TimerWheel<String> wheel = new TimerWheel<>(TICK_MILLIS, START);
+
+  @Test
+  public void testEmpty() {
+    assertThat(wheel.isEmpty()).isTrue();
+    assertThat(wheel.nextDeadline()).isEqualTo(Instant.MAX);
+    assertThat(wheel.expire(START.plusSeconds(3600))).isEmpty();
+  }
+
+  @Test
+  public void testExpiresInDeadlineOrder() {
+    wheel.schedule("c", START.plusMillis(300));
+    wheel.schedule("a", START.plusMillis(100));
+    wheel.schedule("b", START.plusMillis(200));
+    assertThat(wheel.size()).isEqualTo(3);
+    assertThat(wheel.nextDeadline()).isEqualTo(START.plusMillis(100));
+
+    assertThat(wheel.expire(START.plusMillis(99))).isEmpty();
+    assertThat(wheel.expire(START.plusMillis(250))).containsExactly("a", "b").inOrder();
+    assertThat(wheel.contains("a")).isFalse();
+    assertThat(wheel.contains("c")).isTrue();
+    assertThat(wheel.nextDeadline()).isEqualTo(START.plusMillis(300));
+    assertThat(wheel.expire(START.plusMillis(300))).containsExactly("c");
+    assertThat(wheel.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testDeadlinesRoundUpToTick() {
+    wheel.schedule("a", START.plusMillis(101));
+    assertThat(wheel.nextDeadline()).isEqualTo(START.plusMillis(110));
+    assertThat(wheel.expire(START.plusMillis(105))).isEmpty();
+    assertThat(wheel.expire(START.plusMillis(110))).containsExactly("a");
+  }
+
+  @Test
+  public void testPastDeadlinesExpireImmediately() {
+    wheel.expire(START.plusSeconds(10));
+    wheel.schedule("a", START);
+    assertThat(wheel.nextDeadline()).isEqualTo(START.plusSeconds(10));
+    assertThat(wheel.expire(START.plusSeconds(10))).containsExactly("a");
+  }
+
+  @Test
+  public void testCascadesAcrossLevels() {
+    wheel.schedule("minute", START.plus(Duration.ofMinutes(1)));
+    wheel.schedule("hour", START.plus(Duration.ofHours(1)));
+    wheel.schedule("week", START.plus(Duration.ofDays(7)));
+    assertThat(wheel.nextDeadline()).isEqualTo(START.plus(Duration.ofMinutes(1)));
+
+    assertThat(wheel.expire(START.plus(Duration.ofMinutes(59)))).containsExactly("minute");
+    assertThat(wheel.nextDeadline()).isEqualTo(START.plus(Duration.ofHours(1)));
+    assertThat(wheel.expire(START.plus(Duration.ofHours(1)).minusMillis(1))).isEmpty();
+    assertThat(wheel.expire(START.plus(Duration.ofHours(1)))).containsExactly("hour");
+    assertThat(wheel.expire(START.plus(Duration.ofDays(7)))).containsExactly("week");
+  }
+
+  @Test
+  public void testBeyondWheelRange() {
+    Instant distant = START.plus(Duration.ofDays(3650));
+    wheel.schedule("distant", distant);
+    wheel.schedule("never", Instant.MAX);
+    assertThat(wheel.nextDeadline()).isEqualTo(distant);
+    assertThat(wheel.expire(distant.minusSeconds(1))).isEmpty();
+    assertThat(wheel.expire(distant)).containsExactly("distant");
+    assertThat(wheel.nextDeadline()).isEqualTo(Instant.MAX);
+    assertThat(wheel.contains("never")).isTrue();
+  }
+
+  @Test
+  public void testRescheduleAndCancel() {
+    wheel.schedule("a", START.plusSeconds(5));
+    wheel.schedule("b", START.plusSeconds(6));
+    wheel.schedule("a", START.plusSeconds(7));
+    assertThat(wheel.size()).isEqualTo(2);
+    assertThat(wheel.cancel("b")).isTrue();
+    assertThat(wheel.cancel("b")).isFalse();
+    assertThat(wheel.expire(START.plusSeconds(6))).isEmpty();
+    assertThat(wheel.expire(START.plusSeconds(7))).containsExactly("a");
+  }
+
+  @Test
+  public void testNextDeadlineAfterCancellingEarliest() {
+    // Deadlines an hour away share a slot above level zero.
+    Instant hour = START.plus(Duration.ofHours(1));
+    wheel.schedule("a", hour.plusSeconds(1));
+    wheel.schedule("b", hour.plusSeconds(2));
+    wheel.schedule("c", hour.plusSeconds(2));
+    assertThat(wheel.nextDeadline()).isEqualTo(hour.plusSeconds(1));
+    wheel.cancel("a");
+    assertThat(wheel.nextDeadline()).isEqualTo(hour.plusSeconds(2));
+    wheel.cancel("b");
+    assertThat(wheel.nextDeadline()).isEqualTo(hour.plusSeconds(2));
+    wheel.schedule("d", hour);
+    assertThat(wheel.nextDeadline()).isEqualTo(hour);
+    wheel.cancel("d");
+    wheel.cancel("c");
+    assertThat(wheel.nextDeadline()).isEqualTo(Instant.MAX);
+  }
+
+  @Test
+  public void testNextDeadlineMatchesEarliestWithCancellations() {
+    Random random = new Random(42);
+    TimerWheel<Integer> randomWheel = new TimerWheel<>(TICK_MILLIS, START);
+    Map<Integer, Instant> deadlines = new HashMap<>();
+    Instant now = START;
+    for (int i = 0; i < 5000; i++) {
+      int item = random.nextInt(200);
+      if (random.nextInt(3) == 0) {
+        randomWheel.cancel(item);
+        deadlines.remove(item);
+      } else {
+        // Whole ticks, so the wheel reports the deadline without rounding.
+        Instant deadline = now.plusMillis(TICK_MILLIS * (1 + random.nextInt(500_000)));
+        randomWheel.schedule(item, deadline);
+        deadlines.put(item, deadline);
+      }
+      if (random.nextInt(50) == 0) {
+        now = now.plusSeconds(random.nextInt(600));
+        for (int expired : randomWheel.expire(now)) {
+          deadlines.remove(expired);
+        }
+      }
+      Instant earliest = Instant.MAX;
+      for (Instant deadline : deadlines.values()) {
+        earliest = deadline.isBefore(earliest) ? deadline : earliest;
+      }
+      assertThat(randomWheel.nextDeadline()).isEqualTo(earliest);
+    }
+  }
+
+  @Test
+  public void testDrain() {
+    wheel.schedule("a", START.plusSeconds(5));
+    wheel.schedule("b", START.plus(Duration.ofDays(5)));
+    assertThat(wheel.drain()).containsExactly("a", "b");
+    assertThat(wheel.isEmpty()).isTrue();
+    assertThat(wheel.nextDeadline()).isEqualTo(Instant.MAX);
+    assertThat(wheel.expire(START.plus(Duration.ofDays(6)))).isEmpty();
+  }
+
+  @Test
+  public void testRandomDeadlinesNeverEarlyOrLost() {
+    Random random = new Random(42);
+    TimerWheel<Integer> randomWheel = new TimerWheel<>(TICK_MILLIS, START);
+    List<Instant> deadlines = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      Instant deadline = START.plusMillis((long) (random.nextDouble() * 86_400_000L));
+      deadlines.add(deadline);
+      randomWheel.schedule(i, deadline);
+    }
+    Instant now = START;
+    int expiredCount = 0;
+    while (!randomWheel.isEmpty()) {
+      Instant next = randomWheel.nextDeadline();
+      assertThat(next).isAtLeast(now);
+      now = next.plusMillis(random.nextInt(1000));
+      for (int item : randomWheel.expire(now)) {
+        assertThat(deadlines.get(item)).isAtMost(now);
+        expiredCount++;
+      }
+      assertThat(randomWheel.nextDeadline()).isGreaterThan(now);
+    }
+    assertThat(expiredCount).isEqualTo(2000);
+  }
+}
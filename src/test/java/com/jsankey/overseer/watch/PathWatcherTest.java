@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Jody Sankey
+ *
+ * This software may be modified and distributed under the terms of the MIT license.
+ * See the LICENSE.md file for details.
+ */
+package com.jsankey.overseer.watch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+public class PathWatcherTest {
+
+  private static final String TREE_COMMAND = "sync tree";
+  private static final String FILE_COMMAND = "reload config";
+  private static final Duration DEBOUNCE = Duration.ofMillis(200);
+  private static final Duration MAX_DELAY = Duration.ofSeconds(2);
+  /** Longer than any delay the watch service itself may add before reporting an event. */
+  private static final long EVENT_TIMEOUT_SEC = 15;
+
+  private final BlockingQueue<String> notifications = new LinkedBlockingQueue<>();
+  private Path root;
+  private Path configFile;
+  private PathWatcher watcher;
+
+  @Before
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("overseer-watch");
+    Files.createDirectory(root.resolve("tree"));
+    configFile = Files.createFile(root.resolve("config"));
+    watcher = PathWatcher.create(
+        ImmutableSetMultimap.of(TREE_COMMAND, root.resolve("tree"), FILE_COMMAND, configFile),
+        DEBOUNCE, MAX_DELAY, notifications::add);
+    watcher.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    watcher.close();
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Test
+  public void testChangeInTree() throws Exception {
+    Files.createFile(root.resolve("tree").resolve("new file"));
+    assertThat(notifications.poll(EVENT_TIMEOUT_SEC, TimeUnit.SECONDS)).isEqualTo(TREE_COMMAND);
+    assertThat(notifications.poll(DEBOUNCE.toMillis() * 3, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  public void testChangeInNewSubdirectory() throws Exception {
+    Path subdirectory = Files.createDirectory(root.resolve("tree").resolve("sub"));
+    assertThat(notifications.poll(EVENT_TIMEOUT_SEC, TimeUnit.SECONDS)).isEqualTo(TREE_COMMAND);
+    Files.createFile(subdirectory.resolve("nested file"));
+    assertThat(notifications.poll(EVENT_TIMEOUT_SEC, TimeUnit.SECONDS)).isEqualTo(TREE_COMMAND);
+  }
+
+  @Test
+  public void testWatchedFileOnly() throws Exception {
+    Files.createFile(root.resolve("unwatched sibling"));
+    Files.write(configFile, "changed".getBytes());
+    assertThat(notifications.poll(EVENT_TIMEOUT_SEC, TimeUnit.SECONDS)).isEqualTo(FILE_COMMAND);
+    assertThat(notifications.poll(DEBOUNCE.toMillis() * 3, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  public void testRepeatedChangesCoalesced() throws Exception {
+    Path file = root.resolve("tree").resolve("busy file");
+    for (int i = 0; i < 5; i++) {
+      Files.write(file, String.valueOf(i).getBytes());
+      Thread.sleep(DEBOUNCE.toMillis() / 4);
+    }
+    assertThat(notifications.poll(EVENT_TIMEOUT_SEC, TimeUnit.SECONDS)).isEqualTo(TREE_COMMAND);
+    assertThat(notifications.poll(DEBOUNCE.toMillis() * 3, TimeUnit.MILLISECONDS)).isNull();
+  }
+}